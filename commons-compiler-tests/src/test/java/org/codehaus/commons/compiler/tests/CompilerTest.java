@@ -30,9 +30,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -82,10 +84,10 @@ class CompilerTest {
     /**
      * The {@link ICompilerFactory} in effect for this test execution.
      */
-    private final ICompilerFactory                    compilerFactory;
-    private final String                              compilerFactoryId;
-    private final boolean                             isJdk;
-    @SuppressWarnings("unused") private final boolean isJanino;
+    private final ICompilerFactory compilerFactory;
+    private final String           compilerFactoryId;
+    private final boolean          isJdk;
+    private final boolean          isJanino;
 
     @Parameters(name = "CompilerFactory={0}") public static Collection<Object[]>
     compilerFactories() throws Exception { return TestUtil.getCompilerFactoriesForParameters(); }
@@ -436,6 +438,153 @@ class CompilerTest {
         Assert.assertEquals("HELLO", cl.loadClass("pkg1.A").getMethod("main").invoke(null));
     }
 
+    @Test public void
+    testParallelCompilation() throws Exception {
+
+        MapResourceFinder sourceFinder = new MapResourceFinder();
+        for (int i = 0; i < 40; i++) {
+            sourceFinder.addResource("pkg/C" + i + ".java", (
+                ""
+                + "package pkg;\n"
+                + "public class C" + i + " extends Base {\n"
+                + (i % 5 == 0 ? "" : "    C" + (i - 1) + " prev;\n") // Chains of five dependent classes.
+                + (i % 10 == 9 ? "    C" + (i - 9) + " first;\n" : "") // Every other chain is a cycle.
+                + "    class Inner { int v = " + i + "; }\n"
+                + "    public int run(int x) {\n"
+                + "        switch (Color.RED) { case RED: x++; break; default: x--; }\n"
+                + "        Runnable r = new Runnable() { public void run() {} };\n"
+                + "        return x + new Inner().v;\n"
+                + "    }\n"
+                + "}\n"
+            ));
+        }
+        sourceFinder.addResource("pkg/Base.java", (
+            ""
+            + "package pkg;\n"
+            + "public abstract class Base {\n"
+            + "    public abstract int run(int x);\n"
+            + "    public enum Color { RED, GREEN }\n"
+            + "}\n"
+        ));
+        sourceFinder.addResource("pkg2/D.java", (
+            ""
+            + "package pkg2;\n"
+            + "import pkg.*;\n"
+            + "public class D { public static int meth() { return new C17().run(2) + new pkg.C23().run(3); } }\n"
+        ));
+
+        Map<String, byte[]> expected = this.compile(sourceFinder, 1, null);
+        CompilerTest.assertMoreThan("Number of generated classes", 120, expected.size());
+
+        for (int i = 0; i < 3; i++) {
+            Map<String, byte[]> actual = this.compile(sourceFinder, 4, null);
+            Assert.assertEquals(expected.keySet(), actual.keySet());
+            for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+                Assert.assertArrayEquals(e.getKey(), (byte[]) e.getValue(), (byte[]) actual.get(e.getKey()));
+            }
+        }
+
+        Assert.assertEquals(47, new ByteArrayClassLoader(expected).loadClass("pkg2.D").getMethod("meth").invoke(null));
+
+        // The target version must apply to the sequential and to the parallel compilation alike.
+        if (this.isJanino) {
+            for (int parallelism : new int[] { 1, 4 }) {
+                for (Map.Entry<String, byte[]> e : this.compile(sourceFinder, parallelism, null, 8).entrySet()) {
+                    byte[] ba = (byte[]) e.getValue();
+                    Assert.assertEquals(e.getKey(), 52, (ba[6] & 0xff) << 8 | (ba[7] & 0xff));
+                }
+            }
+        }
+    }
+
+    @Test public void
+    testParallelCompilationErrors() throws Exception {
+
+        MapResourceFinder sourceFinder = new MapResourceFinder();
+        for (int i = 0; i < 20; i++) {
+            sourceFinder.addResource("pkg/C" + i + ".java", (
+                ""
+                + "package pkg;\n"
+                + "public class C" + i + " {\n"
+                + (i % 5 == 0 ? "" : "    C" + (i - 1) + " prev;\n")
+                + (i % 7 == 3 ? "    int x = \"error\";\n    int y = E" + i + ".y;\n" : "")
+                + "}\n"
+            ));
+        }
+
+        // With the default error handler, the first error of the first erroneous unit is reported.
+        String expected = null;
+        for (int parallelism : new int[] { 1, 4 }) {
+            try {
+                this.compile(sourceFinder, parallelism, null);
+                Assert.fail("CompileException expected");
+            } catch (CompileException ce) {
+                if (expected == null) {
+                    expected = ce.getMessage();
+                } else {
+                    Assert.assertEquals(expected, ce.getMessage());
+                }
+            }
+        }
+
+        // With an error handler that does not throw, all errors are reported, in the order of the compilation units.
+        List<String> expectedErrors = null;
+        for (int parallelism : new int[] { 1, 4 }) {
+            final List<String> errors = new ArrayList<String>();
+            try {
+                this.compile(sourceFinder, parallelism, new ErrorHandler() {
+
+                    @Override public void
+                    handleError(String message, @Nullable Location location) { errors.add(location + ": " + message); }
+                });
+                Assert.fail("CompileException expected");
+            } catch (CompileException ce) {
+                ;
+            }
+            if (expectedErrors == null) {
+                expectedErrors = errors;
+            } else {
+                Assert.assertEquals(expectedErrors, errors);
+            }
+        }
+    }
+
+    private Map<String, byte[]>
+    compile(MapResourceFinder sourceFinder, int parallelism, @Nullable ErrorHandler errorHandler)
+    throws CompileException, IOException {
+        return this.compile(sourceFinder, parallelism, errorHandler, -1);
+    }
+
+    /**
+     * @param targetVersion -1 means the compiler's default; any other value requires the JANINO compiler
+     */
+    private Map<String, byte[]>
+    compile(MapResourceFinder sourceFinder, int parallelism, @Nullable ErrorHandler errorHandler, int targetVersion)
+    throws CompileException, IOException {
+
+        final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+
+        ICompiler compiler = this.compilerFactory.newCompiler();
+        compiler.setSourceFinder(sourceFinder);
+        compiler.setClassFileFinder(ResourceFinder.EMPTY_RESOURCE_FINDER);
+        compiler.setClassFileCreator(new MapResourceCreator(classes));
+        compiler.setParallelism(parallelism);
+        compiler.setCompileErrorHandler(errorHandler);
+        if (targetVersion != -1) {
+
+            // "setTargetVersion()" is not declared by ICompiler.
+            try {
+                compiler.getClass().getMethod("setTargetVersion", int.class).invoke(compiler, targetVersion);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        compiler.compile(sourceFinder.resources().toArray(new Resource[0]));
+
+        return classes;
+    }
+
     private Map<String, byte[]>
     compile(MapResourceFinder sourceFinder) throws CompileException, IOException {
 
@@ -2079,6 +2079,11 @@ class JlsTest extends CommonsCompilerTestSuite {
 
         if (CommonsCompilerTestSuite.JVM_VERSION < 9) return;
 
+        if (this.isJaninoBeforeJava8()) {
+            this.assertScriptUncookable("Runnable r4 = java.util.HashMap::new;", "require target version 8");
+            return;
+        }
+
         // ExpressionName '::' [ TypeArguments ] Identifier  (ExpressionName = a{.b})
         this.assertScriptExecutable(
             "Runnable r = new Runnable() { @Override public void run() { } }; Runnable s = r::run;"
@@ -2097,10 +2102,38 @@ class JlsTest extends CommonsCompilerTestSuite {
         );
 
         // 'super' '::' [ TypeArguments ] Identifier
-        // TODO
+        {
+            String cb = (
+                ""
+                + "public static boolean main() { Sub s = new Sub(); return s.toString().equals(s.m().get()); }\n"
+                + "\n"
+                + "public static class Sub {\n"
+                + "    java.util.function.Supplier m() { return super::toString; }\n"
+                + "}\n"
+            );
+            if (this.isJanino) {
+                this.assertClassBodyUncookable(cb, "Superclass method reference NYI");
+            } else {
+                this.assertClassBodyMainReturnsTrue(cb);
+            }
+        }
 
         // TypeName '.' 'super' '::' [ TypeArguments ] Identifier
-        // TODO
+        {
+            String cb = (
+                ""
+                + "public static boolean main() { Sub s = new Sub(); return s.toString().equals(s.m().get()); }\n"
+                + "\n"
+                + "public static class Sub {\n"
+                + "    java.util.function.Supplier m() { return Sub.super::toString; }\n"
+                + "}\n"
+            );
+            if (this.isJanino) {
+                this.assertClassBodyUncookable(cb, "Qualified superclass method reference NYI");
+            } else {
+                this.assertClassBodyMainReturnsTrue(cb);
+            }
+        }
 
         // ClassType '::' [ TypeArguments ] 'new'
         this.assertScriptExecutable("Runnable r4 = java.util.HashMap::new;");
@@ -2701,12 +2734,117 @@ class JlsTest extends CommonsCompilerTestSuite {
         this.assertScriptReturnsTrue("Double[] a = { 1.0, 2.0 }; a[0] += 1.0; return a[0] == 2.0;");
     }
 
+    /**
+     * 15.27 Lambda Expressions
+     */
+    @Test public void
+    test_15_27__Lambda_expressions() throws Exception {
+
+        // "java.util.function" only since Java 8.
+        if (CommonsCompilerTestSuite.JVM_VERSION < 8) return;
+
+        if (this.isJaninoBeforeJava8()) {
+            this.assertScriptUncookable("Runnable r = () -> {};", "require target version 8");
+            return;
+        }
+
+        // Expression body, block body, explicitly and implicitly typed parameters.
+        this.assertScriptReturnsTrue("Runnable r = () -> {}; r.run(); return true;");
+        this.assertScriptReturnsTrue(
+            "java.util.function.IntBinaryOperator o = (int a, int b) -> a * b; return o.applyAsInt(6, 7) == 42;"
+        );
+        this.assertScriptReturnsTrue(
+            ""
+            + "java.util.function.IntUnaryOperator o = x -> { if (x < 0) return -x; return x; };\n"
+            + "return o.applyAsInt(-3) == 3;\n"
+        );
+
+        // Captured local variables and "this".
+        this.assertScriptReturnsTrue(
+            ""
+            + "final int           y  = 3;\n"
+            + "final StringBuilder sb = new StringBuilder();\n"
+            + "java.util.function.IntConsumer c = x -> sb.append(x + y);\n"
+            + "c.accept(1);\n"
+            + "c.accept(2);\n"
+            + "return sb.toString().equals(\"45\");\n"
+        );
+        this.assertClassBodyMainReturnsTrue(
+            ""
+            + "int field = 7;\n"
+            + "\n"
+            + "public static boolean main() {\n"
+            + "    return new " + IClassBodyEvaluator.DEFAULT_CLASS_NAME + "().m().getAsInt() == 8;\n"
+            + "}\n"
+            + "\n"
+            + "java.util.function.IntSupplier m() { return () -> this.field + 1; }\n"
+        );
+
+        // Nested lambda expressions. (JANINO erases type arguments, hence the casts.)
+        this.assertScriptReturnsTrue(
+            ""
+            + "import java.util.function.*;\n"
+            + "\n"
+            + "IntFunction<IntUnaryOperator> adder = a -> (IntUnaryOperator) (b -> a + b);\n"
+            + "return ((IntUnaryOperator) adder.apply(3)).applyAsInt(4) == 7;\n"
+        );
+
+        // Overload resolution.
+        this.assertClassBodyMainReturnsTrue(
+            ""
+            + "public static boolean main() { return m(x -> x + 1) == 2 && m(() -> {}) == 1; }\n"
+            + "\n"
+            + "static int m(Runnable r) { r.run(); return 1; }\n"
+            + "static int m(java.util.function.IntUnaryOperator o) { return o.applyAsInt(1); }\n"
+        );
+
+        // Lambda expressions as the operands of a conditional expression (JLS8 15.25.3).
+        this.assertScriptReturnsTrue(
+            ""
+            + "boolean b = true;\n"
+            + "java.util.function.IntSupplier s = b ? () -> 1 : () -> 2;\n"
+            + "return s.getAsInt() == 1;\n"
+        );
+        this.assertScriptReturnsTrue(
+            ""
+            + "boolean b = false;\n"
+            + "java.util.function.IntSupplier s = b ? () -> 1 : b ? () -> 2 : () -> 3;\n"
+            + "return s.getAsInt() == 3;\n"
+        );
+        this.assertClassBodyMainReturnsTrue(
+            ""
+            + "public static boolean main() { return m(Math.random() < 2 ? () -> 7 : null) == 7; }\n"
+            + "\n"
+            + "static int m(java.util.function.IntSupplier s) { return s.getAsInt(); }\n"
+        );
+
+        this.assertScriptUncookable("Object o = () -> {};");
+        this.assertScriptUncookable("boolean b = true; Object o = b ? () -> 1 : () -> 2;");
+    }
+
     @Test public void
     test_15_27_1__Lambda_parameters() throws Exception {
 
         // "java.util.Function" only since Java 10.
         if (CommonsCompilerTestSuite.JVM_VERSION < 10) return;
 
+        if (this.isJaninoBeforeJava8()) {
+            this.assertScriptUncookable(
+                "java.util.function.Function<String, Integer> f = (var s) -> s.length();",
+                "require target version 8"
+            );
+            return;
+        }
+
         this.assertScriptExecutable("java.util.function.Function<String, Integer> f = (var s) -> s.length();\n");
     }
+
+    /**
+     * @return Whether the compiler under test is JANINO and generates class files for a Java version before 8, which
+     *         does not support lambda expressions and method references
+     */
+    private boolean
+    isJaninoBeforeJava8() {
+        return this.isJanino && Integer.getInteger("org.codehaus.janino.UnitCompiler.targetVersion", 6) < 8;
+    }
 }
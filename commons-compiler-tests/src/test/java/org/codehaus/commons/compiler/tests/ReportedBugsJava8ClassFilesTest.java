@@ -0,0 +1,51 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2019 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.commons.compiler.tests;
+
+import org.codehaus.commons.compiler.ICompilerFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Runs the reported bugs tests with JANINO generating version 52 (Java 8) class files, which the JVM verifies
+ * exclusively by type checking, i.e. the "StackMapTable" attributes must be exact.
+ */
+public
+class ReportedBugsJava8ClassFilesTest extends ReportedBugsTest {
+
+    private static final String TARGET_VERSION = "org.codehaus.janino.UnitCompiler.targetVersion";
+
+    public
+    ReportedBugsJava8ClassFilesTest(ICompilerFactory compilerFactory) throws Exception {
+        super(compilerFactory);
+    }
+
+    @BeforeClass public static void
+    setUpTargetVersion() { System.setProperty(ReportedBugsJava8ClassFilesTest.TARGET_VERSION, "8"); }
+
+    @AfterClass public static void
+    tearDownTargetVersion() { System.clearProperty(ReportedBugsJava8ClassFilesTest.TARGET_VERSION); }
+}
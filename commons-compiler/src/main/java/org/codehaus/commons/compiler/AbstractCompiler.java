@@ -67,6 +67,9 @@ class AbstractCompiler implements ICompiler {
     /** Implements the JAVAC {@code -g:vars} option. */
     protected boolean debugVars;
 
+    /** Implements the {@code -j} option. */
+    protected int parallelism = 1;
+
     // Temporary, for testing:
 //    { this.debugSource = (this.debugLines = (this.debugVars = true)); }
 
@@ -124,6 +127,12 @@ class AbstractCompiler implements ICompiler {
     @Override public void
     setDebugSource(boolean value) { this.debugSource = value; }
 
+    @Override public void
+    setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism=" + parallelism);
+        this.parallelism = parallelism;
+    }
+
     @Override public void
     setSourcePath(File[] directoriesAndArchives) {
         this.setSourceFinder(new PathResourceFinder(directoriesAndArchives));
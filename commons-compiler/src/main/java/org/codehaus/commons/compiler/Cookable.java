@@ -76,7 +76,11 @@ class Cookable implements ICookable {
     @Override public final void
     cook(String s) throws CompileException { this.cook((String) null, s); }
 
-    @Override public final void
+    /**
+     * Wraps the string in a {@link StringReader}; derived classes may override this method to scan the string more
+     * efficiently.
+     */
+    @Override public void
     cook(@Nullable String fileName, String s) throws CompileException {
         try {
             this.cook(fileName, new StringReader(s));
@@ -190,6 +190,14 @@ interface ICompiler {
      */
     void setVerbose(boolean verbose);
 
+    /**
+     * Equivalent of {@code -j}: The number of threads that parse and compile the compilation units. The default is 1.
+     * Implementations that cannot compile in parallel ignore this setting.
+     *
+     * @throws IllegalArgumentException <var>parallelism</var> is less than 1
+     */
+    void setParallelism(int parallelism);
+
     /**
      * Reads a set of Java compilation units (a.k.a. "source files") from the file system, compiles them into a set of
      * "class files" and stores these in the file system. Additional source files are parsed and compiled on demand
@@ -76,7 +76,11 @@ class MultiCookable extends Cookable implements IMultiCookable {
         this.cook(fileNames, readers);
     }
 
-    @Override public final void
+    /**
+     * Wraps the strings in {@link StringReader}s; derived classes may override this method to scan the strings more
+     * efficiently.
+     */
+    @Override public void
     cook(String[] fileNames, String[] strings) throws CompileException {
 
         final int count = fileNames.length;
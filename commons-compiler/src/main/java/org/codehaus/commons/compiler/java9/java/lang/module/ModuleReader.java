@@ -40,8 +40,9 @@ class ModuleReader {
 
     private static final Class<?> CLASS = Classes.load("java.lang.module.ModuleReader");
 
-    // SUPPRESS CHECKSTYLE ConstantName:1
-    private static final Method METHOD_list = Classes.getDeclaredMethod(ModuleReader.CLASS, "list");
+    // SUPPRESS CHECKSTYLE ConstantName:2
+    private static final Method METHOD_list  = Classes.getDeclaredMethod(ModuleReader.CLASS, "list");
+    private static final Method METHOD_close = Classes.getDeclaredMethod(ModuleReader.CLASS, "close");
 
     private final /*java.lang.module.ModuleReader*/ Object delegate;
 
@@ -54,4 +55,9 @@ class ModuleReader {
     list() throws IOException {
         return new Stream<String>(Methods.<Object, IOException>invoke(ModuleReader.METHOD_list, this.delegate));
     }
+
+    public void // SUPPRESS CHECKSTYLE Javadoc
+    close() throws IOException {
+        Methods.<Void, IOException>invoke(ModuleReader.METHOD_close, this.delegate);
+    }
 }
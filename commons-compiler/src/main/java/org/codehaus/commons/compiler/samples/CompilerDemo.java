@@ -57,6 +57,7 @@ class CompilerDemo {
         boolean         debugLines            = true;
         boolean         debugVars             = false;
         boolean         rebuild               = false;
+        int             parallelism           = 1;
 
         // Process command line options.
         int i;
@@ -98,6 +99,9 @@ class CompilerDemo {
             if ("-rebuild".equals(arg)) {
                 rebuild = true;
             } else
+            if ("-j".equals(arg)) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else
             if ("-help".equals(arg)) {
                 System.out.printf(CompilerDemo.USAGE, (Object[]) null);
                 System.exit(1);
@@ -128,6 +132,7 @@ class CompilerDemo {
         compiler.setDebugSource(debugSource);
         compiler.setDebugLines(debugLines);
         compiler.setDebugVars(debugVars);
+        compiler.setParallelism(parallelism);
 
         // Compile source files.
         try {
@@ -163,6 +168,7 @@ class CompilerDemo {
         + "  -g:{source,lines,vars}    Generate only some debugging info%n"
         + "  -rebuild                  Compile all source files, even if the class files%n"
         + "                            seem up-to-date%n"
+        + "  -j <n>                    Parse and compile with <n> threads%n"
         + "  -help%n"
         + "%n"
         + "The default encoding in this environment is \"" + Charset.defaultCharset() + "\".%n"
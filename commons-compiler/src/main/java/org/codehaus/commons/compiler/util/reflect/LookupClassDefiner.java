@@ -0,0 +1,211 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2019 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.commons.compiler.util.reflect;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.codehaus.commons.nullanalysis.Nullable;
+
+/**
+ * Defines classes through a {@code java.lang.invoke.MethodHandles.Lookup}, instead of through a new {@link
+ * ClassLoader}: With {@code Lookup.defineClass()} (Java 9+), the classes are defined in the class loader of the lookup
+ * class; with {@code Lookup.defineHiddenClass()} (Java 15+), each class is a <em>hidden class</em>, which can be
+ * unloaded as soon as it is no longer referenced, independently from any other class.
+ * <p>
+ *   The lookup must have {@code PACKAGE} access, and all classes must be declared in the package of the lookup class.
+ * </p>
+ * <p>
+ *   The relevant APIs are accessed through reflection, so that this class loads (and {@link #isAvailable()} returns
+ *   {@code false}) on older JVMs.
+ * </p>
+ */
+public final
+class LookupClassDefiner {
+
+    private LookupClassDefiner() {}
+
+    @Nullable private static final Method LOOKUP_CLASS;        // Lookup.lookupClass()
+    @Nullable private static final Method DEFINE_CLASS;        // Lookup.defineClass(byte[])                      9+
+    @Nullable private static final Method DEFINE_HIDDEN_CLASS; // Lookup.defineHiddenClass(byte[], boolean, ...) 15+
+    @Nullable private static final Object NO_CLASS_OPTIONS;    // new Lookup.ClassOption[0]
+    static {
+        Method lookupClass = null, defineClass = null, defineHiddenClass = null;
+        Object noClassOptions = null;
+        try {
+            Class<?> lookupClazz = Class.forName("java.lang.invoke.MethodHandles$Lookup");
+            lookupClass = lookupClazz.getMethod("lookupClass");
+            defineClass = lookupClazz.getMethod("defineClass", byte[].class);
+
+            Class<?> classOptionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            noClassOptions    = Array.newInstance(classOptionClass, 0);
+            defineHiddenClass = lookupClazz.getMethod(
+                "defineHiddenClass",
+                byte[].class,
+                boolean.class,
+                noClassOptions.getClass()
+            );
+        } catch (Exception e) {
+            ;
+        }
+        LOOKUP_CLASS        = defineClass == null ? null : lookupClass;
+        DEFINE_CLASS        = defineClass;
+        DEFINE_HIDDEN_CLASS = defineHiddenClass;
+        NO_CLASS_OPTIONS    = noClassOptions;
+    }
+
+    /**
+     * @return Whether the running JVM supports {@code Lookup.defineClass()} (Java 9+)
+     */
+    public static boolean
+    isAvailable() { return LookupClassDefiner.DEFINE_CLASS != null; }
+
+    /**
+     * @return Whether the running JVM supports {@code Lookup.defineHiddenClass()} (Java 15+)
+     */
+    public static boolean
+    isHiddenClassesAvailable() { return LookupClassDefiner.DEFINE_HIDDEN_CLASS != null; }
+
+    /**
+     * @param lookup A {@code java.lang.invoke.MethodHandles.Lookup}
+     * @return       The result of {@code lookup.lookupClass()}
+     * @throws IllegalStateException The running JVM does not support {@code Lookup.defineClass()}
+     */
+    public static Class<?>
+    lookupClass(Object lookup) {
+        return (Class<?>) LookupClassDefiner.invoke(LookupClassDefiner.LOOKUP_CLASS, lookup);
+    }
+
+    /**
+     * Defines the <var>classes</var> through the <var>lookup</var>.
+     * <p>
+     *   Iff <var>hidden</var> is {@code true}, the JVM supports hidden classes, and there is exactly one class, then
+     *   that class is defined as a hidden class; otherwise all classes are defined in the class loader of the lookup
+     *   class, where they must not yet exist. (Hidden classes cannot refer to each other by name, so a set of classes
+     *   is never hidden.)
+     * </p>
+     *
+     * @param lookup  A {@code java.lang.invoke.MethodHandles.Lookup}
+     * @param classes {@code String className} =&gt; {@code byte[] data}
+     * @return        A {@link ClassLoader} that loads the defined classes by their names (the class loader of the
+     *                lookup class, or, for a hidden class, a thin wrapper around it)
+     * @throws IllegalStateException The running JVM does not support {@code Lookup.defineClass()}
+     */
+    public static ClassLoader
+    defineClasses(Object lookup, Map<String /*className*/, byte[] /*data*/> classes, boolean hidden) {
+
+        ClassLoader lookupClassLoader = LookupClassDefiner.lookupClass(lookup).getClassLoader();
+
+        if (hidden && classes.size() == 1 && LookupClassDefiner.DEFINE_HIDDEN_CLASS != null) {
+            Entry<String, byte[]> e = (Entry<String, byte[]>) classes.entrySet().iterator().next();
+
+            Object   hiddenLookup = LookupClassDefiner.invoke(
+                LookupClassDefiner.DEFINE_HIDDEN_CLASS,
+                lookup,
+                e.getValue(),
+                true,
+                LookupClassDefiner.NO_CLASS_OPTIONS
+            );
+            Class<?> hiddenClass  = LookupClassDefiner.lookupClass(hiddenLookup);
+
+            // Hidden classes are not registered with any class loader, so provide one that finds it by its
+            // original name.
+            final Map<String, Class<?>> hiddenClasses = new HashMap<String, Class<?>>();
+            hiddenClasses.put(e.getKey(), hiddenClass);
+            return new ClassLoader(lookupClassLoader) {
+
+                @Override protected Class<?>
+                findClass(@Nullable String name) throws ClassNotFoundException {
+                    Class<?> result = (Class<?>) hiddenClasses.get(name);
+                    if (result == null) throw new ClassNotFoundException(name);
+                    return result;
+                }
+            };
+        }
+
+        // "Lookup.defineClass()" links the new class eagerly, and thus fails if the class refers to another generated
+        // class that is not yet defined. Iff the superclass or an interface is missing, then the class is not
+        // defined, and must be retried later; otherwise it is defined, and will be linked again on first use.
+        Map<String, byte[]> pending = new HashMap<String, byte[]>(classes);
+        while (!pending.isEmpty()) {
+            int                  before    = pending.size();
+            NoClassDefFoundError lastError = null;
+            for (Iterator<Entry<String, byte[]>> it = pending.entrySet().iterator(); it.hasNext();) {
+                Entry<String, byte[]> e = (Entry<String, byte[]>) it.next();
+                try {
+                    LookupClassDefiner.invoke(LookupClassDefiner.DEFINE_CLASS, lookup, e.getValue());
+                    it.remove();
+                } catch (NoClassDefFoundError ncdfe) {
+                    if (LookupClassDefiner.isDefined((String) e.getKey(), lookupClassLoader)) {
+                        it.remove();
+                    } else {
+                        lastError = ncdfe;
+                    }
+                }
+            }
+            if (pending.size() == before) {
+                assert lastError != null;
+                throw lastError;
+            }
+        }
+
+        return lookupClassLoader;
+    }
+
+    private static boolean
+    isDefined(String className, @Nullable ClassLoader classLoader) {
+        try {
+            Class.forName(className, false, classLoader);
+            return true;
+        } catch (ClassNotFoundException cnfe) {
+            return false;
+        }
+    }
+
+    @Nullable private static Object
+    invoke(@Nullable Method method, Object target, Object... args) {
+
+        if (method == null) {
+            throw new IllegalStateException("MethodHandles.Lookup.defineClass() requires Java 9 or later");
+        }
+
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ite) {
+            Throwable te = ite.getTargetException();
+            if (te instanceof RuntimeException) throw (RuntimeException) te;
+            if (te instanceof Error) throw (Error) te;
+            throw new IllegalStateException(te);
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException(iae);
+        }
+    }
+}
@@ -53,6 +53,12 @@ class DirectoryResourceFinder extends FileResourceFinder {
 
     @Override public final String toString() { return "dir:" + this.directory; }
 
+    /**
+     * Discards the cached directory listings.
+     */
+    @Override public void
+    refresh() { this.subdirectoryNameToFiles.clear(); }
+
     // Implement FileResourceFinder.
     @Override @Nullable protected final File
     findResourceAsFile(String resourceName) {
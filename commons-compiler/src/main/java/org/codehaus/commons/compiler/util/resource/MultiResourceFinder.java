@@ -27,13 +27,25 @@ package org.codehaus.commons.compiler.util.resource;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codehaus.commons.nullanalysis.Nullable;
 
 /**
  * A {@link org.codehaus.commons.compiler.util.resource.ResourceFinder} that finds its resources through a collection of
  * other {@link org.codehaus.commons.compiler.util.resource.ResourceFinder}s.
+ * <p>
+ *   On the first lookup, an index is built that maps each "directory" (see {@link #getDirectoryNames()}) to the
+ *   delegates that hold resources in that directory, so that each lookup consults only these (plus the delegates
+ *   that cannot tell their directories, e.g. {@link DirectoryResourceFinder}s), instead of all delegates.
+ *   {@link #refresh()} discards the index.
+ * </p>
  */
 public
 class MultiResourceFinder extends ListableResourceFinder {
@@ -41,7 +53,8 @@ class MultiResourceFinder extends ListableResourceFinder {
     private final Iterable<? extends ResourceFinder> resourceFinders; // One for each entry
 
     /**
-     * @param resourceFinders The entries of the "path"
+     * @param resourceFinders The entries of the "path"; later changes of the collection take effect only after {@link
+     *                        #refresh()}
      */
     public
     MultiResourceFinder(Iterable<? extends ResourceFinder> resourceFinders) {
@@ -58,14 +71,107 @@ class MultiResourceFinder extends ListableResourceFinder {
 
     @Override @Nullable public final Resource
     findResource(String resourceName) {
-        for (ResourceFinder rf : this.resourceFinders) {
+        for (ResourceFinder rf : this.getIndex().get(ResourceFinder.getDirectoryName(resourceName))) {
             Resource resource = rf.findResource(resourceName);
-//System.err.println("*** " + resourceName + " in " + rf + "? => " + url);
             if (resource != null) return resource;
         }
         return null;
     }
 
+    /**
+     * @return The union of the directory names of all delegates, or {@code null} iff any delegate does not know its
+     *         directory names
+     */
+    @Override @Nullable public Set<String>
+    getDirectoryNames() { return this.getIndex().directoryNames; }
+
+    /**
+     * Refreshes all delegates, and discards the index.
+     */
+    @Override public void
+    refresh() {
+        for (ResourceFinder rf : this.resourceFinders) rf.refresh();
+        this.index = null;
+    }
+
+    private Index
+    getIndex() {
+        Index result = this.index;
+        if (result == null) this.index = (result = new Index(this.resourceFinders));
+        return result;
+    }
+    @Nullable private volatile Index index;
+
+    /**
+     * Maps directory names to the delegates that possibly hold resources in that directory.
+     */
+    private static final
+    class Index {
+
+        private final ResourceFinder[]    resourceFinders;
+        private final Map<String, BitSet> directoryToFinders = new HashMap<String, BitSet>();
+        private final BitSet              unindexedFinders   = new BitSet();
+
+        private final Map<String /*directoryName*/, ResourceFinder[]>
+        cache = new ConcurrentHashMap<String, ResourceFinder[]>();
+
+        /**
+         * {@code null} iff there are unindexed finders.
+         */
+        @Nullable final Set<String> directoryNames;
+
+        Index(Iterable<? extends ResourceFinder> resourceFinders) {
+
+            List<ResourceFinder> rfs = new ArrayList<ResourceFinder>();
+            for (ResourceFinder rf : resourceFinders) rfs.add(rf);
+            this.resourceFinders = (ResourceFinder[]) rfs.toArray(new ResourceFinder[rfs.size()]);
+
+            for (int i = 0; i < this.resourceFinders.length; i++) {
+                Set<String> dns = this.resourceFinders[i].getDirectoryNames();
+                if (dns == null) {
+                    this.unindexedFinders.set(i);
+                    continue;
+                }
+                for (String dn : dns) {
+                    BitSet bs = (BitSet) this.directoryToFinders.get(dn);
+                    if (bs == null) this.directoryToFinders.put(dn, (bs = new BitSet()));
+                    bs.set(i);
+                }
+            }
+
+            this.directoryNames = (
+                this.unindexedFinders.isEmpty()
+                ? Collections.unmodifiableSet(this.directoryToFinders.keySet())
+                : null
+            );
+        }
+
+        /**
+         * @return The delegates that possibly hold resources in the given directory, in their original order
+         */
+        ResourceFinder[]
+        get(String directoryName) {
+
+            ResourceFinder[] result = (ResourceFinder[]) this.cache.get(directoryName);
+            if (result != null) return result;
+
+            BitSet bs = new BitSet();
+            bs.or(this.unindexedFinders);
+            {
+                BitSet bs2 = (BitSet) this.directoryToFinders.get(directoryName);
+                if (bs2 != null) bs.or(bs2);
+            }
+
+            result = new ResourceFinder[bs.cardinality()];
+            for (int i = bs.nextSetBit(0), j = 0; i >= 0; i = bs.nextSetBit(i + 1)) {
+                result[j++] = this.resourceFinders[i];
+            }
+
+            this.cache.put(directoryName, result);
+            return result;
+        }
+    }
+
     @Override @Nullable public Iterable<Resource>
     list(String resourceNamePrefix, boolean recurse) {
         List<Resource> result = new ArrayList<Resource>();
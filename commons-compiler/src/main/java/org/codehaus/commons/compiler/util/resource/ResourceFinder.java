@@ -28,6 +28,7 @@ package org.codehaus.commons.compiler.util.resource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.Set;
 
 import org.codehaus.commons.nullanalysis.Nullable;
 
@@ -70,6 +71,42 @@ class ResourceFinder {
     @Nullable public abstract Resource
     findResource(String resourceName);
 
+    /**
+     * Returns the names of all "directories" that contain at least one resource of this finder, i.e. the resource
+     * names up to (and excluding) the last slash, like "{@code com/foo/pkg}", and the empty string for resources
+     * without a slash. {@link MultiResourceFinder} uses this information to consult only the finders that possibly
+     * hold a requested resource.
+     * <p>
+     *   This default implementation returns {@code null}, which means that the directory names are unknown, or
+     *   expensive to determine, or may change over time.
+     * </p>
+     *
+     * @return {@code null} iff the directory names are unknown
+     */
+    @Nullable public Set<String>
+    getDirectoryNames() { return null; }
+
+    /**
+     * Discards any information that this finder caches about the existence of resources, so that resources that were
+     * created or deleted in the meantime are found resp. no longer found.
+     * <p>
+     *   This default implementation does nothing.
+     * </p>
+     */
+    public void
+    refresh() {}
+
+    /**
+     * @return The name of the "directory" that contains the <var>resourceName</var>, e.g. "{@code com/foo/pkg}" for
+     *         "{@code com/foo/pkg/Bar.class}", or the empty string
+     * @see    #getDirectoryNames()
+     */
+    public static String
+    getDirectoryName(String resourceName) {
+        int idx = resourceName.lastIndexOf('/');
+        return idx == -1 ? "" : resourceName.substring(0, idx);
+    }
+
     /**
      * This one's useful when a resource finder is required, but cannot be created for some reason.
      */
@@ -81,6 +118,9 @@ class ResourceFinder {
         @Override @Nullable public Iterable<Resource>
         list(String resourceNamePrefix, boolean recurse) { return Collections.emptyList(); }
 
+        @Override public Set<String>
+        getDirectoryNames() { return Collections.emptySet(); }
+
         @Override public String
         toString() { return "EMPTY_RESOURCE_FINDER"; }
     };
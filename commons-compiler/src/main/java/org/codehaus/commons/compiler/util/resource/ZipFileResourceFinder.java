@@ -28,6 +28,10 @@ package org.codehaus.commons.compiler.util.resource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -47,6 +51,21 @@ class ZipFileResourceFinder extends ResourceFinder {
 
     @Override public final String toString() { return "zip:" + this.zipFile.getName(); }
 
+    @Override public Set<String>
+    getDirectoryNames() {
+
+        if (this.directoryNames != null) return this.directoryNames;
+
+        Set<String> result = new HashSet<String>();
+        for (Enumeration<? extends ZipEntry> en = this.zipFile.entries(); en.hasMoreElements();) {
+            ZipEntry ze = (ZipEntry) en.nextElement();
+            if (!ze.isDirectory()) result.add(ResourceFinder.getDirectoryName(ze.getName()));
+        }
+
+        return (this.directoryNames = Collections.unmodifiableSet(result));
+    }
+    @Nullable private volatile Set<String> directoryNames;
+
     // Implement ResourceFinder.
 
     @Override @Nullable public final Resource
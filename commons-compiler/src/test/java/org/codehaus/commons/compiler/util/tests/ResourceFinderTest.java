@@ -26,16 +26,27 @@
 package org.codehaus.commons.compiler.util.tests;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.codehaus.commons.compiler.lang.ClassLoaders;
+import org.codehaus.commons.compiler.util.resource.DirectoryResourceFinder;
 import org.codehaus.commons.compiler.util.resource.LocatableResource;
+import org.codehaus.commons.compiler.util.resource.MultiResourceFinder;
 import org.codehaus.commons.compiler.util.resource.Resource;
+import org.codehaus.commons.compiler.util.resource.ResourceFinder;
 import org.codehaus.commons.compiler.util.resource.ResourceFinders;
 import org.codehaus.commons.compiler.util.resource.ZipFileResourceFinder;
+import org.codehaus.commons.nullanalysis.Nullable;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -80,6 +91,76 @@ class ResourceFinderTest {
 
     }
 
+    @SuppressWarnings("static-method") @Test public void
+    testMultiResourceFinderIndex() throws Exception {
+
+        File dir = File.createTempFile("ResourceFinderTest", "");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        try {
+            File jar = new File(dir, "ab.jar");
+            {
+                ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar));
+                try {
+                    zos.putNextEntry(new ZipEntry("a/A.class"));
+                    zos.putNextEntry(new ZipEntry("b/B.class"));
+                    zos.putNextEntry(new ZipEntry("top.txt"));
+                } finally {
+                    zos.close();
+                }
+            }
+            File classes = new File(dir, "classes");
+            Assert.assertTrue(new File(classes, "c").mkdirs());
+
+            final int[]    xLookups = new int[1];
+            ResourceFinder xFinder  = new ResourceFinder() {
+
+                @Override @Nullable public Resource
+                findResource(String resourceName) { xLookups[0]++; return null; }
+
+                @Override public Set<String>
+                getDirectoryNames() { return Collections.singleton("x"); }
+            };
+
+            ZipFile        zf  = new ZipFile(jar);
+            ResourceFinder mrf = new MultiResourceFinder(
+                xFinder,
+                new ZipFileResourceFinder(zf),
+                new DirectoryResourceFinder(classes)
+            );
+            try {
+                Assert.assertNotNull(mrf.findResource("a/A.class"));
+                Assert.assertNotNull(mrf.findResource("b/B.class"));
+                Assert.assertNotNull(mrf.findResource("top.txt"));
+                Assert.assertNull(mrf.findResource("a/B.class"));
+                Assert.assertNull(mrf.findResource("c/C.class"));
+                Assert.assertNull(mrf.findResource("x/X.class"));
+                Assert.assertEquals(1, xLookups[0]);
+
+                // The directory finder does not notice new files until it is refreshed.
+                Assert.assertTrue(new File(classes, "c/C.class").createNewFile());
+                Assert.assertNull(mrf.findResource("c/C.class"));
+                mrf.refresh();
+                Assert.assertNotNull(mrf.findResource("c/C.class"));
+
+                // Unindexed finders make the directory names of the MultiResourceFinder unknown.
+                Assert.assertNull(mrf.getDirectoryNames());
+                Assert.assertEquals(
+                    new HashSet<String>(Arrays.asList("a", "b", "", "x")),
+                    new MultiResourceFinder(xFinder, new ZipFileResourceFinder(zf)).getDirectoryNames()
+                );
+            } finally {
+                zf.close();
+            }
+        } finally {
+            new File(dir, "classes/c/C.class").delete();
+            new File(dir, "classes/c").delete();
+            new File(dir, "classes").delete();
+            new File(dir, "ab.jar").delete();
+            dir.delete();
+        }
+    }
+
     private static void
     assertMatches(String regex, String actual) {
         Assert.assertTrue("\"" + actual + "\" does not match regex \"" + regex + "\"", Pattern.matches(regex, actual));
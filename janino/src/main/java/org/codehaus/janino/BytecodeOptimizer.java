@@ -0,0 +1,988 @@
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ * Copyright (c) 2015-2016 TIBCO Software Inc. All rights reserved. // CHECKSTYLE:OFF CHECKSTYLE:ON
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.codehaus.commons.nullanalysis.Nullable;
+
+/**
+ * A peephole optimizer for the final byte code of a method; see {@link JaninoOption#PEEPHOLE_OPTIMIZATION}.
+ * <p>
+ *   The following transformations are applied repeatedly, until none of them changes the code any more:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Jump threading: A branch to a {@code GOTO} is redirected to the target of that {@code GOTO}, and a {@code GOTO}
+ *     to a {@code RETURN} instruction is replaced with a copy of that instruction.
+ *   </li>
+ *   <li>
+ *     A {@code GOTO} to the following instruction is removed, a conditional branch to the following instruction is
+ *     replaced with {@code POP} resp. {@code POP2}, and "{@code IFxx L1; GOTO L2; L1:}" is replaced with "{@code
+ *     IFnotxx L2; L1:}".
+ *   </li>
+ *   <li>
+ *     Dead code elimination: Instructions that are not reachable from the start of the method or from a reachable
+ *     exception handler are removed.
+ *   </li>
+ *   <li>
+ *     Constant and local variable loads, {@code DUP} and {@code DUP2} immediately followed by {@code POP} resp.
+ *     {@code POP2} are removed, and so are "{@code xSTORE n; xLOAD n}" pairs where the local variable is not used
+ *     afterwards.
+ *   </li>
+ *   <li>
+ *     {@code TABLESWITCH} and {@code LOOKUPSWITCH} cases that branch to the default target are removed, and the
+ *     cheaper one of the two instructions is chosen for the remaining cases.
+ *   </li>
+ * </ul>
+ * <p>
+ *   Instructions are never moved, and each instruction keeps its original offset as its identity; thus the exception
+ *   table ranges remain valid, and all other offsets (line numbers, local variable ranges) can be mapped with {@link
+ *   #getOffsetMap()}. The "StackMapTable" frames must be computed afresh for the optimized code (see {@link
+ *   StackMapComputer}).
+ * </p>
+ */
+final
+class BytecodeOptimizer {
+
+    /**
+     * Stop after this many rounds, even if the last round still changed the code.
+     */
+    private static final int MAX_ROUNDS = 20;
+
+    private static final int PLAIN = 0, BRANCH = 1, SWITCH = 2;
+
+    private static final
+    class Instruction {
+
+        /**
+         * The offset of this instruction in the original code; also identifies it.
+         */
+        final int pc;
+
+        /**
+         * The position of this instruction in {@link BytecodeOptimizer#instructions}.
+         */
+        final int index;
+
+        /**
+         * {@link BytecodeOptimizer#PLAIN}, {@link BytecodeOptimizer#BRANCH} or {@link BytecodeOptimizer#SWITCH}.
+         */
+        int kind;
+
+        /**
+         * For branches and switches: {@link Opcode#GOTO}, {@code Opcode.IF*}, {@link Opcode#TABLESWITCH} or {@link
+         * Opcode#LOOKUPSWITCH}. (Wide branches are represented through {@link #wide}.)
+         */
+        int opcode;
+
+        /**
+         * For plain instructions: The complete instruction, including its operands.
+         */
+        byte[] bytes;
+
+        /**
+         * For branches: The branch target; for switches: The default target, followed by the case targets; as
+         * original offsets.
+         */
+        int[] targets;
+
+        /**
+         * For switches: The case keys, in ascending order.
+         */
+        int[] keys;
+
+        boolean removed, wide;
+        int     newPc;
+
+        Instruction(int pc, int index) {
+            this.pc    = pc;
+            this.index = index;
+        }
+    }
+
+    private final byte[]        code;
+    private final int           codeLength;
+    private final List<int[]>   exceptionTable;
+    private final boolean       eliminateStores;
+    private final Instruction[] instructions;
+
+    /**
+     * The instruction that starts at each original offset, or {@code null}.
+     */
+    private final Instruction[] instructionAt;
+
+    private byte[] newCode;
+    private int    newCodeLength;
+    private int[]  offsetMap;
+
+    /**
+     * @param exceptionTable  Each entry is {@code { start_pc, end_pc, handler_pc, catch_type }}
+     * @param eliminateStores Whether local variables may be optimized away; {@code false} preserves the values of
+     *                        all local variables for debuggers
+     */
+    BytecodeOptimizer(byte[] code, int codeLength, List<int[]> exceptionTable, boolean eliminateStores) {
+        this.code            = code;
+        this.codeLength      = codeLength;
+        this.exceptionTable  = exceptionTable;
+        this.eliminateStores = eliminateStores;
+        this.instructionAt   = new Instruction[codeLength];
+
+        List<Instruction> instructions = new ArrayList<Instruction>();
+        for (int pc = 0; pc < codeLength;) {
+            int opcode = 0xff & code[pc];
+
+            @SuppressWarnings("deprecation") final int opcodeJsr = Opcode.JSR, opcodeRet = Opcode.RET;
+            if (opcode == opcodeJsr || opcode == Opcode.JSR_W || opcode == opcodeRet) {
+
+                // Subroutines are not supported; leave the code as it is.
+                instructions.clear();
+                break;
+            }
+
+            Instruction insn = new Instruction(pc, instructions.size());
+            int         length = StackMapComputer.instructionLength(code, pc);
+            this.decode(insn, opcode, length);
+
+            instructions.add(insn);
+            this.instructionAt[pc] = insn;
+            pc += length;
+        }
+        this.instructions = (Instruction[]) instructions.toArray(new Instruction[instructions.size()]);
+    }
+
+    /**
+     * Optimizes the code.
+     *
+     * @return Whether the code was changed; iff {@code true}, the results are available through {@link #getCode()},
+     *         {@link #getCodeLength()}, {@link #getExceptionTable()} and {@link #getOffsetMap()}
+     */
+    boolean
+    optimize() {
+
+        if (this.instructions.length == 0) return false;
+
+        boolean changed = false;
+        for (int round = 0; round < BytecodeOptimizer.MAX_ROUNDS; round++) {
+
+            // Notice: "|" instead of "||", so that each transformation is applied in each round.
+            if (!(
+                this.removeUnreachableCode()
+                | this.threadJumps()
+                | this.simplifyBranches()
+                | this.compactSwitches()
+                | this.removeRedundantInstructions()
+            )) break;
+            changed = true;
+        }
+        if (!changed) return false;
+
+        // A wide branch can take up to eight bytes instead of three; in the rare case that the code grows beyond the
+        // limit, leave it as it is.
+        return this.encode();
+    }
+
+    /**
+     * @return The optimized code; may be longer than {@link #getCodeLength()}
+     */
+    byte[]
+    getCode() {
+        assert this.newCode != null;
+        return this.newCode;
+    }
+
+    int
+    getCodeLength() { return this.newCodeLength; }
+
+    /**
+     * @return The optimized exception table; each entry is {@code { start_pc, end_pc, handler_pc, catch_type }}
+     */
+    List<int[]>
+    getExceptionTable() {
+        List<int[]> result = new ArrayList<int[]>();
+        for (int[] ete : this.exceptionTable) {
+            int startPc = this.offsetMap[ete[0]], endPc = this.offsetMap[ete[1]];
+            if (startPc < endPc) result.add(new int[] { startPc, endPc, this.offsetMap[ete[2]], ete[3] });
+        }
+        return result;
+    }
+
+    /**
+     * @return For each original offset, including the offset of the end of the code, the optimized offset; an offset
+     *         within a removed instruction maps to the next instruction that was not removed
+     */
+    int[]
+    getOffsetMap() {
+        assert this.offsetMap != null;
+        return this.offsetMap;
+    }
+
+    private void
+    decode(Instruction insn, int opcode, int length) {
+        int pc = insn.pc;
+
+        switch (opcode) {
+
+        case Opcode.IFEQ: case Opcode.IFNE: case Opcode.IFLT: case Opcode.IFGE: case Opcode.IFGT: case Opcode.IFLE:
+        case Opcode.IF_ICMPEQ: case Opcode.IF_ICMPNE: case Opcode.IF_ICMPLT:
+        case Opcode.IF_ICMPGE: case Opcode.IF_ICMPGT: case Opcode.IF_ICMPLE:
+        case Opcode.IF_ACMPEQ: case Opcode.IF_ACMPNE: case Opcode.IFNULL: case Opcode.IFNONNULL:
+        case Opcode.GOTO:
+            insn.kind    = BytecodeOptimizer.BRANCH;
+            insn.opcode  = opcode;
+            insn.targets = new int[] { pc + (short) StackMapComputer.u2(this.code, pc + 1) };
+            break;
+
+        case Opcode.GOTO_W:
+            insn.kind    = BytecodeOptimizer.BRANCH;
+            insn.opcode  = Opcode.GOTO;
+            insn.targets = new int[] { pc + StackMapComputer.s4(this.code, pc + 1) };
+            insn.wide    = true;
+            break;
+
+        case Opcode.TABLESWITCH:
+            {
+                int p    = (pc + 4) & ~3;
+                int low  = StackMapComputer.s4(this.code, p + 4);
+                int high = StackMapComputer.s4(this.code, p + 8);
+
+                insn.kind       = BytecodeOptimizer.SWITCH;
+                insn.opcode     = opcode;
+                insn.keys       = new int[high - low + 1];
+                insn.targets    = new int[high - low + 2];
+                insn.targets[0] = pc + StackMapComputer.s4(this.code, p);
+                for (int i = 0; i < insn.keys.length; i++) {
+                    insn.keys[i]        = low + i;
+                    insn.targets[i + 1] = pc + StackMapComputer.s4(this.code, p + 12 + 4 * i);
+                }
+            }
+            break;
+
+        case Opcode.LOOKUPSWITCH:
+            {
+                int p      = (pc + 4) & ~3;
+                int npairs = StackMapComputer.s4(this.code, p + 4);
+
+                insn.kind       = BytecodeOptimizer.SWITCH;
+                insn.opcode     = opcode;
+                insn.keys       = new int[npairs];
+                insn.targets    = new int[npairs + 1];
+                insn.targets[0] = pc + StackMapComputer.s4(this.code, p);
+                for (int i = 0; i < npairs; i++) {
+                    insn.keys[i]        = StackMapComputer.s4(this.code, p + 8 + 8 * i);
+                    insn.targets[i + 1] = pc + StackMapComputer.s4(this.code, p + 12 + 8 * i);
+                }
+            }
+            break;
+
+        default:
+            insn.kind  = BytecodeOptimizer.PLAIN;
+            insn.bytes = Arrays.copyOfRange(this.code, pc, pc + length);
+            break;
+        }
+    }
+
+    /**
+     * @return The first instruction that was not removed at or after the given original offset, or {@code null} if
+     *         there is none
+     */
+    @Nullable private Instruction
+    resolve(int pc) {
+        if (pc == this.codeLength) return null;
+
+        Instruction insn = this.instructionAt[pc];
+        assert insn != null : pc;
+
+        return this.nextOrSame(insn.index);
+    }
+
+    /**
+     * @return The original offset of {@link #resolve(int)}, or the original code length
+     */
+    private int
+    resolvePc(int pc) {
+        Instruction insn = this.resolve(pc);
+        return insn == null ? this.codeLength : insn.pc;
+    }
+
+    /**
+     * @return The first instruction that was not removed, beginning with the instruction at the given index, or {@code
+     *         null}
+     */
+    @Nullable private Instruction
+    nextOrSame(int index) {
+        for (int i = index; i < this.instructions.length; i++) {
+            if (!this.instructions[i].removed) return this.instructions[i];
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether control can pass from <var>insn</var> to the following instruction
+     */
+    private static boolean
+    fallsThrough(Instruction insn) {
+        switch (insn.kind) {
+
+        case BytecodeOptimizer.BRANCH:
+            return insn.opcode != Opcode.GOTO;
+
+        case BytecodeOptimizer.SWITCH:
+            return false;
+
+        default:
+            return !BytecodeOptimizer.isReturnOrThrow(0xff & insn.bytes[0]);
+        }
+    }
+
+    private static boolean
+    isReturn(int opcode) { return opcode >= Opcode.IRETURN && opcode <= Opcode.RETURN; }
+
+    private static boolean
+    isReturnOrThrow(int opcode) { return BytecodeOptimizer.isReturn(opcode) || opcode == Opcode.ATHROW; }
+
+    /**
+     * Removes the instructions that are not reachable from the start of the method, nor from an exception handler
+     * that protects a reachable instruction.
+     */
+    private boolean
+    removeUnreachableCode() {
+
+        boolean[] reachable = new boolean[this.instructions.length];
+        int[]     worklist  = new int[this.instructions.length];
+        int       n         = 0;
+
+        Instruction first = this.nextOrSame(0);
+        if (first == null) return false;
+        reachable[first.index] = true;
+        worklist[n++]          = first.index;
+
+        for (;;) {
+            while (n > 0) {
+                Instruction insn = this.instructions[worklist[--n]];
+
+                if (BytecodeOptimizer.fallsThrough(insn)) {
+                    Instruction next = this.nextOrSame(insn.index + 1);
+                    if (next != null && !reachable[next.index]) {
+                        reachable[next.index] = true;
+                        worklist[n++]         = next.index;
+                    }
+                }
+                if (insn.targets != null) {
+                    for (int target : insn.targets) {
+                        Instruction t = this.resolve(target);
+                        if (t != null && !reachable[t.index]) {
+                            reachable[t.index] = true;
+                            worklist[n++]      = t.index;
+                        }
+                    }
+                }
+            }
+
+            // An exception handler is reachable iff any reachable instruction lies in its range.
+            for (int[] ete : this.exceptionTable) {
+                Instruction handler = this.resolve(ete[2]);
+                if (handler == null || reachable[handler.index]) continue;
+
+                for (int pc = ete[0]; pc < ete[1]; pc++) {
+                    Instruction insn = this.instructionAt[pc];
+                    if (insn != null && reachable[insn.index]) {
+                        reachable[handler.index] = true;
+                        worklist[n++]            = handler.index;
+                        break;
+                    }
+                }
+            }
+            if (n == 0) break;
+        }
+
+        boolean changed = false;
+        for (Instruction insn : this.instructions) {
+            if (!insn.removed && !reachable[insn.index]) {
+                insn.removed = true;
+                changed      = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Redirects branches to {@code GOTO}s to the final target, and replaces {@code GOTO}s to a return instruction
+     * with a copy of that instruction.
+     */
+    private boolean
+    threadJumps() {
+        boolean changed = false;
+
+        for (Instruction insn : this.instructions) {
+            if (insn.removed || insn.targets == null) continue;
+
+            for (int i = 0; i < insn.targets.length; i++) {
+                int target = this.finalTarget(insn.targets[i]);
+                if (target != insn.targets[i]) {
+                    insn.targets[i] = target;
+                    changed         = true;
+                }
+            }
+
+            if (insn.kind == BytecodeOptimizer.BRANCH && insn.opcode == Opcode.GOTO) {
+                Instruction t = this.resolve(insn.targets[0]);
+                if (t != null && t.kind == BytecodeOptimizer.PLAIN && BytecodeOptimizer.isReturn(0xff & t.bytes[0])) {
+                    insn.kind    = BytecodeOptimizer.PLAIN;
+                    insn.bytes   = t.bytes;
+                    insn.targets = null;
+                    changed      = true;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return The original offset of the first instruction at or after <var>pc</var> that is not a {@code GOTO}, or
+     *         of the last {@code GOTO} in case of an endless loop
+     */
+    private int
+    finalTarget(int pc) {
+        pc = this.resolvePc(pc);
+        for (int i = 0; i < 100; i++) {
+            Instruction insn = this.resolve(pc);
+            if (insn == null || insn.kind != BytecodeOptimizer.BRANCH || insn.opcode != Opcode.GOTO) break;
+
+            int target = this.resolvePc(insn.targets[0]);
+            if (target == pc) break;
+            pc = target;
+        }
+        return pc;
+    }
+
+    /**
+     * Removes branches to the following instruction, and replaces "{@code IFxx L1; GOTO L2; L1:}" with "{@code
+     * IFnotxx L2; L1:}".
+     */
+    private boolean
+    simplifyBranches() {
+        boolean   changed = false;
+        boolean[] labels  = this.labels();
+
+        for (Instruction insn : this.instructions) {
+            if (insn.removed || insn.kind != BytecodeOptimizer.BRANCH) continue;
+
+            Instruction next   = this.nextOrSame(insn.index + 1);
+            Instruction target = this.resolve(insn.targets[0]);
+
+            if (target == next) {
+                if (insn.opcode == Opcode.GOTO) {
+                    this.remove(insn, labels);
+                } else {
+                    int pop = BytecodeOptimizer.isBinaryBranch(insn.opcode) ? Opcode.POP2 : Opcode.POP;
+                    insn.kind    = BytecodeOptimizer.PLAIN;
+                    insn.bytes   = new byte[] { (byte) pop };
+                    insn.targets = null;
+                }
+                changed = true;
+                continue;
+            }
+
+            if (
+                insn.opcode != Opcode.GOTO
+                && next != null
+                && next.kind == BytecodeOptimizer.BRANCH
+                && next.opcode == Opcode.GOTO
+                && !labels[next.index]
+                && target == this.nextOrSame(next.index + 1)
+            ) {
+                insn.opcode     = CodeContext.invertBranchOpcode(insn.opcode);
+                insn.targets[0] = next.targets[0];
+                insn.wide       = false;
+                changed         = true;
+                this.remove(next, labels);
+            }
+        }
+
+        return changed;
+    }
+
+    private static boolean
+    isBinaryBranch(int opcode) { return opcode >= Opcode.IF_ICMPEQ && opcode <= Opcode.IF_ACMPNE; }
+
+    /**
+     * Removes switch cases that branch to the default target, and chooses between {@code TABLESWITCH} and {@code
+     * LOOKUPSWITCH} like JAVAC does.
+     */
+    private boolean
+    compactSwitches() {
+        boolean changed = false;
+
+        for (Instruction insn : this.instructions) {
+            if (insn.removed || insn.kind != BytecodeOptimizer.SWITCH) continue;
+
+            int defaultTarget = this.resolvePc(insn.targets[0]);
+
+            int n = 0;
+            for (int i = 0; i < insn.keys.length; i++) {
+                if (this.resolvePc(insn.targets[i + 1]) != defaultTarget) n++;
+            }
+
+            if (n == 0 && this.resolve(defaultTarget) == this.nextOrSame(insn.index + 1)) {
+                insn.kind    = BytecodeOptimizer.PLAIN;
+                insn.bytes   = new byte[] { (byte) Opcode.POP };
+                insn.targets = null;
+                insn.keys    = null;
+                changed      = true;
+                continue;
+            }
+
+            if (n < insn.keys.length) {
+                int[] keys    = new int[n];
+                int[] targets = new int[n + 1];
+                targets[0] = insn.targets[0];
+                for (int i = 0, j = 0; i < insn.keys.length; i++) {
+                    if (this.resolvePc(insn.targets[i + 1]) != defaultTarget) {
+                        keys[j]      = insn.keys[i];
+                        targets[++j] = insn.targets[i + 1];
+                    }
+                }
+                insn.keys    = keys;
+                insn.targets = targets;
+                changed      = true;
+            }
+
+            int opcode = Opcode.LOOKUPSWITCH;
+            if (n > 0) {
+                long tableSpaceCost  = 4 + ((long) insn.keys[n - 1] - insn.keys[0] + 1);
+                long tableTimeCost   = 3;
+                long lookupSpaceCost = 3 + 2 * (long) n;
+                long lookupTimeCost  = n;
+                if (tableSpaceCost + 3 * tableTimeCost <= lookupSpaceCost + 3 * lookupTimeCost) {
+                    opcode = Opcode.TABLESWITCH;
+                }
+            }
+            if (opcode != insn.opcode) {
+                insn.opcode = opcode;
+                changed     = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Removes instructions that push a value which is immediately popped, and "{@code xSTORE n; xLOAD n}" pairs where
+     * the local variable is not used afterwards.
+     */
+    private boolean
+    removeRedundantInstructions() {
+        boolean   changed  = false;
+        boolean[] labels   = this.labels();
+        BitSet[]  liveness = null;
+
+        for (Instruction insn : this.instructions) {
+            if (insn.removed || insn.kind != BytecodeOptimizer.PLAIN) continue;
+
+            Instruction next = this.nextOrSame(insn.index + 1);
+            if (next == null || next.kind != BytecodeOptimizer.PLAIN || labels[next.index]) continue;
+
+            int nextOpcode = 0xff & next.bytes[0];
+            int size       = BytecodeOptimizer.pushedSize(insn.bytes);
+            if (
+                (size == 1 && nextOpcode == Opcode.POP)
+                || (size == 2 && nextOpcode == Opcode.POP2)
+            ) {
+                this.remove(insn, labels);
+                this.remove(next, labels);
+                changed = true;
+                continue;
+            }
+
+            if (!this.eliminateStores) continue;
+
+            int[] store = BytecodeOptimizer.localVariableAccess(insn.bytes, true);
+            int[] load  = BytecodeOptimizer.localVariableAccess(next.bytes, false);
+            if (store == null || load == null || store[0] != load[0] || store[1] != load[1]) continue;
+
+            if (liveness == null) liveness = this.liveness();
+            if (this.isLiveAfter(next, store[1], liveness)) continue;
+
+            this.remove(insn, labels);
+            this.remove(next, labels);
+            changed = true;
+
+            // The liveness of other local variables is not affected.
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return 1 or 2 iff the instruction only pushes a one-slot resp. two-slot value, without side effects; 0
+     *         otherwise
+     */
+    private static int
+    pushedSize(byte[] bytes) {
+        switch (0xff & bytes[0]) {
+
+        case Opcode.ACONST_NULL:
+        case Opcode.ICONST_M1: case Opcode.ICONST_0: case Opcode.ICONST_1: case Opcode.ICONST_2:
+        case Opcode.ICONST_3:  case Opcode.ICONST_4: case Opcode.ICONST_5:
+        case Opcode.FCONST_0:  case Opcode.FCONST_1: case Opcode.FCONST_2:
+        case Opcode.BIPUSH:    case Opcode.SIPUSH:
+        case Opcode.ILOAD:     case Opcode.FLOAD:    case Opcode.ALOAD:
+        case Opcode.ILOAD_0:   case Opcode.ILOAD_1:  case Opcode.ILOAD_2:  case Opcode.ILOAD_3:
+        case Opcode.FLOAD_0:   case Opcode.FLOAD_1:  case Opcode.FLOAD_2:  case Opcode.FLOAD_3:
+        case Opcode.ALOAD_0:   case Opcode.ALOAD_1:  case Opcode.ALOAD_2:  case Opcode.ALOAD_3:
+        case Opcode.DUP:
+            return 1;
+
+        case Opcode.LCONST_0:  case Opcode.LCONST_1:
+        case Opcode.DCONST_0:  case Opcode.DCONST_1:
+        case Opcode.LLOAD:     case Opcode.DLOAD:
+        case Opcode.LLOAD_0:   case Opcode.LLOAD_1:  case Opcode.LLOAD_2:  case Opcode.LLOAD_3:
+        case Opcode.DLOAD_0:   case Opcode.DLOAD_1:  case Opcode.DLOAD_2:  case Opcode.DLOAD_3:
+        case Opcode.DUP2:
+            return 2;
+
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * @return {@code { kind, index }} iff the instruction is an {@code xSTORE} (<var>store</var>) resp. an {@code
+     *         xLOAD} (!<var>store</var>), where <var>kind</var> is 0 ({@code int}), 1 ({@code long}), 2 ({@code
+     *         float}), 3 ({@code double}) or 4 (reference); {@code null} otherwise
+     */
+    @Nullable private static int[]
+    localVariableAccess(byte[] bytes, boolean store) {
+        int opcode = 0xff & bytes[0];
+        int base   = store ? Opcode.ISTORE : Opcode.ILOAD;
+        int base0  = store ? Opcode.ISTORE_0 : Opcode.ILOAD_0;
+
+        if (opcode >= base && opcode <= base + 4) return new int[] { opcode - base, 0xff & bytes[1] };
+        if (opcode >= base0 && opcode < base0 + 20) return new int[] { (opcode - base0) / 4, (opcode - base0) % 4 };
+        if (opcode == Opcode.WIDE) {
+            int opcode2 = 0xff & bytes[1];
+            if (opcode2 >= base && opcode2 <= base + 4) {
+                return new int[] { opcode2 - base, StackMapComputer.u2(bytes, 2) };
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the local variable, or any of its two slots, may be read after the given instruction
+     */
+    private boolean
+    isLiveAfter(Instruction insn, int index, BitSet[] liveness) {
+        BitSet liveOut = this.liveOut(insn, liveness);
+        return liveOut.get(index) || liveOut.get(index + 1);
+    }
+
+    /**
+     * Computes, by backward data-flow analysis, the local variables that may be read before they are written, at the
+     * beginning of each instruction.
+     *
+     * @return The live local variables at each instruction, indexed like {@link #instructions}
+     */
+    private BitSet[]
+    liveness() {
+        BitSet[] result = new BitSet[this.instructions.length];
+        for (int i = 0; i < result.length; i++) result[i] = new BitSet();
+
+        for (boolean changed = true; changed;) {
+            changed = false;
+
+            for (int i = this.instructions.length - 1; i >= 0; i--) {
+                Instruction insn = this.instructions[i];
+                if (insn.removed) continue;
+
+                BitSet live = this.liveOut(insn, result);
+                if (insn.kind == BytecodeOptimizer.PLAIN) {
+                    int[] store = BytecodeOptimizer.localVariableAccess(insn.bytes, true);
+                    if (store != null) {
+                        live.clear(store[1]);
+                        if (store[0] == 1 || store[0] == 3) live.clear(store[1] + 1);
+                    }
+                    int[] load = BytecodeOptimizer.localVariableAccess(insn.bytes, false);
+                    if (load != null) {
+                        live.set(load[1]);
+                        if (load[0] == 1 || load[0] == 3) live.set(load[1] + 1);
+                    }
+                    int opcode = 0xff & insn.bytes[0];
+                    if (opcode == Opcode.IINC) live.set(0xff & insn.bytes[1]);
+                    if (opcode == Opcode.WIDE && (0xff & insn.bytes[1]) == Opcode.IINC) {
+                        live.set(StackMapComputer.u2(insn.bytes, 2));
+                    }
+                }
+
+                // Exception handlers may observe the local variables as they are before the instruction.
+                for (int[] ete : this.exceptionTable) {
+                    if (insn.pc < ete[0] || insn.pc >= ete[1]) continue;
+                    Instruction handler = this.resolve(ete[2]);
+                    if (handler != null) live.or(result[handler.index]);
+                }
+
+                if (!live.equals(result[i])) {
+                    result[i] = live;
+                    changed   = true;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The union of the live local variables of the successors of the given instruction
+     */
+    private BitSet
+    liveOut(Instruction insn, BitSet[] liveness) {
+        BitSet result = new BitSet();
+
+        if (BytecodeOptimizer.fallsThrough(insn)) {
+            Instruction next = this.nextOrSame(insn.index + 1);
+            if (next != null) result.or(liveness[next.index]);
+        }
+        if (insn.targets != null) {
+            for (int target : insn.targets) {
+                Instruction t = this.resolve(target);
+                if (t != null) result.or(liveness[t.index]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Which instructions are branch targets, exception handlers, or the start or end of an exception handler's
+     *         range, indexed like {@link #instructions}
+     */
+    private boolean[]
+    labels() {
+        boolean[] result = new boolean[this.instructions.length];
+
+        for (Instruction insn : this.instructions) {
+            if (insn.removed || insn.targets == null) continue;
+            for (int target : insn.targets) this.markLabel(result, target);
+        }
+        for (int[] ete : this.exceptionTable) {
+            this.markLabel(result, ete[0]);
+            this.markLabel(result, ete[1]);
+            this.markLabel(result, ete[2]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes the instruction; if it is a label, then the next remaining instruction becomes a label.
+     */
+    private void
+    remove(Instruction insn, boolean[] labels) {
+        insn.removed = true;
+        if (labels[insn.index]) this.markLabel(labels, insn.pc);
+    }
+
+    private void
+    markLabel(boolean[] labels, int pc) {
+        Instruction insn = this.resolve(pc);
+        if (insn != null) labels[insn.index] = true;
+    }
+
+    /**
+     * Computes the new offsets of the remaining instructions, and then generates the optimized code.
+     *
+     * @return {@code false} iff the optimized code would exceed the maximum code size
+     */
+    private boolean
+    encode() {
+
+        // Compute the new offsets; start with short branches, and widen those that are out of range, until all
+        // branches fit.
+        int length;
+        for (;;) {
+            length = 0;
+            for (Instruction insn : this.instructions) {
+                if (insn.removed) continue;
+                insn.newPc  = length;
+                length     += BytecodeOptimizer.length(insn, length);
+            }
+            if (length > 0xffff) return false;
+
+            boolean widened = false;
+            for (Instruction insn : this.instructions) {
+                if (insn.removed || insn.kind != BytecodeOptimizer.BRANCH || insn.wide) continue;
+
+                int offset = this.newPc(insn.targets[0], length) - insn.newPc;
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    insn.wide = true;
+                    widened   = true;
+                }
+            }
+            if (!widened) break;
+        }
+
+        byte[] nc = new byte[length];
+        for (Instruction insn : this.instructions) {
+            if (insn.removed) continue;
+
+            int pc = insn.newPc;
+            switch (insn.kind) {
+
+            case BytecodeOptimizer.PLAIN:
+                System.arraycopy(insn.bytes, 0, nc, pc, insn.bytes.length);
+                break;
+
+            case BytecodeOptimizer.BRANCH:
+                {
+                    int target = this.newPc(insn.targets[0], length);
+                    if (!insn.wide) {
+                        nc[pc] = (byte) insn.opcode;
+                        BytecodeOptimizer.writeShort(nc, pc + 1, target - pc);
+                    } else
+                    if (insn.opcode == Opcode.GOTO) {
+                        nc[pc] = (byte) Opcode.GOTO_W;
+                        BytecodeOptimizer.writeInt(nc, pc + 1, target - pc);
+                    } else
+                    {
+
+                        //  [if cond offset]
+                        // expands to
+                        //  [if !cond skip_goto]
+                        //  [GOTO_W offset]
+                        nc[pc] = (byte) CodeContext.invertBranchOpcode(insn.opcode);
+                        BytecodeOptimizer.writeShort(nc, pc + 1, 8);
+                        nc[pc + 3] = (byte) Opcode.GOTO_W;
+                        BytecodeOptimizer.writeInt(nc, pc + 4, target - (pc + 3));
+                    }
+                }
+                break;
+
+            case BytecodeOptimizer.SWITCH:
+                {
+                    nc[pc] = (byte) insn.opcode;
+                    int p = (pc + 4) & ~3;
+                    BytecodeOptimizer.writeInt(nc, p, this.newPc(insn.targets[0], length) - pc);
+                    if (insn.opcode == Opcode.TABLESWITCH) {
+                        int low  = insn.keys[0];
+                        int high = insn.keys[insn.keys.length - 1];
+                        BytecodeOptimizer.writeInt(nc, p + 4, low);
+                        BytecodeOptimizer.writeInt(nc, p + 8, high);
+                        for (int key = low, i = 0; ; key++) {
+                            int target = insn.keys[i] == key ? insn.targets[++i] : insn.targets[0];
+                            BytecodeOptimizer.writeInt(nc, p + 12 + 4 * (key - low), this.newPc(target, length) - pc);
+                            if (key == high) break;
+                        }
+                    } else {
+                        BytecodeOptimizer.writeInt(nc, p + 4, insn.keys.length);
+                        for (int i = 0; i < insn.keys.length; i++) {
+                            BytecodeOptimizer.writeInt(nc, p + 8 + 8 * i, insn.keys[i]);
+                            BytecodeOptimizer.writeInt(
+                                nc,
+                                p + 12 + 8 * i,
+                                this.newPc(insn.targets[i + 1], length) - pc
+                            );
+                        }
+                    }
+                }
+                break;
+
+            default:
+                throw new AssertionError(insn.kind);
+            }
+        }
+
+        // Map the original offsets; offsets within a removed instruction map to the next remaining instruction.
+        int[] om = new int[this.codeLength + 1];
+        om[this.codeLength] = length;
+        int next = length;
+        for (int i = this.instructions.length - 1; i >= 0; i--) {
+            Instruction insn = this.instructions[i];
+            int         end  = i + 1 < this.instructions.length ? this.instructions[i + 1].pc : this.codeLength;
+            if (!insn.removed) next = insn.newPc;
+            Arrays.fill(om, insn.pc, end, next);
+        }
+
+        this.newCode       = nc;
+        this.newCodeLength = length;
+        this.offsetMap     = om;
+        return true;
+    }
+
+    /**
+     * @return The new offset of the instruction at or after the given original offset
+     */
+    private int
+    newPc(int pc, int codeLength) {
+        Instruction insn = this.resolve(pc);
+        return insn == null ? codeLength : insn.newPc;
+    }
+
+    /**
+     * @return The length of the instruction if it were placed at offset <var>pc</var>
+     */
+    private static int
+    length(Instruction insn, int pc) {
+        switch (insn.kind) {
+
+        case BytecodeOptimizer.PLAIN:
+            return insn.bytes.length;
+
+        case BytecodeOptimizer.BRANCH:
+            return !insn.wide ? 3 : insn.opcode == Opcode.GOTO ? 5 : 8;
+
+        case BytecodeOptimizer.SWITCH:
+            {
+                int p = (pc + 4) & ~3;
+                return (
+                    insn.opcode == Opcode.TABLESWITCH
+                    ? p - pc + 12 + 4 * (insn.keys[insn.keys.length - 1] - insn.keys[0] + 1)
+                    : p - pc + 8 + 8 * insn.keys.length
+                );
+            }
+
+        default:
+            throw new AssertionError(insn.kind);
+        }
+    }
+
+    private static void
+    writeShort(byte[] b, int offset, int v) {
+        b[offset]     = (byte) (v >> 8);
+        b[offset + 1] = (byte) v;
+    }
+
+    private static void
+    writeInt(byte[] b, int offset, int v) {
+        b[offset]     = (byte) (v >> 24);
+        b[offset + 1] = (byte) (v >> 16);
+        b[offset + 2] = (byte) (v >> 8);
+        b[offset + 3] = (byte) v;
+    }
+}
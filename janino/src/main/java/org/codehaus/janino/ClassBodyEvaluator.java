@@ -28,11 +28,11 @@ package org.codehaus.janino;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.CompilerFactoryFactory;
@@ -43,6 +43,7 @@ import org.codehaus.commons.compiler.ICompilerFactory;
 import org.codehaus.commons.compiler.InternalCompilerException;
 import org.codehaus.commons.compiler.Location;
 import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.commons.compiler.io.Readers;
 import org.codehaus.commons.nullanalysis.Nullable;
 import org.codehaus.janino.Java.AbstractCompilationUnit;
 import org.codehaus.janino.Java.CompilationUnit;
@@ -245,11 +246,97 @@ class ClassBodyEvaluator extends Cookable implements IClassBodyEvaluator {
         return this;
     }
 
+    /**
+     * @see SimpleCompiler#setIClassLoader(ClassLoaderIClassLoader)
+     */
+    public void
+    setIClassLoader(@Nullable ClassLoaderIClassLoader iClassLoader) { this.sc.setIClassLoader(iClassLoader); }
+
+    /**
+     * @see SimpleCompiler#setTargetVersion(int)
+     */
+    public void
+    setTargetVersion(int targetVersion) { this.sc.setTargetVersion(targetVersion); }
+
+    /**
+     * @see SimpleCompiler#setMethodOutliningThreshold(int)
+     */
+    public void
+    setMethodOutliningThreshold(int threshold) { this.sc.setMethodOutliningThreshold(threshold); }
+
+    /**
+     * @see SimpleCompiler#setLookup(Object, boolean)
+     */
+    public void
+    setLookup(@Nullable Object lookup, boolean hiddenClasses) { this.sc.setLookup(lookup, hiddenClasses); }
+
+    /**
+     * @see SimpleCompiler#setCache(EvaluatorCache)
+     */
+    public void
+    setCache(@Nullable EvaluatorCache cache) { this.sc.setCache(cache); }
+
+    @Nullable EvaluatorCache
+    getCache() { return this.sc.getCache(); }
+
     // ================================= END OF CONFIGURATION SETTERS AND GETTERS =================================
 
+    @Override public void
+    cook(@Nullable String fileName, String s) throws CompileException {
+
+        if (this.getCache() != null) {
+            super.cook(fileName, s);
+            return;
+        }
+
+        try {
+            this.cook(Scanner.ofCharSequence(fileName, s));
+        } catch (IOException ioe) {
+            throw new InternalCompilerException("SNO: IOException despite CharSequence", ioe);
+        }
+    }
+
     @Override public final void
-    cook(@Nullable String fileName, Reader r) throws CompileException, IOException {
-        this.cook(new Scanner(fileName, r));
+    cook(@Nullable final String fileName, Reader r) throws CompileException, IOException {
+
+        if (this.getCache() == null) {
+            this.cook(new Scanner(fileName, r));
+            return;
+        }
+
+        final String text = Readers.readAll(r);
+
+        EvaluatorCache.KeyBuilder kb = new EvaluatorCache.KeyBuilder().add(this.getClass().getName());
+        this.addCacheKey(kb);
+        kb.add(fileName).add(text);
+
+        this.cook(kb, new EvaluatorCache.Compilation() {
+
+            @Override public void
+            compile() throws CompileException, IOException {
+                ClassBodyEvaluator.this.cook(Scanner.ofCharSequence(fileName, text));
+            }
+        });
+    }
+
+    /**
+     * Adds the settings of this {@link ClassBodyEvaluator} that affect the generated bytecode to the cache key.
+     */
+    void
+    addCacheKey(EvaluatorCache.KeyBuilder kb) {
+        this.sc.addCacheKey(kb);
+        kb.add(this.defaultImports).add(this.className).add(this.extendedType).add(this.implementedTypes);
+    }
+
+    /**
+     * @see SimpleCompiler#cook(EvaluatorCache.KeyBuilder, EvaluatorCache.Compilation)
+     */
+    void
+    cook(EvaluatorCache.KeyBuilder kb, EvaluatorCache.Compilation compilation) throws CompileException, IOException {
+        this.sc.cook(kb, compilation);
+
+        // Cache hit?
+        if (this.result == null) this.result = this.loadClazz();
     }
 
     public void
@@ -277,10 +364,34 @@ class ClassBodyEvaluator extends Cookable implements IClassBodyEvaluator {
 
         this.sc.cook(compilationUnit);
 
-        // Find the generated class by name.
-        Class<?> c;
+        this.result = this.loadClazz();
+    }
+
+    /**
+     * @see SimpleCompiler#cook(Executor, int, int, SimpleCompiler.ShardFactory)
+     */
+    void
+    cook(Executor executor, int count, int shardSize, SimpleCompiler.ShardFactory shardFactory)
+    throws CompileException {
+
+        this.sc.cook(executor, count, shardSize, shardFactory);
+
+        this.result = this.loadClazz();
+    }
+
+    /**
+     * @return The configured name of the generated class
+     */
+    String
+    getClassName() { return this.className; }
+
+    /**
+     * Finds the generated class by name.
+     */
+    private Class<?>
+    loadClazz() {
         try {
-            c = this.sc.getClassLoader().loadClass(this.className);
+            return this.sc.getClassLoader().loadClass(this.className);
         } catch (ClassNotFoundException ex) {
             throw new InternalCompilerException((
                 "SNO: Generated compilation unit does not declare class '"
@@ -288,8 +399,6 @@ class ClassBodyEvaluator extends Cookable implements IClassBodyEvaluator {
                 + "'"
             ), ex);
         }
-
-        this.result = c;
     }
 
     @Override public Class<?>
@@ -312,7 +421,7 @@ class ClassBodyEvaluator extends Cookable implements IClassBodyEvaluator {
 
         // Honor the default imports.
         for (String defaultImport : this.defaultImports) {
-            final Parser p = new Parser(new Scanner(null, new StringReader(defaultImport)));
+            final Parser p = new Parser(Scanner.ofCharSequence(null, defaultImport));
             l.add(p.parseImportDeclarationBody());
             p.read(TokenType.END_OF_INPUT);
         }
@@ -338,7 +447,16 @@ class ClassBodyEvaluator extends Cookable implements IClassBodyEvaluator {
      */
     protected Java.PackageMemberClassDeclaration
     addPackageMemberClassDeclaration(Location location, Java.CompilationUnit compilationUnit) {
-        String cn  = this.className;
+        return this.addPackageMemberClassDeclaration(location, compilationUnit, this.className);
+    }
+
+    /**
+     * Like {@link #addPackageMemberClassDeclaration(Location, Java.CompilationUnit)}, but with the given class name
+     * instead of the configured one.
+     */
+    Java.PackageMemberClassDeclaration
+    addPackageMemberClassDeclaration(Location location, Java.CompilationUnit compilationUnit, String className) {
+        String cn  = className;
         int    idx = cn.lastIndexOf('.');
         if (idx != -1) {
             compilationUnit.setPackageDeclaration(new Java.PackageDeclaration(location, cn.substring(0, idx)));
@@ -459,16 +459,15 @@ class ClassFileIClass extends IClass {
         final IClass[] parameterTypes = new IClass[md.parameterFds.length];
         for (int i = 0; i < parameterTypes.length; ++i) parameterTypes[i] = this.resolveClass(md.parameterFds[i]);
 
-        // Determine thrown exceptions.
-        IClass[]                  tes = null;
-        ClassFile.AttributeInfo[] ais = methodInfo.getAttributes();
-        for (ClassFile.AttributeInfo ai : ais) {
-            if (ai instanceof ClassFile.ExceptionsAttribute) {
-                ConstantClassInfo[] ccis = ((ClassFile.ExceptionsAttribute) ai).getExceptions(this.classFile);
-                tes = new IClass[ccis.length];
-                for (int i = 0; i < tes.length; ++i) {
-                    tes[i] = this.resolveClass(Descriptor.fromInternalForm(ccis[i].getName(this.classFile)));
-                }
+        // Determine thrown exceptions. (Notice: Do not iterate the method's attributes, because that would decode
+        // its "Code" attribute.)
+        IClass[]                      tes = null;
+        ClassFile.ExceptionsAttribute ea  = (ClassFile.ExceptionsAttribute) methodInfo.findAttribute("Exceptions");
+        if (ea != null) {
+            ConstantClassInfo[] ccis = ea.getExceptions(this.classFile);
+            tes = new IClass[ccis.length];
+            for (int i = 0; i < tes.length; ++i) {
+                tes[i] = this.resolveClass(Descriptor.fromInternalForm(ccis[i].getName(this.classFile)));
             }
         }
         final IClass[] thrownExceptions = tes == null ? new IClass[0] : tes;
@@ -556,13 +555,8 @@ class ClassFileIClass extends IClass {
         // attribute, we assume that it has a constant value. Notice that this assumption is not always correct,
         // because typical Java compilers do not generate a "ConstantValue" attribute for fields like
         // "int RED = 0", because "0" is the default value for an integer field.
-        ClassFile.ConstantValueAttribute cva = null;
-        for (ClassFile.AttributeInfo ai : fieldInfo.getAttributes()) {
-            if (ai instanceof ClassFile.ConstantValueAttribute) {
-                cva = (ClassFile.ConstantValueAttribute) ai;
-                break;
-            }
-        }
+        ClassFile.ConstantValueAttribute
+        cva = (ClassFile.ConstantValueAttribute) fieldInfo.findAttribute("ConstantValue");
 
         final Object constantValue = (
             cva == null
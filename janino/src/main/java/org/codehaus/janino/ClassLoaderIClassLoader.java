@@ -25,10 +25,14 @@
 
 package org.codehaus.janino;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.util.ClassNameBloomFilter;
 
 /**
  * An {@link IClassLoader} that loads {@link IClass}es through a reflection {@link ClassLoader}.
@@ -43,11 +47,25 @@ class ClassLoaderIClassLoader extends IClassLoader {
      */
     public
     ClassLoaderIClassLoader(ClassLoader classLoader) {
-        super(
-            null   // parentIClassLoader
+        this(
+            classLoader,
+            null         // parentIClassLoader
         );
+    }
+
+    /**
+     * @param classLoader        The delegate that loads the classes
+     * @param parentIClassLoader Is asked first for each class, e.g. a {@link SignatureIndexIClassLoader} that serves
+     *                           the JRE classes
+     */
+    public
+    ClassLoaderIClassLoader(ClassLoader classLoader, @Nullable IClassLoader parentIClassLoader) {
+        super(parentIClassLoader);
         this.classLoader = classLoader;
 
+        // "findIClass()" only uses the (thread-safe) ClassLoader.
+        this.registerAsParallelCapable();
+
         super.postConstruct();
     }
 
@@ -60,19 +78,78 @@ class ClassLoaderIClassLoader extends IClassLoader {
     public
     ClassLoaderIClassLoader() { this(Thread.currentThread().getContextClassLoader()); }
 
+    /**
+     * Returns a {@link ClassLoaderIClassLoader} for the given <var>classLoader</var> that is shared with all other
+     * callers that pass the same <var>classLoader</var>. This avoids the considerable cost of setting up an {@link
+     * IClassLoader} and of resolving the same {@link IClass}es again and again, e.g. when many expressions are cooked
+     * against the same parent class loader.
+     * <p>
+     *   The shared instances are held through <em>weak</em> references, so a shared instance is reused only as long as
+     *   it is referenced elsewhere, e.g. by a {@link SimpleCompiler} that uses it. Thus the cache never prevents the
+     *   <var>classLoader</var> from being garbage-collected.
+     * </p>
+     *
+     * @see SimpleCompiler#setIClassLoader(ClassLoaderIClassLoader)
+     */
+    public static ClassLoaderIClassLoader
+    forClassLoader(ClassLoader classLoader) {
+
+        synchronized (ClassLoaderIClassLoader.SHARED_INSTANCES) {
+
+            WeakReference<?> ref = (WeakReference<?>) ClassLoaderIClassLoader.SHARED_INSTANCES.get(classLoader);
+            if (ref != null) {
+                ClassLoaderIClassLoader result = (ClassLoaderIClassLoader) ref.get();
+                if (result != null) return result;
+            }
+
+            ClassLoaderIClassLoader result = new ClassLoaderIClassLoader(classLoader);
+            ClassLoaderIClassLoader.SHARED_INSTANCES.put(
+                classLoader,
+                new WeakReference<ClassLoaderIClassLoader>(result)
+            );
+            return result;
+        }
+    }
+
+    /**
+     * The values must not be strongly reachable, because each of them references its key.
+     */
+    private static final Map<ClassLoader, WeakReference<ClassLoaderIClassLoader>>
+    SHARED_INSTANCES = new WeakHashMap<ClassLoader, WeakReference<ClassLoaderIClassLoader>>();
+
     /**
      * @return The delegate {@link ClassLoader}
      */
     public ClassLoader
     getClassLoader() { return this.classLoader; }
 
+    /**
+     * Configures a filter that rejects the names of classes that the {@link ClassLoader} cannot load, without invoking
+     * {@link ClassLoader#loadClass(String)}. That is considerably faster than a failing {@link
+     * ClassLoader#loadClass(String)}, which matters when many simple type names are resolved through
+     * type-import-on-demand declarations (like {@code "import java.util.*;"}).
+     * <p>
+     *   The filter must contain <em>all</em> classes that the {@link ClassLoader} can load, including the JRE
+     *   classes; see {@link ClassNameBloomFilter#forClassPath(java.io.File...)}.
+     * </p>
+     *
+     * @param filter {@code null} to ask the {@link ClassLoader} for all classes (the default)
+     */
+    public void
+    setClassNameFilter(@Nullable ClassNameBloomFilter filter) { this.classNameFilter = filter; }
+
     @Override @Nullable protected IClass
     findIClass(String descriptor) throws ClassNotFoundException {
         ClassLoaderIClassLoader.LOGGER.entering(null, "findIClass", descriptor);
 
+        String className = Descriptor.toClassName(descriptor);
+
+        ClassNameBloomFilter cnf = this.classNameFilter;
+        if (cnf != null && !cnf.mightContain(className)) return null;
+
         Class<?> clazz;
         try {
-            clazz = this.classLoader.loadClass(Descriptor.toClassName(descriptor));
+            clazz = this.classLoader.loadClass(className);
         } catch (ClassNotFoundException e) {
 
             // Determine whether the class DOES NOT EXIST, or whether there were problems loading it. That's easier
@@ -94,5 +171,6 @@ class ClassLoaderIClassLoader extends IClassLoader {
         return result;
     }
 
-    private final ClassLoader classLoader;
+    private final ClassLoader                       classLoader;
+    @Nullable private volatile ClassNameBloomFilter classNameFilter;
 }
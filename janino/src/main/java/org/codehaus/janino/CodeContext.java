@@ -100,6 +100,23 @@ class CodeContext {
     private short                   nextLocalVariableSlot;
     private final List<Relocatable> relocatables = new ArrayList<Relocatable>();
 
+    /**
+     * Whether {@link #fixUpAndRelocate()} is currently executing; see {@link #makeSpace(int)}.
+     */
+    private boolean deferSpace;
+
+    /**
+     * The number of bytes that were reserved, but not yet inserted; see {@link #insertDeferredSpace()}.
+     */
+    private int deferredSpace;
+
+    /**
+     * The "StackMapTable" frames computed by {@link #computeStackMapFrames(ClassFile.MethodInfo,
+     * StackMapComputer.ClassHierarchy)}, or {@code null} to derive the frames from the {@link StackMap}s that were
+     * tracked during code generation.
+     */
+    @Nullable private StackMapFrame[] computedStackMapFrames;
+
     /**
      * Creates an empty "Code" attribute.
      */
@@ -171,7 +188,9 @@ class CodeContext {
         Java.LocalVariableSlot slot = new Java.LocalVariableSlot(name, this.nextLocalVariableSlot, type);
 
         if (name != null) {
-            slot.setStart(this.newOffset());
+            Offset start = this.newOffset();
+            start.referenced = true;
+            slot.setStart(start);
         }
 
 //        // This check would be wrong, because one (Long|Double)_variable_info maps TWO local variable slots.
@@ -260,6 +279,11 @@ class CodeContext {
                 if (o instanceof LineNumberOffset) {
 
                     int offset = o.offset;
+
+                    // No instruction follows, e.g. because "optimize()" removed the last one; the JVM would reject
+                    // the entry with "Invalid pc in LineNumberTable".
+                    if (offset >= this.end.offset) continue;
+
                     if (offset > 0xffff) {
                         throw new InternalCompilerException("LineNumberTable entry offset out of range");
                     }
@@ -286,6 +310,10 @@ class CodeContext {
         }
 
         // Add the "StackMapTable" attribute.
+        StackMapFrame[] csmfs = this.computedStackMapFrames;
+        if (csmfs != null) {
+            if (csmfs.length > 0) attributes.add(new StackMapTableAttribute(stackMapTableAttributeNameIndex, csmfs));
+        } else
         {
 
             List<StackMapFrame> smfs = new ArrayList<ClassFile.StackMapTableAttribute.StackMapFrame>();
@@ -357,6 +385,10 @@ class CodeContext {
                 assert start != null;
                 assert end2 != null;
 
+                // The range is empty and starts at the end of the code, e.g. because "optimize()" removed the last
+                // instruction; the JVM would reject the entry with "Invalid start_pc".
+                if (start.offset >= this.end.offset) continue;
+
                 ClassFile.LocalVariableTableAttribute.Entry entry = new ClassFile.LocalVariableTableAttribute.Entry(
                     (short) start.offset,
                     (short) (end2.offset - start.offset),
@@ -380,19 +412,137 @@ class CodeContext {
         return null;
     }
 
+    /**
+     * Computes the "StackMapTable" frames by data-flow analysis of the final byte code (see {@link
+     * StackMapComputer}), instead of deriving them from the {@link StackMap}s that were tracked during code generation.
+     * Must be invoked after {@link #fixUpAndRelocate()}; replaces unreachable code and updates the exception table
+     * accordingly.
+     */
+    void
+    computeStackMapFrames(ClassFile.MethodInfo mi, StackMapComputer.ClassHierarchy classHierarchy) {
+
+        StackMapComputer smc = new StackMapComputer(
+            this.classFile,
+            mi.getAccessFlags(),
+            mi.getName(),
+            mi.getDescriptor(),
+            this.code,
+            this.end.offset,
+            this.maxLocals,
+            this.getExceptionTable(),
+            classHierarchy
+        );
+        this.computedStackMapFrames = smc.compute();
+
+        if (smc.hasUnreachableCode()) {
+            this.exceptionTableEntries.clear();
+            for (int[] ete : smc.getExceptionTable()) {
+                this.exceptionTableEntries.add(new ExceptionTableEntry(
+                    this.fixedOffset(ete[0]),
+                    this.fixedOffset(ete[1]),
+                    this.fixedOffset(ete[2]),
+                    (short) ete[3]
+                ));
+            }
+            if (this.maxStack < 1) this.maxStack = 1;
+        }
+    }
+
+    /**
+     * Optimizes the final byte code (see {@link BytecodeOptimizer}), and updates all offsets, and thus the exception
+     * table, the line numbers and the local variable ranges, accordingly. Must be invoked after {@link
+     * #fixUpAndRelocate()}.
+     * <p>
+     *   The {@link StackMap}s that were tracked during code generation no longer match the optimized code; thus, iff
+     *   this method returns {@code true}, {@link #computeStackMapFrames(ClassFile.MethodInfo,
+     *   StackMapComputer.ClassHierarchy)} must be invoked afterwards, even for class files before version 51.
+     * </p>
+     *
+     * @param eliminateStores Whether local variables may be optimized away
+     * @return                Whether the code was changed
+     */
+    boolean
+    optimize(boolean eliminateStores) {
+
+        BytecodeOptimizer bo = new BytecodeOptimizer(
+            this.code,
+            this.end.offset,
+            this.getExceptionTable(),
+            eliminateStores
+        );
+        if (!bo.optimize()) return false;
+
+        int[] offsetMap = bo.getOffsetMap();
+        for (Offset o = this.beginning; o != null; o = o.next) {
+            if (o.offset != Offset.UNSET) o.offset = offsetMap[o.offset];
+        }
+        assert this.end.offset == bo.getCodeLength();
+
+        this.code = bo.getCode();
+
+        this.exceptionTableEntries.clear();
+        for (int[] ete : bo.getExceptionTable()) {
+            this.exceptionTableEntries.add(new ExceptionTableEntry(
+                this.fixedOffset(ete[0]),
+                this.fixedOffset(ete[1]),
+                this.fixedOffset(ete[2]),
+                (short) ete[3]
+            ));
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The exception table; each entry is {@code { start_pc, end_pc, handler_pc, catch_type }}
+     */
+    private List<int[]>
+    getExceptionTable() {
+        List<int[]> result = new ArrayList<int[]>();
+        for (ExceptionTableEntry ete : this.exceptionTableEntries) {
+            result.add(new int[] {
+                ete.startPc.offset,
+                ete.endPc.offset,
+                ete.handlerPc.offset,
+                0xffff & ete.catchType,
+            });
+        }
+        return result;
+    }
+
+    private Offset
+    fixedOffset(int offset) {
+        Offset result = new Offset();
+        result.offset = offset;
+        return result;
+    }
+
     /**
      * Fixes up all of the offsets and relocate() all relocatables.
      */
     public void
     fixUpAndRelocate() {
 
-        // We do this in a loop to allow relocatables to adjust the size
-        // of things in the byte stream.  It is extremely unlikely, but possible
-        // that a late relocatable will grow the size of the bytecode, and require
-        // an earlier relocatable to switch from 32K mode to 64K mode branching
-        do {
-            this.fixUp();
-        } while (!this.relocate());
+        // Fix-ups and relocatables insert space at many places of the code; instead of moving the following code and
+        // offsets each time (which is O(n**2) for large methods), the space is only reserved and then inserted in one
+        // single pass.
+        this.deferSpace = true;
+        try {
+
+            // We do this in a loop to allow relocatables to adjust the size
+            // of things in the byte stream.  It is extremely unlikely, but possible
+            // that a late relocatable will grow the size of the bytecode, and require
+            // an earlier relocatable to switch from 32K mode to 64K mode branching
+            boolean finished;
+            do {
+                this.fixUp();
+                this.insertDeferredSpace();
+                finished = this.relocate();
+                this.insertDeferredSpace();
+            } while (!finished);
+        } finally {
+            this.deferSpace = false;
+        }
     }
 
     /**
@@ -402,8 +552,70 @@ class CodeContext {
     fixUp() {
         for (Offset o = this.beginning; o != this.end; o = o.next) {
             assert o != null;
-            if (o instanceof FixUp) ((FixUp) o).fixUp();
+            if (o instanceof FixUp) {
+
+                // Let the fix-up see its actual offset, i.e. including the space reserved by the preceding fix-ups.
+                int ds = this.deferredSpace;
+                o.offset += ds;
+                ((FixUp) o).fixUp();
+                o.offset -= ds;
+            }
+        }
+    }
+
+    /**
+     * Inserts all the space that was reserved by {@link #makeSpace(int)} and {@link #deferSpaceAfter(Offset, int)}
+     * while {@link #fixUpAndRelocate()} was executing, and updates all offsets, in one single pass.
+     */
+    private void
+    insertDeferredSpace() {
+
+        final int space = this.deferredSpace;
+        if (space == 0) return;
+
+        final int oldLength = this.end.offset;
+        final int newLength = oldLength + space;
+        if (newLength > 0xffff) throw new InternalCompilerException("Code grows beyond 64 KB");
+
+        byte[] oldCode = this.code;
+        byte[] newCode = new byte[Math.max(oldCode.length, newLength)];
+
+        int from  = 0; // Where the next chunk of old code starts.
+        int shift = 0; // By how many bytes the next chunk of old code moves.
+        for (Offset o = this.beginning; o != null; o = o.next) {
+            final int oo = o.offset;
+            final int ds = o.deferredSpaceBefore + o.deferredSpaceAfter;
+            if (ds != 0) {
+                assert oo >= from;
+
+                // Copy the code up to this offset; the reserved space remains filled with NUL bytes.
+                System.arraycopy(oldCode, from, newCode, from + shift, oo - from);
+                from = oo;
+
+                o.offset               = oo + shift + o.deferredSpaceBefore;
+                shift                 += ds;
+                o.deferredSpaceBefore  = 0;
+                o.deferredSpaceAfter   = 0;
+            } else {
+                o.offset = oo + shift;
+            }
         }
+        assert shift == space;
+        System.arraycopy(oldCode, from, newCode, from + shift, oldLength - from);
+
+        this.code          = newCode;
+        this.deferredSpace = 0;
+    }
+
+    /**
+     * Reserves <var>size</var> NUL bytes at the given offset, which, unlike {@link #makeSpace(int)}, leaves that
+     * offset unchanged and only shifts the <em>following</em> offsets.
+     */
+    private void
+    deferSpaceAfter(Offset o, int size) {
+        assert this.deferSpace;
+        o.deferredSpaceAfter += size;
+        this.deferredSpace   += size;
     }
 
     /**
@@ -548,6 +760,10 @@ class CodeContext {
      * <p>
      *   Because the class file format does not support line numbers greater than 65535, these are treated as 65535.
      * </p>
+     * <p>
+     *   While {@link #fixUpAndRelocate()} is executing, the space is only reserved, and inserted later, together with
+     *   all other reserved space; thus, fix-ups must not write into it.
+     * </p>
      *
      * @param lineNumber -1 indicates that no particular line in the source code corresponds to this offset
      * @param size       The number of NUL bytes to inject
@@ -560,6 +776,12 @@ class CodeContext {
 
         if (size == 0) return cio;
 
+        if (this.deferSpace) {
+            this.currentInserter.deferredSpaceBefore += size;
+            this.deferredSpace                       += size;
+            return cio;
+        }
+
         if (this.end.offset + size <= this.code.length) {
 
             // Optimization to avoid a trivial method call in the common case
@@ -613,6 +835,8 @@ class CodeContext {
             this.opcode      = opcode;
             this.source      = CodeContext.this.newInserter();
             this.destination = destination;
+
+            this.source.referenced = true;
             if (opcode == Opcode.JSR_W || opcode == Opcode.GOTO_W) {
 
                 // No need to expand wide opcodes.
@@ -631,18 +855,15 @@ class CodeContext {
 
             @SuppressWarnings("deprecation") final int opcodeJsr = Opcode.JSR;
             if (!this.expanded && (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE)) {
-                //we want to insert the data without skewing our source position,
-                //so we will cache it and then restore it later.
-                final int pos = this.source.offset;
-                CodeContext.this.pushInserter(this.source);
-                {
-                    // Promotion to a wide instruction only requires 2 extra bytes. Everything else requires a new
-                    // GOTO_W instruction after a negated if (5 extra bytes).
-                    CodeContext.this.makeSpace(this.opcode == Opcode.GOTO || this.opcode == opcodeJsr ? 2 : 5);
-                }
-                CodeContext.this.popInserter();
-                this.source.offset = pos;
-                this.expanded      = true;
+
+                // Insert the space without skewing our source position.
+                // Promotion to a wide instruction only requires 2 extra bytes. Everything else requires a new
+                // GOTO_W instruction after a negated if (5 extra bytes).
+                CodeContext.this.deferSpaceAfter(
+                    this.source,
+                    this.opcode == Opcode.GOTO || this.opcode == opcodeJsr ? 2 : 5
+                );
+                this.expanded = true;
                 return false;
             }
 
@@ -695,7 +916,7 @@ class CodeContext {
     /**
      * E.g. {@link Opcode#IFLT} ("less than") inverts to {@link Opcode#IFGE} ("greater than or equal to").
      */
-    private static int
+    static int
     invertBranchOpcode(int branchOpcode) {
         final Integer result = (Integer) CodeContext.BRANCH_OPCODE_INVERSION.get(Integer.valueOf(branchOpcode));
         assert result != null : branchOpcode;
@@ -746,6 +967,8 @@ class CodeContext {
             this.where       = where;
             this.source      = source;
             this.destination = destination;
+
+            source.referenced = true;
         }
 
         @Override public boolean
@@ -844,6 +1067,18 @@ class CodeContext {
          */
         @Nullable Offset prev, next;
 
+        /**
+         * The number of bytes that were reserved before resp. after this offset, but not yet inserted; see {@link
+         * CodeContext#insertDeferredSpace()}.
+         */
+        int deferredSpaceBefore, deferredSpaceAfter;
+
+        /**
+         * Whether a {@link Relocatable}, an exception table entry or a local variable starts at this offset; see
+         * {@link CodeContext#removeCode(Offset, Offset)}.
+         */
+        boolean referenced;
+
         /**
          * Special value for {@link #offset} which indicates that this {@link Offset} has not yet been {@link #set()}
          */
@@ -881,6 +1116,7 @@ class CodeContext {
         setStackMap() {
 
             Inserter ci = CodeContext.this.currentInserter;
+            ci.updateStackMap();
 
             final StackMap ciSm = ((Offset) ci).stackMap;
             if (ciSm == null) {
@@ -973,6 +1209,7 @@ class CodeContext {
      */
     public void
     addExceptionTableEntry(Offset startPc, Offset endPc, Offset handlerPc, @Nullable String catchTypeFd) {
+        startPc.referenced = true;
         this.exceptionTableEntries.add(new ExceptionTableEntry(
             startPc,
             endPc,
@@ -1001,7 +1238,107 @@ class CodeContext {
      */
     public
     class Inserter extends Offset {
+
         @Nullable private Inserter nextInserter; // null == not in "currentInserter" stack
+
+        /**
+         * The operand stack of an inserter changes with almost every instruction; thus it is kept in this mutable
+         * buffer (iff {@link #operandCount} is not -1), and the {@link StackMap} is only updated when it is requested
+         * (copy-on-read).
+         */
+        @Nullable private VerificationTypeInfo[] operandBuffer;
+        private int                              operandCount = -1;
+        private boolean                          operandsChanged;
+
+        @Override public StackMap
+        getStackMap() {
+            this.updateStackMap();
+            return super.getStackMap();
+        }
+
+        @Override public void
+        setStackMap(StackMap stackMap) {
+            this.operandCount    = -1;
+            this.operandsChanged = false;
+            super.setStackMap(stackMap);
+        }
+
+        /**
+         * Brings the stack map of this inserter up to date with the {@link #operandBuffer}.
+         */
+        void
+        updateStackMap() {
+            if (!this.operandsChanged) return;
+
+            VerificationTypeInfo[] ob = this.operandBuffer;
+            assert ob != null;
+
+            super.setStackMap(new StackMap(super.getStackMap(), ob, this.operandCount));
+            this.operandsChanged = false;
+        }
+
+        void
+        pushOperand(VerificationTypeInfo operand) {
+
+            VerificationTypeInfo[] ob = this.getOperandBuffer();
+            if (this.operandCount == ob.length) {
+                this.operandBuffer = (ob = (VerificationTypeInfo[]) Arrays.copyOf(ob, 2 * ob.length + 4));
+            }
+
+            ob[this.operandCount++] = operand;
+            this.operandsChanged    = true;
+        }
+
+        VerificationTypeInfo
+        popOperand() {
+
+            VerificationTypeInfo result = this.peekOperand();
+
+            this.operandCount--;
+            this.operandsChanged = true;
+
+            return result;
+        }
+
+        VerificationTypeInfo
+        peekOperand() {
+
+            VerificationTypeInfo[] ob = this.getOperandBuffer();
+            if (this.operandCount == 0) throw new InternalCompilerException("Operand stack underflow");
+
+            return ob[this.operandCount - 1];
+        }
+
+        /**
+         * @return The current size of the operand stack, in slots
+         */
+        int
+        getOperandStackSize() {
+
+            VerificationTypeInfo[] ob = this.getOperandBuffer();
+
+            int result = 0;
+            for (int i = 0; i < this.operandCount; i++) result += ob[i].category();
+            return result;
+        }
+
+        private VerificationTypeInfo[]
+        getOperandBuffer() {
+
+            VerificationTypeInfo[] ob = this.operandBuffer;
+            if (this.operandCount == -1) {
+                StackMap sm = super.getStackMap();
+                if (ob == null || ob.length < sm.operandCount()) {
+                    this.operandBuffer = (ob = sm.operands());
+                } else {
+                    sm.getOperands(ob);
+                }
+                this.operandCount = sm.operandCount();
+            }
+            assert ob != null;
+
+            return ob;
+        }
     }
 
     /**
@@ -1060,6 +1397,11 @@ class CodeContext {
     /**
      * Removes all code between <var>from</var> and <var>to</var>. Also removes any {@link CodeContext.Relocatable}s
      * existing in that range.
+     * <p>
+     *   The code and the offsets after <var>to</var> are moved down eagerly, so the cost is linear in the size of the
+     *   code that follows <var>to</var>. That is cheap in the common case, where <var>to</var> is the current inserter
+     *   at the end of the code, but removals far before the end of a large method remain expensive.
+     * </p>
      */
     public void
     removeCode(Offset from, Offset to) {
@@ -1077,6 +1419,7 @@ class CodeContext {
         // Invalidate all offsets between "from" and "to".
         // Remove all relocatables that originate between "from" and "to".
         Set<Offset> invalidOffsets = new HashSet<Offset>();
+        boolean     referenced     = false;
         {
             Offset o = from.next;
             assert o != null;
@@ -1085,6 +1428,7 @@ class CodeContext {
                 assert o != null;
 
                 invalidOffsets.add(o);
+                referenced |= o.referenced;
 
                 // Invalidate the offset for fast failure.
                 final Offset n = o.next;
@@ -1104,6 +1448,13 @@ class CodeContext {
             }
         }
 
+        from.next = to;
+        to.prev   = from;
+
+        // Short circuit; this is the common case, e.g. when a constant expression was fake-compiled, and saves the
+        // following linear scans, which would otherwise make the compilation of large methods O(n**2).
+        if (!referenced) return;
+
         // Invalidate all relocatables which originate or target a removed offset.
         for (Iterator<Relocatable> it = this.relocatables.iterator(); it.hasNext();) {
             Relocatable r = (Relocatable) it.next();
@@ -1154,9 +1505,6 @@ class CodeContext {
                 assert !invalidOffsets.contains(var.getEnd());
             }
         }
-
-        from.next = to;
-        to.prev   = from;
     }
 
     @Override public String
@@ -1232,12 +1580,9 @@ class CodeContext {
     pushOperand(VerificationTypeInfo topOperand) {
         final Inserter ci = this.currentInserter();
 
-        StackMap sm = ci.getStackMap();
-        sm = sm.pushOperand(topOperand);
-        ci.setStackMap(sm);
+        ci.pushOperand(topOperand);
 
-        int ss = 0;
-        for (VerificationTypeInfo vti : sm.operands()) ss += vti.category();
+        int ss = ci.getOperandStackSize();
         if (ss > this.maxStack) this.maxStack = ss;
     }
 
@@ -1261,23 +1606,13 @@ class CodeContext {
      * @return The verification type of the top operand
      */
     public VerificationTypeInfo
-    peekOperand() { return this.currentInserter().getStackMap().peekOperand(); }
+    peekOperand() { return this.currentInserter().peekOperand(); }
 
     /**
      * Pops one entry from the current inserter's operand stack.
      */
     public VerificationTypeInfo
-    popOperand() {
-
-        Inserter ci = this.currentInserter();
-        StackMap sm = ci.getStackMap();
-
-        VerificationTypeInfo result = sm.peekOperand();
-
-        ci.setStackMap(sm.popOperand());
-
-        return result;
-    }
+    popOperand() { return this.currentInserter().popOperand(); }
 
     /**
      * Pops the top entry from the operand stack and assert that it equals <var>expected</var>.
@@ -1369,7 +1704,8 @@ class CodeContext {
      */
     public void
     popUninitializedVariableOperand() {
-        assert this.popOperand() instanceof StackMapTableAttribute.UninitializedVariableInfo;
+        VerificationTypeInfo vti = this.popOperand();
+        assert vti instanceof StackMapTableAttribute.UninitializedVariableInfo : vti;
     }
 
     /**
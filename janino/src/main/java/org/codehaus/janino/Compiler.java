@@ -31,25 +31,43 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.lang.reflect.Array;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.codehaus.commons.compiler.AbstractCompiler;
 import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.ErrorHandler;
 import org.codehaus.commons.compiler.ICompiler;
 import org.codehaus.commons.compiler.InternalCompilerException;
 import org.codehaus.commons.compiler.Location;
 import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.commons.compiler.io.InputStreams;
 import org.codehaus.commons.compiler.java9.java.lang.module.ModuleFinder;
 import org.codehaus.commons.compiler.java9.java.lang.module.ModuleReference;
 import org.codehaus.commons.compiler.util.Benchmark;
@@ -65,6 +83,10 @@ import org.codehaus.commons.compiler.util.resource.Resource;
 import org.codehaus.commons.compiler.util.resource.ResourceCreator;
 import org.codehaus.commons.compiler.util.resource.ResourceFinder;
 import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.Java.AbstractCompilationUnit.ImportDeclaration;
+import org.codehaus.janino.Java.AbstractCompilationUnit.TypeImportOnDemandDeclaration;
+import org.codehaus.janino.Java.CompilationUnit;
+import org.codehaus.janino.Java.PackageMemberTypeDeclaration;
 import org.codehaus.janino.util.ClassFile;
 
 /**
@@ -75,10 +97,13 @@ class Compiler extends AbstractCompiler {
 
     private static final Logger LOGGER = Logger.getLogger(Compiler.class.getName());
 
-    private EnumSet<JaninoOption> options = EnumSet.noneOf(JaninoOption.class);
+    private EnumSet<JaninoOption> options                  = EnumSet.noneOf(JaninoOption.class);
+    private int                   targetVersion            = UnitCompiler.defaultTargetVersion();
+    private int                   methodOutliningThreshold = UnitCompiler.defaultMethodOutliningThreshold();
 
     private IClassLoader              iClassLoader     = new ClassLoaderIClassLoader();
     private Benchmark                 benchmark        = new Benchmark(false);
+    @Nullable private File            dependencyIndexFile;
 
     { this.updateIClassLoader(); }
 
@@ -86,6 +111,10 @@ class Compiler extends AbstractCompiler {
 
     private final List<UnitCompiler> parsedCompilationUnits = new ArrayList<UnitCompiler>();
 
+    // Only during incremental compilation: The class files and the identifiers of the compiled compilation units.
+    @Nullable private Map<String /*fileName*/, ClassFile[]> compiledClassFiles;
+    @Nullable private Map<String /*fileName*/, Set<String>> mentionedNames;
+
     /**
      * Initializes a new compiler.
      */
@@ -207,48 +236,112 @@ class Compiler extends AbstractCompiler {
         return this;
     }
 
+    /**
+     * Sets the Java version (6, 7, 8, ...) of the class files that are generated by future compilations.
+     *
+     * @see UnitCompiler#setTargetVersion(int)
+     */
+    public void
+    setTargetVersion(int targetVersion) {
+        if (targetVersion < 6) throw new IllegalArgumentException("Target version " + targetVersion + " not supported");
+        this.targetVersion = targetVersion;
+    }
+
+    /**
+     * Sets the estimated byte code size above which future compilations move statements out of a method, iff {@link
+     * JaninoOption#METHOD_OUTLINING} is enabled.
+     *
+     * @see UnitCompiler#setMethodOutliningThreshold(int)
+     */
+    public void
+    setMethodOutliningThreshold(int threshold) {
+        this.methodOutliningThreshold = UnitCompiler.checkMethodOutliningThreshold(threshold);
+    }
+
+    /**
+     * Enables incremental compilation: {@link #compile(Resource[])} records, in the given file, the classes that each
+     * compilation unit declares and the types that it references, and later compilations recompile only the
+     * compilation units that were changed since, plus (transitively) the ones that depend on a compilation unit whose
+     * API changed. E.g. changing only the body of a method recompiles only the compilation unit that declares it.
+     * <p>
+     *   Incremental compilation requires that the previously generated class files can be found through the {@link
+     *   #setClassFileFinder(ResourceFinder) class file finder}; compilation units whose class files are missing are
+     *   recompiled. Source files that are no longer passed to {@link #compile(Resource[])} are regarded as deleted.
+     * </p>
+     *
+     * @param dependencyIndexFile {@code null} disables incremental compilation (which is the default)
+     */
+    public void
+    setDependencyIndexFile(@Nullable File dependencyIndexFile) { this.dependencyIndexFile = dependencyIndexFile; }
+
     @Override public void
     compile(Resource[] sourceResources) throws CompileException, IOException {
 
+        File dif = this.dependencyIndexFile;
+        if (dif != null) {
+            this.compileIncrementally(sourceResources, dif);
+        } else {
+            this.compile(sourceResources, Collections.<String, String>emptyMap());
+        }
+    }
+
+    /**
+     * @param precompiledClasses Classes that are to be loaded from their (up-to-date) class files, mapped to the file
+     *                           names of the compilation units that declare them
+     */
+    private void
+    compile(Resource[] sourceResources, Map<String /*className*/, String /*fileName*/> precompiledClasses)
+    throws CompileException, IOException {
+
         this.benchmark.beginReporting();
         try {
 
-            final IClassLoader
-            iClassLoader = new CompilerIClassLoader(this.sourceFinder, this.classFileFinder, this.iClassLoader);
+            final IClassLoader iClassLoader = new CompilerIClassLoader(
+                this.sourceFinder,
+                this.classFileFinder,
+                precompiledClasses,
+                this.iClassLoader
+            );
 
             // Initialize compile time fields.
             this.parsedCompilationUnits.clear();
 
-            // Parse all source files.
-            for (Resource sourceResource : sourceResources) {
-                Compiler.LOGGER.log(Level.FINE, "Compiling \"{0}\"", sourceResource);
-
-                UnitCompiler uc = new UnitCompiler(
-                    this.parseAbstractCompilationUnit(
-                        sourceResource.getFileName(),                   // fileName
-                        new BufferedInputStream(sourceResource.open()), // inputStream
-                        this.sourceCharset                              // charset
-                    ),
-                    iClassLoader
-                );
-                uc.setCompileErrorHandler(this.compileErrorHandler);
-                uc.setWarningHandler(this.warningHandler);
-                uc.options(this.options);
+            int compiledUnitCount = 0;
+            if (this.parallelism > 1 && sourceResources.length > 1) {
 
-                this.parsedCompilationUnits.add(uc);
+                // Parse all source files, and compile the ones that are independent from the source path, with
+                // multiple threads.
+                compiledUnitCount = this.compileInParallel(sourceResources, iClassLoader);
+            } else {
+
+                // Parse all source files.
+                for (Resource sourceResource : sourceResources) {
+                    Compiler.LOGGER.log(Level.FINE, "Compiling \"{0}\"", sourceResource);
+
+                    UnitCompiler uc = new UnitCompiler(
+                        this.parseAbstractCompilationUnit(
+                            sourceResource.getFileName(),                   // fileName
+                            new BufferedInputStream(sourceResource.open()), // inputStream
+                            this.sourceCharset                              // charset
+                        ),
+                        iClassLoader
+                    );
+                    uc.setCompileErrorHandler(this.compileErrorHandler);
+                    uc.setWarningHandler(this.warningHandler);
+                    uc.options(this.options);
+                    uc.setTargetVersion(this.targetVersion);
+                    uc.setMethodOutliningThreshold(this.methodOutliningThreshold);
+
+                    this.parsedCompilationUnits.add(uc);
+                }
             }
 
             // Compile all parsed compilation units. The vector of parsed CUs may grow while they are being compiled,
             // but eventually all CUs will be compiled.
-            for (int i = 0; i < this.parsedCompilationUnits.size(); ++i) {
+            for (int i = compiledUnitCount; i < this.parsedCompilationUnits.size(); ++i) {
                 UnitCompiler unitCompiler = (UnitCompiler) this.parsedCompilationUnits.get(i);
 
-                File sourceFile;
-                {
-                    Java.AbstractCompilationUnit acu = unitCompiler.getAbstractCompilationUnit();
-                    if (acu.fileName == null) throw new InternalCompilerException();
-                    sourceFile = new File(acu.fileName);
-                }
+                File sourceFile = Compiler.getSourceFile(unitCompiler);
 
                 unitCompiler.setCompileErrorHandler(this.compileErrorHandler);
                 unitCompiler.setWarningHandler(this.warningHandler);
@@ -263,22 +356,787 @@ class Compiler extends AbstractCompiler {
                     this.benchmark.endReporting();
                 }
 
-                // Store the compiled classes and interfaces into class files.
-                this.benchmark.beginReporting(
-                    "Storing "
-                    + classFiles.length
-                    + " class file(s) resulting from compilation unit \""
-                    + sourceFile
-                    + "\""
+                this.storeClassFiles(classFiles, unitCompiler);
+            }
+        } finally {
+            this.benchmark.endReporting("Compiled " + this.parsedCompilationUnits.size() + " compilation unit(s)");
+        }
+    }
+
+    /**
+     * Compiles those of the <var>sourceResources</var> that were changed since the previous compilation (as recorded
+     * in the <var>dependencyIndexFile</var>), and then, round by round, the compilation units that depend on a
+     * compilation unit whose API changed in the previous round. Finally updates the <var>dependencyIndexFile</var>.
+     * <p>
+     *   The compilation units that are not recompiled in a round are loaded from their class files.
+     * </p>
+     */
+    private void
+    compileIncrementally(Resource[] sourceResources, File dependencyIndexFile) throws CompileException, IOException {
+
+        DependencyIndex index = DependencyIndex.load(dependencyIndexFile);
+
+        Map<String /*fileName*/, Resource> resources = new LinkedHashMap<String, Resource>();
+        for (Resource sourceResource : sourceResources) resources.put(sourceResource.getFileName(), sourceResource);
+
+        Set<String /*fileName*/>  outdated       = new HashSet<String>();
+        Set<String /*className*/> changedClasses = new HashSet<String>();
+        Set<String /*fileName*/>  changedUnits   = new HashSet<String>();
+
+        // Forget the compilation units that were removed, and recompile the ones that depend on them.
+        for (String fileName : new ArrayList<String>(index.units.keySet())) {
+            if (resources.containsKey(fileName)) continue;
+
+            DependencyIndex.Unit removed = (DependencyIndex.Unit) index.units.remove(fileName);
+            changedClasses.addAll(Arrays.asList(removed.classNames));
+            outdated.addAll(index.getDependents(fileName, removed));
+        }
+
+        // Recompile the compilation units that are new, changed, or whose class files are missing.
+        for (Resource sourceResource : sourceResources) {
+            String               fileName = sourceResource.getFileName();
+            DependencyIndex.Unit unit     = (DependencyIndex.Unit) index.units.get(fileName);
+            if (
+                unit == null
+                || unit.lastModified != sourceResource.lastModified()
+                || !this.classFilesExist(unit.classNames, fileName)
+            ) outdated.add(fileName);
+        }
+
+        int compiledUnitCount = 0;
+        this.benchmark.beginReporting();
+        this.compiledClassFiles = new HashMap<String, ClassFile[]>();
+        this.mentionedNames     = new HashMap<String, Set<String>>();
+        try {
+            while (!outdated.isEmpty()) {
+
+                // Compile the outdated compilation units, in the order of the source resources, and load all others
+                // from their class files.
+                List<Resource> round        = new ArrayList<Resource>();
+                List<Long>     lastModified = new ArrayList<Long>();
+                for (Resource sourceResource : sourceResources) {
+                    if (outdated.contains(sourceResource.getFileName())) {
+                        round.add(sourceResource);
+                        lastModified.add(sourceResource.lastModified());
+                    }
+                }
+                Set<String> roundFileNames = outdated;
+                outdated = new HashSet<String>();
+
+                Map<String /*className*/, String /*fileName*/>
+                precompiledClasses = new HashMap<String, String>();
+                for (Map.Entry<String, DependencyIndex.Unit> e : index.units.entrySet()) {
+                    String fileName = (String) e.getKey();
+                    if (roundFileNames.contains(fileName)) continue;
+                    for (String className : ((DependencyIndex.Unit) e.getValue()).classNames) {
+                        precompiledClasses.put(className, fileName);
+                    }
+                }
+
+                this.compiledClassFiles.clear();
+                this.mentionedNames.clear();
+                this.compile((Resource[]) round.toArray(new Resource[round.size()]), precompiledClasses);
+                compiledUnitCount += round.size();
+
+                // Update the index, and determine which compilation units' APIs changed.
+                Map<String /*fileName*/, DependencyIndex.Unit>
+                previousUnits = new LinkedHashMap<String, DependencyIndex.Unit>();
+                for (int i = 0; i < round.size(); i++) {
+                    String fileName = ((Resource) round.get(i)).getFileName();
+
+                    ClassFile[] classFiles = (ClassFile[]) this.compiledClassFiles.get(fileName);
+                    Set<String> names      = (Set<String>) this.mentionedNames.get(fileName);
+                    assert classFiles != null && names != null : fileName;
+
+                    previousUnits.put(fileName, (DependencyIndex.Unit) index.units.put(
+                        fileName,
+                        DependencyIndex.newUnit(((Long) lastModified.get(i)).longValue(), classFiles, names)
+                    ));
+                }
+
+                // A compilation unit's API also changes when the API of a superclass or interface changes; however
+                // that is propagated only once per compilation unit, so that mutually dependent compilation units
+                // cannot cause an endless loop.
+                Set<String> roundChangedUnits = new HashSet<String>();
+                for (boolean again = true; again;) {
+                    again = false;
+                    for (Map.Entry<String, DependencyIndex.Unit> e : previousUnits.entrySet()) {
+                        String               fileName = (String) e.getKey();
+                        DependencyIndex.Unit previous = (DependencyIndex.Unit) e.getValue();
+                        DependencyIndex.Unit current  = (DependencyIndex.Unit) index.units.get(fileName);
+                        assert current != null;
+
+                        if (roundChangedUnits.contains(fileName)) continue;
+                        if (
+                            previous != null
+                            && previous.apiHash == current.apiHash
+                            && (changedUnits.contains(fileName) || !current.extendsAny(changedClasses))
+                        ) continue;
+
+                        roundChangedUnits.add(fileName);
+                        changedClasses.addAll(Arrays.asList(current.classNames));
+                        if (previous != null) changedClasses.addAll(Arrays.asList(previous.classNames));
+                        again = true;
+                    }
+                }
+
+                changedUnits.addAll(roundChangedUnits);
+
+                // Recompile the dependents of the changed compilation units in the next round.
+                for (String fileName : roundChangedUnits) {
+                    DependencyIndex.Unit previous = (DependencyIndex.Unit) previousUnits.get(fileName);
+                    DependencyIndex.Unit current  = (DependencyIndex.Unit) index.units.get(fileName);
+                    assert current != null;
+
+                    Set<String> dependents = (
+                        previous == null
+                        ? index.getDependents(fileName, current)
+                        : index.getDependents(fileName, previous, current)
+                    );
+                    dependents.removeAll(roundFileNames);
+                    outdated.addAll(dependents);
+                }
+            }
+        } finally {
+            this.compiledClassFiles = null;
+            this.mentionedNames     = null;
+            this.benchmark.endReporting(
+                "Compiled "
+                + compiledUnitCount
+                + " of "
+                + sourceResources.length
+                + " compilation unit(s) incrementally"
+            );
+        }
+
+        index.save(dependencyIndexFile);
+    }
+
+    /**
+     * @return Whether the class files for all <var>classNames</var> exist
+     */
+    private boolean
+    classFilesExist(String[] classNames, String sourceFileName) {
+        for (String className : classNames) {
+            if (this.findClassFile(className, sourceFileName) == null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The previously generated class file for the class with the given name, or {@code null}
+     */
+    @Nullable private Resource
+    findClassFile(String className, String sourceFileName) {
+
+        ResourceFinder cff = this.classFileFinder;
+        if (cff != ICompiler.FIND_NEXT_TO_SOURCE_FILE) {
+            assert cff != null;
+            return cff.findResource(ClassFile.getClassFileResourceName(className));
+        }
+
+        File classFile = Compiler.getClassFile(className, new File(sourceFileName), null);
+        return classFile.exists() ? new FileResource(classFile) : null;
+    }
+
+    private static File
+    getSourceFile(UnitCompiler unitCompiler) {
+        Java.AbstractCompilationUnit acu = unitCompiler.getAbstractCompilationUnit();
+        if (acu.fileName == null) throw new InternalCompilerException();
+        return new File(acu.fileName);
+    }
+
+    /**
+     * Stores the compiled classes and interfaces into class files.
+     */
+    private void
+    storeClassFiles(ClassFile[] classFiles, UnitCompiler unitCompiler) throws IOException {
+
+        Map<String, ClassFile[]> ccf = this.compiledClassFiles;
+        if (ccf != null) ccf.put(unitCompiler.getAbstractCompilationUnit().fileName, classFiles);
+
+        File sourceFile = Compiler.getSourceFile(unitCompiler);
+        this.benchmark.beginReporting(
+            "Storing "
+            + classFiles.length
+            + " class file(s) resulting from compilation unit \""
+            + sourceFile
+            + "\""
+        );
+        try {
+            for (ClassFile classFile : classFiles) this.storeClassFile(classFile, sourceFile);
+        } finally {
+            this.benchmark.endReporting();
+        }
+    }
+
+    /**
+     * Parses the <var>sourceResources</var> with {@link #parallelism} threads, and then compiles them with the same
+     * threads. A compilation unit is compiled only after all compilation units that it depends on; compilation units
+     * that depend on each other form a "cluster", which is compiled by one thread. That way, no thread ever sees a
+     * compilation unit that another thread is compiling at the same time.
+     * <p>
+     *   Dependencies are determined conservatively: A compilation unit depends on another if it mentions the simple
+     *   name of a type that the other one declares. If a compilation unit could depend on a source file on the source
+     *   path, then this method only parses, and leaves the compilation to the caller.
+     * </p>
+     * <p>
+     *   Errors and warnings are recorded per compilation unit, and reported (and the class files stored) in the order
+     *   of the <var>sourceResources</var>, so that the results are the same as with sequential compilation.
+     * </p>
+     *
+     * @return The number of compilation units that were compiled (and stored)
+     */
+    private int
+    compileInParallel(Resource[] sourceResources, IClassLoader iClassLoader) throws CompileException, IOException {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(
+            this.parallelism,
+            Compiler.DAEMON_THREAD_FACTORY
+        );
+        try {
+            return this.compileInParallel(sourceResources, iClassLoader, executorService);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private int
+    compileInParallel(Resource[] sourceResources, IClassLoader iClassLoader, ExecutorService executorService)
+    throws CompileException, IOException {
+
+        final int n = sourceResources.length;
+
+        // Parse all source files in parallel.
+        List<Future<ParsedUnit>> futures = new ArrayList<Future<ParsedUnit>>(n);
+        for (final Resource sourceResource : sourceResources) {
+            futures.add(executorService.submit(new Callable<ParsedUnit>() {
+
+                @Override public ParsedUnit
+                call() { return Compiler.this.parseAndCollectNames(sourceResource); }
+            }));
+        }
+
+        final UnitCompiler[] unitCompilers = new UnitCompiler[n];
+        ParsedUnit[]         parsedUnits   = new ParsedUnit[n];
+        this.benchmark.beginReporting("Parsing " + n + " compilation unit(s) with " + this.parallelism + " threads");
+        try {
+            for (int i = 0; i < n; ++i) {
+                Compiler.LOGGER.log(Level.FINE, "Compiling \"{0}\"", sourceResources[i]);
+
+                ParsedUnit pu = (ParsedUnit) Compiler.getResult((Future<ParsedUnit>) futures.get(i));
+                pu.diagnostics.replay(this.compileErrorHandler, this.warningHandler);
+
+                Java.AbstractCompilationUnit acu = pu.abstractCompilationUnit;
+                assert acu != null;
+
+                UnitCompiler uc = new UnitCompiler(acu, iClassLoader);
+                uc.setCompileErrorHandler(this.compileErrorHandler);
+                uc.setWarningHandler(this.warningHandler);
+                uc.options(this.options);
+                uc.setTargetVersion(this.targetVersion);
+                uc.setMethodOutliningThreshold(this.methodOutliningThreshold);
+
+                this.parsedCompilationUnits.add(uc);
+                unitCompilers[i] = uc;
+                parsedUnits[i]   = pu;
+
+                Map<String, Set<String>> mn = this.mentionedNames;
+                if (mn != null) mn.put(sourceResources[i].getFileName(), pu.names);
+            }
+        } finally {
+            this.benchmark.endReporting();
+        }
+
+        int[][] dependencies = this.getDependencies(parsedUnits);
+        if (dependencies == null) return 0;
+
+        // Group the compilation units into clusters, and determine the dependencies between the clusters.
+        int[] clusterOfUnit = Compiler.getClusters(dependencies);
+        int   clusterCount  = 0;
+        for (int c : clusterOfUnit) clusterCount = Math.max(clusterCount, c + 1);
+
+        List<List<Integer>> unitsOfCluster      = new ArrayList<List<Integer>>(clusterCount);
+        List<Set<Integer>>  dependentsOfCluster = new ArrayList<Set<Integer>>(clusterCount);
+        int[]               pendingDependencies = new int[clusterCount];
+        for (int c = 0; c < clusterCount; ++c) {
+            unitsOfCluster.add(new ArrayList<Integer>());
+            dependentsOfCluster.add(new TreeSet<Integer>());
+        }
+        for (int i = 0; i < n; ++i) {
+            int c = clusterOfUnit[i];
+            ((List<Integer>) unitsOfCluster.get(c)).add(i);
+            for (int j : dependencies[i]) {
+                int d = clusterOfUnit[j];
+                if (d != c && ((Set<Integer>) dependentsOfCluster.get(d)).add(c)) pendingDependencies[c]++;
+            }
+        }
+
+        // Compile each cluster as soon as all clusters that it depends on are compiled.
+        final ClassFile[][]         classFiless = new ClassFile[n][];
+        final DeferredDiagnostics[] diagnostics = new DeferredDiagnostics[n];
+
+        CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executorService);
+        for (int c = 0; c < clusterCount; ++c) {
+            if (pendingDependencies[c] == 0) {
+                this.submitCluster(
+                    c,
+                    (List<Integer>) unitsOfCluster.get(c),
+                    unitCompilers,
+                    classFiless,
+                    diagnostics,
+                    completionService
                 );
-                try {
-                    for (ClassFile classFile : classFiles) this.storeClassFile(classFile, sourceFile);
-                } finally {
-                    this.benchmark.endReporting();
+            }
+        }
+
+        boolean[] unitCompiled = new boolean[n];
+        int       nextUnit     = 0;
+        this.benchmark.beginReporting(
+            "Compiling "
+            + n
+            + " compilation unit(s) in "
+            + clusterCount
+            + " cluster(s) with "
+            + this.parallelism
+            + " threads"
+        );
+        try {
+            for (int i = 0; i < clusterCount; ++i) {
+                int c = ((Integer) Compiler.getResult((Future<Integer>) Compiler.take(completionService))).intValue();
+
+                for (Integer u : (List<Integer>) unitsOfCluster.get(c)) unitCompiled[u.intValue()] = true;
+                for (Integer dependent : (Set<Integer>) dependentsOfCluster.get(c)) {
+                    int d = dependent.intValue();
+                    if (--pendingDependencies[d] == 0) {
+                        this.submitCluster(
+                            d,
+                            (List<Integer>) unitsOfCluster.get(d),
+                            unitCompilers,
+                            classFiless,
+                            diagnostics,
+                            completionService
+                        );
+                    }
+                }
+
+                // Report errors and warnings and store the class files in the order of the source resources.
+                for (; nextUnit < n && unitCompiled[nextUnit]; nextUnit++) {
+                    diagnostics[nextUnit].replay(this.compileErrorHandler, this.warningHandler);
+
+                    ClassFile[] cfs = classFiless[nextUnit];
+                    assert cfs != null;
+                    this.storeClassFiles(cfs, unitCompilers[nextUnit]);
                 }
             }
         } finally {
-            this.benchmark.endReporting("Compiled " + this.parsedCompilationUnits.size() + " compilation unit(s)");
+            this.benchmark.endReporting();
+        }
+
+        return n;
+    }
+    /**
+     * Compiles the compilation units of one cluster, in the order of their indexes, in a worker thread.
+     */
+    private void
+    submitCluster(
+        final int                   cluster,
+        final List<Integer>         units,
+        final UnitCompiler[]        unitCompilers,
+        final ClassFile[][]         classFiless,
+        final DeferredDiagnostics[] diagnostics,
+        CompletionService<Integer>  completionService
+    ) {
+        final boolean throwOnError = this.compileErrorHandler == null;
+        final boolean debugSource  = this.debugSource;
+        final boolean debugLines   = this.debugLines;
+        final boolean debugVars    = this.debugVars;
+
+        completionService.submit(new Callable<Integer>() {
+
+            @Override public Integer
+            call() {
+                for (Integer unit : units) {
+
+                    // Stop early when the compilation has been cancelled.
+                    if (Thread.currentThread().isInterrupted()) break;
+
+                    int                 u  = unit.intValue();
+                    UnitCompiler        uc = unitCompilers[u];
+                    DeferredDiagnostics dd = new DeferredDiagnostics(throwOnError);
+                    uc.setCompileErrorHandler(dd);
+                    uc.setWarningHandler(dd);
+                    try {
+                        classFiless[u] = uc.compileUnit(debugSource, debugLines, debugVars);
+                    } catch (CompileException ce) {
+                        dd.exception = ce;
+                    }
+                    diagnostics[u] = dd;
+                }
+                return cluster;
+            }
+        });
+    }
+
+    /**
+     * Determines which of the <var>parsedUnits</var> depend on which others.
+     *
+     * @return For each compilation unit, the indexes of the <em>other</em> compilation units that declare a type that
+     *         it mentions, or {@code null} if any compilation unit mentions a type that could be loaded from the
+     *         source path
+     */
+    @Nullable private int[][]
+    getDependencies(ParsedUnit[] parsedUnits) {
+
+        // Determine the types that each compilation unit declares.
+        Map<String /*simpleName*/, List<Integer>> declaringUnits     = new HashMap<String, List<Integer>>();
+        Set<String /*className*/>                 declaredClassNames = new HashSet<String>();
+        for (int i = 0; i < parsedUnits.length; ++i) {
+            Java.AbstractCompilationUnit acu = parsedUnits[i].abstractCompilationUnit;
+            if (!(acu instanceof CompilationUnit)) continue;
+
+            String packagePrefix = Compiler.getPackagePrefix(acu);
+            for (PackageMemberTypeDeclaration pmtd : ((CompilationUnit) acu).getPackageMemberTypeDeclarations()) {
+                String        simpleName = pmtd.getName();
+                List<Integer> units      = (List<Integer>) declaringUnits.get(simpleName);
+                if (units == null) declaringUnits.put(simpleName, (units = new ArrayList<Integer>()));
+                units.add(i);
+                declaredClassNames.add(packagePrefix + simpleName);
+            }
+        }
+
+        boolean              checkSourcePath = this.sourceFinder != ResourceFinder.EMPTY_RESOURCE_FINDER;
+        Map<String, Boolean> onSourcePath    = new HashMap<String, Boolean>();
+
+        int[][] result = new int[parsedUnits.length][];
+        for (int i = 0; i < parsedUnits.length; ++i) {
+            Java.AbstractCompilationUnit acu = parsedUnits[i].abstractCompilationUnit;
+            assert acu != null;
+
+            Set<Integer> dependencies = new TreeSet<Integer>();
+            for (String name : parsedUnits[i].names) {
+                List<Integer> units = (List<Integer>) declaringUnits.get(name);
+                if (units != null) {
+                    dependencies.addAll(units);
+                    continue;
+                }
+                if (!checkSourcePath) continue;
+
+                // Could the name designate a type on the source path?
+                List<String> candidates = new ArrayList<String>();
+                if (name.indexOf('.') != -1) {
+                    candidates.add(name);
+                } else {
+                    candidates.add(Compiler.getPackagePrefix(acu) + name);
+                    for (ImportDeclaration id : acu.importDeclarations) {
+                        if (id instanceof TypeImportOnDemandDeclaration) {
+                            String[] identifiers = ((TypeImportOnDemandDeclaration) id).identifiers;
+                            candidates.add(Java.join(identifiers, ".") + '.' + name);
+                        }
+                    }
+                }
+                for (String className : candidates) {
+                    if (declaredClassNames.contains(className)) continue;
+                    Boolean b = (Boolean) onSourcePath.get(className);
+                    if (b == null) {
+                        b = this.sourceFinder.findResource(ClassFile.getSourceResourceName(className)) != null;
+                        onSourcePath.put(className, b);
+                    }
+                    if (b) return null;
+                }
+            }
+            dependencies.remove(i);
+
+            int[] tmp = new int[dependencies.size()];
+            int   j   = 0;
+            for (Integer d : dependencies) tmp[j++] = d.intValue();
+            result[i] = tmp;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return E.g. {@code "pkg1.pkg2."}, or {@code ""} for the default package
+     */
+    private static String
+    getPackagePrefix(Java.AbstractCompilationUnit acu) {
+        if (!(acu instanceof CompilationUnit)) return "";
+        Java.PackageDeclaration pd = ((CompilationUnit) acu).packageDeclaration;
+        return pd == null ? "" : pd.packageName + '.';
+    }
+
+    /**
+     * Computes the strongly connected components of the dependency graph, i.e. the maximal groups ("clusters") of
+     * compilation units that depend on each other, directly or indirectly (Tarjan's algorithm, without recursion).
+     *
+     * @return The cluster of each compilation unit; clusters are numbered in the order of their first compilation
+     *         unit
+     */
+    private static int[]
+    getClusters(int[][] dependencies) {
+        int n = dependencies.length;
+
+        int[]     index     = new int[n];
+        int[]     lowLink   = new int[n];
+        int[]     component = new int[n];
+        boolean[] onStack   = new boolean[n];
+        int[]     stack     = new int[n];
+        int[]     path      = new int[n];
+        int[]     nextEdge  = new int[n];
+        Arrays.fill(index, -1);
+
+        int indexCount = 0, componentCount = 0, sp = 0;
+        for (int root = 0; root < n; ++root) {
+            if (index[root] != -1) continue;
+
+            index[root]   = (lowLink[root] = indexCount++);
+            stack[sp++]   = root;
+            onStack[root] = true;
+            path[0]       = root;
+            nextEdge[0]   = 0;
+            int pathLength = 1;
+
+            while (pathLength > 0) {
+                int v = path[pathLength - 1];
+                if (nextEdge[pathLength - 1] < dependencies[v].length) {
+                    int w = dependencies[v][nextEdge[pathLength - 1]++];
+                    if (index[w] == -1) {
+                        index[w]             = (lowLink[w] = indexCount++);
+                        stack[sp++]          = w;
+                        onStack[w]           = true;
+                        path[pathLength]     = w;
+                        nextEdge[pathLength] = 0;
+                        pathLength++;
+                    } else
+                    if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+
+                if (--pathLength > 0) {
+                    int u = path[pathLength - 1];
+                    lowLink[u] = Math.min(lowLink[u], lowLink[v]);
+                }
+                if (lowLink[v] == index[v]) {
+                    int w;
+                    do {
+                        w            = stack[--sp];
+                        onStack[w]   = false;
+                        component[w] = componentCount;
+                    } while (w != v);
+                    componentCount++;
+                }
+            }
+        }
+
+        // Renumber the clusters in the order of their first compilation unit.
+        int[] clusterOfComponent = new int[componentCount];
+        Arrays.fill(clusterOfComponent, -1);
+        int[] result       = new int[n];
+        int   clusterCount = 0;
+        for (int i = 0; i < n; ++i) {
+            int c = component[i];
+            if (clusterOfComponent[c] == -1) clusterOfComponent[c] = clusterCount++;
+            result[i] = clusterOfComponent[c];
+        }
+        return result;
+    }
+
+    /**
+     * Parses one compilation unit in a worker thread, and records the identifiers that appear in it.
+     */
+    private ParsedUnit
+    parseAndCollectNames(Resource sourceResource) {
+
+        DeferredDiagnostics          dd  = new DeferredDiagnostics(false);
+        Java.AbstractCompilationUnit acu = null;
+        NameCollectingScanner        scanner;
+        try {
+            InputStream is = new BufferedInputStream(sourceResource.open());
+            try {
+                scanner = new NameCollectingScanner(
+                    sourceResource.getFileName(),
+                    new InputStreamReader(is, this.sourceCharset)
+                );
+
+                Parser parser = new Parser(scanner);
+                parser.setWarningHandler(dd);
+                acu = parser.parseAbstractCompilationUnit();
+            } finally {
+                is.close();
+            }
+        } catch (CompileException ce) {
+            dd.exception = ce;
+            return new ParsedUnit(null, Collections.<String>emptySet(), dd);
+        } catch (IOException ioe) {
+            dd.exception = ioe;
+            return new ParsedUnit(null, Collections.<String>emptySet(), dd);
+        }
+
+        return new ParsedUnit(acu, scanner.names, dd);
+    }
+
+    @Nullable private static <T> T
+    getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InternalCompilerException("Interrupted while compiling in parallel", ie);
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            if (t instanceof Error)            throw (Error) t;
+            throw new InternalCompilerException(String.valueOf(t), t);
+        }
+    }
+
+    private static <T> Future<T>
+    take(CompletionService<T> completionService) {
+        try {
+            return completionService.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InternalCompilerException("Interrupted while compiling in parallel", ie);
+        }
+    }
+
+    private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+
+        @Override public Thread
+        newThread(@Nullable Runnable r) {
+            Thread t = new Thread(r, "janino-compiler");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    /**
+     * The result of {@link Compiler#parseAndCollectNames(Resource)}.
+     */
+    private static final
+    class ParsedUnit {
+
+        @Nullable final Java.AbstractCompilationUnit abstractCompilationUnit;
+        final Set<String>                            names;
+        final DeferredDiagnostics                    diagnostics;
+
+        ParsedUnit(
+            @Nullable Java.AbstractCompilationUnit abstractCompilationUnit,
+            Set<String>                            names,
+            DeferredDiagnostics                    diagnostics
+        ) {
+            this.abstractCompilationUnit = abstractCompilationUnit;
+            this.names                   = names;
+            this.diagnostics             = diagnostics;
+        }
+    }
+
+    /**
+     * A {@link Scanner} that records all identifiers, and all dotted identifier chains (e.g. "a", "a.b", "a.b.C"),
+     * that it produces.
+     */
+    private static
+    class NameCollectingScanner extends Scanner {
+
+        final Set<String> names = new HashSet<String>();
+
+        @Nullable private String chain;
+        private boolean          afterDot;
+
+        NameCollectingScanner(String fileName, Reader in) throws IOException { super(fileName, in); }
+
+        @Override public Token
+        produce() throws CompileException, IOException {
+            Token t = super.produce();
+            switch (t.type) {
+
+            case IDENTIFIER:
+                String c = this.chain;
+                this.chain = this.afterDot && c != null ? c + '.' + t.value : t.value;
+                this.names.add(t.value);
+                this.names.add(this.chain);
+                this.afterDot = false;
+                break;
+
+            case WHITE_SPACE:
+            case C_PLUS_PLUS_STYLE_COMMENT:
+            case C_STYLE_COMMENT:
+                break;
+
+            default:
+                this.afterDot = this.chain != null && ".".equals(t.value);
+                if (!this.afterDot) this.chain = null;
+                break;
+            }
+            return t;
+        }
+    }
+
+    /**
+     * Records the errors and warnings that a worker thread issues for one compilation unit, and the exception that
+     * terminated its processing, so that they can later be reported in a deterministic order.
+     */
+    private static final
+    class DeferredDiagnostics implements ErrorHandler, WarningHandler {
+
+        private final boolean          throwOnError;
+        private final List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+        @Nullable Exception            exception;
+
+        /**
+         * @param throwOnError Whether to throw a {@link CompileException} on the first error, like {@link
+         *                     UnitCompiler} does when no {@link ErrorHandler} is set
+         */
+        DeferredDiagnostics(boolean throwOnError) { this.throwOnError = throwOnError; }
+
+        @Override public void
+        handleError(String message, @Nullable Location location) throws CompileException {
+            this.diagnostics.add(new Diagnostic(true, null, message, location));
+            if (this.throwOnError) throw new CompileException(message, location);
+        }
+
+        @Override public void
+        handleWarning(@Nullable String handle, String message, @Nullable Location location) {
+            this.diagnostics.add(new Diagnostic(false, handle, message, location));
+        }
+
+        /**
+         * Passes the recorded errors and warnings to the given handlers, and then rethrows the recorded exception.
+         */
+        void
+        replay(@Nullable ErrorHandler errorHandler, @Nullable WarningHandler warningHandler)
+        throws CompileException, IOException {
+
+            for (Diagnostic d : this.diagnostics) {
+                if (d.isError) {
+                    if (errorHandler != null) errorHandler.handleError(d.message, d.location);
+                } else {
+                    if (warningHandler != null) warningHandler.handleWarning(d.handle, d.message, d.location);
+                }
+            }
+
+            Exception e = this.exception;
+            if (e instanceof CompileException) throw (CompileException) e;
+            if (e instanceof IOException)      throw (IOException) e;
+        }
+
+        private static final
+        class Diagnostic {
+
+            final boolean            isError;
+            @Nullable final String   handle;
+            final String             message;
+            @Nullable final Location location;
+
+            Diagnostic(boolean isError, @Nullable String handle, String message, @Nullable Location location) {
+                this.isError  = isError;
+                this.handle   = handle;
+                this.message  = message;
+                this.location = location;
+            }
         }
     }
 
@@ -298,17 +1156,28 @@ class Compiler extends AbstractCompiler {
     ) throws CompileException, IOException {
         try {
 
-            Scanner scanner = new Scanner(fileName, new InputStreamReader(inputStream, charset));
+            // An incremental compilation needs to know the identifiers that appear in each compilation unit.
+            Map<String, Set<String>> mn = this.mentionedNames;
+
+            Scanner scanner = (
+                mn != null
+                ? new NameCollectingScanner(fileName, new InputStreamReader(inputStream, charset))
+                : new Scanner(fileName, new InputStreamReader(inputStream, charset))
+            );
 
             Parser parser = new Parser(scanner);
             parser.setWarningHandler(this.warningHandler);
 
             this.benchmark.beginReporting("Parsing \"" + fileName + "\"");
+            Java.AbstractCompilationUnit result;
             try {
-                return parser.parseAbstractCompilationUnit();
+                result = parser.parseAbstractCompilationUnit();
             } finally {
                 this.benchmark.endReporting();
             }
+
+            if (mn != null) mn.put(fileName, ((NameCollectingScanner) scanner).names);
+            return result;
         } finally {
             inputStream.close();
         }
@@ -505,6 +1374,7 @@ class Compiler extends AbstractCompiler {
      * A specialized {@link IClassLoader} that loads {@link IClass}es from the following sources:
      * <ol>
      *   <li>An already-parsed compilation unit
+     *   <li>The class file of an unchanged compilation unit (incremental compilation only)
      *   <li>A class file in the output directory (if existent and younger than source file)
      *   <li>A source file in any of the source path directories
      *   <li>The parent class loader
@@ -513,27 +1383,37 @@ class Compiler extends AbstractCompiler {
      *   Notice that the {@link CompilerIClassLoader} is an inner class of {@link Compiler} and heavily uses {@link
      *   Compiler}'s members.
      * </p>
+     * <p>
+     *   Notice that this {@link IClassLoader} is deliberately <em>not</em> {@link #registerAsParallelCapable() parallel
+     *   capable}, so that the worker threads of a {@link #setParallelism(int) parallel compilation} invoke {@link
+     *   #findIClass(String)} (and thus access {@code Compiler.this.parsedCompilationUnits}) one at a time.
+     * </p>
      */
     private
     class CompilerIClassLoader extends IClassLoader {
 
-        private final ResourceFinder           sourceFinder;
-        @Nullable private final ResourceFinder classFileFinder;
+        private final ResourceFinder                                 sourceFinder;
+        @Nullable private final ResourceFinder                       classFileFinder;
+        private final Map<String /*className*/, String /*fileName*/> precompiledClasses;
 
         /**
          * @param sourceFinder       Where to look for more source files
          * @param classFileFinder    Where to look for previously generated .class resources, or {@link
          *                           #FIND_NEXT_TO_SOURCE_FILE}
+         * @param precompiledClasses Classes that are to be loaded from their class files, mapped to the file names
+         *                           of the compilation units that declare them
          * @param parentIClassLoader {@link IClassLoader} through which {@link IClass}es are to be loaded
          */
         CompilerIClassLoader(
             ResourceFinder           sourceFinder,
             @Nullable ResourceFinder classFileFinder,
+            Map<String, String>      precompiledClasses,
             IClassLoader             parentIClassLoader
         ) {
             super(parentIClassLoader);
-            this.sourceFinder    = sourceFinder;
-            this.classFileFinder = classFileFinder;
+            this.sourceFinder       = sourceFinder;
+            this.classFileFinder    = classFileFinder;
+            this.precompiledClasses = precompiledClasses;
             super.postConstruct();
         }
 
@@ -579,6 +1459,13 @@ class Compiler extends AbstractCompiler {
                 if (idx == -1) break;
             }
 
+            // Load a class of an unchanged compilation unit (see "setDependencyIndexFile()") from its class file.
+            String sourceFileName = (String) this.precompiledClasses.get(className);
+            if (sourceFileName != null) {
+                Resource classFileResource = Compiler.this.findClassFile(className, sourceFileName);
+                return classFileResource == null ? null : this.defineIClassFromClassFileResource(classFileResource);
+            }
+
             // Search source path for uncompiled class.
             final Resource sourceResource = this.sourceFinder.findResource(ClassFile.getSourceResourceName(className));
             if (sourceResource == null) return null;
@@ -633,6 +1520,8 @@ class Compiler extends AbstractCompiler {
                     Compiler.this.sourceCharset                     // charset
                 );
                 uc = new UnitCompiler(acu, this).options(Compiler.this.options);
+                uc.setTargetVersion(Compiler.this.targetVersion);
+                uc.setMethodOutliningThreshold(Compiler.this.methodOutliningThreshold);
             } catch (IOException ex) {
                 throw new ClassNotFoundException("Parsing compilation unit \"" + sourceResource + "\"", ex);
             } catch (CompileException ex) {
@@ -669,7 +1558,7 @@ class Compiler extends AbstractCompiler {
                 ClassFile   cf;
                 try {
                     is = classFileResource.open();
-                    cf = new ClassFile(new BufferedInputStream(is));
+                    cf = new ClassFile(ByteBuffer.wrap(InputStreams.readAll(is)));
                 } catch (IOException ex) {
                     throw new ClassNotFoundException("Opening class file resource \"" + classFileResource + "\"", ex);
                 } finally {
@@ -0,0 +1,280 @@
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ * Copyright (c) 2015-2016 TIBCO Software Inc. All rights reserved. // CHECKSTYLE:OFF CHECKSTYLE:ON
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.commons.compiler.InternalCompilerException;
+import org.codehaus.janino.util.ClassFile;
+
+/**
+ * The literal constants that were "spilled" from the constant pool of one class file; see {@link
+ * JaninoOption#CONSTANT_POOL_SPILLING}.
+ * <p>
+ *   Instead of loading a spilled constant with an LDC instruction, the code loads it from the static array field
+ *   "{@code VALUES}" of a synthetic holder class "<var>class</var>{@code $$Constants}<var>n</var>" (GETSTATIC,
+ *   SIPUSH, IALOAD/LALOAD/...), which requires no constant pool entry per constant. Each holder class holds up to
+ *   4096 constants of one type ({@code String}, {@code int}, {@code long}, {@code float} or {@code double}), and its
+ *   class initializer fills the array.
+ * </p>
+ */
+final
+class ConstantPoolSpill {
+
+    /**
+     * The maximum number of constants per holder class; keeps the class initializer of the holder below 32 KB of code.
+     */
+    private static final int HOLDER_CAPACITY = 4096;
+
+    /**
+     * The class file whose constants are spilled.
+     */
+    private final ClassFile classFile;
+
+    private final List<Holder>        holders          = new ArrayList<Holder>();
+    private final Map<String, Holder> currentHolders   = new HashMap<String, Holder>();
+    private final Map<Object, Holder> spilledConstants = new HashMap<Object, Holder>();
+
+    ConstantPoolSpill(ClassFile classFile) { this.classFile = classFile; }
+
+    /**
+     * A synthetic class that holds spilled constants of one type.
+     */
+    static final
+    class Holder {
+
+        /**
+         * The descriptor of the holder class.
+         */
+        final String descriptor;
+
+        /**
+         * The descriptor of the array field "{@code VALUES}" of the holder class.
+         */
+        final String arrayFd;
+
+        private final String               componentFd;
+        private final List<Object>         values  = new ArrayList<Object>();
+        private final Map<Object, Integer> indexes = new HashMap<Object, Integer>();
+
+        Holder(String descriptor, String componentFd) {
+            this.descriptor  = descriptor;
+            this.arrayFd     = '[' + componentFd;
+            this.componentFd = componentFd;
+        }
+
+        /**
+         * @return The index of the <var>value</var> in the array field "{@code VALUES}" of the holder class
+         */
+        int
+        indexOf(Object value) {
+            Integer result = (Integer) this.indexes.get(value);
+            if (result == null) throw new InternalCompilerException("Constant \"" + value + "\" was not spilled");
+            return result;
+        }
+    }
+
+    /**
+     * Spills the given constant, unless it was spilled before.
+     *
+     * @param componentFd The descriptor of the type of the constant, e.g. {@link Descriptor#INT}
+     * @param value       A {@link String}, {@link Integer}, {@link Long}, {@link Float} or {@link Double}
+     * @return            The holder class of the constant
+     */
+    Holder
+    spill(String componentFd, Object value) {
+
+        Holder result = (Holder) this.spilledConstants.get(value);
+        if (result != null) return result;
+
+        result = (Holder) this.currentHolders.get(componentFd);
+        if (result == null || result.values.size() == ConstantPoolSpill.HOLDER_CAPACITY) {
+            result = new Holder(
+                Descriptor.fromClassName(this.classFile.getThisClassName() + "$$Constants" + (this.holders.size() + 1)),
+                componentFd
+            );
+            this.holders.add(result);
+            this.currentHolders.put(componentFd, result);
+        }
+
+        result.indexes.put(value, result.values.size());
+        result.values.add(value);
+        this.spilledConstants.put(value, result);
+
+        return result;
+    }
+
+    /**
+     * @return The class files of the holder classes
+     */
+    List<ClassFile>
+    getHolderClassFiles() {
+
+        List<ClassFile> result = new ArrayList<ClassFile>();
+        for (Holder h : this.holders) {
+
+            ClassFile cf = new ClassFile(
+                (short) (Mod.FINAL | Mod.SUPER | Mod.SYNTHETIC), // accessFlags
+                h.descriptor,                                    // thisClassFd
+                Descriptor.JAVA_LANG_OBJECT,                     // superclassFd
+                new String[0]                                    // interfaceFds
+            );
+            cf.setVersion(this.classFile.getMajorVersion(), this.classFile.getMinorVersion());
+
+            cf.addFieldInfo((short) (Mod.STATIC | Mod.FINAL | Mod.SYNTHETIC), "VALUES", h.arrayFd, null);
+
+            ClassFile.MethodInfo mi = cf.addMethodInfo(
+                Mod.STATIC,                                          // accessFlags
+                "<clinit>",                                          // methodName
+                new MethodDescriptor(Descriptor.VOID, new String[0]) // methodMd
+            );
+
+            final byte[] code     = ConstantPoolSpill.makeClassInitializer(cf, h);
+            final int    maxStack = 3 + Descriptor.size(h.componentFd);
+            mi.addAttribute(new ClassFile.AttributeInfo(cf.addConstantUtf8Info("Code")) {
+
+                @Override protected void
+                storeBody(DataOutputStream dos) throws IOException {
+                    dos.writeShort(maxStack);  // max_stack
+                    dos.writeShort(0);         // max_locals
+                    dos.writeInt(code.length); // code_length
+                    dos.write(code);           // code
+                    dos.writeShort(0);         // exception_table_length
+                    dos.writeShort(0);         // attributes_count
+                }
+            });
+
+            result.add(cf);
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates the code of the class initializer of a holder class, which is free of branches and therefore needs no
+     * "StackMapTable" attribute:
+     * <pre>
+     *   VALUES = new T[n];
+     *   VALUES[0] = c0;
+     *   VALUES[1] = c1;
+     *   ...
+     * </pre>
+     */
+    private static byte[]
+    makeClassInitializer(ClassFile cf, Holder h) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        ConstantPoolSpill.pushInt(code, h.values.size());
+        if (h.componentFd.equals(Descriptor.JAVA_LANG_STRING)) {
+            code.write(Opcode.ANEWARRAY);
+            ConstantPoolSpill.writeShort(code, cf.addConstantClassInfo(h.componentFd));
+        } else
+        {
+            code.write(Opcode.NEWARRAY);
+            code.write(ConstantPoolSpill.arrayType(h.componentFd));
+        }
+
+        for (int i = 0; i < h.values.size(); i++) {
+            Object value = h.values.get(i);
+
+            code.write(Opcode.DUP);
+            ConstantPoolSpill.pushInt(code, i);
+            if (value instanceof String) {
+                code.write(Opcode.LDC_W);
+                ConstantPoolSpill.writeShort(code, cf.addConstantStringInfo((String) value));
+                code.write(Opcode.AASTORE);
+            } else
+            if (value instanceof Integer) {
+                code.write(Opcode.LDC_W);
+                ConstantPoolSpill.writeShort(code, cf.addConstantIntegerInfo((Integer) value));
+                code.write(Opcode.IASTORE);
+            } else
+            if (value instanceof Long) {
+                code.write(Opcode.LDC2_W);
+                ConstantPoolSpill.writeShort(code, cf.addConstantLongInfo((Long) value));
+                code.write(Opcode.LASTORE);
+            } else
+            if (value instanceof Float) {
+                code.write(Opcode.LDC_W);
+                ConstantPoolSpill.writeShort(code, cf.addConstantFloatInfo((Float) value));
+                code.write(Opcode.FASTORE);
+            } else
+            if (value instanceof Double) {
+                code.write(Opcode.LDC2_W);
+                ConstantPoolSpill.writeShort(code, cf.addConstantDoubleInfo((Double) value));
+                code.write(Opcode.DASTORE);
+            } else
+            {
+                throw new InternalCompilerException("Unexpected constant \"" + value + "\"");
+            }
+        }
+
+        code.write(Opcode.PUTSTATIC);
+        ConstantPoolSpill.writeShort(code, cf.addConstantFieldrefInfo(h.descriptor, "VALUES", h.arrayFd));
+        code.write(Opcode.RETURN);
+
+        return code.toByteArray();
+    }
+
+    private static void
+    pushInt(ByteArrayOutputStream code, int value) {
+        if (value <= 5) {
+            code.write(Opcode.ICONST_0 + value);
+        } else
+        if (value <= Byte.MAX_VALUE) {
+            code.write(Opcode.BIPUSH);
+            code.write(value);
+        } else
+        {
+            code.write(Opcode.SIPUSH);
+            ConstantPoolSpill.writeShort(code, value);
+        }
+    }
+
+    private static void
+    writeShort(ByteArrayOutputStream code, int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    /**
+     * @return The "atype" operand of the NEWARRAY instruction for the given primitive type (JVMS 6.5)
+     */
+    private static int
+    arrayType(String componentFd) {
+        if (componentFd.equals(Descriptor.INT))    return 10;
+        if (componentFd.equals(Descriptor.LONG))   return 11;
+        if (componentFd.equals(Descriptor.FLOAT))  return 6;
+        if (componentFd.equals(Descriptor.DOUBLE)) return 7;
+        throw new InternalCompilerException(componentFd);
+    }
+}
@@ -0,0 +1,436 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.ClassFile.AttributeInfo;
+import org.codehaus.janino.util.ClassFile.ConstantClassInfo;
+import org.codehaus.janino.util.ClassFile.ConstantNameAndTypeInfo;
+import org.codehaus.janino.util.ClassFile.ConstantPoolInfo;
+import org.codehaus.janino.util.ClassFile.ConstantValueAttribute;
+import org.codehaus.janino.util.ClassFile.ExceptionsAttribute;
+import org.codehaus.janino.util.ClassFile.FieldInfo;
+import org.codehaus.janino.util.ClassFile.MethodInfo;
+
+/**
+ * The state of an {@link Compiler#setDependencyIndexFile(File) incremental compilation}, which is persisted between
+ * compilations: For each compilation unit, its modification time, the classes that it declares, a hash of their API,
+ * and the types that it references.
+ */
+final
+class DependencyIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(DependencyIndex.class.getName());
+
+    private static final int MAGIC   = 0x4a444958; // "JDIX"
+    private static final int VERSION = 1;
+
+    /**
+     * The compilation units, keyed by their file name.
+     */
+    final Map<String, Unit> units = new LinkedHashMap<String, Unit>();
+
+    /**
+     * What is known about one compilation unit.
+     */
+    static final
+    class Unit {
+
+        /**
+         * The modification time of the source file when it was compiled.
+         */
+        final long lastModified;
+
+        /**
+         * A hash over the non-private declarations of the classes of this compilation unit, i.e. everything that can
+         * affect the compilation of <em>other</em> compilation units.
+         */
+        final long apiHash;
+
+        /**
+         * The names of the classes that this compilation unit declares, e.g. {@code "pkg.Outer$Inner"}.
+         */
+        final String[] classNames;
+
+        /**
+         * The names of the superclasses and interfaces of these classes, except the classes themselves.
+         */
+        final Set<String> superTypes;
+
+        /**
+         * The names of the classes that the generated class files reference, plus the identifiers that appear in the
+         * source code (which catches references that leave no trace in the class files, e.g. inlined constants).
+         */
+        final Set<String> references;
+
+        Unit(long lastModified, long apiHash, String[] classNames, Set<String> superTypes, Set<String> references) {
+            this.lastModified = lastModified;
+            this.apiHash      = apiHash;
+            this.classNames   = classNames;
+            this.superTypes   = superTypes;
+            this.references   = references;
+        }
+
+        /**
+         * @return Whether this compilation unit references any of the classes of <var>that</var> compilation unit
+         */
+        boolean
+        dependsOn(Unit that) {
+            for (String className : that.classNames) {
+                if (this.references.contains(className)) return true;
+
+                // E.g. "pkg.Outer$Inner" => "Outer".
+                String simpleName = className.substring(className.lastIndexOf('.') + 1);
+                int    idx        = simpleName.indexOf('$');
+                if (idx != -1) simpleName = simpleName.substring(0, idx);
+
+                if (this.references.contains(simpleName)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return Whether any class of this compilation unit extends or implements any of the <var>classNames</var>
+         */
+        boolean
+        extendsAny(Set<String> classNames) {
+            for (String superType : this.superTypes) {
+                if (classNames.contains(superType)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates the index entry for a compilation unit that was just compiled.
+     *
+     * @param mentionedNames The identifiers that appear in the compilation unit; dotted names are ignored
+     */
+    static Unit
+    newUnit(long lastModified, ClassFile[] classFiles, Collection<String> mentionedNames) {
+
+        String[]    classNames = new String[classFiles.length];
+        Set<String> superTypes = new HashSet<String>();
+        Set<String> references = new HashSet<String>();
+        for (int i = 0; i < classFiles.length; i++) {
+            ClassFile cf = classFiles[i];
+
+            classNames[i] = cf.getThisClassName();
+
+            if (cf.superclass != 0) superTypes.add(DependencyIndex.getClassName(cf, cf.superclass));
+            for (short interfaceIndex : cf.interfaces) {
+                superTypes.add(DependencyIndex.getClassName(cf, interfaceIndex));
+            }
+
+            // Notice: The constant pool has a fake entry at index 0, and each "wide" entry is followed by an unusable
+            // one.
+            for (int j = 1; j < cf.getConstantPoolSize(); j++) {
+                ConstantPoolInfo cpi = cf.getConstantPoolInfo((short) j);
+                if (cpi instanceof ConstantClassInfo) {
+                    String name = ((ConstantClassInfo) cpi).getName(cf);
+                    if (name.startsWith("[")) {
+                        DependencyIndex.addClassNames(name, references);
+                    } else {
+                        DependencyIndex.addClassName(name, references);
+                    }
+                } else
+                if (cpi instanceof ConstantNameAndTypeInfo) {
+                    DependencyIndex.addClassNames(((ConstantNameAndTypeInfo) cpi).getDescriptor(cf), references);
+                }
+                if (cpi.isWide()) j++;
+            }
+        }
+
+        superTypes.removeAll(Arrays.asList(classNames));
+
+        for (String name : mentionedNames) {
+            if (name.indexOf('.') == -1) references.add(name);
+        }
+
+        return new Unit(lastModified, DependencyIndex.apiHash(classFiles), classNames, superTypes, references);
+    }
+
+    /**
+     * @return The compilation units (other than <var>fileName</var>) that depend on any of the <var>units</var>
+     */
+    Set<String>
+    getDependents(String fileName, Unit... units) {
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<String, Unit> e : this.units.entrySet()) {
+            String dependent = (String) e.getKey();
+            if (dependent.equals(fileName)) continue;
+            for (Unit unit : units) {
+                if (((Unit) e.getValue()).dependsOn(unit)) {
+                    result.add(dependent);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The index read from the <var>file</var>, or an empty index iff the <var>file</var> does not exist or
+     *         is unusable (which effectively enforces a full compilation)
+     */
+    static DependencyIndex
+    load(File file) {
+
+        DependencyIndex result = new DependencyIndex();
+
+        DataInputStream dis;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException fnfe) {
+            return result;
+        }
+        try {
+            if (dis.readInt() != DependencyIndex.MAGIC || dis.readInt() != DependencyIndex.VERSION) {
+                DependencyIndex.LOGGER.log(Level.WARNING, "Ignoring incompatible dependency index \"{0}\"", file);
+                return result;
+            }
+
+            String[] strings = new String[dis.readInt()];
+            for (int i = 0; i < strings.length; i++) strings[i] = dis.readUTF();
+
+            for (int i = dis.readInt(); i > 0; i--) {
+                String   fileName     = strings[dis.readInt()];
+                long     lastModified = dis.readLong();
+                long     apiHash      = dis.readLong();
+                String[] classNames   = new String[dis.readInt()];
+                for (int j = 0; j < classNames.length; j++) classNames[j] = strings[dis.readInt()];
+                Set<String> superTypes = DependencyIndex.readStrings(dis, strings);
+                Set<String> references = DependencyIndex.readStrings(dis, strings);
+
+                result.units.put(fileName, new Unit(lastModified, apiHash, classNames, superTypes, references));
+            }
+        } catch (IOException ioe) {
+            DependencyIndex.LOGGER.log(Level.WARNING, "Ignoring unreadable dependency index \"" + file + "\"", ioe);
+            return new DependencyIndex();
+        } catch (RuntimeException re) {
+            DependencyIndex.LOGGER.log(Level.WARNING, "Ignoring corrupt dependency index \"" + file + "\"", re);
+            return new DependencyIndex();
+        } finally {
+            try { dis.close(); } catch (IOException ioe) {}
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes this index to the <var>file</var>. All strings are stored only once, and referenced by their index.
+     */
+    void
+    save(File file) throws IOException {
+
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        List<String>         strings       = new ArrayList<String>();
+        for (Map.Entry<String, Unit> e : this.units.entrySet()) {
+            Unit unit = (Unit) e.getValue();
+            DependencyIndex.intern((String) e.getKey(), stringIndexes, strings);
+            for (String s : unit.classNames) DependencyIndex.intern(s, stringIndexes, strings);
+            for (String s : unit.superTypes) DependencyIndex.intern(s, stringIndexes, strings);
+            for (String s : unit.references) DependencyIndex.intern(s, stringIndexes, strings);
+        }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(DependencyIndex.MAGIC);
+            dos.writeInt(DependencyIndex.VERSION);
+
+            dos.writeInt(strings.size());
+            for (String s : strings) dos.writeUTF(s);
+
+            dos.writeInt(this.units.size());
+            for (Map.Entry<String, Unit> e : this.units.entrySet()) {
+                Unit unit = (Unit) e.getValue();
+                dos.writeInt(((Integer) stringIndexes.get(e.getKey())).intValue());
+                dos.writeLong(unit.lastModified);
+                dos.writeLong(unit.apiHash);
+                dos.writeInt(unit.classNames.length);
+                for (String s : unit.classNames) dos.writeInt(((Integer) stringIndexes.get(s)).intValue());
+                DependencyIndex.writeStrings(unit.superTypes, stringIndexes, dos);
+                DependencyIndex.writeStrings(unit.references, stringIndexes, dos);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Hashes the non-private, non-synthetic declarations of the <var>classFiles</var>, except anonymous and local
+     * classes. Notice that method bodies and private members do not contribute to the hash.
+     */
+    private static long
+    apiHash(ClassFile[] classFiles) {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream      dos  = new DataOutputStream(baos);
+        try {
+            for (ClassFile cf : classFiles) {
+                String className = cf.getThisClassName();
+
+                // Anonymous and local classes, e.g. "pkg.Outer$1" and "pkg.Outer$1Local", are not part of the API.
+                int idx = className.lastIndexOf('$');
+                if (idx != -1 && idx < className.length() - 1 && Character.isDigit(className.charAt(idx + 1))) {
+                    continue;
+                }
+
+                dos.writeUTF(className);
+                dos.writeShort(cf.accessFlags);
+                dos.writeUTF(cf.superclass == 0 ? "" : DependencyIndex.getClassName(cf, cf.superclass));
+                for (short interfaceIndex : cf.interfaces) {
+                    dos.writeUTF(DependencyIndex.getClassName(cf, interfaceIndex));
+                }
+
+                for (FieldInfo fi : cf.fieldInfos) {
+                    short accessFlags = fi.getAccessFlags();
+                    if (Mod.isPrivateAccess(accessFlags) || (accessFlags & Mod.SYNTHETIC) != 0) continue;
+
+                    dos.writeByte('F');
+                    dos.writeShort(accessFlags);
+                    dos.writeUTF(fi.getName(cf));
+                    dos.writeUTF(fi.getDescriptor(cf));
+                    for (AttributeInfo ai : fi.getAttributes()) {
+                        if (ai instanceof ConstantValueAttribute) {
+                            Object value = ((ConstantValueAttribute) ai).getConstantValue(cf).getValue(cf);
+                            dos.writeUTF(value.getClass().getName() + ':' + value);
+                        }
+                    }
+                }
+
+                for (MethodInfo mi : cf.methodInfos) {
+                    short accessFlags = mi.getAccessFlags();
+                    if (Mod.isPrivateAccess(accessFlags) || (accessFlags & Mod.SYNTHETIC) != 0) continue;
+
+                    dos.writeByte('M');
+                    dos.writeShort(accessFlags);
+                    dos.writeUTF(mi.getName());
+                    dos.writeUTF(mi.getDescriptor());
+                    for (AttributeInfo ai : mi.getAttributes()) {
+                        if (ai instanceof ExceptionsAttribute) {
+                            for (ConstantClassInfo e : ((ExceptionsAttribute) ai).getExceptions(cf)) {
+                                dos.writeUTF(e.getName(cf));
+                            }
+                        }
+                    }
+                }
+            }
+            dos.flush();
+        } catch (IOException ioe) {
+            throw new AssertionError(ioe);
+        }
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new AssertionError(nsae);
+        }
+        byte[] digest = md.digest(baos.toByteArray());
+
+        long result = 0;
+        for (int i = 0; i < 8; i++) result = result << 8 | (digest[i] & 0xff);
+        return result;
+    }
+
+    private static String
+    getClassName(ClassFile classFile, short index) {
+        return classFile.getConstantClassInfo(index).getName(classFile).replace('/', '.');
+    }
+
+    /**
+     * Adds the names of all classes that appear in the given field or method <var>descriptor</var> to the
+     * <var>result</var>.
+     */
+    private static void
+    addClassNames(String descriptor, Set<String> result) {
+        for (int i = 0; i < descriptor.length();) {
+            if (descriptor.charAt(i) != 'L') {
+                i++;
+                continue;
+            }
+            int end = descriptor.indexOf(';', i);
+            if (end == -1) break;
+            DependencyIndex.addClassName(descriptor.substring(i + 1, end), result);
+            i = end + 1;
+        }
+    }
+
+    /**
+     * Adds the class with the given name (in "internal form", e.g. "pkg/Outer$Inner"), unless it is a JRE class.
+     */
+    private static void
+    addClassName(String internalName, Set<String> result) {
+        if (!internalName.startsWith("java/")) result.add(internalName.replace('/', '.'));
+    }
+
+    private static void
+    intern(String s, Map<String, Integer> stringIndexes, List<String> strings) {
+        if (!stringIndexes.containsKey(s)) {
+            stringIndexes.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    private static void
+    writeStrings(Set<String> set, Map<String, Integer> stringIndexes, DataOutputStream dos) throws IOException {
+        dos.writeInt(set.size());
+        for (String s : set) dos.writeInt(((Integer) stringIndexes.get(s)).intValue());
+    }
+
+    private static Set<String>
+    readStrings(DataInputStream dis, String[] strings) throws IOException {
+        int         n      = dis.readInt();
+        Set<String> result = new HashSet<String>(n);
+        for (int i = 0; i < n; i++) result.add(strings[dis.readInt()]);
+        return result;
+    }
+}
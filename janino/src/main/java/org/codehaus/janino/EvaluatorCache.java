@@ -0,0 +1,602 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.InternalCompilerException;
+import org.codehaus.commons.nullanalysis.Nullable;
+
+/**
+ * A cache for the results of cooking {@link SimpleCompiler}s, {@link ClassBodyEvaluator}s, {@link ScriptEvaluator}s
+ * and {@link ExpressionEvaluator}s.
+ * <p>
+ *   The cache key is a digest of the source text plus all settings that affect cooking (parameter names and types,
+ *   return types, default imports, {@link JaninoOption}s, debugging flags, etc.), plus the identity of the parent
+ *   class loader and of the class of the {@link SimpleCompiler#setLookup(Object, boolean) lookup}. The cached value
+ *   is the generated bytecode and the {@link ClassLoader} into which it is defined, so that two evaluators that are
+ *   cooked with the same key share the same generated {@link Class}.
+ * </p>
+ * <p>
+ *   Notice that this implies that such evaluators also share the <em>static state</em> of that class: E.g. the
+ *   static fields of a class body that {@link ClassBodyEvaluator}s cook are initialized only once, and changes that
+ *   one evaluator makes are visible to all others. Don't use a cache for code that relies on static state of its
+ *   own.
+ * </p>
+ * <p>
+ *   The cache holds at most <var>maxEntries</var> entries and at most <var>maxBytes</var> bytes of bytecode; when
+ *   either limit is exceeded, the least recently used entries are evicted.
+ * </p>
+ * <p>
+ *   The cache is thread-safe, and concurrent cooks with the same key are coalesced into one compilation.
+ * </p>
+ * <p>
+ *   Optionally, the cache is backed by a <em>directory</em>, where the generated bytecode is stored persistently, one
+ *   file per key, so that it survives the restart of the JVM. Each file carries a stamp that consists of the file
+ *   format version and the digest of the source text and the cook settings; files with a different stamp are ignored
+ *   (and eventually overwritten). Files are written to a temporary file
+ *   first and then renamed, so that concurrent readers and writers (even in different JVMs) need no locking.
+ * </p>
+ * <p>
+ *   The digest also covers the JANINO implementation version and the system class path ({@code java.class.path}),
+ *   because the generated bytecode depends on both. However, the cache cannot detect changes of the classes that the
+ *   parent class loader loads from elsewhere, e.g. through a custom class loader; when these change, use a new cache
+ *   directory.
+ * </p>
+ * <p>
+ *   Notice that a cache hit does not invoke the {@link SimpleCompiler#setCompileErrorHandler(
+ *   org.codehaus.commons.compiler.ErrorHandler) compile error handler} nor the {@link
+ *   SimpleCompiler#setWarningHandler(org.codehaus.commons.compiler.WarningHandler) warning handler}, because no
+ *   compilation takes place. Also notice that the cache holds strong references to the parent class loaders and the
+ *   lookup classes.
+ * </p>
+ *
+ * @see SimpleCompiler#setCache(EvaluatorCache)
+ */
+public
+class EvaluatorCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EvaluatorCache.class.getName());
+
+    /**
+     * Identifies the format of the cache files; must be incremented whenever that format, or (within the same
+     * implementation version) the bytecode that JANINO generates for the same source text and cook settings, changes.
+     */
+    private static final int FILE_FORMAT_VERSION = 2;
+
+    /**
+     * The digest of the JANINO implementation version and the system class path, which goes into each {@link Key}.
+     */
+    private static final String ENVIRONMENT_DIGEST = EvaluatorCache.digest(
+        new KeyBuilder()
+        .add(EvaluatorCache.class.getPackage().getImplementationVersion())
+        .add(System.getProperty("java.class.path"))
+        .baos
+        .toByteArray()
+    );
+
+    private static final String FILE_NAME_SUFFIX = ".bytecodes";
+
+    private final int            maxEntries;
+    private final long           maxBytes;
+    @Nullable private final File directory;
+
+    // Guarded by "this.entries".
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, .75F, true);
+    private long                            byteCount;
+
+    private final ConcurrentMap<Key, PendingCompilation>
+    pendingCompilations = new ConcurrentHashMap<Key, PendingCompilation>();
+
+    private final AtomicLong hitCount      = new AtomicLong();
+    private final AtomicLong diskHitCount  = new AtomicLong();
+    private final AtomicLong missCount     = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Equivalent with {@link #EvaluatorCache(int, long, File) EvaluatorCache(maxEntries, maxBytes, null)}.
+     */
+    public
+    EvaluatorCache(int maxEntries, long maxBytes) { this(maxEntries, maxBytes, null); }
+
+    /**
+     * @param maxEntries The maximum number of entries that this cache holds in memory
+     * @param maxBytes   The maximum total size of the bytecode that this cache holds in memory
+     * @param directory  Where to store the bytecode persistently; {@code null} means "in memory only"
+     */
+    public
+    EvaluatorCache(int maxEntries, long maxBytes, @Nullable File directory) {
+        this.maxEntries = maxEntries;
+        this.maxBytes   = maxBytes;
+        this.directory  = directory;
+    }
+
+    /**
+     * @return The number of cooks that were served from this cache, including those that waited for a concurrent
+     *         compilation with the same key
+     */
+    public long
+    getHitCount() { return this.hitCount.get(); }
+
+    /**
+     * @return The number of cooks that were not served from memory, but from a file in the cache directory
+     */
+    public long
+    getDiskHitCount() { return this.diskHitCount.get(); }
+
+    /**
+     * @return The number of cooks that were not served from this cache and thus compiled
+     */
+    public long
+    getMissCount() { return this.missCount.get(); }
+
+    /**
+     * @return The number of entries that were evicted because the cache was full
+     */
+    public long
+    getEvictionCount() { return this.evictionCount.get(); }
+
+    /**
+     * @return The current number of entries
+     */
+    public int
+    size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * @return The total size of the bytecode that this cache currently holds
+     */
+    public long
+    getByteCount() {
+        synchronized (this.entries) {
+            return this.byteCount;
+        }
+    }
+
+    /**
+     * Removes all entries from memory; the counters are not reset, and the files in the cache directory are left
+     * intact.
+     */
+    public void
+    clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.byteCount = 0;
+        }
+    }
+
+    /**
+     * Produces the value for a cache key.
+     */
+    interface Compilation {
+
+        /**
+         * Cooks the {@link SimpleCompiler} that was passed to {@link EvaluatorCache#get(Key, SimpleCompiler,
+         * Compilation)}.
+         */
+        void
+        compile() throws CompileException, IOException;
+    }
+
+    /**
+     * Returns the entry for the <var>key</var>; iff there is no such entry, runs the <var>compilation</var> and
+     * caches the bytecode and the class loader of the <var>simpleCompiler</var>. If another thread is compiling with
+     * the same key at the same time, then this method waits for that compilation to complete instead of compiling
+     * again.
+     */
+    Entry
+    get(Key key, SimpleCompiler simpleCompiler, Compilation compilation) throws CompileException, IOException {
+
+        for (;;) {
+
+            synchronized (this.entries) {
+                Entry result = (Entry) this.entries.get(key);
+                if (result != null) {
+                    this.hitCount.incrementAndGet();
+                    return result;
+                }
+            }
+
+            PendingCompilation pc    = new PendingCompilation();
+            PendingCompilation other = (PendingCompilation) this.pendingCompilations.putIfAbsent(key, pc);
+            if (other != null) {
+
+                // Another thread is compiling the same key; wait for it. If it failed, then try again.
+                Entry result = other.await();
+                if (result != null) {
+                    this.hitCount.incrementAndGet();
+                    return result;
+                }
+                continue;
+            }
+
+            try {
+                Entry               result;
+                Map<String, byte[]> bytecodes = this.load(key);
+                if (bytecodes != null) {
+                    this.diskHitCount.incrementAndGet();
+                    result = new Entry(bytecodes, simpleCompiler.defineClasses(bytecodes));
+                } else {
+                    this.missCount.incrementAndGet();
+                    compilation.compile();
+                    result = new Entry(simpleCompiler.getBytecodes(), simpleCompiler.getClassLoader());
+                    this.store(key, result);
+                }
+                this.put(key, result);
+                pc.result = result;
+                return result;
+            } finally {
+                this.pendingCompilations.remove(key, pc);
+                pc.done.countDown();
+            }
+        }
+    }
+
+    private void
+    put(Key key, Entry entry) {
+        synchronized (this.entries) {
+
+            Entry prev = (Entry) this.entries.put(key, entry);
+            if (prev != null) this.byteCount -= prev.size;
+            this.byteCount += entry.size;
+
+            // Evict the least recently used entries, but never the entry that was just added.
+            for (Iterator<Entry> it = this.entries.values().iterator(); it.hasNext();) {
+                if (this.entries.size() <= 1) break;
+                if (this.entries.size() <= this.maxEntries && this.byteCount <= this.maxBytes) break;
+
+                Entry eldest = (Entry) it.next();
+                it.remove();
+                this.byteCount -= eldest.size;
+                this.evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reads the bytecode for the <var>key</var> from the cache directory (with one memory-mapped read).
+     *
+     * @return {@code null} iff there is no cache directory, or it contains no valid file for the <var>key</var>
+     */
+    @Nullable private Map<String /*className*/, byte[] /*bytecode*/>
+    load(Key key) {
+
+        if (this.directory == null) return null;
+
+        File file = new File(this.directory, key.digest + EvaluatorCache.FILE_NAME_SUFFIX);
+        if (!file.isFile()) return null;
+
+        Map<String /*className*/, byte[] /*bytecode*/> bytecodes = new HashMap<String, byte[]>();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+                if (!EvaluatorCache.fileStamp(key).equals(EvaluatorCache.getString(bb))) {
+                    EvaluatorCache.LOGGER.log(Level.FINE, "Ignoring stale cache file \"{0}\"", file);
+                    return null;
+                }
+
+                for (int n = bb.getInt(); n > 0; n--) {
+                    String className = EvaluatorCache.getString(bb);
+                    byte[] ba        = new byte[EvaluatorCache.getLength(bb, 1)];
+                    bb.get(ba);
+                    bytecodes.put(className, ba);
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ioe) {
+            EvaluatorCache.LOGGER.log(Level.WARNING, "Reading cache file \"" + file + "\"", ioe);
+            return null;
+        } catch (BufferUnderflowException bue) {
+            EvaluatorCache.LOGGER.log(Level.WARNING, "Corrupt cache file \"" + file + "\"", bue);
+            return null;
+        }
+
+        return bytecodes;
+    }
+
+    /**
+     * Writes the bytecode of the <var>entry</var> to a file in the cache directory. The file is written under a
+     * temporary name, and then renamed, so that no other reader ever sees an incomplete file.
+     */
+    private void
+    store(Key key, Entry entry) {
+
+        File directory = this.directory;
+        if (directory == null) return;
+
+        File file = new File(directory, key.digest + EvaluatorCache.FILE_NAME_SUFFIX);
+        File tmp  = null;
+        try {
+            tmp = File.createTempFile(key.digest, ".tmp", directory);
+
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                EvaluatorCache.putString(dos, EvaluatorCache.fileStamp(key));
+                dos.writeInt(entry.bytecodes.size());
+                for (Map.Entry<String, byte[]> e : entry.bytecodes.entrySet()) {
+                    EvaluatorCache.putString(dos, (String) e.getKey());
+                    byte[] ba = (byte[]) e.getValue();
+                    dos.writeInt(ba.length);
+                    dos.write(ba);
+                }
+            } finally {
+                dos.close();
+            }
+
+            // Iff renaming fails, then most likely a concurrent writer created the file in the meantime.
+            if (tmp.renameTo(file)) tmp = null;
+        } catch (IOException ioe) {
+            EvaluatorCache.LOGGER.log(Level.WARNING, "Writing cache file \"" + file + "\"", ioe);
+        } finally {
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    /**
+     * @return The stamp of the cache file for the <var>key</var>; cache files that do not start with this stamp are
+     *         ignored
+     */
+    private static String
+    fileStamp(Key key) { return "JANINO-EvaluatorCache/" + EvaluatorCache.FILE_FORMAT_VERSION + "/" + key.digest; }
+
+    private static void
+    putString(DataOutputStream dos, String s) throws IOException {
+        dos.writeInt(s.length());
+        dos.writeChars(s);
+    }
+
+    private static String
+    getString(ByteBuffer bb) {
+        char[] ca = new char[EvaluatorCache.getLength(bb, 2)];
+        bb.asCharBuffer().get(ca);
+        bb.position(bb.position() + 2 * ca.length);
+        return new String(ca);
+    }
+
+    /**
+     * Reads a length from the <var>bb</var> and verifies that many elements of <var>elementSize</var> remain.
+     */
+    private static int
+    getLength(ByteBuffer bb, int elementSize) {
+        int result = bb.getInt();
+        if (result < 0 || result > bb.remaining() / elementSize) throw new BufferUnderflowException();
+        return result;
+    }
+
+    /**
+     * A compilation that is currently in progress.
+     */
+    private static final
+    class PendingCompilation {
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * {@code null} iff the compilation is still in progress or failed.
+         */
+        @Nullable volatile Entry result;
+
+        @Nullable Entry
+        await() {
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    this.done.await();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return this.result;
+        }
+    }
+
+    /**
+     * The cached result of one compilation.
+     */
+    static final
+    class Entry {
+
+        /**
+         * The generated bytecode; unmodifiable.
+         */
+        final Map<String /*className*/, byte[] /*bytecode*/> bytecodes;
+
+        /**
+         * The class loader into which the {@link #bytecodes} are defined.
+         */
+        final ClassLoader classLoader;
+
+        final long size;
+
+        Entry(Map<String /*className*/, byte[] /*bytecode*/> bytecodes, ClassLoader classLoader) {
+            this.bytecodes   = Collections.unmodifiableMap(new HashMap<String, byte[]>(bytecodes));
+            this.classLoader = classLoader;
+
+            long s = 0;
+            for (byte[] ba : bytecodes.values()) s += ba.length;
+            this.size = s;
+        }
+    }
+
+    /**
+     * Identifies a cache entry through the digest of the source text and the cook settings, the parent class loader
+     * and the lookup class.
+     */
+    static final
+    class Key {
+
+        /**
+         * The digest of the source text and the cook settings, in hex format.
+         */
+        final String digest;
+
+        final ClassLoader parentClassLoader;
+
+        /**
+         * The class of the lookup through which the classes are defined; {@code null} means "no lookup".
+         */
+        @Nullable final Class<?> lookupClass;
+
+        Key(String digest, ClassLoader parentClassLoader, @Nullable Class<?> lookupClass) {
+            this.digest            = digest;
+            this.parentClassLoader = parentClassLoader;
+            this.lookupClass       = lookupClass;
+        }
+
+        @Override public int
+        hashCode() { return this.digest.hashCode(); }
+
+        @Override public boolean
+        equals(@Nullable Object o) {
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return (
+                this.digest.equals(that.digest)
+                && this.parentClassLoader == that.parentClassLoader
+                && this.lookupClass == that.lookupClass
+            );
+        }
+
+        @Override public String
+        toString() { return this.digest; }
+    }
+
+    /**
+     * Collects the source text and the cook settings and computes a {@link Key} from them. Each value is written with
+     * a length prefix, so that different sequences of values never produce the same digest input.
+     */
+    static final
+    class KeyBuilder {
+
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        private final DataOutputStream      dos  = new DataOutputStream(this.baos);
+
+        KeyBuilder
+        add(@Nullable String s) {
+            try {
+                if (s == null) {
+                    this.dos.writeInt(-1);
+                } else {
+                    this.dos.writeInt(s.length());
+                    this.dos.writeChars(s);
+                }
+            } catch (IOException ioe) {
+                throw new InternalCompilerException("SNO: ByteArrayOutputStream throws IOException", ioe);
+            }
+            return this;
+        }
+
+        KeyBuilder
+        add(@Nullable String[] sa) {
+            if (sa == null) return this.add(-1);
+            this.add(sa.length);
+            for (String s : sa) this.add(s);
+            return this;
+        }
+
+        KeyBuilder
+        add(@Nullable Class<?> c) { return this.add(c == null ? null : c.getName()); }
+
+        KeyBuilder
+        add(@Nullable Class<?>[] ca) {
+            if (ca == null) return this.add(-1);
+            this.add(ca.length);
+            for (Class<?> c : ca) this.add(c);
+            return this;
+        }
+
+        KeyBuilder
+        add(boolean b) { return this.add(b ? 1 : 0); }
+
+        KeyBuilder
+        add(int i) {
+            try {
+                this.dos.writeInt(i);
+            } catch (IOException ioe) {
+                throw new InternalCompilerException("SNO: ByteArrayOutputStream throws IOException", ioe);
+            }
+            return this;
+        }
+
+        Key
+        toKey(ClassLoader parentClassLoader, @Nullable Class<?> lookupClass) {
+            this.add(EvaluatorCache.ENVIRONMENT_DIGEST);
+            return new Key(EvaluatorCache.digest(this.baos.toByteArray()), parentClassLoader, lookupClass);
+        }
+    }
+
+    /**
+     * @return The SHA-256 digest of the <var>data</var>, in hex format
+     */
+    private static String
+    digest(byte[] data) {
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new InternalCompilerException("SHA-256 not available", nsae);
+        }
+
+        byte[]        digest = md.digest(data);
+        StringBuilder sb     = new StringBuilder(2 * digest.length);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
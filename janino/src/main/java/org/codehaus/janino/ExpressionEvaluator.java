@@ -27,13 +27,13 @@ package org.codehaus.janino;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.Cookable;
@@ -47,6 +47,7 @@ import org.codehaus.commons.compiler.InternalCompilerException;
 import org.codehaus.commons.compiler.Location;
 import org.codehaus.commons.compiler.MultiCookable;
 import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.commons.compiler.io.Readers;
 import org.codehaus.commons.nullanalysis.Nullable;
 import org.codehaus.janino.util.AbstractTraverser;
 
@@ -305,6 +306,44 @@ class ExpressionEvaluator extends MultiCookable implements IExpressionEvaluator
         return this;
     }
 
+    /**
+     * @see SimpleCompiler#setIClassLoader(ClassLoaderIClassLoader)
+     */
+    public void
+    setIClassLoader(@Nullable ClassLoaderIClassLoader iClassLoader) { this.se.setIClassLoader(iClassLoader); }
+
+    /**
+     * @see SimpleCompiler#setTargetVersion(int)
+     */
+    public void
+    setTargetVersion(int targetVersion) { this.se.setTargetVersion(targetVersion); }
+
+    /**
+     * @see SimpleCompiler#setMethodOutliningThreshold(int)
+     */
+    public void
+    setMethodOutliningThreshold(int threshold) { this.se.setMethodOutliningThreshold(threshold); }
+
+    /**
+     * @see SimpleCompiler#setLookup(Object, boolean)
+     */
+    public void
+    setLookup(@Nullable Object lookup, boolean hiddenClasses) { this.se.setLookup(lookup, hiddenClasses); }
+
+    /**
+     * @see SimpleCompiler#setCache(EvaluatorCache)
+     */
+    public void
+    setCache(@Nullable EvaluatorCache cache) { this.se.setCache(cache); }
+
+    /**
+     * @see ScriptEvaluator#setSharding(Executor, int)
+     */
+    public void
+    setSharding(@Nullable Executor executor, int maxExpressionsPerShard) {
+        this.se.setSharding(executor, maxExpressionsPerShard);
+    }
+
     @Override public void
     setDefaultExpressionType(Class<?> defaultExpressionType) { this.se.setDefaultReturnType(defaultExpressionType); }
 
@@ -405,16 +444,78 @@ class ExpressionEvaluator extends MultiCookable implements IExpressionEvaluator
     @Override public Method[]
     getResult() { return this.se.getResult(); }
 
+    @Override public void
+    cook(@Nullable String fileName, String s) throws CompileException {
+
+        if (this.se.getCache() != null) {
+            super.cook(fileName, s);
+            return;
+        }
+
+        try {
+            this.cook(Scanner.ofCharSequence(fileName, s));
+        } catch (IOException ioe) {
+            throw new InternalCompilerException("SNO: IOException despite CharSequence", ioe);
+        }
+    }
+
+    @Override public void
+    cook(String[] fileNames, String[] strings) throws CompileException {
+
+        if (this.se.getCache() != null) {
+            super.cook(fileNames, strings);
+            return;
+        }
+
+        Scanner[] scanners = new Scanner[strings.length];
+        try {
+            for (int i = 0; i < strings.length; i++) scanners[i] = Scanner.ofCharSequence(fileNames[i], strings[i]);
+            this.cook(scanners);
+        } catch (IOException ioe) {
+            throw new InternalCompilerException("SNO: IOException despite CharSequence", ioe);
+        }
+    }
+
     @Override public void
     cook(@Nullable String fileName, Reader reader) throws CompileException, IOException {
+
+        if (this.se.getCache() != null) {
+            this.cook(new String[] { fileName }, new Reader[] { reader });
+            return;
+        }
+
         this.cook(new Scanner(fileName, reader));
     }
 
     @Override public void
-    cook(String[] fileNames, Reader[] readers) throws CompileException, IOException {
+    cook(final String[] fileNames, Reader[] readers) throws CompileException, IOException {
 
         final int count = fileNames.length;
 
+        if (this.se.getCache() != null) {
+            this.se.setScriptCount(count);
+
+            final String[] texts = new String[count];
+            for (int i = 0; i < count; i++) texts[i] = Readers.readAll(readers[i]);
+
+            EvaluatorCache.KeyBuilder kb = new EvaluatorCache.KeyBuilder().add(this.getClass().getName());
+            this.se.addCacheKey(kb);
+            kb.add(fileNames).add(texts);
+
+            this.se.cook(kb, new EvaluatorCache.Compilation() {
+
+                @Override public void
+                compile() throws CompileException, IOException {
+                    Scanner[] scanners = new Scanner[count];
+                    for (int i = 0; i < count; i++) {
+                        scanners[i] = Scanner.ofCharSequence(fileNames[i], texts[i]);
+                    }
+                    ExpressionEvaluator.this.cook(scanners);
+                }
+            });
+            return;
+        }
+
         Scanner[] scanners = new Scanner[count];
         for (int i = 0; i < count; i++) scanners[i] = new Scanner(fileNames[i], readers[i]);
 
@@ -562,15 +663,15 @@ class ExpressionEvaluator extends MultiCookable implements IExpressionEvaluator
     ) throws CompileException {
         try {
             return ExpressionEvaluator.createFastExpressionEvaluator(
-                new Scanner(null, new StringReader(expression)), // scanner
-                IExpressionEvaluator.DEFAULT_CLASS_NAME,         // className
-                null,                                            // extendedType
-                interfaceToImplement,                            // interfaceToImplement
-                parameterNames,                                  // parameterNames
-                null                                             // parentClassLoader
+                Scanner.ofCharSequence(null, expression), // scanner
+                IExpressionEvaluator.DEFAULT_CLASS_NAME,  // className
+                null,                                     // extendedType
+                interfaceToImplement,                     // interfaceToImplement
+                parameterNames,                           // parameterNames
+                null                                      // parentClassLoader
             );
         } catch (IOException ioe) {
-            final AssertionError ae = new AssertionError("IOException despite StringReader");
+            final AssertionError ae = new AssertionError("IOException despite CharSequence");
             ae.initCause(ioe);
             throw ae;
         }
@@ -631,12 +732,12 @@ class ExpressionEvaluator extends MultiCookable implements IExpressionEvaluator
     throws CompileException {
         try {
             return this.createFastEvaluator(
-                new StringReader(script),
+                Scanner.ofCharSequence(null, script),
                 interfaceToImplement,
                 parameterNames
             );
         } catch (IOException ex) {
-            throw new InternalCompilerException("IOException despite StringReader", ex);
+            throw new InternalCompilerException("IOException despite CharSequence", ex);
         }
     }
 
@@ -30,12 +30,15 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.codehaus.commons.compiler.CompileException;
@@ -47,6 +50,11 @@ import org.codehaus.commons.nullanalysis.Nullable;
  *   'JLS7' means a reference to the <a href="http://docs.oracle.com/javase/specs/">Java Language Specification, Java
  *   SE 7 Edition</a>.
  * </p>
+ * <p>
+ *   {@link IClass}es may be shared between concurrent compilations (see {@link
+ *   SimpleCompiler#setIClassLoader(ClassLoaderIClassLoader)}); all lazily computed information is therefore
+ *   published through {@code volatile} fields.
+ * </p>
  */
 public abstract
 class IClass {
@@ -134,6 +142,23 @@ class IClass {
         isPrimitiveNumeric() { return Descriptor.isPrimitiveNumeric(this.fieldDescriptor); }
     }
 
+    /**
+     * For types whose methods, and the methods of whose supertypes, never change, e.g. types loaded from class files.
+     */
+    public
+    IClass() { this.methodCachesGeneration = null; }
+
+    /**
+     * For types to which methods may be added <em>after</em> their methods were first retrieved, e.g. types that are
+     * being compiled.
+     *
+     * @param methodCachesGeneration Is shared by all types that may inherit from each other, typically all types that
+     *                               were compiled through the same {@link IClassLoader}; see {@link
+     *                               #invalidateMethodCaches()}
+     */
+    protected
+    IClass(AtomicInteger methodCachesGeneration) { this.methodCachesGeneration = methodCachesGeneration; }
+
     /**
      * Returns all the constructors declared by the class represented by the type. If the class has a default
      * constructor, it is included.
@@ -147,7 +172,7 @@ class IClass {
 
         return (this.declaredIConstructorsCache = this.getDeclaredIConstructors2());
     }
-    @Nullable private IConstructor[] declaredIConstructorsCache;
+    @Nullable private volatile IConstructor[] declaredIConstructorsCache;
 
     /**
      * The uncached version of {@link #getDeclaredIConstructors()} which must be implemented by derived classes.
@@ -166,7 +191,7 @@ class IClass {
         if (this.declaredIMethodsCache != null) return this.declaredIMethodsCache;
         return (this.declaredIMethodsCache = this.getDeclaredIMethods2());
     }
-    @Nullable private IMethod[] declaredIMethodsCache;
+    @Nullable private volatile IMethod[] declaredIMethodsCache;
 
     /**
      * The uncached version of {@link #getDeclaredIMethods()} which must be implemented by derived classes.
@@ -222,7 +247,7 @@ class IClass {
         IMethod[] methods = (IMethod[]) dimc.get(methodName);
         return methods == null ? IClass.NO_IMETHODS : methods;
     }
-    @Nullable private Map<String /*methodName*/, Object /*IMethod-or-List<IMethod>*/> declaredIMethodCache;
+    @Nullable private volatile Map<String /*methodName*/, Object /*IMethod-or-List<IMethod>*/> declaredIMethodCache;
 
     /**
      * Returns all methods declared in the class or interface, its superclasses and its superinterfaces.
@@ -235,35 +260,94 @@ class IClass {
         if (this.iMethodCache != null) return this.iMethodCache;
 
         List<IMethod> iMethods = new ArrayList<IMethod>();
-        this.getIMethods(iMethods);
+        this.getIMethods(iMethods, new HashSet<String>());
         return (this.iMethodCache = (IMethod[]) iMethods.toArray(new IMethod[iMethods.size()]));
     }
-    @Nullable private IMethod[] iMethodCache;
+    @Nullable private volatile IMethod[] iMethodCache;
 
+    /**
+     * @param seen The names and descriptors of the methods in <var>result</var>
+     */
     private void
-    getIMethods(List<IMethod> result) throws CompileException {
+    getIMethods(List<IMethod> result, Set<String> seen) throws CompileException {
         IMethod[] ms = this.getDeclaredIMethods();
 
-        SCAN_DECLARED_METHODS:
         for (IMethod candidate : ms) {
-            MethodDescriptor candidateDescriptor = candidate.getDescriptor();
-            String           candidateName       = candidate.getName();
 
             // Check if a method with the same name and descriptor has been added before.
-            for (IMethod oldMethod : result) {
-                if (
-                    candidateName.equals(oldMethod.getName())
-                    && candidateDescriptor.equals(oldMethod.getDescriptor())
-                ) continue SCAN_DECLARED_METHODS;
-            }
-            result.add(candidate);
+            if (seen.add(candidate.getName() + candidate.getDescriptor())) result.add(candidate);
         }
         IClass sc = this.getSuperclass();
-        if (sc != null) sc.getIMethods(result);
+        if (sc != null) sc.getIMethods(result, seen);
+
+        for (IClass ii : this.getInterfaces()) ii.getIMethods(result, seen);
+    }
+
+    /**
+     * Returns all methods with the given name that are declared in the class or interface, its superclasses and its
+     * superinterfaces: First the methods declared by this type, then those of the superclass (recursively), then
+     * those of the superinterfaces (recursively). Overridden methods are <em>not</em> removed, and a method appears
+     * more than once if its declaring interface is reachable on more than one path.
+     * <p>
+     *   The result is cached per method name, so repeated lookups cost only one map probe. The cache is discarded
+     *   whenever {@link #invalidateMethodCaches()} is invoked on any {@link IClass} that shares the same {@link
+     *   #IClass(AtomicInteger) method caches generation}, because that may change the methods that this type
+     *   inherits.
+     * </p>
+     *
+     * @return an array of {@link IMethod}s that must not be modified
+     */
+    public final IMethod[]
+    getIMethods(String methodName) throws CompileException {
+
+        AtomicInteger mcg        = this.methodCachesGeneration;
+        int           generation = mcg == null ? 0 : mcg.get();
+        MethodsByName cache      = this.iMethodsByNameCache;
+        if (cache == null || cache.generation != generation) {
+            this.iMethodsByNameCache = (cache = new MethodsByName(generation));
+        }
+
+        IMethod[] result = (IMethod[]) cache.get(methodName);
+        if (result != null) return result;
+
+        IMethod[] declared   = this.getDeclaredIMethods(methodName);
+        IClass    superclass = this.getSuperclass();
+        IClass[]  interfaces = this.getInterfaces();
+        if (superclass == null && interfaces.length == 0) {
+            result = declared;
+        } else {
+            List<IMethod> l = new ArrayList<IMethod>();
+            l.addAll(Arrays.asList(declared));
+            if (superclass != null) l.addAll(Arrays.asList(superclass.getIMethods(methodName)));
+            for (IClass interfacE : interfaces) l.addAll(Arrays.asList(interfacE.getIMethods(methodName)));
+            result = l.isEmpty() ? IClass.NO_IMETHODS : (IMethod[]) l.toArray(new IMethod[l.size()]);
+        }
+
+        cache.put(methodName, result);
+        return result;
+    }
+    @Nullable private volatile MethodsByName iMethodsByNameCache;
 
-        for (IClass ii : this.getInterfaces()) ii.getIMethods(result);
+    /**
+     * The per-name cache of {@link #getIMethods(String)}, valid only while the {@link #methodCachesGeneration} equals
+     * its {@link #generation}.
+     */
+    private static
+    class MethodsByName extends ConcurrentHashMap<String, IMethod[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        final int generation;
+
+        MethodsByName(int generation) { this.generation = generation; }
     }
 
+    /**
+     * Is incremented by each invocation of {@link #invalidateMethodCaches()}; {@code null} iff the methods of this
+     * type and its supertypes never change.
+     */
+    @Nullable private final AtomicInteger methodCachesGeneration;
+
     private static final IMethod[] NO_IMETHODS = new IMethod[0];
 
     /**
@@ -365,7 +449,7 @@ class IClass {
     protected void
     clearIFieldCaches() { this.declaredIFieldsCache = null; }
 
-    @Nullable private Map<String /*fieldName*/, IField> declaredIFieldsCache;
+    @Nullable private volatile Map<String /*fieldName*/, IField> declaredIFieldsCache;
 
     /**
      * Uncached version of {@link #getDeclaredIFields()}.
@@ -390,7 +474,7 @@ class IClass {
         if (this.declaredIClassesCache != null) return this.declaredIClassesCache;
         return (this.declaredIClassesCache = this.getDeclaredIClasses2());
     }
-    @Nullable private IClass[] declaredIClassesCache;
+    @Nullable private volatile IClass[] declaredIClassesCache;
 
     /**
      * @return The member types of this type
@@ -408,7 +492,7 @@ class IClass {
         }
         return this.declaringIClassCache;
     }
-    private boolean          declaringIClassIsCached;
+    private volatile boolean declaringIClassIsCached;
     @Nullable private IClass declaringIClassCache;
 
     /**
@@ -431,10 +515,12 @@ class IClass {
     getOuterIClass() throws CompileException {
         if (this.outerIClassIsCached) return this.outerIClassCache;
 
+        IClass oc = this.getOuterIClass2();
+        this.outerIClassCache    = oc;
         this.outerIClassIsCached = true;
-        return (this.outerIClassCache = this.getOuterIClass2());
+        return oc;
     }
-    private boolean          outerIClassIsCached;
+    private volatile boolean outerIClassIsCached;
     @Nullable private IClass outerIClassCache;
 
     /**
@@ -460,10 +546,11 @@ class IClass {
                 null
             );
         }
+        this.superclassCache    = sc;
         this.superclassIsCached = true;
-        return (this.superclassCache = sc);
+        return sc;
     }
-    private boolean          superclassIsCached;
+    private volatile boolean superclassIsCached;
     @Nullable private IClass superclassCache;
 
     /**
@@ -506,7 +593,7 @@ class IClass {
         }
         return (this.interfacesCache = is);
     }
-    @Nullable private IClass[] interfacesCache;
+    @Nullable private volatile IClass[] interfacesCache;
 
     /**
      * @see #getInterfaces()
@@ -528,7 +615,7 @@ class IClass {
         if (this.descriptorCache != null) return this.descriptorCache;
         return (this.descriptorCache = this.getDescriptor2());
     }
-    @Nullable private String descriptorCache;
+    @Nullable private volatile String descriptorCache;
 
     /**
      * @return The field descriptor for the type as defined by JVMS 4.3.2.
@@ -585,7 +672,7 @@ class IClass {
         this.componentTypeIsCached = true;
         return this.componentTypeCache;
     }
-    private boolean          componentTypeIsCached;
+    private volatile boolean componentTypeIsCached;
     @Nullable private IClass componentTypeCache;
 
     /**
@@ -746,7 +833,7 @@ class IClass {
         if (this.arrayIClass != null) return this.arrayIClass;
         return (this.arrayIClass = this.getArrayIClass2(objectType));
     }
-    @Nullable private IClass arrayIClass;
+    @Nullable private volatile IClass arrayIClass;
 
     /**
      * @param objectType Must pass {@link IClassLoader#TYPE_java_lang_Object} here
@@ -830,7 +917,9 @@ class IClass {
 
         return res;
     }
-    private final Map<String /*name*/, IClass[]> memberTypeCache = new HashMap<String, IClass[]>();
+    private final Map<String /*name*/, IClass[]> memberTypeCache = Collections.synchronizedMap(
+        new HashMap<String, IClass[]>()
+    );
     private static final IClass[]                ZERO_ICLASSES   = new IClass[0];
     private void
     findMemberType(@Nullable String name, Collection<IClass> result) throws CompileException {
@@ -883,7 +972,7 @@ class IClass {
         if (this.iAnnotationsCache != null) return this.iAnnotationsCache;
         return (this.iAnnotationsCache = this.getIAnnotations2());
     }
-    @Nullable private IAnnotation[] iAnnotationsCache;
+    @Nullable private volatile IAnnotation[] iAnnotationsCache;
 
     /**
      * @throws CompileException
@@ -929,15 +1018,17 @@ class IClass {
         private boolean argsNeedAdjust;
 
         /**
-         * TODO
+         * @deprecated The {@link UnitCompiler} no longer stores call-site-specific information in the (possibly
+         *             shared) {@link IInvocable}
          */
-        public void
+        @Deprecated public void
         setArgsNeedAdjust(boolean newVal) { this.argsNeedAdjust = newVal; }
 
         /**
-         * TODO
+         * @deprecated The {@link UnitCompiler} no longer stores call-site-specific information in the (possibly
+         *             shared) {@link IInvocable}
          */
-        public boolean
+        @Deprecated public boolean
         argsNeedAdjust() { return this.argsNeedAdjust; }
 
         /**
@@ -958,7 +1049,7 @@ class IClass {
             if (this.parameterTypesCache != null) return this.parameterTypesCache;
             return (this.parameterTypesCache = this.getParameterTypes2());
         }
-        @Nullable private IClass[] parameterTypesCache;
+        @Nullable private volatile IClass[] parameterTypesCache;
 
         /**
          * Opposed to the {@link Constructor}, there is no magic "{@code this$0}" parameter.
@@ -981,7 +1072,7 @@ class IClass {
             if (this.descriptorCache != null) return this.descriptorCache;
             return (this.descriptorCache = this.getDescriptor2());
         }
-        @Nullable private MethodDescriptor descriptorCache;
+        @Nullable private volatile MethodDescriptor descriptorCache;
 
         /**
          * Uncached implementation of {@link #getDescriptor()}.
@@ -997,7 +1088,7 @@ class IClass {
             if (this.thrownExceptionsCache != null) return this.thrownExceptionsCache;
             return (this.thrownExceptionsCache = this.getThrownExceptions2());
         }
-        @Nullable private IClass[] thrownExceptionsCache;
+        @Nullable private volatile IClass[] thrownExceptionsCache;
 
         /**
          * @return The types thrown by this constructor or method
@@ -1361,10 +1452,16 @@ class IClass {
 
     /**
      * This class caches the declared methods in order to minimize the invocations of {@link #getDeclaredIMethods2()}.
+     * Also discards the {@link #getIMethods(String)} caches of all types that share the same {@link
+     * #IClass(AtomicInteger) method caches generation}.
      */
     public void
     invalidateMethodCaches() {
         this.declaredIMethodsCache = null;
         this.declaredIMethodCache  = null;
+        this.iMethodsByNameCache   = null;
+
+        AtomicInteger mcg = this.methodCachesGeneration;
+        if (mcg != null) mcg.incrementAndGet();
     }
 }
@@ -26,10 +26,14 @@
 package org.codehaus.janino;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -112,6 +116,7 @@ class IClassLoader {
 
     // Representations of commonly used constructors.
     public IConstructor CTOR_java_lang_StringBuilder__java_lang_String;
+    public IConstructor CTOR_java_lang_StringBuilder__int;
 
     /**
      * @param parentIClassLoader {@code null} iff this {@link IClassLoader} has no parent
@@ -184,8 +189,9 @@ class IClassLoader {
             this.METH_java_util_Iterator__hasNext                       = IClassLoader.requireMethod(this.TYPE_java_util_Iterator,      "hasNext");
             this.METH_java_util_Iterator__next                          = IClassLoader.requireMethod(this.TYPE_java_util_Iterator,      "next");
 
-            // SUPPRESS CHECKSTYLE LineLength:1
+            // SUPPRESS CHECKSTYLE LineLength:2
             this.CTOR_java_lang_StringBuilder__java_lang_String = IClassLoader.requireConstructor(this.TYPE_java_lang_StringBuilder, this.TYPE_java_lang_String);
+            this.CTOR_java_lang_StringBuilder__int              = IClassLoader.requireConstructor(this.TYPE_java_lang_StringBuilder, IClass.INT);
 
         } catch (Exception e) {
             throw new InternalCompilerException("Cannot load simple types", e);
@@ -285,57 +291,39 @@ class IClassLoader {
             if (res != null) return res;
         }
 
-        // We need to synchronize here because "unloadableIClasses" and "loadedIClasses" are unsynchronized
-        // containers. Also, "findIClass()" is not thread safe.
-        IClass result;
-
-        synchronized (this) {
-
-            // Class could not be loaded before?
-            if (this.unloadableIClasses.contains(fieldDescriptor)) return null;
-
-            // Class already loaded?
-            result = (IClass) this.loadedIClasses.get(fieldDescriptor);
-            if (result != null) return result;
+        // Fast path: Class could not be loaded before, or was already loaded?
+        if (this.unloadableIClasses.contains(fieldDescriptor)) return null;
+        IClass result = (IClass) this.loadedIClasses.get(fieldDescriptor);
+        if (result != null) return result;
 
-            // Special handling for array types.
-            if (Descriptor.isArrayReference(fieldDescriptor)) {
+        // Special handling for array types.
+        if (Descriptor.isArrayReference(fieldDescriptor)) {
 
-                // Load the component type.
-                IClass componentIClass = this.loadIClass(
-                    Descriptor.getComponentDescriptor(fieldDescriptor)
-                );
-                if (componentIClass == null) return null;
+            // Load the component type.
+            IClass componentIClass = this.loadIClass(
+                Descriptor.getComponentDescriptor(fieldDescriptor)
+            );
+            if (componentIClass == null) return null;
 
-                // Now get and define the array type.
-                IClass arrayIClass = componentIClass.getArrayIClass(this.TYPE_java_lang_Object);
-                this.loadedIClasses.put(fieldDescriptor, arrayIClass);
-                return arrayIClass;
-            }
+            // Now get and define the array type.
+            IClass arrayIClass = componentIClass.getArrayIClass(this.TYPE_java_lang_Object);
+            IClass prev        = (IClass) this.loadedIClasses.putIfAbsent(fieldDescriptor, arrayIClass);
+            return prev != null ? prev : arrayIClass;
+        }
 
-            // Load the class through the {@link #findIClass(String)} method implemented by the derived class.
-            // By contract, {@link findIClass(String)} <em>must</em> invoke {@link #defineIClass(IClass)}!
-            IClassLoader.LOGGER.log(Level.FINE, "About to call \"findIClass({0})\"", fieldDescriptor);
-            result = this.findIClass(fieldDescriptor);
-            if (result == null) {
-                if (this.loadedIClasses.containsKey(fieldDescriptor)) {
-                    throw new InternalCompilerException((
-                        "\"findIClass(\""
-                        + fieldDescriptor
-                        + "\")\" called \"defineIClass()\", but returned null!?"
-                    ));
-                }
-                this.unloadableIClasses.add(fieldDescriptor);
-                return null;
-            }
-            if (!this.loadedIClasses.containsKey(fieldDescriptor)) {
-                throw new InternalCompilerException((
-                    "\"findIClass(\""
-                    + fieldDescriptor
-                    + "\")\" did not call \"defineIClass()\"!?"
-                ));
+        // "findIClass()" of an IClassLoader that is not parallel capable is not thread-safe, so we must serialize
+        // the slow path.
+        if (!this.parallelCapable) {
+            this.findIClassLock.lock();
+            try {
+                result = this.findAndDefineIClass(fieldDescriptor);
+            } finally {
+                this.findIClassLock.unlock();
             }
+        } else {
+            result = this.findAndDefineIClass(fieldDescriptor);
         }
+        if (result == null) return null;
 
         if (!result.getDescriptor().equalsIgnoreCase(fieldDescriptor)) {
             throw new InternalCompilerException(
@@ -351,6 +339,113 @@ class IClassLoader {
         return result;
     }
 
+    /**
+     * Loads a non-array, non-primitive type through {@link #findIClass(String)}, and guarantees that that method is
+     * invoked only once per <var>descriptor</var>, even if many threads request the same type at the same time: The
+     * first thread registers a {@link PendingLoad}, and all other threads wait until that thread has either defined
+     * the type or failed. Different types are loaded in parallel.
+     *
+     * @return {@code null} iff {@link #findIClass(String)} returned {@code null}
+     */
+    @Nullable private IClass
+    findAndDefineIClass(String descriptor) throws ClassNotFoundException {
+
+        for (;;) {
+
+            // Class could not be loaded before, or was loaded by another thread in the meantime?
+            if (this.unloadableIClasses.contains(descriptor)) return null;
+            IClass result = (IClass) this.loadedIClasses.get(descriptor);
+            if (result != null) return result;
+
+            PendingLoad pendingLoad = new PendingLoad();
+            PendingLoad other       = (PendingLoad) this.pendingLoads.putIfAbsent(descriptor, pendingLoad);
+            if (other != null) {
+
+                // The current thread requests a type that it is currently loading (which is possible while the
+                // "findIClass()" invocation is in progress); behave like in the single-threaded case.
+                if (other.thread == Thread.currentThread()) return this.findIClass2(descriptor);
+
+                // Another thread is loading that type; wait until it is done, then re-check.
+                other.await();
+                continue;
+            }
+
+            try {
+                result = this.findIClass2(descriptor);
+                if (result == null) this.unloadableIClasses.add(descriptor);
+                return result;
+            } finally {
+                pendingLoad.complete(this.pendingLoads, descriptor);
+            }
+        }
+    }
+
+    @Nullable private IClass
+    findIClass2(String descriptor) throws ClassNotFoundException {
+
+        // Load the class through the {@link #findIClass(String)} method implemented by the derived class.
+        // By contract, {@link findIClass(String)} <em>must</em> invoke {@link #defineIClass(IClass)}!
+        IClassLoader.LOGGER.log(Level.FINE, "About to call \"findIClass({0})\"", descriptor);
+        IClass result = this.findIClass(descriptor);
+        if (result == null) {
+            if (this.loadedIClasses.containsKey(descriptor)) {
+                throw new InternalCompilerException((
+                    "\"findIClass(\""
+                    + descriptor
+                    + "\")\" called \"defineIClass()\", but returned null!?"
+                ));
+            }
+            return null;
+        }
+        if (!this.loadedIClasses.containsKey(descriptor)) {
+            throw new InternalCompilerException((
+                "\"findIClass(\""
+                + descriptor
+                + "\")\" did not call \"defineIClass()\"!?"
+            ));
+        }
+        return result;
+    }
+
+    /**
+     * Represents a type that is currently being loaded by one thread. Other threads that request the same type wait
+     * until the loading thread has defined the type (or failed to load it).
+     */
+    private static final
+    class PendingLoad {
+
+        final Thread thread = Thread.currentThread();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * Waits until the loading thread has completed this load.
+         */
+        void
+        await() {
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    this.done.await();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        /**
+         * Unregisters this load and releases the waiting threads. Notice that the entry is removed <em>before</em>
+         * the waiting threads are released, so that they retry if the load failed.
+         */
+        void
+        complete(ConcurrentMap<String, PendingLoad> pendingLoads, String descriptor) {
+            pendingLoads.remove(descriptor, this);
+            this.done.countDown();
+        }
+    }
+
     /**
      * Finds a new {@link IClass} by descriptor and calls {@link #defineIClass(IClass)}.
      * <p>
@@ -373,8 +468,10 @@ class IClassLoader {
      *   Notice that this method is never called for array types.
      * </p>
      * <p>
-     *   Notice that this method is never called from more than one thread at a time. In other words, implementations
-     *   of this method need not be thread-safe.
+     *   Notice that this method is never called more than once for the same descriptor (unless it returns {@code
+     *   null} or throws an exception), and, unless the derived class {@link #registerAsParallelCapable() registered
+     *   as parallel capable}, never from more than one thread at a time. In other words, implementations of this
+     *   method need not be thread-safe, unless they are parallel capable.
      * </p>
      *
      * @return                        {@code null} if a class with that descriptor could not be found
@@ -397,12 +494,19 @@ class IClassLoader {
         IClassLoader.LOGGER.log(Level.FINE, "{0}: Defined type \"{0}\"", descriptor);
 
         // Define.
-        IClass prev = (IClass) this.loadedIClasses.put(descriptor, iClass);
+        IClass prev = (IClass) this.loadedIClasses.putIfAbsent(descriptor, iClass);
 
         // Previously defined?
         if (prev != null) {
             throw new InternalCompilerException("Non-identical definition of IClass \"" + descriptor + "\"");
         }
+
+        // Release the threads that wait for this type right now, and not only when "findIClass()" returns, because
+        // "findIClass()" may go on and load other types, which in turn may require this type.
+        PendingLoad pendingLoad = (PendingLoad) this.pendingLoads.get(descriptor);
+        if (pendingLoad != null && pendingLoad.thread == Thread.currentThread()) {
+            pendingLoad.complete(this.pendingLoads, descriptor);
+        }
     }
 
     /**
@@ -453,7 +557,33 @@ class IClassLoader {
         return icl;
     }
 
-    private final IClassLoader                       parentIClassLoader;
-    private final Map<String /*descriptor*/, IClass> loadedIClasses     = new HashMap<String, IClass>();
-    private final Set<String /*descriptor*/>         unloadableIClasses = new HashSet<String>();
+    /**
+     * Declares that the {@link #findIClass(String)} method of this {@link IClassLoader} is thread-safe, so that
+     * different types can be loaded by different threads in parallel. Derived classes that want to be parallel
+     * capable must invoke this method from their constructor, <em>before</em> invoking {@link #postConstruct()}.
+     *
+     * @see java.lang.ClassLoader#registerAsParallelCapable()
+     */
+    protected final void
+    registerAsParallelCapable() { this.parallelCapable = true; }
+
+    /**
+     * @return Whether the derived class {@link #registerAsParallelCapable() registered as parallel capable}
+     */
+    public final boolean
+    isParallelCapable() { return this.parallelCapable; }
+
+    private final IClassLoader                                       parentIClassLoader;
+    private final ConcurrentMap<String /*descriptor*/, IClass>       loadedIClasses     = new ConcurrentHashMap<String, IClass>(); // SUPPRESS CHECKSTYLE LineLength:2
+    private final Set<String /*descriptor*/>                         unloadableIClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String /*descriptor*/, PendingLoad>  pendingLoads       = new ConcurrentHashMap<String, PendingLoad>();
+    private final Lock                                               findIClassLock     = new ReentrantLock();
+    private boolean                                                  parallelCapable;
+
+    /**
+     * Is shared by all types that are compiled through this {@link IClassLoader}, so that adding methods to one of
+     * these types invalidates the inherited method caches of these types only; see {@link
+     * IClass#invalidateMethodCaches()}.
+     */
+    final AtomicInteger methodCachesGeneration = new AtomicInteger();
 }
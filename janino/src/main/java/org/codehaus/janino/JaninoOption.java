@@ -46,4 +46,51 @@ enum JaninoOption {
      * Contrary to the JLS, allow <em>any</em> expression as a resource in a TRY-with-resources statement.
      */
     EXPRESSIONS_IN_TRY_WITH_RESOURCES_ALLOWED,
+
+    /**
+     * Implement string concatenation ({@code a + b}) with INVOKEDYNAMIC and {@code
+     * java.lang.invoke.StringConcatFactory.makeConcatWithConstants()}, where all constant portions are folded into the
+     * concatenation recipe. Has no effect unless the class files are generated for Java 9 or later (see {@link
+     * UnitCompiler#setTargetVersion(int)}).
+     */
+    INDY_STRING_CONCATENATION,
+
+    /**
+     * Optimize the byte code of each method after it was generated: Thread jumps, eliminate dead code, remove
+     * redundant loads, stores and pops, and compact {@code TABLESWITCH} and {@code LOOKUPSWITCH} instructions. Smaller
+     * methods are more likely to be inlined by the JIT compiler.
+     * <p>
+     *   Local variables are only optimized away if no debugging information for local variables is generated (see
+     *   {@link SimpleCompiler#setDebuggingInformation(boolean, boolean, boolean)}).
+     * </p>
+     */
+    PEEPHOLE_OPTIMIZATION,
+
+    /**
+     * Before a method is compiled, estimate the size of its byte code, and if that exceeds the {@link
+     * UnitCompiler#setMethodOutliningThreshold(int) method outlining threshold}, move sequences of statements into
+     * private synthetic methods. The local variables that such a sequence uses are passed as arguments, and the local
+     * variables that it assigns are returned (through a holder array if there is more than one). {@code BREAK},
+     * {@code CONTINUE} and {@code RETURN} statements that leave the sequence are mapped to exit codes, which the
+     * caller acts upon. Keeps generated methods below the size limit of the HotSpot JIT compiler (8000 bytes, see
+     * {@code -XX:-DontCompileHugeMethods}) and the 64 KB limit of the JVM.
+     * <p>
+     *   Constructors and static initializers are not outlined, and neither are methods that declare local classes.
+     *   If the estimated size of a method still exceeds the threshold after outlining, then a warning is issued.
+     * </p>
+     */
+    METHOD_OUTLINING,
+
+    /**
+     * When the constant pool of a class file has grown beyond a {@link
+     * UnitCompiler#setConstantPoolSpillFraction(double) fraction} of the JVM's limit of 65535 entries, then load all
+     * further {@code String}, {@code int}, {@code long}, {@code float} and {@code double} literals from static arrays
+     * in synthetic holder classes, instead of from the constant pool. This allows for classes with huge numbers of
+     * literals (e.g. generated rule sets), which would otherwise fail with "Constant pool ... has grown past JVM
+     * limit".
+     * <p>
+     *   Field and method references are not spilled, so a class can still exceed the limit with these alone.
+     * </p>
+     */
+    CONSTANT_POOL_SPILLING,
 }
@@ -111,22 +111,43 @@ class Java {
          */
         public static final Located NOWHERE = new Located(Location.NOWHERE) {};
 
-        private final Location location;
+        /**
+         * The location is stored in packed form, because there are many AST nodes, and the {@link Location} objects
+         * are only needed for error messages (and the line number for the LineNumberTable).
+         */
+        @Nullable private final String fileName;
+        private final long             lineAndColumnNumber;
 
         protected
         Located(Location location) {
             //assert location != null;
-            this.location = location;
+            this.fileName            = location.getFileName();
+            this.lineAndColumnNumber = (
+                (long) location.getLineNumber() << 32
+                | (location.getColumnNumber() & 0xffffffffL)
+            );
         }
 
+        /**
+         * Equivalent with {@code getLocation().getLineNumber()}, but does not create a {@link Location} object.
+         */
+        public int
+        getLineNumber() { return (int) (this.lineAndColumnNumber >> 32); }
+
         // Implement "Locatable".
 
+        /**
+         * @return A new {@link Location} object
+         */
         @Override public Location
-        getLocation() { return this.location; }
+        getLocation() {
+            if (this == Located.NOWHERE) return Location.NOWHERE;
+            return new Location(this.fileName, this.getLineNumber(), (int) this.lineAndColumnNumber);
+        }
 
         @Override public void
         throwCompileException(String message) throws CompileException {
-            throw new CompileException(message, this.location);
+            throw new CompileException(message, this.getLocation());
         }
     }
 
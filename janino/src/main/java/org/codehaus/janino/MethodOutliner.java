@@ -0,0 +1,1384 @@
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ * Copyright (c) 2015-2016 TIBCO Software Inc. All rights reserved. // CHECKSTYLE:OFF CHECKSTYLE:ON
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.Location;
+import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.Java.AbstractClassDeclaration;
+import org.codehaus.janino.Java.AccessModifier;
+import org.codehaus.janino.Java.AmbiguousName;
+import org.codehaus.janino.Java.Annotation;
+import org.codehaus.janino.Java.AnonymousClassDeclaration;
+import org.codehaus.janino.Java.ArrayAccessExpression;
+import org.codehaus.janino.Java.ArrayInitializerOrRvalue;
+import org.codehaus.janino.Java.ArrayType;
+import org.codehaus.janino.Java.Assignment;
+import org.codehaus.janino.Java.AssertStatement;
+import org.codehaus.janino.Java.BinaryOperation;
+import org.codehaus.janino.Java.Block;
+import org.codehaus.janino.Java.BlockLambdaBody;
+import org.codehaus.janino.Java.BlockStatement;
+import org.codehaus.janino.Java.BooleanLiteral;
+import org.codehaus.janino.Java.BreakStatement;
+import org.codehaus.janino.Java.Cast;
+import org.codehaus.janino.Java.CatchClause;
+import org.codehaus.janino.Java.CatchParameter;
+import org.codehaus.janino.Java.ConditionalExpression;
+import org.codehaus.janino.Java.ContinueStatement;
+import org.codehaus.janino.Java.Crement;
+import org.codehaus.janino.Java.DoStatement;
+import org.codehaus.janino.Java.EmptyStatement;
+import org.codehaus.janino.Java.ExpressionLambdaBody;
+import org.codehaus.janino.Java.ExpressionStatement;
+import org.codehaus.janino.Java.FieldDeclaration;
+import org.codehaus.janino.Java.ForEachStatement;
+import org.codehaus.janino.Java.ForStatement;
+import org.codehaus.janino.Java.FormalLambdaParameters;
+import org.codehaus.janino.Java.FunctionDeclarator.FormalParameter;
+import org.codehaus.janino.Java.FunctionDeclarator.FormalParameters;
+import org.codehaus.janino.Java.IdentifierLambdaParameters;
+import org.codehaus.janino.Java.IfStatement;
+import org.codehaus.janino.Java.InferredLambdaParameters;
+import org.codehaus.janino.Java.Instanceof;
+import org.codehaus.janino.Java.IntegerLiteral;
+import org.codehaus.janino.Java.LabeledStatement;
+import org.codehaus.janino.Java.LambdaExpression;
+import org.codehaus.janino.Java.LambdaParameters;
+import org.codehaus.janino.Java.LocalClassDeclarationStatement;
+import org.codehaus.janino.Java.LocalVariableDeclarationStatement;
+import org.codehaus.janino.Java.MethodDeclarator;
+import org.codehaus.janino.Java.MethodInvocation;
+import org.codehaus.janino.Java.MethodReference;
+import org.codehaus.janino.Java.Modifier;
+import org.codehaus.janino.Java.NewAnonymousClassInstance;
+import org.codehaus.janino.Java.NewArray;
+import org.codehaus.janino.Java.NewClassInstance;
+import org.codehaus.janino.Java.Primitive;
+import org.codehaus.janino.Java.PrimitiveType;
+import org.codehaus.janino.Java.ReferenceType;
+import org.codehaus.janino.Java.ReturnStatement;
+import org.codehaus.janino.Java.Rvalue;
+import org.codehaus.janino.Java.Scope;
+import org.codehaus.janino.Java.Statement;
+import org.codehaus.janino.Java.StringLiteral;
+import org.codehaus.janino.Java.SuperclassMethodInvocation;
+import org.codehaus.janino.Java.SwitchStatement;
+import org.codehaus.janino.Java.SwitchStatement.SwitchBlockStatementGroup;
+import org.codehaus.janino.Java.SynchronizedStatement;
+import org.codehaus.janino.Java.ThrowStatement;
+import org.codehaus.janino.Java.TryStatement;
+import org.codehaus.janino.Java.TryStatement.LocalVariableDeclaratorResource;
+import org.codehaus.janino.Java.Type;
+import org.codehaus.janino.Java.UnaryOperation;
+import org.codehaus.janino.Java.VariableDeclarator;
+import org.codehaus.janino.Java.WhileStatement;
+import org.codehaus.janino.util.AbstractTraverser;
+import org.codehaus.janino.util.DeepCopier;
+
+/**
+ * Moves sequences of statements out of a method whose byte code would be too large, into private synthetic methods;
+ * see {@link JaninoOption#METHOD_OUTLINING}.
+ * <p>
+ *   The size of the byte code is <em>estimated</em> from the AST before the method is compiled; the estimate errs on
+ *   the high side. While the estimated size of the method exceeds the threshold, runs of consecutive statements (of
+ *   the method body, or of a nested block, loop body, TRY block, SWITCH block statement group, ...) are replaced with
+ *   an invocation of a new method named "{@code outlined$}<var>method</var>{@code $}<var>n</var>", whose body is a
+ *   copy of these statements. The local variables of the enclosing scope that the statements use are passed as
+ *   arguments; if the statements assign to one of them, then its new value is the return value of the new method.
+ * </p>
+ * <p>
+ *   If the statements assign to more than one of these local variables, or if they contain RETURN statements, or
+ *   BREAK or CONTINUE statements that refer to a statement outside of the run, then the new values of the assigned
+ *   local variables (and the return value, if any) are passed back through an {@code Object[]} argument, and the new
+ *   method returns an "exit code", which the invoking code evaluates to perform the respective RETURN, BREAK or
+ *   CONTINUE statement.
+ * </p>
+ * <p>
+ *   A run of statements is not outlined iff
+ * </p>
+ * <ul>
+ *   <li>it declares a local variable that is used after the run,</li>
+ *   <li>
+ *     it assigns a local variable of the enclosing scope that was declared without an initializer (because it may not
+ *     be definitely assigned before the run),
+ *   </li>
+ *   <li>
+ *     its last statement contains a RETURN statement, or a BREAK or CONTINUE statement that refers to a statement
+ *     outside of the run, or possibly cannot complete normally (which would change the reachability of the code),
+ *   </li>
+ *   <li>
+ *     it uses a local variable of the enclosing scope as a case label, or a local variable that cannot be passed as
+ *     an argument (a multi-catch parameter, or a SWITCH local variable from a preceding block statement group),
+ *   </li>
+ *   <li>
+ *     its invocation (including the exit code evaluation) would not be significantly smaller than the run itself.
+ *   </li>
+ * </ul>
+ * <p>
+ *   The invocations that replace runs may be outlined in turn, in a following pass.
+ * </p>
+ * <p>
+ *   Methods that declare local classes are never outlined.
+ * </p>
+ * <p>
+ *   Thus it is possible that the estimated size of a method still exceeds the threshold after outlining; see {@link
+ *   #outline(MethodDeclarator)}.
+ * </p>
+ */
+final
+class MethodOutliner {
+
+    /**
+     * Runs of statements that are not at least this much larger (estimated) than their replacement are not worth
+     * outlining.
+     */
+    private static final int MIN_RUN_SIZE = 64;
+
+    /**
+     * The JVM allows for at most 255 parameter slots, including {@code this}; one more slot is reserved for the
+     * holder array.
+     */
+    private static final int MAX_PARAMETER_SLOTS = 253;
+
+    /**
+     * The estimated size of the "{@code return result;}" statement that an outlined method may end with. Runs are kept
+     * this much below the threshold, so that the outlined method itself is never outlined again.
+     */
+    private static final int RETURN_SIZE = 3;
+
+    /**
+     * The estimated size of the storing of one result into the holder array, including the boxing conversion.
+     * Outlined methods do that at their end and before each exit, and the estimated size of the run is increased
+     * accordingly.
+     */
+    private static final int STORE_SIZE = 10;
+
+    /**
+     * The estimated size of the test of the exit code, and the transfer of control, that the invocation of an
+     * outlined method is followed by for each exit.
+     */
+    private static final int EXIT_SIZE = 12;
+
+    private final int threshold;
+
+    /**
+     * The estimated byte code size of the method, as it shrinks during outlining.
+     */
+    private int size;
+
+    @Nullable private MethodDeclarator method;
+
+    /**
+     * The names of all local variables that the method declares.
+     */
+    private Set<String> localVariableNames = Collections.emptySet();
+
+    /**
+     * @param threshold Outline statements from methods whose estimated byte code size exceeds this many bytes
+     */
+    MethodOutliner(int threshold) { this.threshold = threshold; }
+
+    /**
+     * Outlines statements from the body of the given method, until its estimated byte code size no longer exceeds
+     * the threshold. The outlined methods are added to the declaring class of <var>md</var>.
+     *
+     * @return The estimated byte code size of the method after outlining, which exceeds the threshold iff not enough
+     *         statements could be outlined
+     */
+    int
+    outline(MethodDeclarator md) throws CompileException {
+
+        List<? extends BlockStatement> statements = md.statements;
+        if (statements == null || !(md.getDeclaringType() instanceof AbstractClassDeclaration)) return 0;
+
+        Analysis a = new Analysis();
+        for (BlockStatement bs : statements) a.visitBlockStatement(bs);
+        if (a.size <= this.threshold || a.declaresLocalClass) return a.size;
+
+        this.method             = md;
+        this.size               = a.size;
+        this.localVariableNames = a.declaredNames;
+
+        Map<String, Capture> scope      = new HashMap<String, Capture>();
+        FormalParameters     parameters = md.formalParameters;
+        for (int i = 0; i < parameters.parameters.length; i++) {
+            FormalParameter fp = parameters.parameters[i];
+            scope.put(fp.name, new Capture(
+                fp.type,                                                                  // type
+                parameters.variableArity && i == parameters.parameters.length - 1 ? 1 : 0, // brackets
+                fp.isFinal(),                                                             // finaL
+                true                                                                      // initialized
+            ));
+        }
+
+        this.outlineStatements(
+            statements,
+            scope,
+            Collections.<String>emptySet(),
+            Arrays.asList(md.thrownExceptions)
+        );
+
+        return this.size;
+    }
+
+    /**
+     * @param scope      The local variables that are visible before the first of the <var>statements</var>; {@code
+     *                   null} values designate local variables that cannot be passed to an outlined method
+     * @param usedAfter  The names that are used after the <var>statements</var>, but within the scope of the local
+     *                   variables that they declare (relevant only for SWITCH block statement groups)
+     * @param thrownTypes The checked exceptions that the <var>statements</var> may throw
+     */
+    private void
+    outlineStatements(
+        List<? extends BlockStatement> statements,
+        Map<String, Capture>           scope,
+        Set<String>                    usedAfter,
+        List<Type>                     thrownTypes
+    ) throws CompileException {
+
+        int        n        = statements.size();
+        Analysis[] analyses = new Analysis[n];
+        for (int i = 0; i < n; i++) analyses[i] = MethodOutliner.analyze((BlockStatement) statements.get(i));
+
+        // Statements that are too large to be outlined as a whole must be made smaller first.
+        Map<String, Capture> s = new HashMap<String, Capture>(scope);
+        for (int i = 0; i < n && this.size > this.threshold; i++) {
+            BlockStatement bs = (BlockStatement) statements.get(i);
+            if (analyses[i].size > this.threshold) {
+                this.outlineNested(bs, s, thrownTypes);
+                analyses[i] = MethodOutliner.analyze(bs);
+            }
+            MethodOutliner.declare(bs, s);
+        }
+
+        // Outlining a single statement is pointless (and impossible for an unmodifiable list).
+        if (n < 2) return;
+
+        // The invocations that replace the runs may be outlined in turn, so repeat until the method is small enough,
+        // or until no more runs are found.
+        for (int size = -1; this.size > this.threshold && this.size != size;) {
+            size = this.size;
+
+            Map<String, Integer> lastUse = new HashMap<String, Integer>();
+            for (int i = 0; i < n; i++) {
+                for (String name : analyses[i].usedNames) lastUse.put(name, i);
+            }
+
+            s = new HashMap<String, Capture>(scope);
+            for (int i = 0; i < n && this.size > this.threshold;) {
+                int end = this.findRun(statements, analyses, i, s, lastUse, usedAfter);
+                if (end == -1 || !this.outlineRun(statements, analyses, i, end, s, thrownTypes)) {
+                    MethodOutliner.declare((BlockStatement) statements.get(i), s);
+                    i++;
+                    continue;
+                }
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Descends into the nested statement lists of the given statement.
+     */
+    private void
+    outlineNested(BlockStatement bs, Map<String, Capture> scope, List<Type> thrownTypes) throws CompileException {
+
+        if (bs instanceof Block) {
+            this.outlineStatements(((Block) bs).statements, scope, Collections.<String>emptySet(), thrownTypes);
+        } else
+        if (bs instanceof IfStatement) {
+            IfStatement is = (IfStatement) bs;
+            this.outlineNested(is.thenStatement, scope, thrownTypes);
+            if (is.elseStatement != null) this.outlineNested(is.elseStatement, scope, thrownTypes);
+        } else
+        if (bs instanceof LabeledStatement) {
+            this.outlineNested(((LabeledStatement) bs).body, scope, thrownTypes);
+        } else
+        if (bs instanceof ForStatement) {
+            ForStatement         fs = (ForStatement) bs;
+            Map<String, Capture> s  = new HashMap<String, Capture>(scope);
+            if (fs.init != null) MethodOutliner.declare(fs.init, s);
+            this.outlineNested(fs.body, s, thrownTypes);
+        } else
+        if (bs instanceof ForEachStatement) {
+            ForEachStatement     fes = (ForEachStatement) bs;
+            FormalParameter      ce  = fes.currentElement;
+            Map<String, Capture> s   = new HashMap<String, Capture>(scope);
+            s.put(ce.name, new Capture(ce.type, 0, ce.isFinal(), true));
+            this.outlineNested(fes.body, s, thrownTypes);
+        } else
+        if (bs instanceof WhileStatement) {
+            this.outlineNested(((WhileStatement) bs).body, scope, thrownTypes);
+        } else
+        if (bs instanceof DoStatement) {
+            this.outlineNested(((DoStatement) bs).body, scope, thrownTypes);
+        } else
+        if (bs instanceof SynchronizedStatement) {
+            this.outlineNested(((SynchronizedStatement) bs).body, scope, thrownTypes);
+        } else
+        if (bs instanceof TryStatement) {
+            TryStatement ts = (TryStatement) bs;
+
+            // Exceptions thrown in the TRY block may be caught by the catch clauses.
+            Map<String, Capture> s   = new HashMap<String, Capture>(scope);
+            List<Type>           tts = new ArrayList<Type>(thrownTypes);
+            for (TryStatement.Resource r : ts.resources) {
+                if (r instanceof LocalVariableDeclaratorResource) {
+                    LocalVariableDeclaratorResource lvdr = (LocalVariableDeclaratorResource) r;
+                    VariableDeclarator              vd   = lvdr.variableDeclarator;
+                    s.put(vd.name, new Capture(lvdr.type, vd.brackets, true, true));
+                }
+            }
+            for (CatchClause cc : ts.catchClauses) tts.addAll(Arrays.asList(cc.catchParameter.types));
+            this.outlineNested(ts.body, s, tts);
+
+            for (CatchClause cc : ts.catchClauses) {
+                CatchParameter cp = cc.catchParameter;
+                s = new HashMap<String, Capture>(scope);
+                s.put(cp.name, cp.types.length == 1 ? new Capture(cp.types[0], 0, cp.finaL, true) : null);
+                this.outlineNested(cc.body, s, thrownTypes);
+            }
+
+            Block f = ts.finallY;
+            if (f != null) this.outlineNested(f, scope, thrownTypes);
+        } else
+        if (bs instanceof SwitchStatement) {
+            List<SwitchBlockStatementGroup> sbsgs = ((SwitchStatement) bs).sbsgs;
+
+            // The local variables declared in a block statement group are in scope in all following groups.
+            for (int i = 0; i < sbsgs.size(); i++) {
+                Set<String> usedAfter = new HashSet<String>();
+                for (SwitchBlockStatementGroup sbsg : sbsgs.subList(i + 1, sbsgs.size())) {
+                    for (BlockStatement bs2 : sbsg.blockStatements) {
+                        usedAfter.addAll(MethodOutliner.analyze(bs2).usedNames);
+                    }
+                }
+                SwitchBlockStatementGroup sbsg = (SwitchBlockStatementGroup) sbsgs.get(i);
+                this.outlineStatements(sbsg.blockStatements, scope, usedAfter, thrownTypes);
+            }
+        }
+    }
+
+    /**
+     * @return The (exclusive) end index of the longest run of <var>statements</var>, starting at <var>start</var>,
+     *         that can be outlined, or -1
+     */
+    private int
+    findRun(
+        List<? extends BlockStatement> statements,
+        Analysis[]                     analyses,
+        int                            start,
+        Map<String, Capture>           scope,
+        Map<String, Integer>           lastUse,
+        Set<String>                    usedAfter
+    ) {
+        int         result        = -1;
+        int         runSize       = 0;
+        Set<String> usedNames     = new HashSet<String>();
+        Set<String> declaredNames = new HashSet<String>();
+        Set<String> topLevelNames = new HashSet<String>();
+        Set<String> assignedNames = new HashSet<String>();
+        Set<String> caseNames     = new HashSet<String>();
+        Set<String> arguments     = new HashSet<String>();
+        Set<String> results       = new HashSet<String>();
+        Set<String> exitTargets   = new HashSet<String>();
+        int         exits         = 0;
+
+        for (int i = start; i < statements.size(); i++) {
+            BlockStatement bs = (BlockStatement) statements.get(i);
+            Analysis       a  = analyses[i];
+
+            if (a.declaresLocalClass || bs instanceof FieldDeclaration) break;
+            runSize += a.size;
+
+            usedNames.addAll(a.usedNames);
+            declaredNames.addAll(a.declaredNames);
+            assignedNames.addAll(a.assignedNames);
+            caseNames.addAll(a.caseLabelNames);
+            for (String name : a.usedNames) {
+                if (scope.containsKey(name)) arguments.add(name);
+            }
+            for (String name : a.assignedNames) {
+                if (scope.containsKey(name)) results.add(name);
+            }
+            for (Statement s : a.escapingStatements) exitTargets.add(MethodOutliner.exit(s));
+            exits += a.escapingStatements.size();
+
+            // The outlined method stores the results at its end and before each exit.
+            int outlinedSize = (
+                runSize
+                + (exits + 1) * (results.size() * MethodOutliner.STORE_SIZE + MethodOutliner.RETURN_SIZE)
+            );
+            if (outlinedSize > this.threshold) break;
+
+            // The invocation, the retrieval of the results from the holder array, and the tests of the exit code,
+            // which replace the run.
+            int replacementSize = 3 + 2 * arguments.size() + MethodOutliner.EXIT_SIZE * exitTargets.size();
+            if (results.size() > 1 || (results.size() == 1 && !exitTargets.isEmpty())) {
+                replacementSize += 8 + MethodOutliner.STORE_SIZE * results.size();
+            } else
+            if (results.size() == 1) {
+                replacementSize += 2;
+            }
+
+            if (bs instanceof LocalVariableDeclarationStatement) {
+                for (VariableDeclarator vd : ((LocalVariableDeclarationStatement) bs).variableDeclarators) {
+                    topLevelNames.add(vd.name);
+                }
+            }
+
+            // The invocation that replaces the run can always complete normally, so the run must not end with a
+            // statement that possibly cannot.
+            if (
+                runSize - replacementSize >= MethodOutliner.MIN_RUN_SIZE
+                && !a.escapes
+                && !a.mayNotCompleteNormally
+                && this.isOutlinable(
+                    i + 1,
+                    scope,
+                    lastUse,
+                    usedAfter,
+                    usedNames,
+                    declaredNames,
+                    topLevelNames,
+                    assignedNames,
+                    caseNames
+                )
+            ) result = i + 1;
+        }
+
+        return result;
+    }
+
+    private boolean
+    isOutlinable(
+        int                  end,
+        Map<String, Capture> scope,
+        Map<String, Integer> lastUse,
+        Set<String>          usedAfter,
+        Set<String>          usedNames,
+        Set<String>          declaredNames,
+        Set<String>          topLevelNames,
+        Set<String>          assignedNames,
+        Set<String>          caseNames
+    ) {
+
+        // The local variables declared by the run must not be used after the run.
+        for (String name : topLevelNames) {
+            Integer lu = (Integer) lastUse.get(name);
+            if ((lu != null && lu >= end) || usedAfter.contains(name)) return false;
+        }
+
+        int slots = 0;
+        for (String name : usedNames) {
+            if (!scope.containsKey(name)) {
+
+                // A local variable that is out of scope, e.g. one declared in a preceding SWITCH block statement group.
+                if (!declaredNames.contains(name) && this.localVariableNames.contains(name)) return false;
+                continue;
+            }
+
+            Capture c = (Capture) scope.get(name);
+            if (c == null || caseNames.contains(name)) return false;
+            if (assignedNames.contains(name) && !c.initialized) return false;
+            slots += c.slots();
+        }
+        return slots <= MethodOutliner.MAX_PARAMETER_SLOTS;
+    }
+
+    /**
+     * Replaces the given run of statements with an invocation of a new method.
+     *
+     * @return Whether the run was actually outlined
+     */
+    private boolean
+    outlineRun(
+        List<? extends BlockStatement> statements,
+        Analysis[]                     analyses,
+        int                            start,
+        int                            end,
+        Map<String, Capture>           scope,
+        List<Type>                     thrownTypes
+    ) throws CompileException {
+        MethodDeclarator md = this.method;
+        assert md != null;
+
+        AbstractClassDeclaration cd  = (AbstractClassDeclaration) md.getDeclaringType();
+        BlockStatement           bs0 = (BlockStatement) statements.get(start);
+        Location                 loc = bs0.getLocation();
+
+        // Determine the captured local variables, the ones that the run assigns, and the statements that leave the
+        // run.
+        int                  runSize  = 0;
+        Map<String, Capture> captured = new LinkedHashMap<String, Capture>();
+        Set<String>          assigned = new HashSet<String>();
+        List<Statement>      escaping = new ArrayList<Statement>();
+        for (int i = start; i < end; i++) {
+            runSize += analyses[i].size;
+            for (String name : analyses[i].usedNames) {
+                Capture c = (Capture) scope.get(name);
+                if (c != null) captured.put(name, c);
+            }
+            assigned.addAll(analyses[i].assignedNames);
+            escaping.addAll(analyses[i].escapingStatements);
+        }
+        List<String> results = new ArrayList<String>();
+        for (String name : captured.keySet()) {
+            if (assigned.contains(name)) results.add(name);
+        }
+
+        // Each target of the escaping statements gets an exit code; 0 means that the run completed normally.
+        Map<String, Statement> exits        = new LinkedHashMap<String, Statement>();
+        boolean                returnsValue = false;
+        for (Statement s : escaping) {
+            String exit = MethodOutliner.exit(s);
+            if (!exits.containsKey(exit)) exits.put(exit, s);
+            if (s instanceof ReturnStatement && ((ReturnStatement) s).returnValue != null) returnsValue = true;
+        }
+
+        // Iff the run has more than one result, or an exit code and any result, then the results are passed back
+        // through a holder array.
+        boolean useHolder = exits.isEmpty() ? results.size() > 1 : !results.isEmpty() || returnsValue;
+
+        // Compose the method name, similar to "lambda$...$n".
+        String methodName;
+        {
+            String baseName = md.name;
+            if (baseName.startsWith("outlined$")) baseName = baseName.substring(9, baseName.lastIndexOf('$'));
+            String prefix = "outlined$" + baseName + '$';
+
+            int n = 0;
+            for (MethodDeclarator md2 : cd.getMethodDeclarations()) {
+                if (md2.name.startsWith(prefix)) n++;
+            }
+            methodName = prefix + n;
+        }
+        String holderName   = useHolder ? methodName + "$holder" : null;
+        String exitCodeName = methodName + "$exit";
+
+        RunCopier dc = new RunCopier(
+            escaping,
+            new ArrayList<String>(exits.keySet()),
+            holderName,
+            results,
+            returnsValue ? md.type : null
+        );
+
+        FormalParameter[] parameters = new FormalParameter[captured.size() + (useHolder ? 1 : 0)];
+        Rvalue[]          arguments  = new Rvalue[parameters.length];
+        {
+            int i = 0;
+            for (Map.Entry<String, Capture> e : captured.entrySet()) {
+                String  name = (String) e.getKey();
+                Capture c    = (Capture) e.getValue();
+                parameters[i] = new FormalParameter(
+                    loc,                                                                   // location
+                    c.finaL ? new Modifier[] { new AccessModifier("final", loc) } : new Modifier[0], // modifiers
+                    c.copyType(dc),                                                        // type
+                    name                                                                   // name
+                );
+                arguments[i++] = MethodOutliner.name(loc, name);
+            }
+            if (holderName != null) {
+                parameters[i] = new FormalParameter(
+                    loc,                                          // location
+                    new Modifier[0],                              // modifiers
+                    new ArrayType(MethodOutliner.objectType(loc)), // type
+                    holderName                                    // name
+                );
+                arguments[i] = MethodOutliner.name(loc, holderName);
+            }
+        }
+
+        List<BlockStatement> body = new ArrayList<BlockStatement>();
+        for (int i = start; i < end; i++) body.add(dc.copyBlockStatement((BlockStatement) statements.get(i)));
+        Type returnType;
+        if (!exits.isEmpty()) {
+            body.addAll(dc.storeResults(loc));
+            body.add(new ReturnStatement(loc, new IntegerLiteral(loc, "0")));
+            returnType = new PrimitiveType(loc, Primitive.INT);
+        } else
+        if (useHolder) {
+            body.addAll(dc.storeResults(loc));
+            returnType = new PrimitiveType(loc, Primitive.VOID);
+        } else
+        if (!results.isEmpty()) {
+            String result = (String) results.get(0);
+            body.add(new ReturnStatement(loc, MethodOutliner.name(loc, result)));
+            returnType = ((Capture) captured.get(result)).copyType(dc);
+        } else
+        {
+            returnType = new PrimitiveType(loc, Primitive.VOID);
+        }
+
+        // Compose the invocation of the new method, which replaces the run.
+        List<BlockStatement> replacement = new ArrayList<BlockStatement>();
+        if (holderName != null) {
+            replacement.add(new LocalVariableDeclarationStatement(
+                loc,
+                new Modifier[0],
+                new ArrayType(MethodOutliner.objectType(loc)),
+                new VariableDeclarator[] { new VariableDeclarator(loc, holderName, 0, new NewArray(
+                    loc,
+                    MethodOutliner.objectType(loc),
+                    new Rvalue[] { new IntegerLiteral(loc, Integer.toString(results.size() + (returnsValue ? 1 : 0))) },
+                    0
+                )) }
+            ));
+        }
+        Rvalue invocation = new MethodInvocation(loc, null, methodName, arguments);
+        if (!exits.isEmpty()) {
+            replacement.add(new LocalVariableDeclarationStatement(
+                loc,
+                new Modifier[0],
+                new PrimitiveType(loc, Primitive.INT),
+                new VariableDeclarator[] { new VariableDeclarator(loc, exitCodeName, 0, invocation) }
+            ));
+        } else
+        if (holderName == null && !results.isEmpty()) {
+            replacement.add(new ExpressionStatement(
+                new Assignment(loc, MethodOutliner.name(loc, (String) results.get(0)), "=", invocation)
+            ));
+        } else
+        {
+            replacement.add(new ExpressionStatement(invocation));
+        }
+        if (holderName != null) {
+            for (int i = 0; i < results.size(); i++) {
+                String name = (String) results.get(i);
+                replacement.add(new ExpressionStatement(new Assignment(
+                    loc,
+                    MethodOutliner.name(loc, name),
+                    "=",
+                    new Cast(
+                        loc,
+                        MethodOutliner.boxedType(((Capture) captured.get(name)).copyType(dc)),
+                        MethodOutliner.holderElement(loc, holderName, i)
+                    )
+                )));
+            }
+        }
+        {
+            int exitCode = 1;
+            for (Statement s : exits.values()) {
+                Statement exit;
+                if (s instanceof ReturnStatement) {
+                    exit = new ReturnStatement(loc, (
+                        holderName != null && returnsValue
+                        ? new Cast(
+                            loc,
+                            MethodOutliner.boxedType(dc.copyType(md.type)),
+                            MethodOutliner.holderElement(loc, holderName, results.size())
+                        )
+                        : null
+                    ));
+                } else
+                if (s instanceof BreakStatement) {
+                    exit = new BreakStatement(loc, ((BreakStatement) s).label);
+                } else
+                {
+                    exit = new ContinueStatement(loc, ((ContinueStatement) s).label);
+                }
+                replacement.add(new IfStatement(
+                    loc,
+                    new BinaryOperation(
+                        loc,
+                        MethodOutliner.name(loc, exitCodeName),
+                        "==",
+                        new IntegerLiteral(loc, Integer.toString(exitCode++))
+                    ),
+                    exit
+                ));
+            }
+        }
+
+        // Give up if the replacement is not significantly smaller than the run, e.g. because of many exits.
+        Analysis ra = new Analysis();
+        for (BlockStatement bs : replacement) ra.visitBlockStatement(bs);
+        if (runSize - ra.size < MethodOutliner.MIN_RUN_SIZE) return false;
+
+        Modifier[] modifiers = (
+            md.isStatic()
+            ? new Modifier[] { new AccessModifier("private", loc), new AccessModifier("static", loc) }
+            : new Modifier[] { new AccessModifier("private", loc) }
+        );
+
+        cd.addDeclaredMethod(new MethodDeclarator(
+            loc,                                                                           // location
+            null,                                                                          // docComment
+            modifiers,                                                                     // modifiers
+            md.typeParameters == null ? null : dc.copyTypeParameters(md.typeParameters),   // typeParameters
+            returnType,                                                                    // type
+            methodName,                                                                    // name
+            new FormalParameters(loc, parameters, false),                                  // formalParameters
+            dc.copyTypes((Type[]) thrownTypes.toArray(new Type[thrownTypes.size()])),      // thrownExceptions
+            null,                                                                          // defaultValue
+            body                                                                           // statements
+        ));
+        cd.invalidateMethodCaches();
+
+        // Replace the run with the invocation, and pad with empty statements, so that the indexes of the following
+        // statements remain unchanged.
+        @SuppressWarnings("unchecked") List<BlockStatement> l = (List<BlockStatement>) statements;
+
+        Scope enclosingScope = bs0.getEnclosingScope();
+        for (int i = start; i < end; i++) {
+            Statement r;
+            if (i > start) {
+                r = new EmptyStatement(((BlockStatement) statements.get(i)).getLocation());
+            } else
+            if (replacement.size() == 1) {
+                r = (Statement) replacement.get(0);
+            } else
+            {
+                Block b = new Block(loc);
+                b.addStatements(replacement);
+                r = b;
+            }
+            r.setEnclosingScope(enclosingScope);
+            l.set(i, r);
+            analyses[i] = MethodOutliner.analyze(r);
+        }
+
+        this.size -= runSize - analyses[start].size;
+        return true;
+    }
+
+    /**
+     * @return A key that is equal for all the statements that transfer control to the same target
+     */
+    private static String
+    exit(Statement s) {
+        if (s instanceof ReturnStatement) return "return";
+        if (s instanceof BreakStatement) {
+            String label = ((BreakStatement) s).label;
+            return label == null ? "break" : "break " + label;
+        }
+        String label = ((ContinueStatement) s).label;
+        return label == null ? "continue" : "continue " + label;
+    }
+
+    private static AmbiguousName
+    name(Location loc, String name) { return new AmbiguousName(loc, new String[] { name }); }
+
+    private static ReferenceType
+    objectType(Location loc) {
+        return new ReferenceType(loc, new Annotation[0], new String[] { "java", "lang", "Object" }, null);
+    }
+
+    private static ExpressionStatement
+    storeInHolder(Location loc, String holderName, int index, Rvalue value) throws CompileException {
+        return new ExpressionStatement(
+            new Assignment(loc, MethodOutliner.holderElement(loc, holderName, index), "=", value)
+        );
+    }
+
+    private static ArrayAccessExpression
+    holderElement(Location loc, String holderName, int index) {
+        return new ArrayAccessExpression(
+            loc,
+            MethodOutliner.name(loc, holderName),
+            new IntegerLiteral(loc, Integer.toString(index))
+        );
+    }
+
+    /**
+     * @return The wrapper type of the given primitive type, or the <var>type</var> itself
+     */
+    private static Type
+    boxedType(Type type) {
+
+        if (!(type instanceof PrimitiveType)) return type;
+
+        String wrapper;
+        switch (((PrimitiveType) type).primitive) {
+        case BOOLEAN: wrapper = "Boolean";   break;
+        case BYTE:    wrapper = "Byte";      break;
+        case SHORT:   wrapper = "Short";     break;
+        case CHAR:    wrapper = "Character"; break;
+        case INT:     wrapper = "Integer";   break;
+        case LONG:    wrapper = "Long";      break;
+        case FLOAT:   wrapper = "Float";     break;
+        case DOUBLE:  wrapper = "Double";    break;
+        default:      throw new AssertionError(type);
+        }
+        return new ReferenceType(type.getLocation(), new Annotation[0], new String[] { "java", "lang", wrapper }, null);
+    }
+
+    /**
+     * Adds the local variables that the given statement declares to the <var>scope</var>.
+     */
+    private static void
+    declare(BlockStatement bs, Map<String, Capture> scope) {
+        if (!(bs instanceof LocalVariableDeclarationStatement)) return;
+
+        LocalVariableDeclarationStatement lvds = (LocalVariableDeclarationStatement) bs;
+        for (VariableDeclarator vd : lvds.variableDeclarators) {
+            scope.put(vd.name, new Capture(lvds.type, vd.brackets, lvds.isFinal(), vd.initializer != null));
+        }
+    }
+
+    private static Analysis
+    analyze(BlockStatement bs) {
+        Analysis result = new Analysis();
+        result.visitBlockStatement(bs);
+        return result;
+    }
+
+    /**
+     * Copies the statements of a run, and replaces each statement that leaves the run with the storing of the results
+     * into the holder array, and a RETURN of the respective exit code.
+     */
+    private static final
+    class RunCopier extends DeepCopier {
+
+        private final Set<Statement>   escaping = Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean>());
+        private final List<String>     exits;
+        @Nullable private final String holderName;
+        private final List<String>     results;
+        @Nullable private final Type   returnType;
+
+        /**
+         * @param exits      The targets of the <var>escaping</var> statements (see {@link
+         *                   MethodOutliner#exit(Statement)}), in the order of their exit codes (1, 2, 3, ...)
+         * @param holderName {@code null} iff the results are not passed back through a holder array
+         * @param results    The names of the local variables of the enclosing scope that the run assigns
+         * @param returnType The return type of the method, iff any of the <var>escaping</var> statements returns a
+         *                   value
+         */
+        RunCopier(
+            List<Statement>  escaping,
+            List<String>     exits,
+            @Nullable String holderName,
+            List<String>     results,
+            @Nullable Type   returnType
+        ) {
+            this.escaping.addAll(escaping);
+            this.exits      = exits;
+            this.holderName = holderName;
+            this.results    = results;
+            this.returnType = returnType;
+        }
+
+        @Override public BlockStatement
+        copyReturnStatement(ReturnStatement subject) throws CompileException {
+            if (!this.escaping.contains(subject)) return super.copyReturnStatement(subject);
+
+            Location             loc        = subject.getLocation();
+            List<BlockStatement> statements = new ArrayList<BlockStatement>();
+            Rvalue               rv         = subject.returnValue;
+            if (rv != null) {
+                String hn = this.holderName;
+                Type   rt = this.returnType;
+                assert hn != null;
+                assert rt != null;
+
+                // Convert the return value to the return type of the method before it is boxed.
+                statements.add(MethodOutliner.storeInHolder(
+                    loc,
+                    hn,
+                    this.results.size(),
+                    new Cast(loc, this.copyType(rt), this.copyRvalue(rv))
+                ));
+            }
+            return this.exit(subject, statements);
+        }
+
+        @Override public BlockStatement
+        copyBreakStatement(BreakStatement subject) throws CompileException {
+            if (!this.escaping.contains(subject)) return super.copyBreakStatement(subject);
+            return this.exit(subject, new ArrayList<BlockStatement>());
+        }
+
+        @Override public BlockStatement
+        copyContinueStatement(ContinueStatement subject) throws CompileException {
+            if (!this.escaping.contains(subject)) return super.copyContinueStatement(subject);
+            return this.exit(subject, new ArrayList<BlockStatement>());
+        }
+
+        private BlockStatement
+        exit(Statement subject, List<BlockStatement> statements) throws CompileException {
+            Location loc      = subject.getLocation();
+            int      exitCode = this.exits.indexOf(MethodOutliner.exit(subject)) + 1;
+            assert exitCode >= 1;
+
+            statements.addAll(this.storeResults(loc));
+            statements.add(new ReturnStatement(loc, new IntegerLiteral(loc, Integer.toString(exitCode))));
+
+            Block result = new Block(loc);
+            result.addStatements(statements);
+            return result;
+        }
+
+        /**
+         * @return Statements that store the current values of the results into the holder array
+         */
+        List<BlockStatement>
+        storeResults(Location loc) throws CompileException {
+            List<BlockStatement> result = new ArrayList<BlockStatement>();
+
+            String hn = this.holderName;
+            if (hn == null) return result;
+
+            for (int i = 0; i < this.results.size(); i++) {
+                result.add(MethodOutliner.storeInHolder(
+                    loc,
+                    hn,
+                    i,
+                    MethodOutliner.name(loc, (String) this.results.get(i))
+                ));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A local variable of the enclosing scope that a run of statements may use.
+     */
+    private static final
+    class Capture {
+
+        final Type    type;
+        final int     brackets;
+        final boolean finaL;
+
+        /**
+         * Whether the local variable is certainly assigned before a run of statements that follows the declaration
+         * executes.
+         */
+        final boolean initialized;
+
+        Capture(Type type, int brackets, boolean finaL, boolean initialized) {
+            this.type        = type;
+            this.brackets    = brackets;
+            this.finaL       = finaL;
+            this.initialized = initialized;
+        }
+
+        Type
+        copyType(DeepCopier dc) throws CompileException {
+            Type result = dc.copyType(this.type);
+            for (int i = 0; i < this.brackets; i++) result = new ArrayType(result);
+            return result;
+        }
+
+        int
+        slots() {
+            if (this.brackets > 0 || !(this.type instanceof PrimitiveType)) return 1;
+            Primitive p = ((PrimitiveType) this.type).primitive;
+            return p == Primitive.LONG || p == Primitive.DOUBLE ? 2 : 1;
+        }
+    }
+
+    /**
+     * Determines the names that a statement uses, declares and assigns, whether control can leave it other than by
+     * completing normally or by throwing an exception, and estimates the size of its byte code.
+     * <p>
+     *   The bodies of anonymous classes and lambda expressions are compiled into different methods, so they contribute
+     *   only the names they use.
+     * </p>
+     */
+    private static final
+    class Analysis extends AbstractTraverser<RuntimeException> {
+
+        /**
+         * The first identifiers of all ambiguous names.
+         */
+        final Set<String> usedNames = new LinkedHashSet<String>();
+
+        /**
+         * The names of all local variables, parameters and catch parameters that the statement declares.
+         */
+        final Set<String> declaredNames = new HashSet<String>();
+
+        /**
+         * The names of all local variables that are assigned or incremented / decremented.
+         */
+        final Set<String> assignedNames = new HashSet<String>();
+
+        /**
+         * The names that SWITCH case labels use.
+         */
+        final Set<String> caseLabelNames = new HashSet<String>();
+
+        /**
+         * Whether the statement contains a RETURN statement, or a BREAK or CONTINUE statement with a target outside
+         * of the statement.
+         */
+        boolean escapes;
+
+        /**
+         * These RETURN, BREAK and CONTINUE statements.
+         */
+        final List<Statement> escapingStatements = new ArrayList<Statement>();
+
+        /**
+         * Whether the statement possibly cannot complete normally (JLS8 14.21), because it contains a THROW statement
+         * or an infinite loop.
+         */
+        boolean mayNotCompleteNormally;
+
+        boolean declaresLocalClass;
+
+        /**
+         * The estimated size of the byte code of the statement.
+         */
+        int size;
+
+        private int               nesting, loops, breakables, jumps;
+        private final Set<String> labels = new HashSet<String>();
+
+        @Override public void
+        traverseAmbiguousName(AmbiguousName an) {
+            this.usedNames.add(an.identifiers[0]);
+            super.traverseAmbiguousName(an);
+        }
+
+        @Override public void
+        traverseAssignment(Assignment a) {
+            this.assigns(a.lhs);
+            if (!"=".equals(a.operator)) this.count(4);
+            super.traverseAssignment(a);
+        }
+
+        @Override public void
+        traverseCrement(Crement c) {
+            this.assigns(c.operand);
+            this.count(4);
+            super.traverseCrement(c);
+        }
+
+        private void
+        assigns(Rvalue lhs) {
+            if (this.nesting == 0 && lhs instanceof AmbiguousName && ((AmbiguousName) lhs).identifiers.length == 1) {
+                this.assignedNames.add(((AmbiguousName) lhs).identifiers[0]);
+            }
+        }
+
+        @Override public void
+        traverseLocalVariableDeclarationStatement(LocalVariableDeclarationStatement lvds) {
+            for (VariableDeclarator vd : lvds.variableDeclarators) this.declares(vd.name, 2);
+            super.traverseLocalVariableDeclarationStatement(lvds);
+        }
+
+        @Override public void
+        traverseForEachStatement(ForEachStatement fes) {
+            this.declares(fes.currentElement.name, 40);
+            this.loop(fes, null);
+        }
+
+        @Override public void
+        traverseTryStatement(TryStatement ts) {
+            for (TryStatement.Resource r : ts.resources) {
+                if (r instanceof LocalVariableDeclaratorResource) {
+                    this.declares(((LocalVariableDeclaratorResource) r).variableDeclarator.name, 0);
+                }
+                this.count(60);
+            }
+            for (CatchClause cc : ts.catchClauses) this.declares(cc.catchParameter.name, 8);
+
+            // The FINALLY clause is compiled once for the exception handler, and once for each way that control
+            // leaves the TRY block and the catch clauses.
+            int jumps = this.jumps;
+            super.traverseTryStatement(ts);
+            if (ts.finallY != null) {
+                Analysis f = MethodOutliner.analyze(ts.finallY);
+                this.count(16 + f.size * (this.jumps - jumps + ts.catchClauses.size() + 1));
+            }
+            this.count(8);
+        }
+
+        private void
+        declares(String name, int size) {
+            if (this.nesting > 0) return;
+            this.declaredNames.add(name);
+            this.count(size);
+        }
+
+        @Override public void
+        traverseReturnStatement(ReturnStatement rs) {
+            if (this.nesting == 0) {
+                this.escapes(rs);
+                this.jumps++;
+            }
+            super.traverseReturnStatement(rs);
+        }
+
+        @Override public void
+        traverseBreakStatement(BreakStatement bs) {
+            if (this.nesting == 0) {
+                if (bs.label == null ? this.breakables == 0 : !this.labels.contains(bs.label)) this.escapes(bs);
+                this.jumps++;
+                this.count(5);
+            }
+            super.traverseBreakStatement(bs);
+        }
+
+        @Override public void
+        traverseContinueStatement(ContinueStatement cs) {
+            if (this.nesting == 0) {
+                if (cs.label == null ? this.loops == 0 : !this.labels.contains(cs.label)) this.escapes(cs);
+                this.jumps++;
+                this.count(5);
+            }
+            super.traverseContinueStatement(cs);
+        }
+
+        private void
+        escapes(Statement s) {
+            this.escapes = true;
+            this.escapingStatements.add(s);
+        }
+
+        @Override public void
+        traverseThrowStatement(ThrowStatement ts) {
+            if (this.nesting == 0) this.mayNotCompleteNormally = true;
+            super.traverseThrowStatement(ts);
+        }
+
+        @Override public void
+        traverseLabeledStatement(LabeledStatement ls) {
+            boolean added = this.labels.add(ls.label);
+            super.traverseLabeledStatement(ls);
+            if (added) this.labels.remove(ls.label);
+        }
+
+        @Override public void
+        traverseForStatement(ForStatement fs) { this.loop(fs, fs.condition); }
+
+        @Override public void
+        traverseWhileStatement(WhileStatement ws) { this.loop(ws, ws.condition); }
+
+        @Override public void
+        traverseDoStatement(DoStatement ds) { this.loop(ds, ds.condition); }
+
+        private void
+        loop(Statement s, @Nullable Rvalue condition) {
+            if (
+                this.nesting == 0
+                && (
+                    (s instanceof ForStatement && condition == null)
+                    || (condition instanceof BooleanLiteral && "true".equals(((BooleanLiteral) condition).value))
+                )
+            ) this.mayNotCompleteNormally = true;
+
+            this.count(6);
+            this.loops++;
+            this.breakables++;
+            if (s instanceof ForStatement) {
+                super.traverseForStatement((ForStatement) s);
+            } else
+            if (s instanceof ForEachStatement) {
+                super.traverseForEachStatement((ForEachStatement) s);
+            } else
+            if (s instanceof WhileStatement) {
+                super.traverseWhileStatement((WhileStatement) s);
+            } else
+            {
+                super.traverseDoStatement((DoStatement) s);
+            }
+            this.loops--;
+            this.breakables--;
+        }
+
+        @Override public void
+        traverseSwitchStatement(SwitchStatement ss) {
+            this.count(16);
+            for (SwitchBlockStatementGroup sbsg : ss.sbsgs) {
+                for (Rvalue cl : sbsg.caseLabels) {
+                    Analysis a = new Analysis();
+                    a.visitAtom(cl);
+                    this.caseLabelNames.addAll(a.usedNames);
+                    this.count(cl instanceof StringLiteral ? 36 : 12);
+                }
+            }
+            this.breakables++;
+            super.traverseSwitchStatement(ss);
+            this.breakables--;
+        }
+
+        @Override public void
+        traverseSynchronizedStatement(SynchronizedStatement ss) {
+            int jumps = this.jumps;
+            super.traverseSynchronizedStatement(ss);
+            this.count(24 + 4 * (this.jumps - jumps));
+        }
+
+        @Override public void
+        traverseIfStatement(IfStatement is) {
+            this.count(4);
+            super.traverseIfStatement(is);
+        }
+
+        @Override public void
+        traverseAssertStatement(AssertStatement as) {
+            this.count(20);
+            super.traverseAssertStatement(as);
+        }
+
+        @Override public void
+        traverseLocalClassDeclarationStatement(LocalClassDeclarationStatement lcds) {
+            this.declaresLocalClass = true;
+        }
+
+        @Override public void
+        traverseAnonymousClassDeclaration(AnonymousClassDeclaration acd) {
+            this.nesting++;
+            super.traverseAnonymousClassDeclaration(acd);
+            this.nesting--;
+        }
+
+        @Override public void
+        traverseLambdaExpression(LambdaExpression le) {
+            LambdaParameters lps = le.parameters;
+            if (lps instanceof IdentifierLambdaParameters) {
+                this.declaredNames.add(((IdentifierLambdaParameters) lps).identifier);
+            } else
+            if (lps instanceof FormalLambdaParameters) {
+                for (FormalParameter fp : ((FormalLambdaParameters) lps).formalParameters.parameters) {
+                    this.declaredNames.add(fp.name);
+                }
+            } else
+            {
+                this.declaredNames.addAll(Arrays.asList(((InferredLambdaParameters) lps).names));
+            }
+
+            this.count(8);
+            this.nesting++;
+            if (le.body instanceof BlockLambdaBody) {
+                this.visitBlockStatement(((BlockLambdaBody) le.body).block);
+            } else
+            {
+                this.visitAtom(((ExpressionLambdaBody) le.body).expression);
+            }
+            this.nesting--;
+            super.traverseLambdaExpression(le);
+        }
+
+        @Override public void
+        traverseMethodReference(MethodReference mr) {
+            this.count(8);
+            this.visitAtom(mr.lhs);
+            super.traverseMethodReference(mr);
+        }
+
+        // Size estimation.
+
+        @Override public void
+        traverseStatement(Statement s) {
+            this.count(1);
+            super.traverseStatement(s);
+        }
+
+        @Override public void
+        traverseRvalue(Rvalue rv) {
+            this.count(2);
+            super.traverseRvalue(rv);
+        }
+
+        @Override public void
+        traverseMethodInvocation(MethodInvocation mi) {
+            this.count(3);
+            super.traverseMethodInvocation(mi);
+        }
+
+        @Override public void
+        traverseSuperclassMethodInvocation(SuperclassMethodInvocation smi) {
+            this.count(3);
+            super.traverseSuperclassMethodInvocation(smi);
+        }
+
+        @Override public void
+        traverseNewClassInstance(NewClassInstance nci) {
+            this.count(6);
+            super.traverseNewClassInstance(nci);
+        }
+
+        @Override public void
+        traverseNewAnonymousClassInstance(NewAnonymousClassInstance naci) {
+            this.count(6);
+            super.traverseNewAnonymousClassInstance(naci);
+        }
+
+        @Override public void
+        traverseNewArray(NewArray na) {
+            this.count(3);
+            super.traverseNewArray(na);
+        }
+
+        @Override public void
+        traverseArrayInitializerOrRvalue(ArrayInitializerOrRvalue aiorv) {
+            this.count(5);
+            super.traverseArrayInitializerOrRvalue(aiorv);
+        }
+
+        @Override public void
+        traverseBinaryOperation(BinaryOperation bo) {
+            this.count(3);
+            super.traverseBinaryOperation(bo);
+        }
+
+        @Override public void
+        traverseUnaryOperation(UnaryOperation uo) {
+            this.count(3);
+            super.traverseUnaryOperation(uo);
+        }
+
+        @Override public void
+        traverseConditionalExpression(ConditionalExpression ce) {
+            this.count(6);
+            super.traverseConditionalExpression(ce);
+        }
+
+        @Override public void
+        traverseCast(Cast c) {
+            this.count(2);
+            super.traverseCast(c);
+        }
+
+        @Override public void
+        traverseInstanceof(Instanceof io) {
+            this.count(3);
+            super.traverseInstanceof(io);
+        }
+
+        private void
+        count(int n) { if (this.nesting == 0) this.size += n; }
+    }
+}
@@ -3296,6 +3296,7 @@ class Parser {
                     this.parseArguments() // arguments
                 );
             }
+            if (this.peek("::")) throw this.compileException("Superclass method reference NYI");
             this.read(".");
             String name = this.read(TokenType.IDENTIFIER);
             if (this.peek("(")) {
@@ -3458,6 +3459,7 @@ class Parser {
                         this.parseArguments()              // arguments
                     );
                 }
+                if (this.peek("::")) throw this.compileException("Qualified superclass method reference NYI");
                 this.read(".");
                 String identifier = this.read(TokenType.IDENTIFIER);
 
@@ -27,7 +27,9 @@ package org.codehaus.janino;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
+import org.codehaus.commons.compiler.io.InputStreams;
 import org.codehaus.commons.compiler.util.resource.Resource;
 import org.codehaus.commons.compiler.util.resource.ResourceFinder;
 import org.codehaus.commons.nullanalysis.Nullable;
@@ -68,7 +70,7 @@ class ResourceFinderIClassLoader extends IClassLoader {
         // Load the IClass from the class file.
         ClassFile cf;
         try {
-            cf = new ClassFile(is);
+            cf = new ClassFile(ByteBuffer.wrap(InputStreams.readAll(is)));
         } catch (IOException e) {
             throw new ClassNotFoundException("Reading resource \"" + classFileResource.getFileName() + "\"", e);
         } finally {
@@ -32,9 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.Writer;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.Location;
@@ -43,6 +41,10 @@ import org.codehaus.commons.nullanalysis.Nullable;
 
 /**
  * Splits up a character stream into tokens and returns them as {@link java.lang.String String} objects.
+ * <p>
+ *   The characters are read in bulk into a buffer, where Unicode escapes (JLS7 3.3) are decoded in place; the tokens
+ *   are then sliced from that buffer.
+ * </p>
  */
 public
 class Scanner {
@@ -205,13 +207,7 @@ class Scanner {
         // recommended for source code level debugging purposes.
         if (fileName == null && Boolean.getBoolean(Scanner.SYSTEM_PROPERTY_SOURCE_DEBUGGING_ENABLE)) {
 
-            String  dirName = System.getProperty(Scanner.SYSTEM_PROPERTY_SOURCE_DEBUGGING_DIR);
-            boolean keep    = Boolean.getBoolean(Scanner.SYSTEM_PROPERTY_SOURCE_DEBUGGING_KEEP);
-
-            File dir           = dirName == null ? null : new File(dirName);
-            File temporaryFile = File.createTempFile("janino", ".java", dir);
-
-            if (!keep) temporaryFile.deleteOnExit();
+            File temporaryFile = Scanner.createTemporarySourceFile();
 
             in = Readers.teeReader(
                 in,                            // in
@@ -222,11 +218,87 @@ class Scanner {
         }
 
         this.fileName             = fileName;
-        this.in                   = new UnicodeUnescapeReader(in);
+        this.in                   = in;
+        this.buffer               = new char[Scanner.BUFFER_SIZE];
+        this.nextCharLineNumber   = initialLineNumber;
+        this.nextCharColumnNumber = initialColumnNumber;
+    }
+
+    // Public factory methods for Scanners that read from a CharSequence.
+
+    /**
+     * Creates a scanner that reads tokens from the given {@link CharSequence}, which is more efficient than wrapping
+     * it in a {@link java.io.StringReader}.
+     * <p>
+     *   The <var>fileName</var> is used for reporting errors during compilation and for source level debugging; see
+     *   {@link #Scanner(String, Reader)}.
+     * </p>
+     */
+    public static Scanner
+    ofCharSequence(@Nullable String fileName, CharSequence in) throws IOException {
+        return Scanner.ofCharSequence(
+            fileName, // fileName
+            in,       // in
+            1,        // initialLineNumber
+            0         // initialColumnNumber
+        );
+    }
+
+    /**
+     * Creates a {@link Scanner} that reads from a {@link CharSequence} and counts lines and columns from non-default
+     * initial values.
+     */
+    public static Scanner
+    ofCharSequence(
+        @Nullable String fileName,
+        CharSequence     in,
+        int              initialLineNumber,        // "1" is a good idea
+        int              initialColumnNumber       // "0" is a good idea
+    ) throws IOException {
+        return new Scanner(fileName, in.toString().toCharArray(), initialLineNumber, initialColumnNumber);
+    }
+
+    private
+    Scanner(@Nullable String fileName, char[] text, int initialLineNumber, int initialColumnNumber)
+    throws IOException {
+
+        // See "Scanner(String, Reader, int, int)".
+        if (fileName == null && Boolean.getBoolean(Scanner.SYSTEM_PROPERTY_SOURCE_DEBUGGING_ENABLE)) {
+
+            File temporaryFile = Scanner.createTemporarySourceFile();
+
+            Writer w = new FileWriter(temporaryFile);
+            try {
+                w.write(text);
+            } finally {
+                w.close();
+            }
+            fileName = temporaryFile.getAbsolutePath();
+        }
+
+        this.fileName             = fileName;
+        this.in                   = null;
+        this.buffer               = text;
+        this.rawLimit             = text.length;
+        this.endOfInput           = true;
         this.nextCharLineNumber   = initialLineNumber;
         this.nextCharColumnNumber = initialColumnNumber;
     }
 
+    private static File
+    createTemporarySourceFile() throws IOException {
+
+        String  dirName = System.getProperty(Scanner.SYSTEM_PROPERTY_SOURCE_DEBUGGING_DIR);
+        boolean keep    = Boolean.getBoolean(Scanner.SYSTEM_PROPERTY_SOURCE_DEBUGGING_KEEP);
+
+        File dir           = dirName == null ? null : new File(dirName);
+        File temporaryFile = File.createTempFile("janino", ".java", dir);
+
+        if (!keep) temporaryFile.deleteOnExit();
+
+        return temporaryFile;
+    }
+
     /**
      * If <var>value</var> is {@code true}, then white space in the input stream is <em>ignored</em>, rather than
      * scanned as a {@link TokenType#WHITE_SPACE} token. Since white space is typically quite numerous, this
@@ -249,7 +321,10 @@ class Scanner {
      *             close the underlying {@link InputStream} or {@link Reader} itself
      */
     @Deprecated public void
-    close() throws IOException { this.in.close(); }
+    close() throws IOException {
+        Reader in = this.in;
+        if (in != null) in.close();
+    }
 
     /**
      * @return The {@link Location} of the previously read (or peeked) token.
@@ -262,11 +337,6 @@ class Scanner {
         return new Token(this.fileName, this.tokenLineNumber, this.tokenColumnNumber, type, value);
     }
 
-    /**
-     * Holds the characters of the currently scanned token.
-     */
-    private final StringBuilder sb = new StringBuilder();
-
     /**
      * Produces and returns the next token. Notice that end-of-input is <em>not</em> signalized with a {@code null}
      * product, but by an {@link TokenType#END_OF_INPUT}-type token.
@@ -274,6 +344,9 @@ class Scanner {
     public Token
     produce() throws CompileException, IOException {
 
+        // Allow the buffer to discard the previous token.
+        this.tokenStart = this.consumed();
+
         if (this.peek() == -1) return this.token(TokenType.END_OF_INPUT, "end-of-input");
 
         // Funny... the JLS calls it "white space", and the JRE calls it "whitespace"!?
@@ -286,19 +359,29 @@ class Scanner {
 
         this.tokenLineNumber   = this.nextCharLineNumber;
         this.tokenColumnNumber = this.nextCharColumnNumber;
+        this.tokenStart        = this.consumed();
 
-        this.sb.setLength(0);
-
-        TokenType tokenType  = this.scan();
-        String    tokenValue = this.sb.toString();
+        TokenType tokenType = this.scan();
 
-        // We want to be able to use REFERENCE EQUALITY for these...
+        // We want to be able to use REFERENCE EQUALITY for these, so use the (interned) string constants from the
+        // tables.
+        String tokenValue;
         if (
             tokenType == TokenType.KEYWORD
             || tokenType == TokenType.BOOLEAN_LITERAL
             || tokenType == TokenType.NULL_LITERAL
-            || tokenType == TokenType.OPERATOR
-        ) tokenValue = tokenValue.intern();
+        ) {
+            tokenValue = this.lookUpToken(Scanner.JAVA_KEYWORDS, 0);
+        } else
+        if (tokenType == TokenType.OPERATOR) {
+            tokenValue = this.lookUpToken(Scanner.JAVA_OPERATORS, 0);
+        } else
+        {
+            tokenValue = null;
+        }
+        if (tokenValue == null) {
+            tokenValue = new String(this.buffer, this.tokenStart, this.consumed() - this.tokenStart);
+        }
 
         return this.token(tokenType, tokenValue);
     }
@@ -349,14 +432,14 @@ class Scanner {
         if (Character.isJavaIdentifierStart((char) this.peek())) {
             this.read();
             while (Character.isJavaIdentifierPart((char) this.peek())) this.read();
-            String s = this.sb.toString();
-            if ("true".equals(s))  return TokenType.BOOLEAN_LITERAL;
-            if ("false".equals(s)) return TokenType.BOOLEAN_LITERAL;
-            if ("null".equals(s))  return TokenType.NULL_LITERAL;
+            String s = this.lookUpToken(Scanner.JAVA_KEYWORDS, 0);
+            if (s == null) return TokenType.IDENTIFIER;
 
-            if (Scanner.JAVA_KEYWORDS.contains(s)) return TokenType.KEYWORD;
+            if (s == "true")  return TokenType.BOOLEAN_LITERAL; // SUPPRESS CHECKSTYLE StringLiteralEquality:3
+            if (s == "false") return TokenType.BOOLEAN_LITERAL;
+            if (s == "null")  return TokenType.NULL_LITERAL;
 
-            return TokenType.IDENTIFIER;
+            return TokenType.KEYWORD;
         }
 
         // Scan numeric literal.
@@ -387,10 +470,10 @@ class Scanner {
         }
 
         // Scan operator (including what Java calls "separators").
-        if (Scanner.JAVA_OPERATORS.contains(String.valueOf((char) this.peek()))) {
+        if (this.peek() != -1 && this.lookUpToken(Scanner.JAVA_OPERATORS, 1) != null) {
             do {
                 this.read();
-            } while (Scanner.JAVA_OPERATORS.contains(this.sb.toString() + (char) this.peek()));
+            } while (this.peek() != -1 && this.lookUpToken(Scanner.JAVA_OPERATORS, 1) != null);
             return TokenType.OPERATOR;
         }
 
@@ -672,11 +755,7 @@ class Scanner {
     private int
     peek() throws CompileException, IOException {
         if (this.nextChar != -1) return this.nextChar;
-        try {
-            return (this.nextChar = this.internalRead());
-        } catch (UnicodeUnescapeException ex) {
-            throw new CompileException(ex.getMessage(), this.location(), ex);
-        }
+        return (this.nextChar = this.internalRead());
     }
 
     /**
@@ -694,11 +773,7 @@ class Scanner {
     peekButOne() throws CompileException, IOException {
         if (this.nextButOneChar != -1) return this.nextButOneChar;
         this.peek();
-        try {
-            return (this.nextButOneChar = this.internalRead());
-        } catch (UnicodeUnescapeException ex) {
-            throw new CompileException(ex.getMessage(), this.location(), ex);
-        }
+        return (this.nextButOneChar = this.internalRead());
     }
 
     /**
@@ -714,7 +789,6 @@ class Scanner {
         if (this.nextChar == -1) throw new CompileException("Unexpected end-of-input", this.location());
 
         final char result = (char) this.nextChar;
-        this.sb.append(result);
 
         this.nextChar       = this.nextButOneChar;
         this.nextButOneChar = -1;
@@ -731,7 +805,6 @@ class Scanner {
     peekRead(int expected) throws CompileException, IOException {
 
         if (this.peek() == expected) {
-            if (this.nextChar != -1) this.sb.append((char) this.nextChar);
             this.nextChar       = this.nextButOneChar;
             this.nextButOneChar = -1;
             return true;
@@ -752,23 +825,41 @@ class Scanner {
 
         if (expectedCharacters.indexOf((char) this.nextChar) == -1) return false;
 
-        this.sb.append((char) this.nextChar);
-
         this.nextChar       = this.nextButOneChar;
         this.nextButOneChar = -1;
 
         return true;
     }
 
+    /**
+     * @return The buffer index of the first character that was not yet consumed (but maybe peeked)
+     */
+    private int
+    consumed() {
+        int result = this.offset;
+        if (this.nextChar != -1)       result--;
+        if (this.nextButOneChar != -1) result--;
+        return result;
+    }
+
+    /**
+     * Looks up the characters consumed since {@link #tokenStart}, plus the next <var>peeked</var> characters, in the
+     * given <var>table</var>.
+     *
+     * @return The string from the table, or {@code null}
+     */
+    @Nullable private String
+    lookUpToken(String[] table, int peeked) {
+        int from = this.tokenStart;
+        return Scanner.lookUp(table, this.buffer, from, this.consumed() + peeked - from);
+    }
+
     private int
     internalRead() throws IOException, CompileException {
 
-        int result;
-        try {
-            result = this.in.read();
-        } catch (UnicodeUnescapeException ex) {
-            throw new CompileException(ex.getMessage(), this.location(), ex);
-        }
+        if (this.offset == this.limit && !this.fill()) return -1;
+
+        final int result = this.buffer[this.offset++];
         if (result == '\r') {
             ++this.nextCharLineNumber;
             this.nextCharColumnNumber = 0;
@@ -794,8 +885,167 @@ class Scanner {
         return result;
     }
 
+    /**
+     * Makes more characters available in the {@link #buffer}, i.e. unescapes the characters that were already read,
+     * and, if necessary, reads more characters from the {@link #in reader}.
+     *
+     * @return Whether more characters are available
+     */
+    private boolean
+    fill() throws IOException, CompileException {
+        for (;;) {
+
+            if (this.limit < this.rawLimit) {
+                this.unescape();
+                if (this.offset < this.limit) return true;
+            }
+
+            Reader in = this.in;
+            if (this.endOfInput || in == null) {
+                if (this.limit < this.rawLimit) {
+                    throw new CompileException("Incomplete escape sequence", this.location());
+                }
+                return false;
+            }
+
+            // Discard the characters before the current token, and grow the buffer if the token won't fit otherwise.
+            {
+                int    ts = this.tokenStart;
+                char[] b  = this.buffer;
+                if (this.rawLimit - ts > b.length / 2) b = (this.buffer = new char[2 * b.length]);
+                System.arraycopy(this.buffer, ts, b, 0, this.rawLimit - ts);
+                this.buffer      = b;
+                this.tokenStart  = 0;
+                this.offset     -= ts;
+                this.limit      -= ts;
+                this.rawLimit   -= ts;
+            }
+
+            int n = in.read(this.buffer, this.rawLimit, this.buffer.length - this.rawLimit);
+            if (n == -1) {
+                this.endOfInput = true;
+            } else {
+                this.rawLimit += n;
+            }
+        }
+    }
+
+    /**
+     * Decodes the Unicode escapes (JLS7 3.3) in the range {@link #limit} ... {@link #rawLimit} in place, and advances
+     * {@link #limit} accordingly. Stops before an incomplete escape sequence (unless at end-of-input), and before an
+     * invalid escape sequence (unless it is the very first character), so that errors are reported at the right
+     * location.
+     */
+    private void
+    unescape() throws CompileException {
+
+        final char[] b = this.buffer;
+        final int    n = this.rawLimit;
+
+        int r = this.limit, w = r;
+        SCAN:
+        while (r < n) {
+            char c = b[r];
+
+            // Only a backslash that is preceded with an even number of backslashes can start an escape sequence.
+            if (c != '\\' || this.oddPrecedingBackslashes) {
+                this.oddPrecedingBackslashes = false;
+                b[w++]                       = c;
+                r++;
+                continue;
+            }
+
+            if (r + 1 == n && !this.endOfInput) break;
+            if (r + 1 == n || b[r + 1] != 'u') {
+                this.oddPrecedingBackslashes = true;
+                b[w++]                       = c;
+                r++;
+                continue;
+            }
+
+            // Skip redundant "u"s.
+            int i = r + 2;
+            while (i < n && b[i] == 'u') i++;
+
+            if (i + 4 > n) {
+                if (!this.endOfInput) break;
+                if (w > this.limit) break;
+                throw new CompileException("Incomplete escape sequence", this.location());
+            }
+
+            int value = 0;
+            for (int j = i; j < i + 4; j++) {
+                int digit = Character.digit(b[j], 16);
+                if (digit == -1) {
+                    if (w > this.limit) break SCAN;
+                    throw new CompileException(
+                        "Invalid escape sequence \"\\u" + new String(b, i, 4) + "\"",
+                        this.location()
+                    );
+                }
+                value = (value << 4) + digit;
+            }
+
+            b[w++] = (char) value;
+            r      = i + 4;
+        }
+
+        System.arraycopy(b, r, b, w, n - r);
+        this.limit    = w;
+        this.rawLimit = n - r + w;
+    }
+
+    /**
+     * @return A hash table (with linear probing) of the given <var>strings</var>, for {@link #lookUp(String[], char[],
+     *         int, int)}
+     */
+    private static String[]
+    hashTable(String[] strings) {
+
+        int size = 16;
+        while (size < 4 * strings.length) size <<= 1;
+
+        String[] result = new String[size];
+        for (String s : strings) {
+            int i = Scanner.hash(s.toCharArray(), 0, s.length()) & (size - 1);
+            while (result[i] != null) i = (i + 1) & (size - 1);
+            result[i] = s;
+        }
+        return result;
+    }
+
+    /**
+     * Finds the given range of characters in the given <var>hashTable</var>, without creating a {@link String}.
+     *
+     * @return The matching string from the table, or {@code null}
+     */
+    @Nullable private static String
+    lookUp(String[] hashTable, char[] b, int offset, int length) {
+
+        if (length == 0 || length > 12) return null; // The longest keyword ("synchronized") has 12 characters.
+
+        for (int i = Scanner.hash(b, offset, length) & (hashTable.length - 1);; i = (i + 1) & (hashTable.length - 1)) {
+
+            String s = hashTable[i];
+            if (s == null) return null;
+
+            if (s.length() != length) continue;
+            for (int j = 0;; j++) {
+                if (j == length) return s;
+                if (s.charAt(j) != b[offset + j]) break;
+            }
+        }
+    }
+
+    private static int
+    hash(char[] b, int offset, int length) {
+        int result = length;
+        for (int i = offset; i < offset + length; i++) result = 31 * result + b[i];
+        return result ^ (result >>> 5);
+    }
+
     @Nullable private final String fileName;
-    private final Reader           in;
+    @Nullable private final Reader in;
     private boolean                ignoreWhiteSpace;
     private int                    nextChar       = -1;
     private int                    nextButOneChar = -1;
@@ -803,6 +1053,17 @@ class Scanner {
     private int                    nextCharLineNumber;
     private int                    nextCharColumnNumber;
 
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Holds the characters of the current token and of the lookahead, at {@link #tokenStart}... {@link #limit}, and
+     * then the characters that were read, but not yet unescaped, at {@link #limit}... {@link #rawLimit}.
+     */
+    private char[]  buffer;
+    private int     tokenStart, offset, limit, rawLimit;
+    private boolean endOfInput;
+    private boolean oddPrecedingBackslashes;
+
     /**
      * Line number of the previously produced token (typically starting at one).
      */
@@ -814,10 +1075,11 @@ class Scanner {
      */
     private int tokenColumnNumber;
 
-    private static final Set<String> JAVA_KEYWORDS = new HashSet<String>(Arrays.asList(
+    private static final String[] JAVA_KEYWORDS = Scanner.hashTable(new String[] {
 
-        // SUPPRESS CHECKSTYLE WrapMethod:16
+        // SUPPRESS CHECKSTYLE WrapMethod:17
 
+        "true", "false", "null",
         "abstract", "assert",
         "boolean", "break", "byte",
         "case", "catch", "char", "class", "const", "continue",
@@ -834,9 +1096,9 @@ class Scanner {
         "this", "throw", "throws", "transient", "try",
         "void", "volatile",
         "while"
-    ));
+    });
 
-    private static final Set<String> JAVA_OPERATORS = new HashSet<String>(Arrays.asList(
+    private static final String[] JAVA_OPERATORS = Scanner.hashTable(new String[] {
 
         // SUPPRESS CHECKSTYLE WrapMethod:9
 
@@ -849,5 +1111,5 @@ class Scanner {
         "==", "<=", ">=", "!=", "&&", "||", "++", "--",
         "+",  "-",  "*",  "/",  "&",  "|",  "^",  "%",  "<<",  ">>",  ">>>",
         "+=", "-=", "*=", "/=", "&=", "|=", "^=", "%=", "<<=", ">>=", ">>>=" // SUPPRESS CHECKSTYLE Wrap
-    ));
+    });
 }
@@ -28,7 +28,6 @@ package org.codehaus.janino;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -41,6 +40,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.Cookable;
@@ -50,6 +50,7 @@ import org.codehaus.commons.compiler.InternalCompilerException;
 import org.codehaus.commons.compiler.Location;
 import org.codehaus.commons.compiler.MultiCookable;
 import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.commons.compiler.io.Readers;
 import org.codehaus.commons.nullanalysis.Nullable;
 import org.codehaus.janino.Java.AbstractClassDeclaration;
 import org.codehaus.janino.Java.AbstractCompilationUnit.ImportDeclaration;
@@ -69,6 +70,7 @@ import org.codehaus.janino.Java.VariableDeclarator;
 import org.codehaus.janino.Parser.ClassDeclarationContext;
 import org.codehaus.janino.Parser.MethodDeclarationContext;
 import org.codehaus.janino.util.AbstractTraverser;
+import org.codehaus.janino.util.DeepCopier;
 
 /**
  * An implementation of {@link IScriptEvaluator} that utilizes the JANINO Java compiler.
@@ -134,6 +136,9 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
 
     private Class<?> defaultReturnType = IScriptEvaluator.DEFAULT_RETURN_TYPE;
 
+    @Nullable private Executor shardExecutor;
+    private int                maxScriptsPerShard;
+
     @Override public void
     setParentClassLoader(@Nullable ClassLoader parentClassLoader) { this.cbe.setParentClassLoader(parentClassLoader); }
 
@@ -166,6 +171,60 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
         return this;
     }
 
+    /**
+     * @see SimpleCompiler#setIClassLoader(ClassLoaderIClassLoader)
+     */
+    public void
+    setIClassLoader(@Nullable ClassLoaderIClassLoader iClassLoader) { this.cbe.setIClassLoader(iClassLoader); }
+
+    /**
+     * @see SimpleCompiler#setTargetVersion(int)
+     */
+    public void
+    setTargetVersion(int targetVersion) { this.cbe.setTargetVersion(targetVersion); }
+
+    /**
+     * @see SimpleCompiler#setMethodOutliningThreshold(int)
+     */
+    public void
+    setMethodOutliningThreshold(int threshold) { this.cbe.setMethodOutliningThreshold(threshold); }
+
+    /**
+     * @see SimpleCompiler#setLookup(Object, boolean)
+     */
+    public void
+    setLookup(@Nullable Object lookup, boolean hiddenClasses) { this.cbe.setLookup(lookup, hiddenClasses); }
+
+    /**
+     * @see SimpleCompiler#setCache(EvaluatorCache)
+     */
+    public void
+    setCache(@Nullable EvaluatorCache cache) { this.cbe.setCache(cache); }
+
+    @Nullable EvaluatorCache
+    getCache() { return this.cbe.getCache(); }
+
+    /**
+     * Enables "sharding", i.e. the scripts are no longer cooked into one class, but into multiple classes ("shards")
+     * of at most <var>maxScriptsPerShard</var> scripts each, which are compiled concurrently on the given
+     * <var>executor</var>. Shards that exceed the limits of a JVM class file (esp. the size of the constant pool)
+     * are split automatically. Thus it is possible to cook many thousands of scripts in one go.
+     * <p>
+     *   The scripts are still accessed through {@link #getMethod(int)} and {@link #evaluate(int, Object[])}, but
+     *   {@link #getClazz()} returns only the class of the first shard.
+     * </p>
+     *
+     * @param executor {@code null} disables sharding (which is the default)
+     */
+    public void
+    setSharding(@Nullable Executor executor, int maxScriptsPerShard) {
+
+        if (maxScriptsPerShard < 1) throw new IllegalArgumentException("maxScriptsPerShard");
+
+        this.shardExecutor      = executor;
+        this.maxScriptsPerShard = maxScriptsPerShard;
+    }
+
     /**
      * @throws IllegalArgumentException <var>count</var> is different from previous invocations of
      *                                  this method
@@ -599,8 +658,46 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
 
     // ---------------------------------------------------------------
 
+    @Override public void
+    cook(@Nullable String fileName, String s) throws CompileException {
+
+        if (this.getCache() != null) {
+            super.cook(fileName, s);
+            return;
+        }
+
+        try {
+            this.cook(Scanner.ofCharSequence(fileName, s));
+        } catch (IOException ioe) {
+            throw new InternalCompilerException("SNO: IOException despite CharSequence", ioe);
+        }
+    }
+
+    @Override public void
+    cook(String[] fileNames, String[] strings) throws CompileException {
+
+        if (this.getCache() != null) {
+            super.cook(fileNames, strings);
+            return;
+        }
+
+        Scanner[] scanners = new Scanner[strings.length];
+        try {
+            for (int i = 0; i < strings.length; i++) scanners[i] = Scanner.ofCharSequence(fileNames[i], strings[i]);
+            this.cook(scanners);
+        } catch (IOException ioe) {
+            throw new InternalCompilerException("SNO: IOException despite CharSequence", ioe);
+        }
+    }
+
     @Override public void
     cook(@Nullable String fileName, Reader reader) throws CompileException, IOException {
+
+        if (this.getCache() != null) {
+            this.cook(new String[] { fileName }, new Reader[] { reader });
+            return;
+        }
+
         this.cook(new Scanner(fileName, reader));
     }
 
@@ -615,17 +712,69 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
      * </p>
      */
     @Override public final void
-    cook(String[] fileNames, Reader[] readers) throws CompileException, IOException {
+    cook(final String[] fileNames, Reader[] readers) throws CompileException, IOException {
 
         this.setScriptCount(fileNames.length);
         this.setScriptCount(readers.length);
 
+        if (this.getCache() != null) {
+
+            final String[] texts = new String[readers.length];
+            for (int i = 0; i < readers.length; ++i) texts[i] = Readers.readAll(readers[i]);
+
+            EvaluatorCache.KeyBuilder kb = new EvaluatorCache.KeyBuilder().add(this.getClass().getName());
+            this.addCacheKey(kb);
+            kb.add(fileNames).add(texts);
+
+            this.cook(kb, new EvaluatorCache.Compilation() {
+
+                @Override public void
+                compile() throws CompileException, IOException {
+                    Scanner[] scanners = new Scanner[texts.length];
+                    for (int i = 0; i < texts.length; ++i) {
+                        scanners[i] = Scanner.ofCharSequence(fileNames[i], texts[i]);
+                    }
+                    ScriptEvaluator.this.cook(scanners);
+                }
+            });
+            return;
+        }
+
         Scanner[] scanners = new Scanner[readers.length];
         for (int i = 0; i < readers.length; ++i) scanners[i] = new Scanner(fileNames[i], readers[i]);
 
         this.cook(scanners);
     }
 
+    /**
+     * Adds the settings of this {@link ScriptEvaluator} that affect the generated bytecode to the cache key.
+     */
+    void
+    addCacheKey(EvaluatorCache.KeyBuilder kb) {
+        this.cbe.addCacheKey(kb);
+        kb.add(this.defaultReturnType);
+        kb.add(this.shardExecutor == null ? 0 : this.maxScriptsPerShard);
+
+        Script[] ss = this.scripts;
+        if (ss == null) {
+            kb.add(-1);
+            return;
+        }
+        kb.add(ss.length);
+        for (Script s : ss) {
+            kb.add(s.overrideMethod).add(s.staticMethod).add(s.returnType).add(s.methodName);
+            kb.add(s.parameterNames).add(s.parameterTypes).add(s.thrownExceptions);
+        }
+    }
+
+    /**
+     * @see SimpleCompiler#cook(EvaluatorCache.KeyBuilder, EvaluatorCache.Compilation)
+     */
+    void
+    cook(EvaluatorCache.KeyBuilder kb, EvaluatorCache.Compilation compilation) throws CompileException, IOException {
+        this.cbe.cook(kb, compilation);
+    }
+
     /**
      * Cooks a <em>set</em> of scripts into one class.
      * Notice that if <em>any</em> of the scripts causes trouble, the entire compilation will fail.
@@ -709,7 +858,8 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
     ) throws CompileException {
         int count = statementss.length;
 
-        Collection<Java.MethodDeclarator> methodDeclarators = new ArrayList<Java.MethodDeclarator>();
+        // The method declarators of each script.
+        final Java.MethodDeclarator[][] methodDeclaratorss = new Java.MethodDeclarator[count][];
 
         for (int i = 0; i < count; i++) {
             Script                  es           = this.getScript(i);
@@ -721,6 +871,7 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
             Class<?> rt = es.returnType;
             if (rt == null) rt = this.getDefaultReturnType();
 
+            List<Java.MethodDeclarator> methodDeclarators = new ArrayList<Java.MethodDeclarator>();
             methodDeclarators.add(this.makeMethodDeclaration(
                 loc,                 // location
                 (                    // annotations
@@ -739,11 +890,71 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
 
             // Also add the "local methods" that a script my declare.
             for (MethodDeclarator lm : localMethods) methodDeclarators.add(lm);
+
+            methodDeclaratorss[i] = (MethodDeclarator[]) methodDeclarators.toArray(
+                new Java.MethodDeclarator[methodDeclarators.size()]
+            );
         }
 
+        Executor executor = this.shardExecutor;
+        if (executor != null && count > 0) {
+            this.cookShards(fileName, importDeclarations, methodDeclaratorss, executor);
+            return;
+        }
+
+        Collection<Java.MethodDeclarator> methodDeclarators = new ArrayList<Java.MethodDeclarator>();
+        for (MethodDeclarator[] mds : methodDeclaratorss) methodDeclarators.addAll(Arrays.asList(mds));
+
         this.cook(new Java.CompilationUnit(fileName, importDeclarations), methodDeclarators);
     }
 
+    /**
+     * Cooks the scripts into one class per shard; see {@link #setSharding(Executor, int)}.
+     */
+    private void
+    cookShards(
+        @Nullable final String          fileName,
+        final ImportDeclaration[]       importDeclarations,
+        final Java.MethodDeclarator[][] methodDeclaratorss,
+        Executor                        executor
+    ) throws CompileException {
+
+        final String className = this.cbe.getClassName();
+
+        this.cbe.cook(executor, methodDeclaratorss.length, this.maxScriptsPerShard, new SimpleCompiler.ShardFactory() {
+
+            @Override public Java.AbstractCompilationUnit
+            newCompilationUnit(int from, int to) throws CompileException {
+
+                // A shard may have to be compiled more than once (when it is split), so compile copies of the
+                // ASTs.
+                DeepCopier dc = new DeepCopier();
+
+                CompilationUnit cu = new Java.CompilationUnit(fileName, dc.copyImportDeclarations(importDeclarations));
+
+                AbstractClassDeclaration cd = ScriptEvaluator.this.cbe.addPackageMemberClassDeclaration(
+                    methodDeclaratorss[from][0].getLocation(),
+                    cu,
+                    ScriptEvaluator.shardClassName(className, from)
+                );
+
+                for (int i = from; i < to; i++) {
+                    for (MethodDeclarator md : methodDeclaratorss[i]) {
+                        cd.addDeclaredMethod(dc.copyMethodDeclarator(md));
+                    }
+                }
+
+                return cu;
+            }
+        });
+    }
+
+    /**
+     * @return The name of the class that holds the shard that starts with script #<var>from</var>
+     */
+    private static String
+    shardClassName(String className, int from) { return from == 0 ? className : className + '_' + from; }
+
     public final void
     cook(CompilationUnit compilationUnit, Collection<Java.MethodDeclarator> methodDeclarators)
     throws CompileException {
@@ -799,13 +1010,15 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
         }
 
         // Now invoke "Class.getDeclaredMethods()" and filter "our" methods from the result.
-        for (Method m : c.getDeclaredMethods()) {
+        for (Class<?> shard : this.getShards(c)) {
+            for (Method m : shard.getDeclaredMethods()) {
 
-            Integer idx = (Integer) dms.get(ScriptEvaluator.methodKey(m.getName(), m.getParameterTypes()));
-            if (idx == null) continue;
+                Integer idx = (Integer) dms.get(ScriptEvaluator.methodKey(m.getName(), m.getParameterTypes()));
+                if (idx == null) continue;
 
-            assert result[idx] == null;
-            result[idx] = m;
+                assert result[idx] == null;
+                result[idx] = m;
+            }
         }
 
         // Verify that the class declared "all our" methods.
@@ -825,6 +1038,31 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
     }
     @Nullable private Method[] getMethodsCache;
 
+    /**
+     * @return The generated class, plus, iff {@link #setSharding(Executor, int) sharding} is enabled, the classes of
+     *         the other shards
+     */
+    private List<Class<?>>
+    getShards(Class<?> firstShard) {
+
+        List<Class<?>> result = new ArrayList<Class<?>>();
+        result.add(firstShard);
+
+        if (this.shardExecutor == null) return result;
+
+        String prefix = firstShard.getName() + '_';
+        for (String className : this.getBytecodes().keySet()) {
+            if (!className.startsWith(prefix) || !className.substring(prefix.length()).matches("\\d+")) continue;
+            try {
+                result.add(firstShard.getClassLoader().loadClass(className));
+            } catch (ClassNotFoundException cnfe) {
+                throw new InternalCompilerException(className, cnfe);
+            }
+        }
+
+        return result;
+    }
+
     @Nullable protected Type
     optionalClassToType(Location loc, @Nullable Class<?> clazz) { return this.cbe.optionalClassToType(loc, clazz); }
 
@@ -1207,12 +1445,12 @@ class ScriptEvaluator extends MultiCookable implements IScriptEvaluator {
     createFastEvaluator(String script, Class<T> interfaceToImplement, String[] parameterNames) throws CompileException {
         try {
             return this.createFastEvaluator(
-                new StringReader(script),
+                Scanner.ofCharSequence(null, script),
                 interfaceToImplement,
                 parameterNames
             );
         } catch (IOException ex) {
-            throw new InternalCompilerException("IOException despite StringReader", ex);
+            throw new InternalCompilerException("IOException despite CharSequence", ex);
         }
     }
 
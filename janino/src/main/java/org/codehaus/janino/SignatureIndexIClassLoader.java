@@ -0,0 +1,920 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.InternalCompilerException;
+import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.ClassFile.Annotation;
+import org.codehaus.janino.util.ClassFile.ArrayElementValue;
+import org.codehaus.janino.util.ClassFile.BooleanElementValue;
+import org.codehaus.janino.util.ClassFile.ByteElementValue;
+import org.codehaus.janino.util.ClassFile.CharElementValue;
+import org.codehaus.janino.util.ClassFile.ClassElementValue;
+import org.codehaus.janino.util.ClassFile.DoubleElementValue;
+import org.codehaus.janino.util.ClassFile.EnumConstValue;
+import org.codehaus.janino.util.ClassFile.FloatElementValue;
+import org.codehaus.janino.util.ClassFile.IntElementValue;
+import org.codehaus.janino.util.ClassFile.LongElementValue;
+import org.codehaus.janino.util.ClassFile.ShortElementValue;
+import org.codehaus.janino.util.ClassFile.StringElementValue;
+
+/**
+ * An {@link IClassLoader} that serves {@link IClass}es from a <em>signature index</em>, i.e. a file that holds the
+ * names, supertypes, modifiers, field and method descriptors, constant values and annotations of a set of classes,
+ * typically those of the JRE. The index is generated once (see {@link Writer} and {@link
+ * org.codehaus.janino.tools.SignatureIndexGenerator}) and then memory-mapped, so that loading a class requires
+ * neither reflection nor class file parsing; the members of a class are decoded only when they are needed.
+ * <p>
+ *   Method bodies and generic signatures are not part of the index; neither are the annotations of fields and
+ *   methods, nor annotation elements whose values are class literals or annotations.
+ * </p>
+ * <p>
+ *   To serve the JRE classes from an index when cooking, use it as the parent of the {@link
+ *   ClassLoaderIClassLoader} (see {@link ClassLoaderIClassLoader#ClassLoaderIClassLoader(ClassLoader,
+ *   IClassLoader)}); naturally the index should then describe the JRE that executes the generated code.
+ * </p>
+ */
+public
+class SignatureIndexIClassLoader extends IClassLoader {
+
+    private static final int MAGIC   = 0x4a534958; // "JSIX"
+    private static final int VERSION = 1;
+
+    // Tags of constant values and annotation element values.
+    private static final byte TAG_NONE   = 'N';
+    private static final byte TAG_INT    = 'I';
+    private static final byte TAG_LONG   = 'J';
+    private static final byte TAG_FLOAT  = 'F';
+    private static final byte TAG_DOUBLE = 'D';
+    private static final byte TAG_STRING = 's';
+    private static final byte TAG_ENUM   = 'e';
+    private static final byte TAG_ARRAY  = '[';
+
+    /*
+     * Layout of the index (all numbers big-endian):
+     *
+     *   u4 magic, u4 version, u4 string_count, u4 class_count
+     *   u4 string_offset[string_count]                           (u2 length, modified UTF-8 bytes)
+     *   { u4 descriptor_string, u4 record_offset }[class_count]  (sorted by descriptor)
+     *   strings and records
+     *
+     * Layout of a record:
+     *
+     *   u2 access_flags
+     *   u4 fields_position, u4 methods_position, u4 annotations_position  (relative to the record)
+     *   u4 superclass, u4 declaring_class, u4 outer_class                 (descriptor strings, or -1)
+     *   u2 interface_count, u4 interface[interface_count]
+     *   u2 member_type_count, u4 member_type[member_type_count]
+     *   u2 field_count, { u2 access_flags, u4 name, u4 descriptor, constant_value }[field_count]
+     *   u2 method_count, { u2 access_flags, u4 name, u4 descriptor, u2 n, u4 thrown_exception[n] }[method_count]
+     *   u2 annotation_count, { u4 type, u2 n, { u4 name, element_value }[n] }[annotation_count]
+     */
+
+    private final ByteBuffer buffer;
+    private final int        stringCount;
+    private final int        classCount;
+    private final int        classTableOffset;
+
+    /**
+     * Memory-maps the given <var>indexFile</var>.
+     *
+     * @param parentIClassLoader Loads the classes that are not in the index; if {@code null}, then the index must
+     *                           contain at least the JRE classes
+     */
+    public
+    SignatureIndexIClassLoader(File indexFile, @Nullable IClassLoader parentIClassLoader) throws IOException {
+        this(SignatureIndexIClassLoader.map(indexFile), parentIClassLoader);
+    }
+
+    /**
+     * @param buffer             Contains the index
+     * @param parentIClassLoader Loads the classes that are not in the index; if {@code null}, then the index must
+     *                           contain at least the JRE classes
+     */
+    public
+    SignatureIndexIClassLoader(ByteBuffer buffer, @Nullable IClassLoader parentIClassLoader) throws IOException {
+        super(parentIClassLoader);
+
+        if (buffer.getInt(0) != SignatureIndexIClassLoader.MAGIC) throw new IOException("Not a signature index");
+        if (buffer.getInt(4) != SignatureIndexIClassLoader.VERSION) {
+            throw new IOException("Unsupported signature index version " + buffer.getInt(4));
+        }
+
+        this.buffer           = buffer;
+        this.stringCount      = buffer.getInt(8);
+        this.classCount       = buffer.getInt(12);
+        this.classTableOffset = 16 + 4 * this.stringCount;
+
+        // "findIClass()" only reads the (immutable) buffer.
+        this.registerAsParallelCapable();
+
+        super.postConstruct();
+    }
+
+    private static ByteBuffer
+    map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+
+            // The mapping remains valid after the file is closed.
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override @Nullable protected IClass
+    findIClass(String descriptor) {
+
+        // Binary search in the class table.
+        int lo = 0, hi = this.classCount - 1;
+        while (lo <= hi) {
+            int mid   = (lo + hi) >>> 1;
+            int entry = this.classTableOffset + 8 * mid;
+            int cmp   = this.getString(this.buffer.getInt(entry)).compareTo(descriptor);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else
+            if (cmp > 0) {
+                hi = mid - 1;
+            } else
+            {
+                IClass result = new IndexedIClass(descriptor, this.buffer.getInt(entry + 4));
+                this.defineIClass(result);
+                return result;
+            }
+        }
+
+        return null;
+    }
+
+    private String
+    getString(int index) {
+        if (index < 0 || index >= this.stringCount) throw new InternalCompilerException("Invalid string " + index);
+
+        int    offset = this.buffer.getInt(16 + 4 * index);
+        byte[] ba     = new byte[2 + (this.buffer.getShort(offset) & 0xffff)];
+        for (int i = 0; i < ba.length; i++) ba[i] = this.buffer.get(offset + i);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(ba)).readUTF();
+        } catch (IOException ioe) {
+            throw new InternalCompilerException("Invalid string " + index, ioe);
+        }
+    }
+
+    /**
+     * Reads consecutive values from the {@link #buffer}; the buffer's position is not used, so that multiple threads
+     * can read concurrently.
+     */
+    private
+    class Cursor {
+
+        private int position;
+
+        Cursor(int position) { this.position = position; }
+
+        byte
+        readByte() { return SignatureIndexIClassLoader.this.buffer.get(this.position++); }
+
+        short
+        readShort() {
+            short result = SignatureIndexIClassLoader.this.buffer.getShort(this.position);
+            this.position += 2;
+            return result;
+        }
+
+        int
+        readUnsignedShort() { return this.readShort() & 0xffff; }
+
+        int
+        readInt() {
+            int result = SignatureIndexIClassLoader.this.buffer.getInt(this.position);
+            this.position += 4;
+            return result;
+        }
+
+        long
+        readLong() {
+            long result = SignatureIndexIClassLoader.this.buffer.getLong(this.position);
+            this.position += 8;
+            return result;
+        }
+
+        String
+        readString() { return SignatureIndexIClassLoader.this.getString(this.readInt()); }
+
+        @Nullable String
+        readOptionalString() {
+            int index = this.readInt();
+            return index == -1 ? null : SignatureIndexIClassLoader.this.getString(index);
+        }
+
+        String[]
+        readStrings() {
+            String[] result = new String[this.readUnsignedShort()];
+            for (int i = 0; i < result.length; i++) result[i] = this.readString();
+            return result;
+        }
+
+        /**
+         * @return {@link IClass#NOT_CONSTANT}, or an {@link Integer}, {@link Long}, {@link Float}, {@link Double} or
+         *         {@link String}
+         */
+        Object
+        readConstant() {
+            byte tag = this.readByte();
+            switch (tag) {
+            case TAG_NONE:   return IClass.NOT_CONSTANT;
+            case TAG_INT:    return this.readInt();
+            case TAG_LONG:   return this.readLong();
+            case TAG_FLOAT:  return Float.intBitsToFloat(this.readInt());
+            case TAG_DOUBLE: return Double.longBitsToDouble(this.readLong());
+            case TAG_STRING: return this.readString();
+            default:         throw new InternalCompilerException("Invalid constant tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * An {@link IClass} that decodes its members from the index when they are requested first, and loads the types
+     * that they reference only when these are requested.
+     */
+    private
+    class IndexedIClass extends IClass {
+
+        private final String descriptor;
+        private final int    offset;
+        private final short  accessFlags;
+
+        IndexedIClass(String descriptor, int offset) {
+            this.descriptor  = descriptor;
+            this.offset      = offset;
+            this.accessFlags = SignatureIndexIClassLoader.this.buffer.getShort(offset);
+        }
+
+        // Positions within the record.
+        private Cursor fields()      { return this.section(2);  }
+        private Cursor methods()     { return this.section(6);  }
+        private Cursor annotations() { return this.section(10); }
+        private Cursor header()      { return new Cursor(this.offset + 14); }
+
+        private Cursor
+        section(int index) {
+            return new Cursor(this.offset + SignatureIndexIClassLoader.this.buffer.getInt(this.offset + index));
+        }
+
+        @Override protected IConstructor[]
+        getDeclaredIConstructors2() {
+            List<IConstructor> result = new ArrayList<IConstructor>();
+
+            Cursor c = this.methods();
+            for (int i = c.readUnsignedShort(); i > 0; i--) {
+                short    accessFlags      = c.readShort();
+                String   name             = c.readString();
+                String   descriptor       = c.readString();
+                String[] thrownExceptions = c.readStrings();
+                if ("<init>".equals(name)) result.add(this.constructor(accessFlags, descriptor, thrownExceptions));
+            }
+
+            return (IConstructor[]) result.toArray(new IConstructor[result.size()]);
+        }
+
+        @Override protected IMethod[]
+        getDeclaredIMethods2() {
+            List<IMethod> result = new ArrayList<IMethod>();
+
+            Cursor c = this.methods();
+            for (int i = c.readUnsignedShort(); i > 0; i--) {
+                short    accessFlags      = c.readShort();
+                String   name             = c.readString();
+                String   descriptor       = c.readString();
+                String[] thrownExceptions = c.readStrings();
+                if (!"<init>".equals(name) && !"<clinit>".equals(name)) {
+                    result.add(this.method(accessFlags, name, descriptor, thrownExceptions));
+                }
+            }
+
+            return (IMethod[]) result.toArray(new IMethod[result.size()]);
+        }
+
+        private IConstructor
+        constructor(final short accessFlags, String descriptor, final String[] thrownExceptions) {
+
+            final MethodDescriptor md     = new MethodDescriptor(descriptor);
+            final Access           access = SignatureIndexIClassLoader.access(accessFlags);
+
+            return new IConstructor() {
+
+                @Override public IClass[]
+                getParameterTypes2() throws CompileException {
+                    IClass[] parameterTypes = IndexedIClass.this.resolve(md.parameterFds);
+
+                    // Remove the magic first parameter of an inner class constructor.
+                    IClass outerIClass = IndexedIClass.this.getOuterIClass();
+                    if (outerIClass == null) return parameterTypes;
+
+                    if (parameterTypes.length < 1 || parameterTypes[0] != outerIClass) {
+                        throw new InternalCompilerException(
+                            "Inner class constructor lacks magic first parameter of type \"" + outerIClass + "\""
+                        );
+                    }
+                    IClass[] tmp = new IClass[parameterTypes.length - 1];
+                    System.arraycopy(parameterTypes, 1, tmp, 0, tmp.length);
+                    return tmp;
+                }
+
+                @Override public IClass[]
+                getThrownExceptions2() throws CompileException {
+                    return IndexedIClass.this.resolve(thrownExceptions);
+                }
+
+                @Override public boolean       isVarargs()      { return Mod.isVarargs(accessFlags);  }
+                @Override public Access        getAccess()      { return access;                      }
+                @Override public IAnnotation[] getAnnotations() { return IClass.NO_ANNOTATIONS;       }
+            };
+        }
+
+        private IMethod
+        method(final short accessFlags, final String name, String descriptor, final String[] thrownExceptions) {
+
+            final MethodDescriptor md     = new MethodDescriptor(descriptor);
+            final Access           access = SignatureIndexIClassLoader.access(accessFlags);
+
+            return new IMethod() {
+
+                @Override public IClass
+                getReturnType() throws CompileException { return IndexedIClass.this.resolve(md.returnFd); }
+
+                @Override public IClass[]
+                getParameterTypes2() throws CompileException { return IndexedIClass.this.resolve(md.parameterFds); }
+
+                @Override public IClass[]
+                getThrownExceptions2() throws CompileException {
+                    return IndexedIClass.this.resolve(thrownExceptions);
+                }
+
+                @Override public String        getName()        { return name;                        }
+                @Override public boolean       isStatic()       { return Mod.isStatic(accessFlags);   }
+                @Override public boolean       isAbstract()     { return Mod.isAbstract(accessFlags); }
+                @Override public boolean       isVarargs()      { return Mod.isVarargs(accessFlags);  }
+                @Override public Access        getAccess()      { return access;                      }
+                @Override public IAnnotation[] getAnnotations() { return IClass.NO_ANNOTATIONS;       }
+            };
+        }
+
+        @Override protected IField[]
+        getDeclaredIFields2() {
+
+            Cursor   c      = this.fields();
+            IField[] result = new IField[c.readUnsignedShort()];
+            for (int i = 0; i < result.length; i++) {
+                final short  accessFlags   = c.readShort();
+                final String name          = c.readString();
+                final String descriptor    = c.readString();
+                final Object constantValue = SignatureIndexIClassLoader.narrow(c.readConstant(), descriptor);
+                final Access access        = SignatureIndexIClassLoader.access(accessFlags);
+
+                result[i] = new IField() {
+
+                    @Override public IClass
+                    getType() throws CompileException { return IndexedIClass.this.resolve(descriptor); }
+
+                    @Override public String        getDescriptor()    { return descriptor;                  }
+                    @Override public Object        getConstantValue() { return constantValue;               }
+                    @Override public String        getName()          { return name;                        }
+                    @Override public boolean       isStatic()         { return Mod.isStatic(accessFlags);   }
+                    @Override public Access        getAccess()        { return access;                      }
+                    @Override public IAnnotation[] getAnnotations()   { return IClass.NO_ANNOTATIONS;       }
+                };
+            }
+            return result;
+        }
+
+        @Override protected IClass[]
+        getDeclaredIClasses2() throws CompileException {
+            Cursor c = this.header();
+            c.readInt(); // superclass
+            c.readInt(); // declaringClass
+            c.readInt(); // outerClass
+            c.readStrings(); // interfaces
+            return this.resolve(c.readStrings());
+        }
+
+        @Override @Nullable protected IClass
+        getDeclaringIClass2() throws CompileException {
+            Cursor c = this.header();
+            c.readInt(); // superclass
+            return this.resolveOptional(c.readOptionalString());
+        }
+
+        @Override @Nullable protected IClass
+        getOuterIClass2() throws CompileException {
+            Cursor c = this.header();
+            c.readInt(); // superclass
+            c.readInt(); // declaringClass
+            return this.resolveOptional(c.readOptionalString());
+        }
+
+        @Override @Nullable protected IClass
+        getSuperclass2() throws CompileException {
+            if (Mod.isInterface(this.accessFlags)) return null;
+            return this.resolveOptional(this.header().readOptionalString());
+        }
+
+        @Override protected IClass[]
+        getInterfaces2() throws CompileException {
+            Cursor c = this.header();
+            c.readInt(); // superclass
+            c.readInt(); // declaringClass
+            c.readInt(); // outerClass
+            return this.resolve(c.readStrings());
+        }
+
+        @Override protected IAnnotation[]
+        getIAnnotations2() throws CompileException {
+
+            Cursor        c      = this.annotations();
+            IAnnotation[] result = new IAnnotation[c.readUnsignedShort()];
+            for (int i = 0; i < result.length; i++) {
+                final String type = c.readString();
+
+                final Map<String, Object> elementValues = new HashMap<String, Object>();
+                for (int j = c.readUnsignedShort(); j > 0; j--) {
+                    String elementName = c.readString();
+                    elementValues.put(elementName, this.readElementValue(c));
+                }
+
+                result[i] = new IAnnotation() {
+
+                    @Override public IClass
+                    getAnnotationType() throws CompileException { return IndexedIClass.this.resolve(type); }
+
+                    @Override public Object
+                    getElementValue(String name) { return elementValues.get(name); }
+
+                    @Override public String
+                    toString() { return "@" + Descriptor.toClassName(type) + elementValues; }
+                };
+            }
+            return result;
+        }
+
+        private Object
+        readElementValue(Cursor c) throws CompileException {
+
+            if (SignatureIndexIClassLoader.this.buffer.get(c.position) == SignatureIndexIClassLoader.TAG_ENUM) {
+                c.readByte();
+                IClass enumType  = this.resolve(c.readString());
+                String constName = c.readString();
+
+                IField result = enumType.getDeclaredIField(constName);
+                if (result == null) {
+                    throw new CompileException("Enum \"" + enumType + "\" has no constant \"" + constName + "\"", null);
+                }
+                return result;
+            }
+
+            if (SignatureIndexIClassLoader.this.buffer.get(c.position) == SignatureIndexIClassLoader.TAG_ARRAY) {
+                c.readByte();
+                Object[] result = new Object[c.readUnsignedShort()];
+                for (int i = 0; i < result.length; i++) result[i] = this.readElementValue(c);
+                return result;
+            }
+
+            return c.readConstant();
+        }
+
+        @Override public Access
+        getAccess() { return SignatureIndexIClassLoader.access(this.accessFlags); }
+
+        @Override protected String  getDescriptor2()     { return this.descriptor;                    }
+        @Override public boolean    isFinal()            { return Mod.isFinal(this.accessFlags);      }
+        @Override public boolean    isAbstract()         { return Mod.isAbstract(this.accessFlags);   }
+        @Override public boolean    isEnum()             { return Mod.isEnum(this.accessFlags);       }
+        @Override public boolean    isInterface()        { return Mod.isInterface(this.accessFlags);  }
+        @Override public boolean    isArray()            { return false;                              }
+        @Override public boolean    isPrimitive()        { return false;                              }
+        @Override public boolean    isPrimitiveNumeric() { return false;                              }
+
+        @Override @Nullable protected IClass
+        getComponentType2() { return null; }
+
+        @Nullable private IClass
+        resolveOptional(@Nullable String descriptor) throws CompileException {
+            return descriptor == null ? null : this.resolve(descriptor);
+        }
+
+        private IClass[]
+        resolve(String[] descriptors) throws CompileException {
+            IClass[] result = new IClass[descriptors.length];
+            for (int i = 0; i < result.length; i++) result[i] = this.resolve(descriptors[i]);
+            return result;
+        }
+
+        private IClass
+        resolve(String descriptor) throws CompileException {
+            IClass result;
+            try {
+                result = SignatureIndexIClassLoader.this.loadIClass(descriptor);
+            } catch (ClassNotFoundException cnfe) {
+                throw new CompileException(cnfe.getMessage(), null, cnfe);
+            }
+            if (result == null) {
+                throw new CompileException("Cannot load \"" + Descriptor.toString(descriptor) + "\"", null);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The index (like the class file) stores {@code boolean}, {@code byte}, {@code short} and {@code char} constants
+     * as {@code int}s; converts them back to the field type, like reflection does.
+     */
+    private static Object
+    narrow(Object constantValue, String fieldDescriptor) {
+        if (!(constantValue instanceof Integer)) return constantValue;
+
+        int value = ((Integer) constantValue).intValue();
+        switch (fieldDescriptor.charAt(0)) {
+        case 'Z': return value != 0;
+        case 'B': return (byte) value;
+        case 'S': return (short) value;
+        case 'C': return (char) value;
+        default:  return constantValue;
+        }
+    }
+
+    private static Access
+    access(short accessFlags) {
+        return (
+            Mod.isPublicAccess(accessFlags)      ? Access.PUBLIC
+            : Mod.isProtectedAccess(accessFlags) ? Access.PROTECTED
+            : Mod.isPrivateAccess(accessFlags)   ? Access.PRIVATE
+            : Access.DEFAULT
+        );
+    }
+
+    /**
+     * Creates signature indexes for the {@link SignatureIndexIClassLoader}.
+     */
+    public static
+    class Writer {
+
+        private final Map<String, Integer>        stringIndexes = new HashMap<String, Integer>();
+        private final List<String>                strings       = new ArrayList<String>();
+        private final SortedMap<String, byte[]>   records       = new TreeMap<String, byte[]>();
+
+        /**
+         * Adds the signature of the given class to the index. If a class with the same name was added before, then
+         * this method has no effect.
+         */
+        public void
+        add(ClassFile classFile) {
+
+            String descriptor = Descriptor.fromClassName(classFile.getThisClassName());
+            if (this.records.containsKey(descriptor)) return;
+            this.intern(descriptor);
+
+            try {
+                this.records.put(descriptor, this.record(classFile));
+            } catch (IOException ioe) {
+                throw new AssertionError(ioe);
+            }
+        }
+
+        /**
+         * @return The number of classes added so far
+         */
+        public int
+        size() { return this.records.size(); }
+
+        private byte[]
+        record(ClassFile cf) throws IOException {
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream      dos  = new DataOutputStream(baos);
+
+            dos.writeShort(cf.accessFlags);
+            dos.writeInt(0); // fields_position, fixed up later
+            dos.writeInt(0); // methods_position, fixed up later
+            dos.writeInt(0); // annotations_position, fixed up later
+
+            dos.writeInt(cf.superclass == 0 ? -1 : this.internClass(cf, cf.superclass));
+
+            // Determine the declaring class, the outer class and the member types.
+            int           declaringClass = -1, outerClass = -1;
+            List<Integer> memberTypes    = new ArrayList<Integer>();
+
+            ClassFile.InnerClassesAttribute ica = cf.getInnerClassesAttribute();
+            if (ica != null) {
+                for (ClassFile.InnerClassesAttribute.Entry e : ica.getEntries()) {
+                    if (e.innerClassInfoIndex == cf.thisClass) {
+                        if (e.outerClassInfoIndex != 0 && declaringClass == -1) {
+                            declaringClass = this.internClass(cf, e.outerClassInfoIndex);
+                            if (!Mod.isStatic(e.innerClassAccessFlags)) outerClass = declaringClass;
+                        }
+                    } else
+                    if (e.outerClassInfoIndex == cf.thisClass) {
+                        memberTypes.add(this.internClass(cf, e.innerClassInfoIndex));
+                    }
+                }
+            }
+            dos.writeInt(declaringClass);
+            dos.writeInt(outerClass);
+
+            dos.writeShort(cf.interfaces.length);
+            for (short interfaceIndex : cf.interfaces) dos.writeInt(this.internClass(cf, interfaceIndex));
+
+            dos.writeShort(memberTypes.size());
+            for (Integer memberType : memberTypes) dos.writeInt(memberType.intValue());
+
+            int fieldsPosition = dos.size();
+            dos.writeShort(cf.fieldInfos.size());
+            for (ClassFile.FieldInfo fi : cf.fieldInfos) {
+                dos.writeShort(fi.getAccessFlags());
+                dos.writeInt(this.intern(fi.getName(cf)));
+                dos.writeInt(this.intern(fi.getDescriptor(cf)));
+
+                Object constantValue = null;
+                for (ClassFile.AttributeInfo ai : fi.getAttributes()) {
+                    if (ai instanceof ClassFile.ConstantValueAttribute) {
+                        constantValue = ((ClassFile.ConstantValueAttribute) ai).getConstantValue(cf).getValue(cf);
+                    }
+                }
+                this.writeConstant(constantValue, dos);
+            }
+
+            int methodsPosition = dos.size();
+            dos.writeShort(cf.methodInfos.size());
+            for (ClassFile.MethodInfo mi : cf.methodInfos) {
+                dos.writeShort(mi.getAccessFlags());
+                dos.writeInt(this.intern(mi.getName()));
+                dos.writeInt(this.intern(mi.getDescriptor()));
+
+                ClassFile.ConstantClassInfo[] thrownExceptions = new ClassFile.ConstantClassInfo[0];
+                for (ClassFile.AttributeInfo ai : mi.getAttributes()) {
+                    if (ai instanceof ClassFile.ExceptionsAttribute) {
+                        thrownExceptions = ((ClassFile.ExceptionsAttribute) ai).getExceptions(cf);
+                    }
+                }
+                dos.writeShort(thrownExceptions.length);
+                for (ClassFile.ConstantClassInfo cci : thrownExceptions) {
+                    dos.writeInt(this.intern(Descriptor.fromInternalForm(cci.getName(cf))));
+                }
+            }
+
+            int annotationsPosition = dos.size();
+            ClassFile.Annotation[] annotations = cf.getAnnotations(true);
+            dos.writeShort(annotations.length);
+            for (ClassFile.Annotation a : annotations) {
+                dos.writeInt(this.intern(cf.getConstantUtf8(a.typeIndex)));
+
+                // Element values that cannot be represented in the index are left out.
+                Map<Integer, Object> elementValues = new TreeMap<Integer, Object>();
+                for (Map.Entry<Short, ClassFile.ElementValue> e : a.elementValuePairs.entrySet()) {
+                    Object value = Writer.toValue((ClassFile.ElementValue) e.getValue(), cf);
+                    if (value != null) {
+                        elementValues.put(this.intern(cf.getConstantUtf8(((Short) e.getKey()).shortValue())), value);
+                    }
+                }
+                dos.writeShort(elementValues.size());
+                for (Map.Entry<Integer, Object> e : elementValues.entrySet()) {
+                    dos.writeInt(((Integer) e.getKey()).intValue());
+                    this.writeElementValue(e.getValue(), dos);
+                }
+            }
+
+            dos.flush();
+            byte[] result = baos.toByteArray();
+            ByteBuffer.wrap(result)
+            .putInt(2, fieldsPosition)
+            .putInt(6, methodsPosition)
+            .putInt(10, annotationsPosition);
+            return result;
+        }
+
+        /**
+         * @return An {@link Integer}, {@link Long}, {@link Float}, {@link Double}, {@link String}, a {@link
+         *         String}{@code []} with the descriptor and the name of an enum constant, an {@link Object}{@code
+         *         []}, or {@code null} iff the element value is (or contains) a class literal or an annotation
+         */
+        @Nullable private static Object
+        toValue(ClassFile.ElementValue elementValue, final ClassFile cf) {
+            return elementValue.accept(new ClassFile.ElementValue.Visitor<Object, RuntimeException>() {
+
+                @Override public Object
+                visitBooleanElementValue(BooleanElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitByteElementValue(ByteElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitCharElementValue(CharElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitDoubleElementValue(DoubleElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitFloatElementValue(FloatElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitIntElementValue(IntElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitLongElementValue(LongElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitShortElementValue(ShortElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override public Object
+                visitStringElementValue(StringElementValue subject) {
+                    return this.constantValue(subject.constantValueIndex);
+                }
+
+                @Override @Nullable public Object visitClassElementValue(ClassElementValue subject) { return null; }
+                @Override @Nullable public Object visitAnnotation(Annotation subject)               { return null; }
+
+                @Override public Object
+                visitEnumConstValue(EnumConstValue subject) {
+                    return new String[] {
+                        cf.getConstantUtf8(subject.typeNameIndex),
+                        cf.getConstantUtf8(subject.constNameIndex),
+                    };
+                }
+
+                @Override @Nullable public Object
+                visitArrayElementValue(ArrayElementValue subject) {
+                    Object[] result = new Object[subject.values.length];
+                    for (int i = 0; i < result.length; i++) {
+                        if ((result[i] = subject.values[i].accept(this)) == null) return null;
+                    }
+                    return result;
+                }
+
+                private Object
+                constantValue(short index) { return cf.getConstantValuePoolInfo(index).getValue(cf); }
+            });
+        }
+
+        private void
+        writeElementValue(Object value, DataOutputStream dos) throws IOException {
+            if (value instanceof String[]) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_ENUM);
+                dos.writeInt(this.intern(((String[]) value)[0]));
+                dos.writeInt(this.intern(((String[]) value)[1]));
+            } else
+            if (value instanceof Object[]) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_ARRAY);
+                dos.writeShort(((Object[]) value).length);
+                for (Object element : (Object[]) value) this.writeElementValue(element, dos);
+            } else
+            {
+                this.writeConstant(value, dos);
+            }
+        }
+
+        private void
+        writeConstant(@Nullable Object value, DataOutputStream dos) throws IOException {
+            if (value == null) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_NONE);
+            } else
+            if (value instanceof Integer) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_INT);
+                dos.writeInt(((Integer) value).intValue());
+            } else
+            if (value instanceof Long) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_LONG);
+                dos.writeLong(((Long) value).longValue());
+            } else
+            if (value instanceof Float) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_FLOAT);
+                dos.writeInt(Float.floatToRawIntBits(((Float) value).floatValue()));
+            } else
+            if (value instanceof Double) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_DOUBLE);
+                dos.writeLong(Double.doubleToRawLongBits(((Double) value).doubleValue()));
+            } else
+            if (value instanceof String) {
+                dos.writeByte(SignatureIndexIClassLoader.TAG_STRING);
+                dos.writeInt(this.intern((String) value));
+            } else
+            {
+                throw new AssertionError(value.getClass());
+            }
+        }
+
+        private int
+        internClass(ClassFile cf, short index) {
+            return this.intern(Descriptor.fromInternalForm(cf.getConstantClassInfo(index).getName(cf)));
+        }
+
+        private int
+        intern(String s) {
+            Integer result = (Integer) this.stringIndexes.get(s);
+            if (result == null) {
+                result = this.strings.size();
+                this.stringIndexes.put(s, result);
+                this.strings.add(s);
+            }
+            return result.intValue();
+        }
+
+        /**
+         * Writes the index with all classes added so far to the <var>os</var>.
+         */
+        public void
+        write(OutputStream os) throws IOException {
+
+            // Encode the strings.
+            ByteArrayOutputStream stringArea = new ByteArrayOutputStream();
+            DataOutputStream      sdos       = new DataOutputStream(stringArea);
+            int[]                 stringPositions = new int[this.strings.size()];
+            for (int i = 0; i < stringPositions.length; i++) {
+                stringPositions[i] = sdos.size();
+                sdos.writeUTF((String) this.strings.get(i));
+            }
+            sdos.flush();
+
+            int stringAreaOffset = 16 + 4 * this.strings.size() + 8 * this.records.size();
+            int recordOffset     = stringAreaOffset + stringArea.size();
+
+            DataOutputStream dos = new DataOutputStream(os);
+
+            dos.writeInt(SignatureIndexIClassLoader.MAGIC);
+            dos.writeInt(SignatureIndexIClassLoader.VERSION);
+            dos.writeInt(this.strings.size());
+            dos.writeInt(this.records.size());
+
+            for (int stringPosition : stringPositions) dos.writeInt(stringAreaOffset + stringPosition);
+
+            for (Map.Entry<String, byte[]> e : this.records.entrySet()) {
+                dos.writeInt(((Integer) this.stringIndexes.get(e.getKey())).intValue());
+                dos.writeInt(recordOffset);
+                recordOffset += ((byte[]) e.getValue()).length;
+            }
+
+            stringArea.writeTo(dos);
+            for (byte[] record : this.records.values()) dos.write(record);
+
+            dos.flush();
+        }
+    }
+}
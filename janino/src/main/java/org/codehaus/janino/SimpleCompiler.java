@@ -25,6 +25,7 @@
 
 package org.codehaus.janino;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,9 +33,19 @@ import java.io.Reader;
 import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.logging.Logger;
 
 import org.codehaus.commons.compiler.CompileException;
@@ -44,11 +55,14 @@ import org.codehaus.commons.compiler.ISimpleCompiler;
 import org.codehaus.commons.compiler.InternalCompilerException;
 import org.codehaus.commons.compiler.Location;
 import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.commons.compiler.io.Readers;
 import org.codehaus.commons.compiler.util.reflect.ByteArrayClassLoader;
+import org.codehaus.commons.compiler.util.reflect.LookupClassDefiner;
 import org.codehaus.commons.nullanalysis.Nullable;
 import org.codehaus.janino.Visitor.AtomVisitor;
 import org.codehaus.janino.Visitor.TypeVisitor;
 import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.ClassFile.ClassFileException;
 
 /**
  * To set up a {@link SimpleCompiler} object, proceed as described for {@link ISimpleCompiler}. Alternatively, a number
@@ -64,6 +78,16 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
     // Set while "cook()"ing.
     @Nullable private ClassLoaderIClassLoader classLoaderIClassLoader;
 
+    // Non-null iff an IClassLoader was configured through "setIClassLoader()".
+    @Nullable private ClassLoaderIClassLoader iClassLoader;
+
+    // Non-null iff a cache was configured through "setCache()".
+    @Nullable private EvaluatorCache cache;
+
+    // Non-null iff a lookup was configured through "setLookup()".
+    @Nullable private Object lookup;
+    private boolean          hiddenClasses;
+
 //    @Nullable private ClassLoader    result;
     @Nullable private ErrorHandler   compileErrorHandler;
     @Nullable private WarningHandler warningHandler;
@@ -72,7 +96,9 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
     private boolean debugLines  = this.debugSource;
     private boolean debugVars   = this.debugSource;
 
-    private EnumSet<JaninoOption> options = EnumSet.noneOf(JaninoOption.class);
+    private EnumSet<JaninoOption> options                  = EnumSet.noneOf(JaninoOption.class);
+    private int                   targetVersion            = UnitCompiler.defaultTargetVersion();
+    private int                   methodOutliningThreshold = UnitCompiler.defaultMethodOutliningThreshold();
 
     /**
      * {@code Null} before cooking, non-{@code null} after cooking.
@@ -182,6 +208,10 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
 
     public SimpleCompiler() {}
 
+    /**
+     * If a {@link #setIClassLoader(ClassLoaderIClassLoader) configured IClassLoader} does not load through the new
+     * <var>parentClassLoader</var>, then it is discarded.
+     */
     @Override public void
     setParentClassLoader(@Nullable ClassLoader parentClassLoader) {
         this.parentClassLoader = (
@@ -189,8 +219,102 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
             ? parentClassLoader
             : Thread.currentThread().getContextClassLoader()
         );
+
+        ClassLoaderIClassLoader icl = this.iClassLoader;
+        if (icl != null && icl.getClassLoader() != this.parentClassLoader) this.iClassLoader = null;
+    }
+
+    /**
+     * Configures the {@link IClassLoader} through which the types referenced by the compilation unit are loaded; also
+     * sets the parent class loader to {@link ClassLoaderIClassLoader#getClassLoader()}.
+     * <p>
+     *   By default, a new {@link ClassLoaderIClassLoader} is created for each {@link
+     *   #cook(Java.AbstractCompilationUnit) cook}, which means that the commonly used JDK classes and all classes
+     *   referenced by the compilation unit are loaded and analyzed again and again. Passing a long-lived (and possibly
+     *   {@link ClassLoaderIClassLoader#forClassLoader(ClassLoader) shared}) {@link ClassLoaderIClassLoader} avoids
+     *   that overhead. {@link ClassLoaderIClassLoader}s are thread-safe, so one instance may serve any number of
+     *   concurrent cooks.
+     * </p>
+     *
+     * @param iClassLoader {@code null} restores the default behavior
+     */
+    public void
+    setIClassLoader(@Nullable ClassLoaderIClassLoader iClassLoader) {
+        this.iClassLoader = iClassLoader;
+        if (iClassLoader != null) this.parentClassLoader = iClassLoader.getClassLoader();
     }
 
+    /**
+     * Configures that the generated classes are defined through the given {@code java.lang.invoke.MethodHandles.Lookup}
+     * instead of through a new {@link ClassLoader} for each cook; also sets the parent class loader to the class loader
+     * of the lookup class.
+     * <p>
+     *   By default, each cook creates one {@link ByteArrayClassLoader}, so a service that cooks many expressions
+     *   carries just as many class loaders. With a lookup, the classes are defined in the class loader of the lookup
+     *   class instead (through {@code Lookup.defineClass()}, Java 9+), so they must have unique names and must be
+     *   declared in the package of the lookup class. If <var>hiddenClasses</var> is {@code true} and the cook generates
+     *   only one class, then that class is defined as a hidden class (through {@code Lookup.defineHiddenClass()}, Java
+     *   15+), which need not have a unique name, and which is unloaded as soon as it is no longer referenced.
+     * </p>
+     * <p>
+     *   On older JVMs, the lookup is ignored and a new class loader is created as usual.
+     * </p>
+     *
+     * @param lookup {@code null} restores the default behavior
+     * @see          LookupClassDefiner
+     */
+    public void
+    setLookup(@Nullable Object lookup, boolean hiddenClasses) {
+        this.lookup        = lookup;
+        this.hiddenClasses = hiddenClasses;
+        if (lookup != null && LookupClassDefiner.isAvailable()) {
+            this.setParentClassLoader(LookupClassDefiner.lookupClass(lookup).getClassLoader());
+        }
+    }
+
+    /**
+     * Sets the Java version (6, 7, 8, ...) of the class files that are generated by future cooks.
+     *
+     * @see UnitCompiler#setTargetVersion(int)
+     */
+    public void
+    setTargetVersion(int targetVersion) {
+        if (targetVersion < 6) throw new IllegalArgumentException("Target version " + targetVersion + " not supported");
+        this.targetVersion = targetVersion;
+    }
+
+    /**
+     * Sets the estimated byte code size above which future cooks move statements out of a method, iff {@link
+     * JaninoOption#METHOD_OUTLINING} is enabled.
+     *
+     * @see UnitCompiler#setMethodOutliningThreshold(int)
+     */
+    public void
+    setMethodOutliningThreshold(int threshold) {
+        this.methodOutliningThreshold = UnitCompiler.checkMethodOutliningThreshold(threshold);
+    }
+
+    /**
+     * Configures a cache for the results of {@link #cook(String, Reader)}: If the cache already holds the result of
+     * cooking the same source text with the same settings (and the same parent class loader), then no compilation takes
+     * place, and the cached classes are used instead.
+     * <p>
+     *   Notice that all {@link SimpleCompiler}s that get the same cache entry share the same {@link Class}es, including
+     *   their static fields.
+     * </p>
+     *
+     * @param cache {@code null} disables caching
+     * @see         EvaluatorCache
+     */
+    public void
+    setCache(@Nullable EvaluatorCache cache) { this.cache = cache; }
+
+    /**
+     * @return The {@link #setCache(EvaluatorCache) configured cache}, or {@code null}
+     */
+    @Nullable EvaluatorCache
+    getCache() { return this.cache; }
+
     @Override public void
     setDebuggingInformation(boolean debugSource, boolean debugLines, boolean debugVars) {
         this.debugSource = debugSource;
@@ -203,8 +327,74 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
      * #getClassLoader()} returns a {@link ClassLoader} that allows for access to the compiled classes.
      */
     @Override public final void
-    cook(@Nullable String fileName, Reader r) throws CompileException, IOException {
-        this.cook(new Scanner(fileName, r));
+    cook(@Nullable final String fileName, Reader r) throws CompileException, IOException {
+
+        if (this.cache == null) {
+            this.cook(new Scanner(fileName, r));
+            return;
+        }
+
+        final String text = Readers.readAll(r);
+
+        EvaluatorCache.KeyBuilder kb = new EvaluatorCache.KeyBuilder().add(this.getClass().getName());
+        this.addCacheKey(kb);
+        kb.add(fileName).add(text);
+
+        this.cook(kb, new EvaluatorCache.Compilation() {
+
+            @Override public void
+            compile() throws CompileException, IOException {
+                SimpleCompiler.this.cook(Scanner.ofCharSequence(fileName, text));
+            }
+        });
+    }
+
+    @Override public void
+    cook(@Nullable String fileName, String s) throws CompileException {
+
+        if (this.cache != null) {
+            super.cook(fileName, s);
+            return;
+        }
+
+        try {
+            this.cook(Scanner.ofCharSequence(fileName, s));
+        } catch (IOException ioe) {
+            throw new InternalCompilerException("SNO: IOException despite CharSequence", ioe);
+        }
+    }
+
+    /**
+     * Adds the settings of this {@link SimpleCompiler} that affect the generated bytecode to the cache key.
+     */
+    void
+    addCacheKey(EvaluatorCache.KeyBuilder kb) {
+        kb.add(this.debugSource).add(this.debugLines).add(this.debugVars);
+        kb.add(this.getLookupClass()).add(this.hiddenClasses);
+        kb.add(this.targetVersion).add(this.methodOutliningThreshold);
+        kb.add(this.options.size());
+        for (JaninoOption o : this.options) kb.add(o.name());
+    }
+
+    /**
+     * Looks up the {@link #setCache(EvaluatorCache) configured cache}; iff there is no entry for the key, runs the
+     * <var>compilation</var>, which must cook this {@link SimpleCompiler}, and stores the result in the cache.
+     * Otherwise, this {@link SimpleCompiler} takes on the cached bytecode and class loader.
+     */
+    void
+    cook(EvaluatorCache.KeyBuilder kb, EvaluatorCache.Compilation compilation) throws CompileException, IOException {
+
+        EvaluatorCache cache = this.cache;
+        assert cache != null;
+
+        EvaluatorCache.Key   key   = kb.toKey(this.parentClassLoader, this.getLookupClass());
+        EvaluatorCache.Entry entry = cache.get(key, this, compilation);
+
+        // Cache hit?
+        if (this.classFiles == null) {
+            this.getBytecodesCache   = entry.bytecodes;
+            this.getClassLoaderCache = entry.classLoader;
+        }
     }
 
     /**
@@ -226,20 +416,173 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
 
         this.assertUncooked();
 
-        IClassLoader icl = (this.classLoaderIClassLoader = new ClassLoaderIClassLoader(this.parentClassLoader));
+        ClassLoaderIClassLoader icl = this.iClassLoader;
+        if (icl == null) icl = new ClassLoaderIClassLoader(this.parentClassLoader);
+
+        this.classLoaderIClassLoader = icl;
         try {
 
             // Compile compilation unit to class files.
-            UnitCompiler unitCompiler = new UnitCompiler(abstractCompilationUnit, icl).options(this.options);
-            unitCompiler.setCompileErrorHandler(this.compileErrorHandler);
-            unitCompiler.setWarningHandler(this.warningHandler);
+            this.classFiles = this.compileUnit(abstractCompilationUnit, icl);
+        } finally {
+            this.classLoaderIClassLoader = null;
+        }
+    }
+
+    /**
+     * Produces the compilation unit for the "items" <var>from</var> (inclusive) through <var>to</var> (exclusive);
+     * see {@link SimpleCompiler#cook(Executor, int, int, ShardFactory)}. Is invoked concurrently.
+     */
+    interface ShardFactory {
+        Java.AbstractCompilationUnit newCompilationUnit(int from, int to) throws CompileException;
+    }
+
+    /**
+     * Splits the "items" 0 ... <var>count</var>-1 into shards of at most <var>shardSize</var> items, and compiles the
+     * compilation units produced by the <var>shardFactory</var> concurrently on the <var>executor</var>. A shard
+     * whose class file exceeds the limits of the JVM (the size of the constant pool, or the number of methods) is
+     * split in two halves, which are then compiled anew. Eventually all generated class files are loaded through
+     * one class loader.
+     * <p>
+     *   Notice that the {@link #setCompileErrorHandler(ErrorHandler) compile error handler} and the {@link
+     *   #setWarningHandler(WarningHandler) warning handler} are invoked concurrently.
+     * </p>
+     */
+    void
+    cook(Executor executor, int count, int shardSize, ShardFactory shardFactory) throws CompileException {
+
+        this.assertUncooked();
+
+        ClassLoaderIClassLoader icl = this.iClassLoader;
+        if (icl == null) icl = new ClassLoaderIClassLoader(this.parentClassLoader);
+
+        this.classLoaderIClassLoader = icl;
+        try {
+            CompletionService<Shard> cs = new ExecutorCompletionService<Shard>(executor);
+
+            int pending = 0;
+            for (int from = 0; from < count; from += shardSize) {
+                this.submitShard(cs, from, Math.min(from + shardSize, count), shardFactory, icl);
+                pending++;
+            }
 
-            this.classFiles = unitCompiler.compileUnit(this.debugSource, this.debugLines, this.debugVars);
+            // Collect the class files in shard order, so that the result is reproducible.
+            SortedMap<Integer /*from*/, ClassFile[]> classFiless = new TreeMap<Integer, ClassFile[]>();
+            for (; pending > 0; pending--) {
+
+                Shard shard;
+                try {
+                    shard = (Shard) cs.take().get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalCompilerException("Interrupted while compiling shards", ie);
+                } catch (ExecutionException ee) {
+                    Throwable t = ee.getCause();
+                    if (t instanceof CompileException) throw (CompileException) t;
+                    if (t instanceof RuntimeException) throw (RuntimeException) t;
+                    if (t instanceof Error)            throw (Error) t;
+                    throw new InternalCompilerException(String.valueOf(t), t);
+                }
+
+                ClassFile[] cfs = shard.classFiles;
+                if (cfs == null) {
+                    int mid = (shard.from + shard.to) >>> 1;
+                    this.submitShard(cs, shard.from, mid, shardFactory, icl);
+                    this.submitShard(cs, mid, shard.to, shardFactory, icl);
+                    pending += 2;
+                    continue;
+                }
+                classFiless.put(shard.from, cfs);
+            }
+
+            List<ClassFile> result = new ArrayList<ClassFile>();
+            for (ClassFile[] cfs : classFiless.values()) result.addAll(Arrays.asList(cfs));
+
+            this.classFiles = (ClassFile[]) result.toArray(new ClassFile[result.size()]);
         } finally {
             this.classLoaderIClassLoader = null;
         }
     }
 
+    /**
+     * The result of compiling one shard; {@link #classFiles} is {@code null} iff the shard exceeded the JVM limits
+     * and must be split.
+     */
+    private static
+    class Shard {
+
+        final int                   from, to;
+        @Nullable final ClassFile[] classFiles;
+
+        Shard(int from, int to, @Nullable ClassFile[] classFiles) {
+            this.from       = from;
+            this.to         = to;
+            this.classFiles = classFiles;
+        }
+    }
+
+    private void
+    submitShard(
+        CompletionService<Shard>      cs,
+        final int                     from,
+        final int                     to,
+        final ShardFactory            shardFactory,
+        final ClassLoaderIClassLoader icl
+    ) {
+        cs.submit(new Callable<Shard>() {
+
+            @Override public Shard
+            call() throws CompileException {
+
+                ClassFile[] cfs;
+                try {
+                    cfs = SimpleCompiler.this.compileUnit(shardFactory.newCompilationUnit(from, to), icl);
+                } catch (CompileException ce) {
+                    if (to - from == 1 || !SimpleCompiler.isClassFileOverflow(ce)) throw ce;
+                    return new Shard(from, to, null);
+                } catch (RuntimeException re) {
+                    if (to - from == 1 || !SimpleCompiler.isClassFileOverflow(re)) throw re;
+                    return new Shard(from, to, null);
+                }
+
+                if (to - from > 1) {
+                    for (ClassFile cf : cfs) {
+                        if (cf.methodInfos.size() > 0xffff) return new Shard(from, to, null);
+                    }
+                }
+
+                return new Shard(from, to, cfs);
+            }
+        });
+    }
+
+    /**
+     * @return Whether the <var>t</var> was caused by the overflow of a class file, typically of its constant pool
+     */
+    private static boolean
+    isClassFileOverflow(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof ClassFileException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the given compilation unit with the settings of this {@link SimpleCompiler}.
+     */
+    private ClassFile[]
+    compileUnit(Java.AbstractCompilationUnit abstractCompilationUnit, ClassLoaderIClassLoader icl)
+    throws CompileException {
+
+        UnitCompiler unitCompiler = new UnitCompiler(abstractCompilationUnit, icl).options(this.options);
+        unitCompiler.setTargetVersion(this.targetVersion);
+        unitCompiler.setMethodOutliningThreshold(this.methodOutliningThreshold);
+        unitCompiler.setCompileErrorHandler(this.compileErrorHandler);
+        unitCompiler.setWarningHandler(this.warningHandler);
+
+        return unitCompiler.compileUnit(this.debugSource, this.debugLines, this.debugVars);
+    }
+
     /**
      * @return The {@link ClassFile}s that were generated during cooking
      */
@@ -272,9 +615,22 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
     @Nullable private ClassLoader getClassLoaderCache;
 
     private ClassLoader
-    getClassLoader2() {
+    getClassLoader2() { return this.defineClasses(this.getBytecodes()); }
 
-        final Map<String, byte[]> bytecode = this.getBytecodes();
+    /**
+     * Defines the <var>bytecode</var> through the {@link #setLookup(Object, boolean) configured lookup}, or into a new
+     * {@link ClassLoader}.
+     *
+     * @return A {@link ClassLoader} that loads the defined classes by their names
+     */
+    ClassLoader
+    defineClasses(final Map<String /*className*/, byte[] /*data*/> bytecode) {
+
+        // Define the generated classes through the configured lookup.
+        Object lookup = this.lookup;
+        if (lookup != null && LookupClassDefiner.isAvailable()) {
+            return LookupClassDefiner.defineClasses(lookup, bytecode, this.hiddenClasses);
+        }
 
         // Create a ClassLoader that loads the generated classes.
         return (ClassLoader) AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
@@ -289,6 +645,16 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
         });
     }
 
+    /**
+     * @return The class of the {@link #setLookup(Object, boolean) configured lookup}, or {@code null} iff no lookup is
+     *         configured, or the running JVM cannot define classes through a lookup
+     */
+    @Nullable private Class<?>
+    getLookupClass() {
+        Object lookup = this.lookup;
+        return lookup != null && LookupClassDefiner.isAvailable() ? LookupClassDefiner.lookupClass(lookup) : null;
+    }
+
     /**
      * Two {@link SimpleCompiler}s are regarded equal iff
      * <ul>
@@ -461,7 +827,9 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
      */
     private void
     assertUncooked() {
-        if (this.classFiles != null) throw new IllegalStateException("Must only be called before \"cook()\"");
+        if (this.classFiles != null || this.getBytecodesCache != null) {
+            throw new IllegalStateException("Must only be called before \"cook()\"");
+        }
     }
 
     /**
@@ -473,8 +841,22 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
     assertCooked() {
 
         ClassFile[] result = this.classFiles;
-        if (result == null) throw new IllegalStateException("Must only be called after \"cook()\"");
+        if (result != null) return result;
+
+        // Cooked through the cache? Then re-create the class files from the cached bytecode.
+        Map<String /*className*/, byte[] /*bytecode*/> bytecodes = this.getBytecodesCache;
+        if (bytecodes == null) throw new IllegalStateException("Must only be called after \"cook()\"");
+
+        result = new ClassFile[bytecodes.size()];
+        int i = 0;
+        for (byte[] ba : bytecodes.values()) {
+            try {
+                result[i++] = new ClassFile(new ByteArrayInputStream(ba));
+            } catch (IOException ioe) {
+                throw new InternalCompilerException(ioe.getMessage(), ioe);
+            }
+        }
 
-        return result;
+        return (this.classFiles = result);
     }
 }
@@ -43,6 +43,15 @@ class StackMap {
         this.operands  = (VerificationTypeInfo[]) operands.clone();
     }
 
+    /**
+     * Creates a {@link StackMap} with the same local variable stack as <var>base</var>, and the first
+     * <var>operandCount</var> elements of <var>operands</var> as the operand stack.
+     */
+    StackMap(StackMap base, VerificationTypeInfo[] operands, int operandCount) {
+        this.locals   = base.locals;
+        this.operands = (VerificationTypeInfo[]) Arrays.copyOf(operands, operandCount);
+    }
+
     // -----------------------
 
     /**
@@ -98,6 +107,18 @@ class StackMap {
     VerificationTypeInfo[]
     operands() { return (VerificationTypeInfo[]) this.operands.clone(); }
 
+    /**
+     * @return The number of elements on the operand stack
+     */
+    int
+    operandCount() { return this.operands.length; }
+
+    /**
+     * Copies the operand stack into the first elements of <var>dest</var>.
+     */
+    void
+    getOperands(VerificationTypeInfo[] dest) { System.arraycopy(this.operands, 0, dest, 0, this.operands.length); }
+
     // -----------------------
 
     private static VerificationTypeInfo[]
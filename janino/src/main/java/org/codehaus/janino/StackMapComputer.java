@@ -0,0 +1,1064 @@
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ * Copyright (c) 2015-2016 TIBCO Software Inc. All rights reserved. // CHECKSTYLE:OFF CHECKSTYLE:ON
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.commons.compiler.InternalCompilerException;
+import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.ClassFile.ConstantClassInfo;
+import org.codehaus.janino.util.ClassFile.ConstantFieldrefInfo;
+import org.codehaus.janino.util.ClassFile.ConstantInterfaceMethodrefInfo;
+import org.codehaus.janino.util.ClassFile.ConstantInvokeDynamicInfo;
+import org.codehaus.janino.util.ClassFile.ConstantMethodHandleInfo;
+import org.codehaus.janino.util.ClassFile.ConstantMethodTypeInfo;
+import org.codehaus.janino.util.ClassFile.ConstantMethodrefInfo;
+import org.codehaus.janino.util.ClassFile.ConstantPoolInfo;
+import org.codehaus.janino.util.ClassFile.ConstantValuePoolInfo;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.AppendFrame;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.ChopFrame;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.FullFrame;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.ObjectVariableInfo;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.SameFrame;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.SameFrameExtended;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.SameLocals1StackItemFrame;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.SameLocals1StackItemFrameExtended;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.StackMapFrame;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.UninitializedVariableInfo;
+import org.codehaus.janino.util.ClassFile.StackMapTableAttribute.VerificationTypeInfo;
+
+/**
+ * Computes the frames of the "StackMapTable" attribute (JVMS8 4.7.4) of a method by data-flow analysis of its final
+ * byte code.
+ * <p>
+ *   As of class file version 51, the JVM verifies exclusively by type checking (JVMS8 4.10.1) and no longer falls
+ *   back to type inference, so the frames must be exact: Present at every branch target, exception handler and
+ *   instruction that follows an unconditional transfer of control, and with the least upper bound of the merged
+ *   reference types.
+ * </p>
+ * <p>
+ *   Unreachable code is replaced with {@code NOP ... ATHROW} and removed from the exception table, because no
+ *   meaningful frame can be computed for it.
+ * </p>
+ * <p>
+ *   Verification types are represented as strings: {@code "I"}, {@code "F"}, {@code "J"} and {@code "D"} for the
+ *   primitive types (the second slot of a {@code long} or {@code double} is {@code "2"}), {@code "T"} for "top",
+ *   {@code "N"} for "null", {@code "U"} for "uninitializedThis", {@code "u<offset>"} for "uninitialized(offset)", and
+ *   field descriptors for class and array types.
+ * </p>
+ */
+final
+class StackMapComputer {
+
+    /**
+     * Provides the superclass relationships that are required to compute the least upper bound of two class types.
+     */
+    interface ClassHierarchy {
+
+        /**
+         * @return The descriptor of the superclass of the class designated by <var>classFd</var>; {@link
+         *         Descriptor#JAVA_LANG_OBJECT} if that is an interface; {@code null} iff it is {@code
+         *         java.lang.Object} or cannot be loaded
+         */
+        @Nullable String getSuperclassDescriptor(String classFd);
+    }
+
+    private static final String TOP                = "T";
+    private static final String SECOND_HALF        = "2";
+    private static final String NULL               = "N";
+    private static final String UNINITIALIZED_THIS = "U";
+
+    private final ClassFile      classFile;
+    private final String         thisFd;
+    private final short          accessFlags;
+    private final String         methodName;
+    private final String         methodDescriptor;
+    private final byte[]         code;
+    private final int            codeLength;
+    private final int            maxLocals;
+    private final ClassHierarchy classHierarchy;
+
+    /**
+     * The exception table entries; each is {@code { start_pc, end_pc, handler_pc, catch_type }}.
+     */
+    private List<int[]> exceptionTable;
+
+    /**
+     * The locals and the operand stack at the start of each reachable instruction.
+     */
+    private final String[][] frameLocals, frameStacks;
+
+    /**
+     * The offsets where the "StackMapTable" must declare a frame.
+     */
+    private final boolean[] framePoints;
+
+    /**
+     * Whether the instruction at an offset is currently on the worklist.
+     */
+    private final boolean[] queued;
+
+    private boolean                   hasUnreachableCode;
+    private final Map<String, String> superclassCache = new HashMap<String, String>();
+
+    StackMapComputer(
+        ClassFile      classFile,
+        short          accessFlags,
+        String         methodName,
+        String         methodDescriptor,
+        byte[]         code,
+        int            codeLength,
+        int            maxLocals,
+        List<int[]>    exceptionTable,
+        ClassHierarchy classHierarchy
+    ) {
+        this.classFile        = classFile;
+        this.thisFd           = Descriptor.fromClassName(classFile.getThisClassName());
+        this.accessFlags      = accessFlags;
+        this.methodName       = methodName;
+        this.methodDescriptor = methodDescriptor;
+        this.code             = code;
+        this.codeLength       = codeLength;
+        this.maxLocals        = maxLocals;
+        this.exceptionTable   = exceptionTable;
+        this.classHierarchy   = classHierarchy;
+        this.frameLocals      = new String[codeLength][];
+        this.frameStacks      = new String[codeLength][];
+        this.framePoints      = new boolean[codeLength];
+        this.queued           = new boolean[codeLength];
+    }
+
+    /**
+     * Analyzes the byte code, replaces unreachable code (see {@link #hasUnreachableCode()}), and computes the frames.
+     *
+     * @return The frames for the "StackMapTable" attribute
+     */
+    StackMapFrame[]
+    compute() {
+
+        String[] initialLocals = this.initialLocals();
+
+        // Propagate the frames until a fixed point is reached.
+        LinkedList<Integer> worklist = new LinkedList<Integer>();
+        this.merge(0, initialLocals, new String[0], worklist);
+        while (!worklist.isEmpty()) {
+            int pc = (Integer) worklist.removeFirst();
+            this.queued[pc] = false;
+            this.analyze(pc, worklist);
+        }
+
+        this.replaceUnreachableCode();
+
+        for (int[] ete : this.exceptionTable) this.framePoints[ete[2]] = true;
+
+        // Generate the frames, compressed relative to the preceding frame where possible.
+        List<StackMapFrame> result         = new ArrayList<StackMapFrame>();
+        List<String>        previousLocals = StackMapComputer.compact(initialLocals);
+        int                 previousOffset = -1;
+        for (int offset = 0; offset < this.codeLength; offset++) {
+            if (!this.framePoints[offset]) continue;
+
+            List<String> locals = StackMapComputer.compact(this.frameLocals[offset]);
+            List<String> stack  = StackMapComputer.compact(this.frameStacks[offset]);
+            result.add(this.frame(offset - previousOffset - 1, previousLocals, locals, stack));
+
+            previousLocals = locals;
+            previousOffset = offset;
+        }
+
+        return (StackMapFrame[]) result.toArray(new StackMapFrame[result.size()]);
+    }
+
+    /**
+     * @return Whether {@link #compute()} replaced unreachable code with {@code NOP ... ATHROW}, and thus the method
+     *         requires an operand stack of at least one element
+     */
+    boolean
+    hasUnreachableCode() { return this.hasUnreachableCode; }
+
+    /**
+     * @return The exception table without the ranges of unreachable code; each entry is {@code { start_pc, end_pc,
+     *         handler_pc, catch_type }}
+     */
+    List<int[]>
+    getExceptionTable() { return this.exceptionTable; }
+
+    private String[]
+    initialLocals() {
+
+        String[] result = new String[this.maxLocals];
+        Arrays.fill(result, StackMapComputer.TOP);
+
+        int slot = 0;
+        if (!Mod.isStatic(this.accessFlags)) {
+            result[slot++] = (
+                "<init>".equals(this.methodName) && !Descriptor.JAVA_LANG_OBJECT.equals(this.thisFd)
+                ? StackMapComputer.UNINITIALIZED_THIS
+                : this.thisFd
+            );
+        }
+        for (String parameterFd : new MethodDescriptor(this.methodDescriptor).parameterFds) {
+            StackMapComputer.store(result, slot, StackMapComputer.verificationType(parameterFd));
+            slot += Descriptor.size(parameterFd);
+        }
+
+        return result;
+    }
+
+    /**
+     * Simulates the instruction at <var>pc</var>, and merges the resulting frame into its successors and exception
+     * handlers.
+     */
+    private void
+    analyze(int pc, LinkedList<Integer> worklist) {
+
+        String[]     locals = (String[]) this.frameLocals[pc].clone();
+        List<String> stack  = new ArrayList<String>(Arrays.asList(this.frameStacks[pc]));
+
+        int     opcode        = 0xff & this.code[pc];
+        int     nextPc        = pc + this.instructionLength(pc);
+        boolean fallsThrough  = true;
+        int[]   branchTargets = null;
+
+        switch (opcode) {
+
+        case Opcode.NOP:
+            break;
+
+        case Opcode.ACONST_NULL:
+            stack.add(StackMapComputer.NULL);
+            break;
+
+        case Opcode.ICONST_M1: case Opcode.ICONST_0: case Opcode.ICONST_1: case Opcode.ICONST_2:
+        case Opcode.ICONST_3: case Opcode.ICONST_4: case Opcode.ICONST_5:
+        case Opcode.BIPUSH:    case Opcode.SIPUSH:
+            StackMapComputer.push(stack, "I");
+            break;
+
+        case Opcode.LCONST_0: case Opcode.LCONST_1:
+            StackMapComputer.push(stack, "J");
+            break;
+
+        case Opcode.FCONST_0: case Opcode.FCONST_1: case Opcode.FCONST_2:
+            StackMapComputer.push(stack, "F");
+            break;
+
+        case Opcode.DCONST_0: case Opcode.DCONST_1:
+            StackMapComputer.push(stack, "D");
+            break;
+
+        case Opcode.LDC:
+            StackMapComputer.push(stack, this.constantType(0xff & this.code[pc + 1]));
+            break;
+
+        case Opcode.LDC_W: case Opcode.LDC2_W:
+            StackMapComputer.push(stack, this.constantType(this.u2(pc + 1)));
+            break;
+
+        case Opcode.ILOAD: case Opcode.LLOAD: case Opcode.FLOAD: case Opcode.DLOAD: case Opcode.ALOAD:
+            this.load(locals, stack, opcode - Opcode.ILOAD, 0xff & this.code[pc + 1]);
+            break;
+
+        case Opcode.ILOAD_0: case Opcode.ILOAD_1: case Opcode.ILOAD_2: case Opcode.ILOAD_3:
+        case Opcode.LLOAD_0: case Opcode.LLOAD_1: case Opcode.LLOAD_2: case Opcode.LLOAD_3:
+        case Opcode.FLOAD_0: case Opcode.FLOAD_1: case Opcode.FLOAD_2: case Opcode.FLOAD_3:
+        case Opcode.DLOAD_0: case Opcode.DLOAD_1: case Opcode.DLOAD_2: case Opcode.DLOAD_3:
+        case Opcode.ALOAD_0: case Opcode.ALOAD_1: case Opcode.ALOAD_2: case Opcode.ALOAD_3:
+            this.load(locals, stack, (opcode - Opcode.ILOAD_0) / 4, (opcode - Opcode.ILOAD_0) % 4);
+            break;
+
+        case Opcode.IALOAD: case Opcode.BALOAD: case Opcode.CALOAD: case Opcode.SALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "I");
+            break;
+
+        case Opcode.LALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "J");
+            break;
+
+        case Opcode.FALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "F");
+            break;
+
+        case Opcode.DALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "D");
+            break;
+
+        case Opcode.AALOAD:
+            {
+                StackMapComputer.pop(stack, 1);
+                String arrayType = StackMapComputer.pop(stack, 1);
+                StackMapComputer.push(
+                    stack,
+                    Descriptor.isArrayReference(arrayType) ? arrayType.substring(1) : StackMapComputer.NULL
+                );
+            }
+            break;
+
+        case Opcode.ISTORE: case Opcode.LSTORE: case Opcode.FSTORE: case Opcode.DSTORE: case Opcode.ASTORE:
+            this.store(locals, stack, 0xff & this.code[pc + 1]);
+            break;
+
+        case Opcode.ISTORE_0: case Opcode.ISTORE_1: case Opcode.ISTORE_2: case Opcode.ISTORE_3:
+        case Opcode.LSTORE_0: case Opcode.LSTORE_1: case Opcode.LSTORE_2: case Opcode.LSTORE_3:
+        case Opcode.FSTORE_0: case Opcode.FSTORE_1: case Opcode.FSTORE_2: case Opcode.FSTORE_3:
+        case Opcode.DSTORE_0: case Opcode.DSTORE_1: case Opcode.DSTORE_2: case Opcode.DSTORE_3:
+        case Opcode.ASTORE_0: case Opcode.ASTORE_1: case Opcode.ASTORE_2: case Opcode.ASTORE_3:
+            this.store(locals, stack, (opcode - Opcode.ISTORE_0) % 4);
+            break;
+
+        case Opcode.IASTORE: case Opcode.FASTORE: case Opcode.AASTORE:
+        case Opcode.BASTORE: case Opcode.CASTORE: case Opcode.SASTORE:
+            StackMapComputer.pop(stack, 3);
+            break;
+
+        case Opcode.LASTORE: case Opcode.DASTORE:
+            StackMapComputer.pop(stack, 4);
+            break;
+
+        case Opcode.POP:
+        case Opcode.MONITORENTER: case Opcode.MONITOREXIT:
+            StackMapComputer.pop(stack, 1);
+            break;
+
+        case Opcode.POP2:
+            StackMapComputer.pop(stack, 2);
+            break;
+
+        case Opcode.DUP:
+            StackMapComputer.dup(stack, 1, 0);
+            break;
+
+        case Opcode.DUP_X1:
+            StackMapComputer.dup(stack, 1, 1);
+            break;
+
+        case Opcode.DUP_X2:
+            StackMapComputer.dup(stack, 1, 2);
+            break;
+
+        case Opcode.DUP2:
+            StackMapComputer.dup(stack, 2, 0);
+            break;
+
+        case Opcode.DUP2_X1:
+            StackMapComputer.dup(stack, 2, 1);
+            break;
+
+        case Opcode.DUP2_X2:
+            StackMapComputer.dup(stack, 2, 2);
+            break;
+
+        case Opcode.SWAP:
+            stack.add(stack.remove(stack.size() - 2));
+            break;
+
+        case Opcode.IADD: case Opcode.ISUB: case Opcode.IMUL: case Opcode.IDIV: case Opcode.IREM:
+        case Opcode.ISHL: case Opcode.ISHR: case Opcode.IUSHR: case Opcode.IAND: case Opcode.IOR: case Opcode.IXOR:
+        case Opcode.FCMPL: case Opcode.FCMPG:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "I");
+            break;
+
+        case Opcode.FADD: case Opcode.FSUB: case Opcode.FMUL: case Opcode.FDIV: case Opcode.FREM:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "F");
+            break;
+
+        case Opcode.LADD: case Opcode.LSUB: case Opcode.LMUL: case Opcode.LDIV: case Opcode.LREM:
+        case Opcode.LAND: case Opcode.LOR:  case Opcode.LXOR:
+            StackMapComputer.pop(stack, 4);
+            StackMapComputer.push(stack, "J");
+            break;
+
+        case Opcode.LSHL: case Opcode.LSHR: case Opcode.LUSHR:
+            StackMapComputer.pop(stack, 3);
+            StackMapComputer.push(stack, "J");
+            break;
+
+        case Opcode.DADD: case Opcode.DSUB: case Opcode.DMUL: case Opcode.DDIV: case Opcode.DREM:
+            StackMapComputer.pop(stack, 4);
+            StackMapComputer.push(stack, "D");
+            break;
+
+        case Opcode.LCMP: case Opcode.DCMPL: case Opcode.DCMPG:
+            StackMapComputer.pop(stack, 4);
+            StackMapComputer.push(stack, "I");
+            break;
+
+        case Opcode.INEG: case Opcode.LNEG: case Opcode.FNEG: case Opcode.DNEG:
+        case Opcode.IINC:
+        case Opcode.I2B:  case Opcode.I2C:  case Opcode.I2S:
+            break;
+
+        case Opcode.I2L: case Opcode.F2L:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, "J");
+            break;
+
+        case Opcode.I2F:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, "F");
+            break;
+
+        case Opcode.I2D: case Opcode.F2D:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, "D");
+            break;
+
+        case Opcode.L2I: case Opcode.D2I:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "I");
+            break;
+
+        case Opcode.L2F: case Opcode.D2F:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "F");
+            break;
+
+        case Opcode.L2D:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "D");
+            break;
+
+        case Opcode.D2L:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, "J");
+            break;
+
+        case Opcode.F2I:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, "I");
+            break;
+
+        case Opcode.IFEQ: case Opcode.IFNE: case Opcode.IFLT: case Opcode.IFGE: case Opcode.IFGT: case Opcode.IFLE:
+        case Opcode.IFNULL: case Opcode.IFNONNULL:
+            StackMapComputer.pop(stack, 1);
+            branchTargets = new int[] { pc + (short) this.u2(pc + 1) };
+            break;
+
+        case Opcode.IF_ICMPEQ: case Opcode.IF_ICMPNE: case Opcode.IF_ICMPLT:
+        case Opcode.IF_ICMPGE: case Opcode.IF_ICMPGT: case Opcode.IF_ICMPLE:
+        case Opcode.IF_ACMPEQ: case Opcode.IF_ACMPNE:
+            StackMapComputer.pop(stack, 2);
+            branchTargets = new int[] { pc + (short) this.u2(pc + 1) };
+            break;
+
+        case Opcode.GOTO:
+            branchTargets = new int[] { pc + (short) this.u2(pc + 1) };
+            fallsThrough  = false;
+            break;
+
+        case Opcode.GOTO_W:
+            branchTargets = new int[] { pc + this.s4(pc + 1) };
+            fallsThrough  = false;
+            break;
+
+        case Opcode.TABLESWITCH:
+            {
+                StackMapComputer.pop(stack, 1);
+                int p    = (pc + 4) & ~3;
+                int low  = this.s4(p + 4);
+                int high = this.s4(p + 8);
+                branchTargets    = new int[high - low + 2];
+                branchTargets[0] = pc + this.s4(p);
+                for (int i = 1; i < branchTargets.length; i++) branchTargets[i] = pc + this.s4(p + 8 + 4 * i);
+                fallsThrough = false;
+            }
+            break;
+
+        case Opcode.LOOKUPSWITCH:
+            {
+                StackMapComputer.pop(stack, 1);
+                int p      = (pc + 4) & ~3;
+                int npairs = this.s4(p + 4);
+                branchTargets    = new int[npairs + 1];
+                branchTargets[0] = pc + this.s4(p);
+                for (int i = 1; i <= npairs; i++) branchTargets[i] = pc + this.s4(p + 8 * i + 4);
+                fallsThrough = false;
+            }
+            break;
+
+        case Opcode.IRETURN: case Opcode.LRETURN: case Opcode.FRETURN: case Opcode.DRETURN: case Opcode.ARETURN:
+        case Opcode.RETURN:
+        case Opcode.ATHROW:
+            stack.clear();
+            fallsThrough = false;
+            break;
+
+        case Opcode.GETSTATIC:
+            StackMapComputer.push(stack, this.fieldType(pc));
+            break;
+
+        case Opcode.PUTSTATIC:
+            StackMapComputer.pop(stack, Descriptor.size(this.fieldType(pc)));
+            break;
+
+        case Opcode.GETFIELD:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, this.fieldType(pc));
+            break;
+
+        case Opcode.PUTFIELD:
+            StackMapComputer.pop(stack, Descriptor.size(this.fieldType(pc)) + 1);
+            break;
+
+        case Opcode.INVOKEVIRTUAL: case Opcode.INVOKESPECIAL: case Opcode.INVOKESTATIC: case Opcode.INVOKEINTERFACE:
+        case Opcode.INVOKEDYNAMIC:
+            this.invoke(pc, opcode, locals, stack);
+            break;
+
+        case Opcode.NEW:
+            stack.add("u" + pc);
+            break;
+
+        case Opcode.NEWARRAY:
+            StackMapComputer.pop(stack, 1);
+            stack.add("[" + "ZCFDBSIJ".charAt(this.code[pc + 1] - 4));
+            break;
+
+        case Opcode.ANEWARRAY:
+            StackMapComputer.pop(stack, 1);
+            stack.add("[" + this.classType(this.u2(pc + 1)));
+            break;
+
+        case Opcode.ARRAYLENGTH:
+        case Opcode.INSTANCEOF:
+            StackMapComputer.pop(stack, 1);
+            stack.add("I");
+            break;
+
+        case Opcode.CHECKCAST:
+            StackMapComputer.pop(stack, 1);
+            stack.add(this.classType(this.u2(pc + 1)));
+            break;
+
+        case Opcode.WIDE:
+            {
+                int wideOpcode = 0xff & this.code[pc + 1];
+                int index      = this.u2(pc + 2);
+                if (wideOpcode >= Opcode.ILOAD && wideOpcode <= Opcode.ALOAD) {
+                    this.load(locals, stack, wideOpcode - Opcode.ILOAD, index);
+                } else
+                if (wideOpcode >= Opcode.ISTORE && wideOpcode <= Opcode.ASTORE) {
+                    this.store(locals, stack, index);
+                } else
+                if (wideOpcode != Opcode.IINC) {
+                    throw new InternalCompilerException("Unexpected opcode " + wideOpcode + " after WIDE");
+                }
+            }
+            break;
+
+        case Opcode.MULTIANEWARRAY:
+            StackMapComputer.pop(stack, 0xff & this.code[pc + 3]);
+            stack.add(this.classType(this.u2(pc + 1)));
+            break;
+
+        default:
+            throw new InternalCompilerException(
+                "Cannot compute stack map frames for opcode " + opcode + " at offset " + pc
+            );
+        }
+
+        // Merge the locals before and after the instruction into the frames of all exception handlers that cover it.
+        for (int[] ete : this.exceptionTable) {
+            if (pc < ete[0] || pc >= ete[1]) continue;
+
+            String[] handlerStack = {
+                ete[3] == 0 ? Descriptor.JAVA_LANG_THROWABLE : this.classType(ete[3])
+            };
+            this.merge(ete[2], this.frameLocals[pc], handlerStack, worklist);
+            this.merge(ete[2], locals, handlerStack, worklist);
+        }
+
+        String[] stackArray = (String[]) stack.toArray(new String[stack.size()]);
+        if (fallsThrough) {
+            if (nextPc >= this.codeLength) {
+                throw new InternalCompilerException("Control flow falls off the end of the code at offset " + pc);
+            }
+            this.merge(nextPc, locals, stackArray, worklist);
+        }
+        if (branchTargets != null) {
+            for (int target : branchTargets) {
+                this.framePoints[target] = true;
+                this.merge(target, locals, stackArray, worklist);
+            }
+        }
+    }
+
+    private void
+    invoke(int pc, int opcode, String[] locals, List<String> stack) {
+
+        ConstantPoolInfo cpi = this.classFile.getConstantPoolInfo((short) this.u2(pc + 1));
+
+        ClassFile.ConstantNameAndTypeInfo nat;
+        ConstantClassInfo                 owner = null;
+        if (cpi instanceof ConstantMethodrefInfo) {
+            nat   = ((ConstantMethodrefInfo) cpi).getNameAndType(this.classFile);
+            owner = ((ConstantMethodrefInfo) cpi).getClassInfo(this.classFile);
+        } else
+        if (cpi instanceof ConstantInterfaceMethodrefInfo) {
+            nat   = ((ConstantInterfaceMethodrefInfo) cpi).getNameAndType(this.classFile);
+            owner = ((ConstantInterfaceMethodrefInfo) cpi).getClassInfo(this.classFile);
+        } else
+        if (cpi instanceof ConstantInvokeDynamicInfo) {
+            nat = this.classFile.getConstantNameAndTypeInfo(((ConstantInvokeDynamicInfo) cpi).getNameAndTypeIndex());
+        } else
+        {
+            throw new InternalCompilerException("Unexpected constant pool entry " + cpi + " at offset " + pc);
+        }
+
+        MethodDescriptor md = new MethodDescriptor(nat.getDescriptor(this.classFile));
+        for (int i = md.parameterFds.length - 1; i >= 0; i--) {
+            StackMapComputer.pop(stack, Descriptor.size(md.parameterFds[i]));
+        }
+
+        if (opcode != Opcode.INVOKESTATIC && opcode != Opcode.INVOKEDYNAMIC) {
+            String receiver = StackMapComputer.pop(stack, 1);
+
+            // Invoking a constructor initializes all copies of the receiver.
+            if (opcode == Opcode.INVOKESPECIAL && "<init>".equals(nat.getName(this.classFile))) {
+                assert owner != null;
+                String initialized = (
+                    StackMapComputer.UNINITIALIZED_THIS.equals(receiver)
+                    ? this.thisFd
+                    : Descriptor.fromInternalForm(owner.getName(this.classFile))
+                );
+                for (int i = 0; i < locals.length; i++) {
+                    if (locals[i].equals(receiver)) locals[i] = initialized;
+                }
+                for (int i = 0; i < stack.size(); i++) {
+                    if (stack.get(i).equals(receiver)) stack.set(i, initialized);
+                }
+            }
+        }
+
+        if (!Descriptor.VOID.equals(md.returnFd)) {
+            StackMapComputer.push(stack, StackMapComputer.verificationType(md.returnFd));
+        }
+    }
+
+    private void
+    load(String[] locals, List<String> stack, int kind, int index) {
+        switch (kind) {
+        case 0:  StackMapComputer.push(stack, "I");  break;
+        case 1:  StackMapComputer.push(stack, "J");  break;
+        case 2:  StackMapComputer.push(stack, "F");  break;
+        case 3:  StackMapComputer.push(stack, "D");  break;
+        default: stack.add(locals[index]);          break;
+        }
+    }
+
+    private void
+    store(String[] locals, List<String> stack, int index) {
+        String type = (String) stack.get(stack.size() - 1);
+        if (StackMapComputer.SECOND_HALF.equals(type)) type = (String) stack.get(stack.size() - 2);
+        StackMapComputer.pop(stack, StackMapComputer.size(type));
+        StackMapComputer.store(locals, index, type);
+    }
+
+    /**
+     * Stores a value into the local variable array, and invalidates any {@code long} or {@code double} that it
+     * partially overwrites.
+     */
+    private static void
+    store(String[] locals, int index, String type) {
+        if (index > 0 && StackMapComputer.size(locals[index - 1]) == 2) locals[index - 1] = StackMapComputer.TOP;
+        if (StackMapComputer.size(locals[index]) == 2) locals[index + 1] = StackMapComputer.TOP;
+        locals[index] = type;
+        if (StackMapComputer.size(type) == 2) {
+            if (StackMapComputer.size(locals[index + 1]) == 2) locals[index + 2] = StackMapComputer.TOP;
+            locals[index + 1] = StackMapComputer.SECOND_HALF;
+        }
+    }
+
+    /**
+     * Duplicates the top <var>n</var> slots of the operand stack, and inserts the copy below the following
+     * <var>depth</var> slots.
+     */
+    private static void
+    dup(List<String> stack, int n, int depth) {
+        int          size = stack.size();
+        List<String> copy = new ArrayList<String>(stack.subList(size - n, size));
+        stack.addAll(size - n - depth, copy);
+    }
+
+    private static void
+    push(List<String> stack, String type) {
+        stack.add(type);
+        if (StackMapComputer.size(type) == 2) stack.add(StackMapComputer.SECOND_HALF);
+    }
+
+    /**
+     * Pops <var>n</var> slots off the operand stack.
+     *
+     * @return The lowest of the popped slots
+     */
+    private static String
+    pop(List<String> stack, int n) {
+        String result = (String) stack.remove(stack.size() - 1);
+        for (int i = 1; i < n; i++) result = (String) stack.remove(stack.size() - 1);
+        return result;
+    }
+
+    private String
+    fieldType(int pc) {
+        ConstantFieldrefInfo cfi = this.classFile.getConstantFieldrefInfo((short) this.u2(pc + 1));
+        return StackMapComputer.verificationType(cfi.getNameAndType(this.classFile).getDescriptor(this.classFile));
+    }
+
+    private String
+    classType(int index) {
+        return Descriptor.fromInternalForm(this.classFile.getConstantClassInfo((short) index).getName(this.classFile));
+    }
+
+    private String
+    constantType(int index) {
+        ConstantPoolInfo cpi = this.classFile.getConstantPoolInfo((short) index);
+
+        if (cpi instanceof ConstantClassInfo)        return Descriptor.JAVA_LANG_CLASS;
+        if (cpi instanceof ConstantMethodTypeInfo)   return "Ljava/lang/invoke/MethodType;";
+        if (cpi instanceof ConstantMethodHandleInfo) return "Ljava/lang/invoke/MethodHandle;";
+
+        Object value = ((ConstantValuePoolInfo) cpi).getValue(this.classFile);
+        if (value instanceof Integer) return "I";
+        if (value instanceof Float)   return "F";
+        if (value instanceof Long)    return "J";
+        if (value instanceof Double)  return "D";
+        return Descriptor.JAVA_LANG_STRING;
+    }
+
+    private static String
+    verificationType(String fd) {
+        return fd.length() == 1 && "BCSZ".indexOf(fd.charAt(0)) != -1 ? "I" : fd;
+    }
+
+    private static int
+    size(String type) { return "J".equals(type) || "D".equals(type) ? 2 : 1; }
+
+    private int
+    u2(int offset) { return StackMapComputer.u2(this.code, offset); }
+
+    private int
+    s4(int offset) { return StackMapComputer.s4(this.code, offset); }
+
+    private int
+    instructionLength(int pc) { return StackMapComputer.instructionLength(this.code, pc); }
+
+    static int
+    u2(byte[] code, int offset) { return ((0xff & code[offset]) << 8) | (0xff & code[offset + 1]); }
+
+    static int
+    s4(byte[] code, int offset) {
+        return (StackMapComputer.u2(code, offset) << 16) | StackMapComputer.u2(code, offset + 2);
+    }
+
+    /**
+     * @return The length of the instruction at <var>pc</var>, including its operands and, for {@code TABLESWITCH} and
+     *         {@code LOOKUPSWITCH}, its padding bytes
+     */
+    @SuppressWarnings("deprecation") static int
+    instructionLength(byte[] code, int pc) {
+        int opcode = 0xff & code[pc];
+        switch (opcode) {
+
+        case Opcode.BIPUSH: case Opcode.LDC: case Opcode.NEWARRAY:
+        case Opcode.ILOAD: case Opcode.LLOAD: case Opcode.FLOAD: case Opcode.DLOAD: case Opcode.ALOAD:
+        case Opcode.ISTORE: case Opcode.LSTORE: case Opcode.FSTORE: case Opcode.DSTORE: case Opcode.ASTORE:
+            return 2;
+
+        case Opcode.SIPUSH: case Opcode.LDC_W: case Opcode.LDC2_W: case Opcode.IINC:
+        case Opcode.IFEQ: case Opcode.IFNE: case Opcode.IFLT: case Opcode.IFGE: case Opcode.IFGT: case Opcode.IFLE:
+        case Opcode.IF_ICMPEQ: case Opcode.IF_ICMPNE: case Opcode.IF_ICMPLT:
+        case Opcode.IF_ICMPGE: case Opcode.IF_ICMPGT: case Opcode.IF_ICMPLE:
+        case Opcode.IF_ACMPEQ: case Opcode.IF_ACMPNE: case Opcode.IFNULL: case Opcode.IFNONNULL: case Opcode.GOTO:
+        case Opcode.GETSTATIC: case Opcode.PUTSTATIC: case Opcode.GETFIELD: case Opcode.PUTFIELD:
+        case Opcode.INVOKEVIRTUAL: case Opcode.INVOKESPECIAL: case Opcode.INVOKESTATIC:
+        case Opcode.NEW: case Opcode.ANEWARRAY: case Opcode.CHECKCAST: case Opcode.INSTANCEOF:
+            return 3;
+
+        case Opcode.MULTIANEWARRAY:
+            return 4;
+
+        case Opcode.INVOKEINTERFACE: case Opcode.INVOKEDYNAMIC: case Opcode.GOTO_W:
+            return 5;
+
+        case Opcode.WIDE:
+            return (0xff & code[pc + 1]) == Opcode.IINC ? 6 : 4;
+
+        case Opcode.TABLESWITCH:
+            {
+                int p = (pc + 4) & ~3;
+                return p - pc + 12 + 4 * (StackMapComputer.s4(code, p + 8) - StackMapComputer.s4(code, p + 4) + 1);
+            }
+
+        case Opcode.LOOKUPSWITCH:
+            {
+                int p = (pc + 4) & ~3;
+                return p - pc + 8 + 8 * StackMapComputer.s4(code, p + 4);
+            }
+
+        case Opcode.JSR: case Opcode.JSR_W: case Opcode.RET:
+            throw new InternalCompilerException("Subroutines are not supported in class files of version 51+");
+
+        default:
+            return 1;
+        }
+    }
+
+    /**
+     * Merges the given locals and operand stack into the frame at <var>pc</var>, and schedules the instruction for
+     * (re-)analysis iff that frame changed.
+     */
+    private void
+    merge(int pc, String[] locals, String[] stack, LinkedList<Integer> worklist) {
+
+        String[] frameLocals = this.frameLocals[pc];
+        if (frameLocals == null) {
+            this.frameLocals[pc] = (String[]) locals.clone();
+            this.frameStacks[pc] = (String[]) stack.clone();
+            this.queued[pc]      = true;
+            worklist.add(pc);
+            return;
+        }
+
+        String[] frameStack = this.frameStacks[pc];
+        if (frameStack.length != stack.length) {
+            throw new InternalCompilerException(
+                "Inconsistent operand stack size at offset "
+                + pc
+                + " ("
+                + frameStack.length
+                + " vs. "
+                + stack.length
+                + ")"
+            );
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < frameLocals.length; i++) {
+            String t = this.leastUpperBound(frameLocals[i], locals[i]);
+            if (!t.equals(frameLocals[i])) {
+                frameLocals[i] = t;
+                changed        = true;
+            }
+        }
+        for (int i = 0; i < frameStack.length; i++) {
+            String t = this.leastUpperBound(frameStack[i], stack[i]);
+            if (!t.equals(frameStack[i])) {
+                frameStack[i] = t;
+                changed       = true;
+            }
+        }
+
+        if (changed && !this.queued[pc]) {
+            this.queued[pc] = true;
+            worklist.add(pc);
+        }
+    }
+
+    private String
+    leastUpperBound(String t1, String t2) {
+
+        if (t1.equals(t2)) return t1;
+
+        if (StackMapComputer.NULL.equals(t1) && Descriptor.isReference(t2) && t2.charAt(0) != 'u') return t2;
+        if (StackMapComputer.NULL.equals(t2) && Descriptor.isReference(t1) && t1.charAt(0) != 'u') return t1;
+
+        boolean isArray1 = t1.charAt(0) == '[', isArray2 = t2.charAt(0) == '[';
+        if (isArray1 && isArray2) {
+            String c1 = t1.substring(1), c2 = t2.substring(1);
+            return (
+                Descriptor.isReference(c1) && Descriptor.isReference(c2)
+                ? "[" + this.leastUpperBound(c1, c2)
+                : Descriptor.JAVA_LANG_OBJECT
+            );
+        }
+
+        boolean isClass1 = t1.charAt(0) == 'L', isClass2 = t2.charAt(0) == 'L';
+        if ((isArray1 || isClass1) && (isArray2 || isClass2)) {
+            if (isArray1 || isArray2) return Descriptor.JAVA_LANG_OBJECT;
+
+            List<String> superclasses1 = new ArrayList<String>();
+            for (String t = t1; t != null; t = this.getSuperclassDescriptor(t)) superclasses1.add(t);
+            for (String t = t2; t != null; t = this.getSuperclassDescriptor(t)) {
+                if (superclasses1.contains(t)) return t;
+            }
+            return Descriptor.JAVA_LANG_OBJECT;
+        }
+
+        return StackMapComputer.TOP;
+    }
+
+    @Nullable private String
+    getSuperclassDescriptor(String classFd) {
+
+        if (this.superclassCache.containsKey(classFd)) return (String) this.superclassCache.get(classFd);
+
+        String result;
+        if (classFd.equals(this.thisFd)) {
+            short superclass = this.classFile.superclass;
+            result = superclass == 0 ? null : this.classType(superclass);
+            if (Mod.isInterface(this.classFile.accessFlags)) result = Descriptor.JAVA_LANG_OBJECT;
+        } else {
+            result = this.classHierarchy.getSuperclassDescriptor(classFd);
+        }
+
+        this.superclassCache.put(classFd, result);
+        return result;
+    }
+
+    /**
+     * Replaces each range of unreachable instructions with {@code NOP ... ATHROW}, declares a frame at its start,
+     * and removes it from the exception table.
+     */
+    private void
+    replaceUnreachableCode() {
+
+        for (int pc = 0; pc < this.codeLength;) {
+            if (this.frameLocals[pc] != null) {
+                pc += this.instructionLength(pc);
+                continue;
+            }
+
+            int start = pc;
+            while (pc < this.codeLength && this.frameLocals[pc] == null) pc += this.instructionLength(pc);
+            int end = pc;
+
+            Arrays.fill(this.code, start, end - 1, (byte) Opcode.NOP);
+            this.code[end - 1] = (byte) Opcode.ATHROW;
+
+            String[] locals = new String[this.maxLocals];
+            Arrays.fill(locals, StackMapComputer.TOP);
+            this.frameLocals[start] = locals;
+            this.frameStacks[start] = new String[] { Descriptor.JAVA_LANG_THROWABLE };
+            this.framePoints[start] = true;
+
+            List<int[]> exceptionTable = new ArrayList<int[]>();
+            for (int[] ete : this.exceptionTable) {
+                if (ete[0] < start) {
+                    exceptionTable.add(new int[] { ete[0], Math.min(ete[1], start), ete[2], ete[3] });
+                }
+                if (ete[1] > end) {
+                    exceptionTable.add(new int[] { Math.max(ete[0], end), ete[1], ete[2], ete[3] });
+                }
+            }
+            this.exceptionTable = exceptionTable;
+
+            this.hasUnreachableCode = true;
+        }
+    }
+
+    /**
+     * @return The verification types in the form of the "StackMapTable", i.e. one entry for each {@code long} and
+     *         {@code double}, and without trailing "top" entries
+     */
+    private static List<String>
+    compact(String[] types) {
+
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < types.length; i++) {
+            String t = types[i];
+            if (StackMapComputer.size(t) == 2) {
+                i++;
+            } else
+            if (StackMapComputer.SECOND_HALF.equals(t)) {
+                t = StackMapComputer.TOP;
+            }
+            result.add(t);
+        }
+
+        while (!result.isEmpty() && StackMapComputer.TOP.equals(result.get(result.size() - 1))) {
+            result.remove(result.size() - 1);
+        }
+
+        return result;
+    }
+
+    private StackMapFrame
+    frame(int offsetDelta, List<String> previousLocals, List<String> locals, List<String> stack) {
+
+        if (locals.equals(previousLocals)) {
+            if (stack.isEmpty()) {
+                return offsetDelta < 64 ? new SameFrame(offsetDelta) : new SameFrameExtended(offsetDelta);
+            }
+            if (stack.size() == 1) {
+                VerificationTypeInfo vti = this.verificationTypeInfo((String) stack.get(0));
+                return (
+                    offsetDelta < 64
+                    ? new SameLocals1StackItemFrame(offsetDelta, vti)
+                    : new SameLocals1StackItemFrameExtended(offsetDelta, vti)
+                );
+            }
+        } else
+        if (stack.isEmpty()) {
+            int k = locals.size() - previousLocals.size();
+            if (k > 0 && k <= 3 && locals.subList(0, previousLocals.size()).equals(previousLocals)) {
+                return new AppendFrame(
+                    offsetDelta,
+                    this.verificationTypeInfos(locals.subList(previousLocals.size(), locals.size()))
+                );
+            }
+            if (k < 0 && k >= -3 && previousLocals.subList(0, locals.size()).equals(locals)) {
+                return new ChopFrame(offsetDelta, -k);
+            }
+        }
+
+        return new FullFrame(offsetDelta, this.verificationTypeInfos(locals), this.verificationTypeInfos(stack));
+    }
+
+    private VerificationTypeInfo[]
+    verificationTypeInfos(List<String> types) {
+        VerificationTypeInfo[] result = new VerificationTypeInfo[types.size()];
+        for (int i = 0; i < result.length; i++) result[i] = this.verificationTypeInfo((String) types.get(i));
+        return result;
+    }
+
+    private VerificationTypeInfo
+    verificationTypeInfo(String type) {
+        switch (type.charAt(0)) {
+        case 'T': return StackMapTableAttribute.TOP_VARIABLE_INFO;
+        case 'I': return StackMapTableAttribute.INTEGER_VARIABLE_INFO;
+        case 'F': return StackMapTableAttribute.FLOAT_VARIABLE_INFO;
+        case 'J': return StackMapTableAttribute.LONG_VARIABLE_INFO;
+        case 'D': return StackMapTableAttribute.DOUBLE_VARIABLE_INFO;
+        case 'N': return StackMapTableAttribute.NULL_VARIABLE_INFO;
+        case 'U': return StackMapTableAttribute.UNINITIALIZED_THIS_VARIABLE_INFO;
+        case 'u': return new UninitializedVariableInfo((short) Integer.parseInt(type.substring(1)));
+        default:  return new ObjectVariableInfo(this.classFile.addConstantClassInfo(type), type);
+        }
+    }
+}
@@ -37,6 +37,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -90,6 +91,7 @@ import org.codehaus.janino.Java.Assignment;
 import org.codehaus.janino.Java.Atom;
 import org.codehaus.janino.Java.BinaryOperation;
 import org.codehaus.janino.Java.Block;
+import org.codehaus.janino.Java.BlockLambdaBody;
 import org.codehaus.janino.Java.BlockStatement;
 import org.codehaus.janino.Java.BooleanLiteral;
 import org.codehaus.janino.Java.BooleanRvalue;
@@ -117,6 +119,7 @@ import org.codehaus.janino.Java.EmptyStatement;
 import org.codehaus.janino.Java.EnclosingScopeOfTypeDeclaration;
 import org.codehaus.janino.Java.EnumConstant;
 import org.codehaus.janino.Java.EnumDeclaration;
+import org.codehaus.janino.Java.ExpressionLambdaBody;
 import org.codehaus.janino.Java.ExpressionStatement;
 import org.codehaus.janino.Java.FieldAccess;
 import org.codehaus.janino.Java.FieldAccessExpression;
@@ -124,10 +127,13 @@ import org.codehaus.janino.Java.FieldDeclaration;
 import org.codehaus.janino.Java.FloatingPointLiteral;
 import org.codehaus.janino.Java.ForEachStatement;
 import org.codehaus.janino.Java.ForStatement;
+import org.codehaus.janino.Java.FormalLambdaParameters;
 import org.codehaus.janino.Java.FunctionDeclarator;
 import org.codehaus.janino.Java.FunctionDeclarator.FormalParameter;
 import org.codehaus.janino.Java.FunctionDeclarator.FormalParameters;
+import org.codehaus.janino.Java.IdentifierLambdaParameters;
 import org.codehaus.janino.Java.IfStatement;
+import org.codehaus.janino.Java.InferredLambdaParameters;
 import org.codehaus.janino.Java.Initializer;
 import org.codehaus.janino.Java.InnerClassDeclaration;
 import org.codehaus.janino.Java.Instanceof;
@@ -216,6 +222,7 @@ import org.codehaus.janino.Visitor.ImportVisitor;
 import org.codehaus.janino.Visitor.LvalueVisitor;
 import org.codehaus.janino.Visitor.RvalueVisitor;
 import org.codehaus.janino.Visitor.TypeDeclarationVisitor;
+import org.codehaus.janino.util.AbstractTraverser;
 import org.codehaus.janino.util.Annotatable;
 import org.codehaus.janino.util.ClassFile;
 import org.codehaus.janino.util.ClassFile.ClassFileException;
@@ -253,6 +260,18 @@ class UnitCompiler {
      */
     private static final int STRING_CONCAT_LIMIT = 3;
 
+    /**
+     * The maximum number of argument slots of a {@code StringConcatFactory} call site; see the documentation of {@code
+     * java.lang.invoke.StringConcatFactory}.
+     */
+    private static final int MAX_INDY_STRING_CONCAT_ARG_SLOTS = 200;
+
+    /**
+     * The size that the {@code StringBuilder} is presized with for each non-constant operand of a string
+     * concatenation.
+     */
+    private static final int STRING_CONCAT_NON_CONSTANT_OPERAND_SIZE = 16;
+
     /**
      * Special value for the <var>orientation</var> parameter of the {@link #compileBoolean(Java.Rvalue,
      * CodeContext.Offset, boolean)} methods, indicating that the code should be generated such that execution branches
@@ -271,6 +290,18 @@ class UnitCompiler {
 
     private EnumSet<JaninoOption> options = EnumSet.noneOf(JaninoOption.class);
 
+    private int targetVersion = UnitCompiler.defaultTargetVersion();
+
+    private int methodOutliningThreshold = UnitCompiler.defaultMethodOutliningThreshold();
+
+    private double constantPoolSpillFraction = UnitCompiler.defaultConstantPoolSpillFraction();
+
+    /**
+     * The constants that were spilled from the constant pools of the class files currently being generated; see
+     * {@link JaninoOption#CONSTANT_POOL_SPILLING}.
+     */
+    private final Map<ClassFile, ConstantPoolSpill> constantPoolSpills = new HashMap<ClassFile, ConstantPoolSpill>();
+
     public
     UnitCompiler(AbstractCompilationUnit abstractCompilationUnit, IClassLoader iClassLoader) {
         this.abstractCompilationUnit = abstractCompilationUnit;
@@ -293,6 +324,124 @@ class UnitCompiler {
         return this;
     }
 
+    /**
+     * Sets the Java version (6, 7, 8, ...) of the class files that this {@link UnitCompiler} generates. The default
+     * is 6 (class file version 50), or the value of the "class property" {@code
+     * org.codehaus.janino.UnitCompiler.targetVersion}.
+     * <p>
+     *   For version 50 class files, the JVM falls back to the old type-inferencing verifier if the {@code
+     *   StackMapTable} attributes do not verify; for 51 (Java 7) and higher, the JVM always uses the faster
+     *   type-checking verifier. Version 52 (Java 8) class files may also invoke static interface methods.
+     * </p>
+     *
+     * @throws IllegalArgumentException <var>targetVersion</var> is less than 6
+     */
+    public UnitCompiler
+    setTargetVersion(int targetVersion) {
+        if (targetVersion < 6) throw new IllegalArgumentException("Target version " + targetVersion + " not supported");
+        this.targetVersion = targetVersion;
+        return this;
+    }
+
+    /**
+     * @return The Java version (6, 7, 8, ...) of the class files that this {@link UnitCompiler} generates
+     */
+    public int
+    getTargetVersion() { return this.targetVersion; }
+
+    /**
+     * @return The value of the "class property" {@code org.codehaus.janino.UnitCompiler.targetVersion}, or 6
+     */
+    static int
+    defaultTargetVersion() {
+        String s = SystemProperties.getClassProperty(UnitCompiler.class, "targetVersion");
+        return s == null ? 6 : Integer.parseInt(s);
+    }
+
+    /**
+     * Sets the estimated byte code size above which statements are moved out of a method (see {@link
+     * JaninoOption#METHOD_OUTLINING}). The default is 8000 (the size up to which HotSpot JIT-compiles methods), or the
+     * value of the "class property" {@code org.codehaus.janino.UnitCompiler.methodOutliningThreshold}.
+     *
+     * @throws IllegalArgumentException <var>threshold</var> is less than 256, or greater than 65535
+     */
+    public UnitCompiler
+    setMethodOutliningThreshold(int threshold) {
+        this.methodOutliningThreshold = UnitCompiler.checkMethodOutliningThreshold(threshold);
+        return this;
+    }
+
+    /**
+     * @return                          The <var>threshold</var>
+     * @throws IllegalArgumentException <var>threshold</var> is less than 256, or greater than 65535
+     */
+    static int
+    checkMethodOutliningThreshold(int threshold) {
+        if (threshold < 256 || threshold > 0xffff) {
+            throw new IllegalArgumentException("Method outlining threshold " + threshold + " out of range");
+        }
+        return threshold;
+    }
+
+    /**
+     * @return The estimated byte code size above which statements are moved out of a method
+     */
+    public int
+    getMethodOutliningThreshold() { return this.methodOutliningThreshold; }
+
+    /**
+     * @return                          The value of the "class property" {@code
+     *                                  org.codehaus.janino.UnitCompiler.methodOutliningThreshold}, or 8000
+     * @throws IllegalArgumentException The value of the class property is less than 256, or greater than 65535
+     */
+    static int
+    defaultMethodOutliningThreshold() {
+        String s = SystemProperties.getClassProperty(UnitCompiler.class, "methodOutliningThreshold");
+        return s == null ? 8000 : UnitCompiler.checkMethodOutliningThreshold(Integer.parseInt(s));
+    }
+
+    /**
+     * Sets the fraction of the JVM's limit of 65535 constant pool entries, above which literal constants are spilled
+     * into holder classes (see {@link JaninoOption#CONSTANT_POOL_SPILLING}). The default is 0.75, or the value of the
+     * "class property" {@code org.codehaus.janino.UnitCompiler.constantPoolSpillFraction}.
+     *
+     * @throws IllegalArgumentException <var>fraction</var> is not greater than 0 and less than or equal to 1
+     */
+    public UnitCompiler
+    setConstantPoolSpillFraction(double fraction) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Constant pool spill fraction " + fraction + " out of range");
+        }
+        this.constantPoolSpillFraction = fraction;
+        return this;
+    }
+
+    /**
+     * @return The fraction of the constant pool limit above which literal constants are spilled into holder classes
+     */
+    public double
+    getConstantPoolSpillFraction() { return this.constantPoolSpillFraction; }
+
+    /**
+     * @return The value of the "class property" {@code org.codehaus.janino.UnitCompiler.constantPoolSpillFraction}, or
+     *         0.75
+     */
+    static double
+    defaultConstantPoolSpillFraction() {
+        String s = SystemProperties.getClassProperty(UnitCompiler.class, "constantPoolSpillFraction");
+        return s == null ? 0.75 : Double.parseDouble(s);
+    }
+
+    /**
+     * Creates a {@link ClassFile} with the {@link #setTargetVersion(int) configured class file version}.
+     */
+    private ClassFile
+    newClassFile(short accessFlags, String thisClassFd, @Nullable String superclassFd, String[] interfaceFds) {
+        ClassFile result = new ClassFile(accessFlags, thisClassFd, superclassFd, interfaceFds);
+        result.setVersion((short) (44 + this.targetVersion), (short) 0);
+        return result;
+    }
+
     /**
      * @return The {@link AbstractCompilationUnit} that this {@link UnitCompiler} compiles
      */
@@ -334,6 +483,7 @@ class UnitCompiler {
             return (ClassFile[]) gcfs.toArray(new ClassFile[gcfs.size()]);
         } finally {
             this.generatedClassFiles = null;
+            this.constantPoolSpills.clear();
         }
     }
 
@@ -486,7 +636,7 @@ class UnitCompiler {
         ClassFile cf;
         {
             IClass superclass = iClass.getSuperclass();
-            cf = new ClassFile(
+            cf = this.newClassFile(
                 accessFlags,                                            // accessFlags
                 iClass.getDescriptor(),                                 // thisClassFD
                 superclass != null ? superclass.getDescriptor() : null, // superclassFD
@@ -870,6 +1020,12 @@ class UnitCompiler {
 
         assert this.generatedClassFiles != null;
         this.generatedClassFiles.add(cf);
+
+        // Add the holder classes of the constants that were spilled from the constant pool.
+        ConstantPoolSpill cps = (ConstantPoolSpill) this.constantPoolSpills.remove(cf);
+        if (cps != null) {
+            for (ClassFile hcf : cps.getHolderClassFiles()) this.addClassFile(hcf);
+        }
     }
 
     /**
@@ -997,7 +1153,7 @@ class UnitCompiler {
         if (id instanceof MemberInterfaceDeclaration) accessFlags |= Mod.STATIC;
 
         // Create "ClassFile" object.
-        ClassFile cf = new ClassFile(
+        ClassFile cf = this.newClassFile(
             accessFlags,                 // accessFlags
             iClass.getDescriptor(),      // thisClassFD
             Descriptor.JAVA_LANG_OBJECT, // superclassFD
@@ -1467,6 +1623,8 @@ class UnitCompiler {
 
 //        codeContext.flowAnalysis(override.getName());
 
+        this.computeStackMapFrames(codeContext, mi, false);
+
         final short smtani = cf.addConstantUtf8Info("StackMapTable");
 
         // Add the code context as a code attribute to the MethodInfo.
@@ -2364,9 +2522,9 @@ class UnitCompiler {
 
             IClass fieldType = this.getType(fd.type);
             if (initializer instanceof Rvalue) {
-                Rvalue rvalue          = (Rvalue) initializer;
-                IClass initializerType = this.compileGetValue(rvalue);
+                Rvalue rvalue = (Rvalue) initializer;
                 fieldType = fieldType.getArrayIClass(vd.brackets, this.iClassLoader.TYPE_java_lang_Object);
+                IClass initializerType = this.compileGetValue(rvalue, fieldType);
                 this.assignmentConversion(
                     fd,                           // locatable
                     initializerType,              // sourceType
@@ -2563,10 +2721,10 @@ class UnitCompiler {
                     if (oi instanceof Rvalue) {
                         Rvalue rhs = (Rvalue) oi;
                         this.assignmentConversion(
-                            lvds,                      // locatable
-                            this.compileGetValue(rhs), // sourceType
-                            lv.type,                   // targetType
-                            this.getConstantValue(rhs) // constantValue
+                            lvds,                               // locatable
+                            this.compileGetValue(rhs, lv.type), // sourceType
+                            lv.type,                            // targetType
+                            this.getConstantValue(rhs)          // constantValue
                         );
                     } else
                     if (oi instanceof ArrayInitializer) {
@@ -2660,7 +2818,7 @@ class UnitCompiler {
             this.compileError("Method must return a value", rs.getLocation());
             return false;
         }
-        IClass type = this.compileGetValue(orv);
+        IClass type = this.compileGetValue(orv, returnType);
         this.assignmentConversion(
             rs,                        // locatable
             type,                      // sourceType
@@ -2668,10 +2826,34 @@ class UnitCompiler {
             this.getConstantValue(orv) // constantValue
         );
 
-        this.leaveStatements(
-            rs.getEnclosingScope(), // from
-            enclosingFunction       // to
-        );
+        // An exception handler within a FINALLY clause would clear the operand stack, so keep the return value in a
+        // local variable while the FINALLY clauses execute.
+        boolean hasFinally = false;
+        for (Scope s = rs.getEnclosingScope(); s != enclosingFunction; s = s.getEnclosingScope()) {
+            if (s instanceof TryStatement && ((TryStatement) s).finallY != null) hasFinally = true;
+        }
+
+        if (hasFinally) {
+            this.getCodeContext().saveLocalVariables();
+            try {
+                short lvIndex = this.getCodeContext().allocateLocalVariable(
+                    Descriptor.size(returnType.getDescriptor())
+                );
+                this.store(rs, returnType, lvIndex);
+                this.leaveStatements(
+                    rs.getEnclosingScope(), // from
+                    enclosingFunction       // to
+                );
+                this.load(rs, returnType, lvIndex);
+            } finally {
+                this.getCodeContext().restoreLocalVariables();
+            }
+        } else {
+            this.leaveStatements(
+                rs.getEnclosingScope(), // from
+                enclosingFunction       // to
+            );
+        }
         this.xreturn(rs, returnType);
         return false;
     }
@@ -3303,6 +3485,26 @@ class UnitCompiler {
             }
         }
 
+        // Move statements out of a method that would otherwise be too large.
+        if (
+            this.options.contains(JaninoOption.METHOD_OUTLINING)
+            && fd instanceof MethodDeclarator
+            && !"<clinit>".equals(fd.name)
+        ) {
+            int size = new MethodOutliner(this.methodOutliningThreshold).outline((MethodDeclarator) fd);
+            if (size > this.methodOutliningThreshold) {
+                this.warning("MOTL", (
+                    "Estimated byte code size of method \""
+                    + fd.name
+                    + "\" ("
+                    + size
+                    + " bytes) still exceeds the method outlining threshold ("
+                    + this.methodOutliningThreshold
+                    + " bytes)"
+                ), fd.getLocation());
+            }
+        }
+
         // Create CodeContext.
         final CodeContext codeContext = new CodeContext(mi.getClassFile(), new IClass[0]);
 
@@ -3449,6 +3651,13 @@ class UnitCompiler {
         // Fix up and reallocate as needed.
         codeContext.fixUpAndRelocate();
 
+        boolean optimized = (
+            this.options.contains(JaninoOption.PEEPHOLE_OPTIMIZATION)
+            && codeContext.optimize(!this.debugVars)
+        );
+
+        this.computeStackMapFrames(codeContext, mi, optimized);
+
 //        // Do flow analysis.
 //        try {
 //            codeContext.flowAnalysis(fd.toString());
@@ -3496,6 +3705,58 @@ class UnitCompiler {
         });
     }
 
+    /**
+     * As of class file version 51, the JVM no longer falls back to type inference when a "StackMapTable" does not
+     * verify, so the frames are computed from the final byte code rather than from the {@link StackMap}s that were
+     * tracked during code generation. The same applies to optimized byte code, where the tracked {@link StackMap}s no
+     * longer match.
+     */
+    private void
+    computeStackMapFrames(CodeContext codeContext, ClassFile.MethodInfo mi, boolean optimized) {
+        if (!optimized && mi.getClassFile().getMajorVersion() < ClassFile.MAJOR_VERSION_JDK_1_7) return;
+
+        codeContext.computeStackMapFrames(mi, new StackMapComputer.ClassHierarchy() {
+
+            @Override @Nullable public String
+            getSuperclassDescriptor(String classFd) { return UnitCompiler.this.getSuperclassDescriptor(classFd); }
+        });
+    }
+
+    /**
+     * @return The descriptor of the superclass of the class designated by <var>classFd</var>, {@link
+     *         Descriptor#JAVA_LANG_OBJECT} if that is an interface, or {@code null} iff it is {@code java.lang.Object}
+     *         or cannot be loaded
+     */
+    @Nullable private String
+    getSuperclassDescriptor(String classFd) {
+
+        // Local and anonymous classes cannot be found by name, but their class files were already generated.
+        String className = Descriptor.toClassName(classFd);
+        if (this.generatedClassFiles != null) {
+            for (ClassFile cf : this.generatedClassFiles) {
+                if (!cf.getThisClassName().equals(className)) continue;
+                if (Mod.isInterface(cf.accessFlags)) return Descriptor.JAVA_LANG_OBJECT;
+                return cf.superclass == 0 ? null : Descriptor.fromInternalForm(
+                    cf.getConstantClassInfo(cf.superclass).getName(cf)
+                );
+            }
+        }
+
+        try {
+            IClass iClass = this.findClass(className);
+            if (iClass == null) iClass = this.iClassLoader.loadIClass(classFd);
+            if (iClass == null) return null;
+            if (iClass.isInterface()) return Descriptor.JAVA_LANG_OBJECT;
+
+            IClass superclass = iClass.getSuperclass();
+            return superclass == null ? null : superclass.getDescriptor();
+        } catch (CompileException ce) {
+            return null;
+        } catch (ClassNotFoundException cnfe) {
+            return null;
+        }
+    }
+
     /**
      * Makes the variable name and class name Constant Pool names used by local variables.
      */
@@ -3860,11 +4121,12 @@ class UnitCompiler {
         // "Simple" assignment ("=")?
         if (a.operator == "=") { // SUPPRESS CHECKSTYLE StringLiteralEquality
             this.compileContext(a.lhs);
+            IClass lhsType = this.getType(a.lhs);
             this.assignmentConversion(
-                a,                           // locatable
-                this.compileGetValue(a.rhs), // sourceType
-                this.getType(a.lhs),         // targetType
-                this.getConstantValue(a.rhs) // constantValue
+                a,                                    // locatable
+                this.compileGetValue(a.rhs, lhsType), // sourceType
+                lhsType,                              // targetType
+                this.getConstantValue(a.rhs)          // constantValue
             );
             this.compileSet(a.lhs);
             return;
@@ -4579,22 +4841,34 @@ class UnitCompiler {
 
     @SuppressWarnings("static-method") private IClass
     compileGet2(LambdaExpression le) throws CompileException {
-        throw UnitCompiler.compileException(le, "Compilation of lambda expression NYI");
+        throw UnitCompiler.compileException(
+            le,
+            "Lambda expression is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     @SuppressWarnings("static-method") private IClass
     compileGet2(MethodReference mr) throws CompileException {
-        throw UnitCompiler.compileException(mr, "Compilation of method reference NYI");
+        throw UnitCompiler.compileException(
+            mr,
+            "Method reference is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     @SuppressWarnings("static-method") private IClass
     compileGet2(ClassInstanceCreationReference cicr) throws CompileException {
-        throw UnitCompiler.compileException(cicr, "Compilation of class instance creation reference NYI");
+        throw UnitCompiler.compileException(
+            cicr,
+            "Class instance creation reference is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     @SuppressWarnings("static-method") private IClass
     compileGet2(ArrayCreationReference acr) throws CompileException {
-        throw UnitCompiler.compileException(acr, "Compilation of array creation reference NYI");
+        throw UnitCompiler.compileException(
+            acr,
+            "Array creation reference is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     private IClass
@@ -4649,7 +4923,7 @@ class UnitCompiler {
             int lhsCs = this.compileContext(a.lhs);
             // Convert RHS value to LHS type.
             IClass lhsType = this.getType(a.lhs);
-            IClass rhsType = this.compileGetValue(a.rhs);
+            IClass rhsType = this.compileGetValue(a.rhs, lhsType);
             this.assignmentConversion(a, rhsType, lhsType, this.getConstantValue(a.rhs));
             // Duplicate RHS value below LHS context.
             this.dupxx(a, lhsCs);
@@ -4931,7 +5205,7 @@ class UnitCompiler {
 
         // JLS7 5.5 Casting Conversion.
         IClass tt = this.getType(c.targetType);
-        IClass vt = this.compileGetValue(c.value);
+        IClass vt = this.compileGetValue(c.value, tt);
 
         if (this.tryCastConversion(c, vt, tt, this.getConstantValue2(c.value))) return tt;
 
@@ -5067,7 +5341,7 @@ class UnitCompiler {
         IClass[]  parameterTypes = iMethod.getParameterTypes();
         Rvalue[]  adjustedArgs   = null;
         final int actualSize     = mi.arguments.length;
-        if (iMethod.isVarargs() && iMethod.argsNeedAdjust()) {
+        if (iMethod.isVarargs() && this.argsNeedAdjust.contains(iMethod)) {
             adjustedArgs = new Rvalue[parameterTypes.length];
             Rvalue[]       lastArgs = new Rvalue[actualSize - parameterTypes.length + 1];
             final Location loc      = mi.getLocation();
@@ -5092,10 +5366,10 @@ class UnitCompiler {
 
         for (int i = 0; i < adjustedArgs.length; ++i) {
             this.assignmentConversion(
-                mi,                                    // location
-                this.compileGetValue(adjustedArgs[i]), // sourceType
-                parameterTypes[i],                     // targetType
-                this.getConstantValue(adjustedArgs[i]) // constantValue
+                mi,                                                       // location
+                this.compileGetValue(adjustedArgs[i], parameterTypes[i]), // sourceType
+                parameterTypes[i],                                        // targetType
+                this.getConstantValue(adjustedArgs[i])                    // constantValue
             );
         }
         // Invoke!
@@ -5240,10 +5514,10 @@ class UnitCompiler {
         IClass[] parameterTypes = iMethod.getParameterTypes();
         for (int i = 0; i < scmi.arguments.length; ++i) {
             this.assignmentConversion(
-                scmi,                                    // locatable
-                this.compileGetValue(scmi.arguments[i]), // sourceType
-                parameterTypes[i],                       // targetType
-                this.getConstantValue(scmi.arguments[i]) // constantValue
+                scmi,                                                       // locatable
+                this.compileGetValue(scmi.arguments[i], parameterTypes[i]), // sourceType
+                parameterTypes[i],                                          // targetType
+                this.getConstantValue(scmi.arguments[i])                    // constantValue
             );
         }
 
@@ -5540,68 +5814,995 @@ class UnitCompiler {
             this.compileError("Array initializer not allowed for non-array type \"" + arrayType.toString() + "\"");
         }
 
-        IClass ct = arrayType.getComponentType();
-        assert ct != null;
-
-        this.consT(ai, new Integer(ai.values.length));
-        this.newArray(
-            ai, // locatable
-            1,  // dimExprCount
-            0,  // dims
-            ct  // componentType
-        );
+        IClass ct = arrayType.getComponentType();
+        assert ct != null;
+
+        this.consT(ai, new Integer(ai.values.length));
+        this.newArray(
+            ai, // locatable
+            1,  // dimExprCount
+            0,  // dims
+            ct  // componentType
+        );
+
+        for (int i = 0; i < ai.values.length; ++i) {
+            ArrayInitializerOrRvalue aiorv = ai.values[i];
+
+            this.dup(aiorv);
+            this.consT(ai, i);
+            if (aiorv instanceof Rvalue) {
+                Rvalue rv = (Rvalue) aiorv;
+                this.assignmentConversion(
+                    ai,                           // locatable
+                    this.compileGetValue(rv, ct), // sourceType
+                    ct,                           // targetType
+                    this.getConstantValue(rv)     // constantValue
+                );
+            } else
+            if (aiorv instanceof ArrayInitializer) {
+                this.compileGetValue((ArrayInitializer) aiorv, ct);
+            } else
+            {
+                throw new InternalCompilerException(
+                    "Unexpected array initializer or rvalue class " + aiorv.getClass().getName()
+                );
+            }
+            this.arraystore(aiorv, ct);
+        }
+    }
+
+    private IClass
+    compileGet2(Literal l) throws CompileException {
+        return this.consT(l, this.getConstantValue(l));
+    }
+    private IClass
+    compileGet2(SimpleConstant sl) throws CompileException {
+        return this.consT(sl, sl.value);
+    }
+
+    /**
+     * Convenience function that calls {@link #compileContext(Rvalue)} and {@link #compileGet(Rvalue)}.
+     *
+     * @return The type of the Rvalue
+     */
+    private IClass
+    compileGetValue(Rvalue rv) throws CompileException {
+        Object cv = this.getConstantValue(rv);
+        if (cv != UnitCompiler.NOT_CONSTANT) {
+            this.fakeCompile(rv); // To check that, e.g., "a" compiles in "true || a".
+            this.consT(rv, cv);
+            return this.getType(rv);
+        }
+
+        this.compileContext(rv);
+        return this.compileGet(rv);
+    }
+
+    // -------------------- Lambda expressions and method references -----------------
+
+    /**
+     * Like {@link #compileGetValue(Rvalue)}, but compiles a lambda expression or a method reference (also as an
+     * operand of a conditional expression) against the <var>targetType</var> of its assignment, invocation or casting
+     * context (JLS8 15.27.3, 15.13.2, 15.25.3). Other rvalues are compiled as usual.
+     * <p>
+     *   Limitations:
+     * </p>
+     * <ul>
+     *   <li>
+     *     Only target version 8 and higher is supported, because older class files have no {@code invokedynamic}.
+     *   </li>
+     *   <li>
+     *     Type arguments are erased, so implicitly typed lambda parameters take the erased parameter types of the
+     *     functional method.
+     *   </li>
+     *   <li>
+     *     An argument that is potentially compatible with more than one overload (e.g. {@link Runnable} and {@link
+     *     java.util.concurrent.Callable}) needs a cast.
+     *   </li>
+     *   <li>Lambda expressions and method references in interfaces are not implemented.</li>
+     *   <li>
+     *     Method references of the forms "{@code super::}<var>name</var>" and "<var>TypeName</var>{@code
+     *     .super::}<var>name</var>" are not implemented.
+     *   </li>
+     * </ul>
+     *
+     * @return The type of the Rvalue
+     */
+    private IClass
+    compileGetValue(Rvalue rv, IClass targetType) throws CompileException {
+
+        Rvalue fe = UnitCompiler.functionalExpression(rv);
+        if (fe == null) return this.compileGetValue(rv);
+
+        if (fe instanceof ConditionalExpression) {
+            return this.compileGetConditionalValue((ConditionalExpression) fe, targetType);
+        }
+
+        if (this.getCodeContext().getClassFile().getMajorVersion() < ClassFile.MAJOR_VERSION_JDK_1_8) {
+            this.compileError(
+                "Lambda expressions and method references require target version 8 or higher",
+                fe.getLocation()
+            );
+        }
+
+        IMethod sam = this.findFunctionalMethod(targetType);
+        if (sam == null) {
+            throw UnitCompiler.compileException(fe, "\"" + targetType + "\" is not a functional interface");
+        }
+
+        // Some code (e.g. FINALLY clauses) is compiled more than once, but the implementation method must be
+        // declared only once.
+        MethodDeclarator md = (MethodDeclarator) this.functionalExpressionMethods.get(fe);
+        if (md == null) {
+            md = (
+                fe instanceof LambdaExpression
+                ? this.declareLambdaMethod((LambdaExpression) fe, sam)
+                : this.declareMethodReferenceMethod(fe, sam)
+            );
+            this.functionalExpressionMethods.put(fe, md);
+        }
+
+        this.invokeLambdaMetafactory(fe, md, sam, targetType);
+
+        return targetType;
+    }
+
+    /**
+     * Compiles a conditional expression with a lambda expression or method reference operand; both operands are
+     * compiled against the <var>targetType</var> (JLS8 15.25.3).
+     *
+     * @return The <var>targetType</var>
+     */
+    private IClass
+    compileGetConditionalValue(ConditionalExpression ce, IClass targetType) throws CompileException {
+
+        Object lhsCv = this.getConstantValue(ce.lhs);
+        if (lhsCv instanceof Boolean) {
+
+            // LHS is a constant expression.
+            Rvalue operand = ((Boolean) lhsCv).booleanValue() ? ce.mhs : ce.rhs;
+            this.assignmentConversion(
+                operand,                                   // locatable
+                this.compileGetValue(operand, targetType), // sourceType
+                targetType,                                // targetType
+                UnitCompiler.NOT_CONSTANT                  // constantValue
+            );
+            return targetType;
+        }
+
+        final CodeContext.Offset toEnd = this.getCodeContext().new Offset();
+        final CodeContext.Offset toRhs = this.getCodeContext().new Offset();
+
+        StackMap sm = this.getCodeContext().currentInserter().getStackMap();
+
+        this.compileBoolean(ce.lhs, toRhs, UnitCompiler.JUMP_IF_FALSE);
+
+        this.assignmentConversion(
+            ce.mhs,                                   // locatable
+            this.compileGetValue(ce.mhs, targetType), // sourceType
+            targetType,                               // targetType
+            UnitCompiler.NOT_CONSTANT                 // constantValue
+        );
+        this.gotO(ce, toEnd);
+
+        this.getCodeContext().currentInserter().setStackMap(sm);
+        toRhs.set();
+        this.assignmentConversion(
+            ce.rhs,                                   // locatable
+            this.compileGetValue(ce.rhs, targetType), // sourceType
+            targetType,                               // targetType
+            UnitCompiler.NOT_CONSTANT                 // constantValue
+        );
+
+        toEnd.set();
+
+        return targetType;
+    }
+
+    /**
+     * The synthetic methods that implement the lambda expressions and method references of this compilation unit.
+     */
+    private final Map<Rvalue, MethodDeclarator> functionalExpressionMethods = new HashMap<Rvalue, MethodDeclarator>();
+
+    /**
+     * @return The {@link LambdaExpression}, {@link MethodReference}, {@link ClassInstanceCreationReference} or {@link
+     *         ArrayCreationReference} that <var>rv</var> is (or that <var>rv</var> parenthesizes), or the {@link
+     *         ConditionalExpression} with such an operand, or {@code null}
+     */
+    @Nullable private static Rvalue
+    functionalExpression(Rvalue rv) {
+
+        Rvalue result = rv;
+        while (result instanceof ParenthesizedExpression) result = ((ParenthesizedExpression) result).value;
+
+        if (result instanceof ConditionalExpression) {
+            ConditionalExpression ce = (ConditionalExpression) result;
+            return (
+                UnitCompiler.functionalExpression(ce.mhs) != null || UnitCompiler.functionalExpression(ce.rhs) != null
+            ) ? result : null;
+        }
+
+        return (
+            result instanceof LambdaExpression
+            || result instanceof MethodReference
+            || result instanceof ClassInstanceCreationReference
+            || result instanceof ArrayCreationReference
+        ) ? result : null;
+    }
+
+    /**
+     * @return The single abstract method of the functional interface <var>type</var> (JLS8 9.8), or {@code null} iff
+     *         <var>type</var> is not a functional interface
+     */
+    @Nullable private IMethod
+    findFunctionalMethod(IClass type) throws CompileException {
+
+        if (!type.isInterface()) return null;
+
+        IMethod result = null;
+        for (IMethod m : type.getIMethods()) {
+            if (m.isStatic() || !m.isAbstract()) continue;
+
+            // E.g. "Comparator.equals(Object)" does not count.
+            IMethod om = this.iClassLoader.TYPE_java_lang_Object.findIMethod(m.getName(), m.getParameterTypes());
+            if (om != null && om.getAccess() == Access.PUBLIC) continue;
+
+            if (result == null) {
+                result = m;
+            } else
+            if (
+                !m.getName().equals(result.getName())
+                || !Arrays.equals(m.getParameterTypes(), result.getParameterTypes())
+            ) {
+                return null;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Declares the private method that implements the given lambda expression; the parameters of implicitly typed
+     * lambda expressions get the parameter types of the functional method <var>sam</var>.
+     */
+    private MethodDeclarator
+    declareLambdaMethod(LambdaExpression le, IMethod sam) throws CompileException {
+        Location loc = le.getLocation();
+
+        IClass[] samParameterTypes = sam.getParameterTypes();
+
+        FormalParameter[] parameters;
+        if (le.parameters instanceof FormalLambdaParameters) {
+            parameters = ((FormalLambdaParameters) le.parameters).formalParameters.parameters;
+        } else {
+            String[] names = (
+                le.parameters instanceof IdentifierLambdaParameters
+                ? new String[] { ((IdentifierLambdaParameters) le.parameters).identifier }
+                : ((InferredLambdaParameters) le.parameters).names
+            );
+            parameters = new FormalParameter[names.length];
+            for (int i = 0; i < names.length; i++) {
+                parameters[i] = new FormalParameter(
+                    loc,                                                                   // location
+                    new Modifier[0],                                                       // modifiers
+                    new SimpleType(                                                        // type
+                        loc,
+                        i < samParameterTypes.length ? samParameterTypes[i] : this.iClassLoader.TYPE_java_lang_Object
+                    ),
+                    names[i]                                                               // name
+                );
+            }
+        }
+        if (parameters.length != samParameterTypes.length) {
+            throw UnitCompiler.compileException(le, (
+                "Lambda expression has "
+                + parameters.length
+                + " parameter(s), but functional method \""
+                + sam
+                + "\" has "
+                + samParameterTypes.length
+            ));
+        }
+
+        BlockStatement body;
+        if (le.body instanceof BlockLambdaBody) {
+            body = ((BlockLambdaBody) le.body).block;
+        } else {
+            Rvalue value = ((ExpressionLambdaBody) le.body).expression;
+            body = (
+                sam.getReturnType() == IClass.VOID
+                ? new ExpressionStatement(value)
+                : new ReturnStatement(loc, value)
+            );
+        }
+
+        MethodDeclarator result = this.declareSyntheticLambdaMethod(le, sam, parameters, body);
+
+        for (int i = 0; i < parameters.length; i++) {
+            IClass pt = this.getType(parameters[i].type);
+            if (pt != samParameterTypes[i] && (pt.isPrimitive() || !samParameterTypes[i].isAssignableFrom(pt))) {
+                this.compileError((
+                    "Type \""
+                    + pt
+                    + "\" of lambda parameter \""
+                    + parameters[i].name
+                    + "\" is incompatible with functional method \""
+                    + sam
+                    + "\""
+                ), le.getLocation());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Declares the private method that implements the given {@link MethodReference}, {@link
+     * ClassInstanceCreationReference} or {@link ArrayCreationReference}. The method has one parameter per parameter of
+     * the functional method <var>sam</var>, preceded by the bound receiver (if any), and invokes the referenced
+     * method, constructor or array creation.
+     */
+    private MethodDeclarator
+    declareMethodReferenceMethod(Rvalue fe, IMethod sam) throws CompileException {
+        Location loc = fe.getLocation();
+
+        IClass[]              samParameterTypes = sam.getParameterTypes();
+        List<FormalParameter> parameters        = new ArrayList<FormalParameter>();
+        Rvalue[]              arguments         = new Rvalue[samParameterTypes.length];
+        for (int i = 0; i < samParameterTypes.length; i++) {
+            FormalParameter fp = new FormalParameter(
+                loc,                                       // location
+                new Modifier[0],                           // modifiers
+                new SimpleType(loc, samParameterTypes[i]), // type
+                "p" + i                                    // name
+            );
+            parameters.add(fp);
+            arguments[i] = new ParameterAccess(loc, fp);
+        }
+
+        Atom   lhs = UnitCompiler.methodReferenceLhs(fe);
+        Rvalue value;
+        if (fe instanceof ArrayCreationReference) {
+
+            // "T[]::new" => "new T[p0]"
+            IClass componentType = this.getType((Type) lhs).getComponentType();
+            assert componentType != null;
+            if (arguments.length != 1) {
+                throw UnitCompiler.compileException(fe, "Functional method \"" + sam + "\" must have one parameter");
+            }
+            value = new NewArray(
+                loc,                                                                 // location
+                new SimpleType(loc, componentType),                                  // type
+                new Rvalue[] { this.adaptArgument(arguments[0], samParameterTypes[0], IClass.INT) }, // dimExprs
+                0                                                                    // dims
+            );
+        } else
+        if (fe instanceof ClassInstanceCreationReference) {
+
+            // "T::new" => "new T(p0, p1, ...)"
+            IClass type = this.getType((Type) lhs);
+            value = new NewClassInstance(
+                loc,                                                                             // location
+                null,                                                                            // qualification
+                type,                                                                            // iClass
+                this.adaptArguments(arguments, samParameterTypes, type.getDeclaredIConstructors()) // arguments
+            );
+        } else
+        if (this.isType(lhs)) {
+            String methodName = ((MethodReference) fe).methodName;
+            IClass type       = this.getType(this.toTypeOrCompileException(lhs));
+
+            List<IMethod> staticMethods   = new ArrayList<IMethod>();
+            List<IMethod> instanceMethods = new ArrayList<IMethod>();
+            for (IMethod m : type.getIMethods(methodName)) {
+                if (m.isStatic()) {
+                    if (UnitCompiler.isArityCompatible(m, arguments.length)) staticMethods.add(m);
+                } else {
+                    if (UnitCompiler.isArityCompatible(m, arguments.length - 1)) instanceMethods.add(m);
+                }
+            }
+
+            if (!staticMethods.isEmpty() || instanceMethods.isEmpty()) {
+
+                // "T::staticMethod" => "T.staticMethod(p0, p1, ...)"
+                value = new MethodInvocation(
+                    loc,                                                    // location
+                    new SimpleType(loc, type),                              // target
+                    methodName,                                             // methodName
+                    this.adaptArguments(arguments, samParameterTypes, (     // arguments
+                        (IMethod[]) staticMethods.toArray(new IMethod[staticMethods.size()])
+                    ))
+                );
+            } else
+            {
+
+                // "T::instanceMethod" => "((T) p0).instanceMethod(p1, ...)"
+                value = new MethodInvocation(
+                    loc,                                                                     // location
+                    this.adaptArgument(arguments[0], samParameterTypes[0], type),            // target
+                    methodName,                                                              // methodName
+                    this.adaptArguments(                                                     // arguments
+                        (Rvalue[]) Arrays.copyOfRange(arguments, 1, arguments.length),
+                        (IClass[]) Arrays.copyOfRange(samParameterTypes, 1, samParameterTypes.length),
+                        (IMethod[]) instanceMethods.toArray(new IMethod[instanceMethods.size()])
+                    )
+                );
+            }
+        } else
+        {
+
+            // "expr::method" => "receiver.method(p0, p1, ...)", where the receiver is evaluated (only once) when the
+            // method reference is evaluated.
+            String methodName   = ((MethodReference) fe).methodName;
+            IClass receiverType = this.getType(this.toRvalueOrCompileException(lhs));
+
+            FormalParameter receiver = new FormalParameter(
+                loc,                                // location
+                new Modifier[0],                    // modifiers
+                new SimpleType(loc, receiverType),  // type
+                "receiver"                          // name
+            );
+            parameters.add(0, receiver);
+
+            List<IMethod> methods = new ArrayList<IMethod>();
+            for (IMethod m : receiverType.getIMethods(methodName)) {
+                if (!m.isStatic() && UnitCompiler.isArityCompatible(m, arguments.length)) methods.add(m);
+            }
+            value = new MethodInvocation(
+                loc,                                                // location
+                new ParameterAccess(loc, receiver),                 // target
+                methodName,                                         // methodName
+                this.adaptArguments(arguments, samParameterTypes, ( // arguments
+                    (IMethod[]) methods.toArray(new IMethod[methods.size()])
+                ))
+            );
+        }
+
+        // An array creation expression is not a statement expression, thus "T[]::new" with a "void" function
+        // type compiles to "Object array = new T[p0];".
+        BlockStatement body;
+        if (sam.getReturnType() != IClass.VOID) {
+            body = new ReturnStatement(loc, value);
+        } else
+        if (value instanceof NewArray) {
+            body = new LocalVariableDeclarationStatement(
+                loc,                                                                        // location
+                new Modifier[0],                                                            // modifiers
+                new SimpleType(loc, this.iClassLoader.TYPE_java_lang_Object),               // type
+                new VariableDeclarator[] { new VariableDeclarator(loc, "array", 0, value) } // variableDeclarators
+            );
+        } else
+        {
+            body = new ExpressionStatement(value);
+        }
+
+        return this.declareSyntheticLambdaMethod(
+            fe,                                                                             // functionalExpression
+            sam,                                                                            // sam
+            (FormalParameter[]) parameters.toArray(new FormalParameter[parameters.size()]), // parameters
+            body                                                                            // body
+        );
+    }
+
+    /**
+     * {@link Rvalue#setEnclosingScope(Scope)} does not descend into method references, so this method sets the
+     * enclosing scope of the type or expression left of the "{@code ::}".
+     *
+     * @return The type or expression left of the "{@code ::}"
+     */
+    private static Atom
+    methodReferenceLhs(Rvalue fe) {
+
+        Atom lhs = (
+            fe instanceof MethodReference                ? ((MethodReference) fe).lhs :
+            fe instanceof ClassInstanceCreationReference ? ((ClassInstanceCreationReference) fe).type :
+            ((ArrayCreationReference) fe).type
+        );
+
+        if (lhs instanceof Type) {
+            ((Type) lhs).setEnclosingScope(fe.getEnclosingScope());
+        } else
+        if (lhs instanceof Rvalue) {
+            ((Rvalue) lhs).setEnclosingScope(fe.getEnclosingScope());
+        }
+
+        return lhs;
+    }
+
+    private static boolean
+    isArityCompatible(IInvocable invocable, int argumentCount) throws CompileException {
+        int parameterCount = invocable.getParameterTypes().length;
+        return (
+            argumentCount == parameterCount
+            || (invocable.isVarargs() && argumentCount >= parameterCount - 1)
+        );
+    }
+
+    /**
+     * If exactly one of the <var>invocables</var> takes {@code arguments.length} parameters, then the
+     * <var>arguments</var> (which are typed after the erased parameters of a functional method) are cast to its
+     * parameter types; otherwise the <var>arguments</var> are left as they are, and overload resolution decides.
+     */
+    private Rvalue[]
+    adaptArguments(Rvalue[] arguments, IClass[] argumentTypes, IInvocable[] invocables) throws CompileException {
+
+        IInvocable invocable = null;
+        for (IInvocable ii : invocables) {
+            if (ii.getParameterTypes().length != arguments.length) continue;
+            if (invocable != null) return arguments;
+            invocable = ii;
+        }
+        if (invocable == null) return arguments;
+
+        IClass[] parameterTypes = invocable.getParameterTypes();
+        Rvalue[] result         = new Rvalue[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            result[i] = this.adaptArgument(arguments[i], argumentTypes[i], parameterTypes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Casts the <var>argument</var> to the <var>parameterType</var> (or to its wrapper type) iff that is necessary
+     * for its invocation conversion.
+     */
+    private Rvalue
+    adaptArgument(Rvalue argument, IClass argumentType, IClass parameterType) throws CompileException {
+
+        if (argumentType.isPrimitive() || parameterType.isAssignableFrom(argumentType)) return argument;
+
+        IClass castType = parameterType;
+        if (parameterType.isPrimitive()) {
+            castType = this.isBoxingConvertible(parameterType);
+            assert castType != null;
+        }
+
+        return new Cast(argument.getLocation(), new SimpleType(argument.getLocation(), castType), argument);
+    }
+
+    /**
+     * Declares a private method named "{@code lambda$}<var>enclosingMethod</var>{@code $}<var>n</var>" which
+     * implements a lambda expression or method reference. Its parameters are the local variables of the enclosing
+     * scope that the <var>body</var> references, followed by the given <var>parameters</var>. The method is static
+     * unless the <var>body</var> (possibly) refers to the current instance, so that non-capturing lambda expressions
+     * evaluate to a constant. It is compiled later, together with the other methods of the class.
+     */
+    private MethodDeclarator
+    declareSyntheticLambdaMethod(
+        Rvalue            functionalExpression,
+        IMethod           sam,
+        FormalParameter[] parameters,
+        BlockStatement    body
+    ) throws CompileException {
+        Location loc   = functionalExpression.getLocation();
+        Scope    scope = functionalExpression.getEnclosingScope();
+
+        // Determine the enclosing type body declaration; the arguments of an alternate constructor invocation or a
+        // superclass constructor invocation are in a static context (JLS8 8.8.7.1).
+        boolean staticContext = false;
+        Scope   s;
+        for (s = scope; !(s instanceof TypeBodyDeclaration); s = s.getEnclosingScope()) {
+            if (s instanceof ConstructorInvocation) staticContext = true;
+        }
+        TypeBodyDeclaration tbd = (TypeBodyDeclaration) s;
+        if (UnitCompiler.isStaticContext(tbd)) staticContext = true;
+
+        if (!(tbd.getDeclaringType() instanceof AbstractClassDeclaration)) {
+            throw UnitCompiler.compileException(
+                functionalExpression,
+                "Lambda expressions and method references in interfaces are not implemented"
+            );
+        }
+        AbstractClassDeclaration declaringClass = (AbstractClassDeclaration) tbd.getDeclaringType();
+
+        // Compose the method name like JAVAC does.
+        String methodName;
+        {
+            String enclosingName = (
+                tbd instanceof MethodDeclarator ? ((MethodDeclarator) tbd).name :
+                UnitCompiler.isStaticContext(tbd) ? "static" :
+                "new"
+            );
+            if (enclosingName.startsWith("lambda$")) {
+                enclosingName = enclosingName.substring(7, enclosingName.lastIndexOf('$'));
+            }
+
+            int n = 0;
+            for (MethodDeclarator md : declaringClass.getMethodDeclarations()) {
+                if (md.name.startsWith("lambda$")) n++;
+            }
+            methodName = "lambda$" + enclosingName + '$' + n;
+        }
+
+        // Find the names that the body (including nested lambda bodies) uses.
+        BodyAnalyzer ba = new BodyAnalyzer();
+        ba.visitBlockStatement(body);
+        for (FormalParameter fp : parameters) ba.names.remove(fp.name);
+
+        // The local variables of the enclosing scope that the body references are "captured" (JLS8 15.27.2).
+        List<FormalParameter> formalParameters = new ArrayList<FormalParameter>();
+        if (scope instanceof BlockStatement) {
+            for (Iterator<String> it = ba.names.iterator(); it.hasNext();) {
+                String        name = (String) it.next();
+                LocalVariable lv   = ((BlockStatement) scope).findLocalVariable(name);
+                if (lv == null) continue;
+                formalParameters.add(new FormalParameter(
+                    loc,                          // location
+                    new Modifier[0],              // modifiers
+                    new SimpleType(loc, lv.type), // type
+                    name                          // name
+                ));
+                it.remove();
+            }
+        }
+        formalParameters.addAll(Arrays.asList(parameters));
+
+        // Any other name could designate a non-static field or method of an enclosing class, or a local variable
+        // that an enclosing class captures; then the method must be non-static.
+        boolean usesThis = ba.usesThis;
+        if (!staticContext && !usesThis) {
+            for (s = declaringClass; !(s instanceof CompilationUnit); s = s.getEnclosingScope()) {
+                if (s instanceof BlockStatement) {
+                    for (String name : ba.names) {
+                        if (((BlockStatement) s).findLocalVariable(name) != null) usesThis = true;
+                    }
+                } else
+                if (s instanceof AbstractTypeDeclaration) {
+                    IClass iClass = this.resolve((AbstractTypeDeclaration) s);
+                    for (String name : ba.names) {
+                        IField f = this.findIField(iClass, name, loc);
+                        if (f != null && !f.isStatic()) usesThis = true;
+                    }
+                    for (String name : ba.methodNames) {
+                        for (IMethod m : iClass.getIMethods(name)) {
+                            if (!m.isStatic()) usesThis = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        IClass[] thrownExceptions = sam.getThrownExceptions();
+        Type[]   tes              = new Type[thrownExceptions.length];
+        for (int i = 0; i < thrownExceptions.length; i++) tes[i] = new SimpleType(loc, thrownExceptions[i]);
+
+        MethodDeclarator result = new MethodDeclarator(
+            loc,                                                             // location
+            null,                                                            // docComment
+            (                                                                // modifiers
+                staticContext || !usesThis
+                ? UnitCompiler.accessModifiers(loc, "private", "static")
+                : UnitCompiler.accessModifiers(loc, "private")
+            ),
+            null,                                                            // typeParameters
+            new SimpleType(loc, sam.getReturnType()),                        // type
+            methodName,                                                      // name
+            new FormalParameters(                                            // formalParameters
+                loc,
+                (FormalParameter[]) formalParameters.toArray(new FormalParameter[formalParameters.size()]),
+                false
+            ),
+            tes,                                                             // thrownExceptions
+            null,                                                            // defaultValue
+            Collections.singletonList(body)                                  // statements
+        );
+
+        // The method is compiled after the methods (and constructors) that are currently being compiled; see
+        // "compile2(AbstractClassDeclaration)".
+        declaringClass.addDeclaredMethod(result);
+        declaringClass.invalidateMethodCaches();
+
+        return result;
+    }
+
+    /**
+     * Finds the names that a lambda body (including nested lambda bodies) uses.
+     */
+    private static
+    class BodyAnalyzer extends AbstractTraverser<CompileException> {
+
+        /**
+         * The first identifiers of all ambiguous names.
+         */
+        final Set<String> names = new LinkedHashSet<String>();
+
+        /**
+         * The names of all unqualified method invocations.
+         */
+        final Set<String> methodNames = new HashSet<String>();
+
+        /**
+         * Whether the body certainly refers to the current instance.
+         */
+        boolean usesThis;
+
+        @Override public void
+        traverseAmbiguousName(AmbiguousName an) { this.names.add(an.identifiers[0]); }
+
+        @Override public void
+        traverseMethodInvocation(MethodInvocation mi) throws CompileException {
+            if (mi.target == null) this.methodNames.add(mi.methodName);
+            super.traverseMethodInvocation(mi);
+        }
+
+        @Override public void
+        traverseThisReference(ThisReference tr) { this.usesThis = true; }
+
+        @Override public void
+        traverseQualifiedThisReference(QualifiedThisReference qtr) { this.usesThis = true; }
+
+        @Override public void
+        traverseSuperclassMethodInvocation(SuperclassMethodInvocation smi) throws CompileException {
+            this.usesThis = true;
+            super.traverseSuperclassMethodInvocation(smi);
+        }
+
+        @Override public void
+        traverseSuperclassFieldAccessExpression(SuperclassFieldAccessExpression scfae) {
+            this.usesThis = true;
+        }
+
+        @Override public void
+        traverseNewClassInstance(NewClassInstance nci) throws CompileException {
+            IClass iClass = nci.iClass;
+            if (nci.qualification == null && (iClass == null || iClass.getOuterIClass() != null)) {
+                this.usesThis = true;
+            }
+            super.traverseNewClassInstance(nci);
+        }
+
+        @Override public void
+        traverseNewAnonymousClassInstance(NewAnonymousClassInstance naci) throws CompileException {
+            this.usesThis = true;
+            super.traverseNewAnonymousClassInstance(naci);
+        }
+
+        @Override public void
+        traverseLocalClassDeclarationStatement(LocalClassDeclarationStatement lcds) {
+            this.usesThis = true;
+        }
+
+        @Override public void
+        traverseLambdaExpression(LambdaExpression le) throws CompileException {
+            if (le.body instanceof BlockLambdaBody) {
+                this.visitBlockStatement(((BlockLambdaBody) le.body).block);
+            } else {
+                this.visitAtom(((ExpressionLambdaBody) le.body).expression);
+            }
+        }
+
+        @Override public void
+        traverseMethodReference(MethodReference mr) throws CompileException { this.visitAtom(mr.lhs); }
+    }
+
+    /**
+     * Pushes the captured values and creates the functional interface instance through an {@code invokedynamic}
+     * instruction that is bootstrapped by {@code java.lang.invoke.LambdaMetafactory.metafactory()}.
+     */
+    private void
+    invokeLambdaMetafactory(Rvalue fe, MethodDeclarator md, IMethod sam, IClass targetType)
+    throws CompileException {
+
+        ClassFile         cf                = this.getCodeContext().getClassFile();
+        IClass            declaringIClass   = this.resolve(md.getDeclaringType());
+        IClass[]          samParameterTypes = sam.getParameterTypes();
+        FormalParameter[] fps               = md.formalParameters.parameters;
+        int               capturedCount     = fps.length - samParameterTypes.length;
+
+        // Push "this", the captured local variables, and the bound receiver of a method reference.
+        List<String> capturedFds = new ArrayList<String>();
+        if (!md.isStatic()) {
+            this.referenceThis(fe, declaringIClass);
+            capturedFds.add(declaringIClass.getDescriptor());
+        }
+        for (int i = 0; i < capturedCount; i++) {
+            if (fe instanceof MethodReference) {
+
+                // JLS8 15.13.3: The receiver is evaluated, and checked for null, when the method reference is
+                // evaluated.
+                this.compileGetValue(this.toRvalueOrCompileException(((MethodReference) fe).lhs));
+                IMethod getClass = this.iClassLoader.TYPE_java_lang_Object.findIMethod("getClass", new IClass[0]);
+                assert getClass != null;
+                this.dup(fe);
+                this.invoke(fe, getClass);
+                this.pop(fe, getClass.getReturnType());
+            } else {
+                LocalVariable lv = ((BlockStatement) fe.getEnclosingScope()).findLocalVariable(fps[i].name);
+                assert lv != null;
+                this.load(fe, lv);
+            }
+            capturedFds.add(this.getType(fps[i].type).getDescriptor());
+        }
+
+        // Non-static private methods are compiled as static methods with an extra leading parameter; see
+        // "compile2(FunctionDeclarator)".
+        String           implementationName = md.name;
+        MethodDescriptor implementationMd   = this.toIMethod(md).getDescriptor();
+        if (!md.isStatic()) {
+            implementationName += '$';
+            implementationMd   =  implementationMd.prependParameter(declaringIClass.getDescriptor());
+        }
+
+        String[] instantiatedParameterFds = new String[samParameterTypes.length];
+        for (int i = 0; i < samParameterTypes.length; i++) {
+            instantiatedParameterFds[i] = this.getType(fps[capturedCount + i].type).getDescriptor();
+        }
+
+        this.invokeDynamic(
+            fe,                                                                  // locatable
+            cf.addBootstrapMethod(                                               // bootstrapMethodAttrIndex
+                cf.addConstantMethodHandleInfo(
+                    ClassFile.REF_INVOKE_STATIC,
+                    cf.addConstantMethodrefInfo(
+                        "Ljava/lang/invoke/LambdaMetafactory;",
+                        "metafactory",
+                        (
+                            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+                            + "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;"
+                            + "Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;"
+                        )
+                    )
+                ),
+                new short[] {
+
+                    // samMethodType
+                    cf.addConstantMethodTypeInfo(sam.getDescriptor().toString()),
+
+                    // implMethod
+                    cf.addConstantMethodHandleInfo(
+                        ClassFile.REF_INVOKE_STATIC,
+                        cf.addConstantMethodrefInfo(
+                            declaringIClass.getDescriptor(),
+                            implementationName,
+                            implementationMd.toString()
+                        )
+                    ),
+
+                    // instantiatedMethodType
+                    cf.addConstantMethodTypeInfo(
+                        new MethodDescriptor(sam.getReturnType().getDescriptor(), instantiatedParameterFds).toString()
+                    ),
+                }
+            ),
+            sam.getName(),                                                       // methodName
+            new MethodDescriptor(                                                // methodDescriptor
+                targetType.getDescriptor(),
+                (String[]) capturedFds.toArray(new String[capturedFds.size()])
+            )
+        );
+    }
+
+    /**
+     * Determines the type of a lambda expression or method reference that is the <var>index</var>th of
+     * <var>argumentCount</var> arguments of an invocation, from the parameter types of those
+     * <var>iInvocables</var> for which the argument is potentially compatible (JLS8 15.12.2.1).
+     */
+    private IClass
+    getFunctionalArgumentType(Rvalue fe, IInvocable[] iInvocables, int index, int argumentCount)
+    throws CompileException {
+
+        IClass result = null;
+        for (IInvocable ii : iInvocables) {
+            IClass[] pts = ii.getParameterTypes();
+            if (
+                ii.isVarargs()
+                ? argumentCount < pts.length - 1 || index >= pts.length - 1
+                : argumentCount != pts.length
+            ) continue;
+
+            IMethod sam = this.findFunctionalMethod(pts[index]);
+            if (sam == null || !this.isPotentiallyCompatible(fe, sam)) continue;
+
+            if (result != null && result != pts[index]) {
+                this.compileError((
+                    "Ambiguous target type \""
+                    + result
+                    + "\" vs. \""
+                    + pts[index]
+                    + "\" of lambda expression or method reference; consider a cast"
+                ), fe.getLocation());
+                break;
+            }
+            result = pts[index];
+        }
+
+        return result != null ? result : this.iClassLoader.TYPE_java_lang_Object;
+    }
+
+    /**
+     * @return Whether the lambda expression or method reference <var>fe</var> is potentially compatible with a
+     *         functional interface with the given functional method (JLS8 15.12.2.1)
+     */
+    private boolean
+    isPotentiallyCompatible(Rvalue fe, IMethod sam) throws CompileException {
+
+        // A conditional expression is potentially compatible iff its lambda expression and method reference operands
+        // are.
+        if (fe instanceof ConditionalExpression) {
+            ConditionalExpression ce = (ConditionalExpression) fe;
+            for (Rvalue operand : new Rvalue[] { ce.mhs, ce.rhs }) {
+                Rvalue ofe = UnitCompiler.functionalExpression(operand);
+                if (ofe != null && !this.isPotentiallyCompatible(ofe, sam)) return false;
+            }
+            return true;
+        }
+
+        int n = sam.getParameterTypes().length;
 
-        for (int i = 0; i < ai.values.length; ++i) {
-            ArrayInitializerOrRvalue aiorv = ai.values[i];
+        if (fe instanceof LambdaExpression) {
+            LambdaExpression le = (LambdaExpression) fe;
 
-            this.dup(aiorv);
-            this.consT(ai, i);
-            if (aiorv instanceof Rvalue) {
-                Rvalue rv = (Rvalue) aiorv;
-                this.assignmentConversion(
-                    ai,                       // locatable
-                    this.compileGetValue(rv), // sourceType
-                    ct,                       // targetType
-                    this.getConstantValue(rv) // constantValue
-                );
+            int parameterCount;
+            if (le.parameters instanceof IdentifierLambdaParameters) {
+                parameterCount = 1;
             } else
-            if (aiorv instanceof ArrayInitializer) {
-                this.compileGetValue((ArrayInitializer) aiorv, ct);
+            if (le.parameters instanceof InferredLambdaParameters) {
+                parameterCount = ((InferredLambdaParameters) le.parameters).names.length;
             } else
             {
-                throw new InternalCompilerException(
-                    "Unexpected array initializer or rvalue class " + aiorv.getClass().getName()
+                parameterCount = ((FormalLambdaParameters) le.parameters).formalParameters.parameters.length;
+            }
+            if (parameterCount != n) return false;
+
+            if (le.body instanceof ExpressionLambdaBody) {
+                Rvalue value = ((ExpressionLambdaBody) le.body).expression;
+                return sam.getReturnType() != IClass.VOID || (
+                    value instanceof Assignment
+                    || value instanceof Crement
+                    || value instanceof MethodInvocation
+                    || value instanceof SuperclassMethodInvocation
+                    || value instanceof NewClassInstance
+                    || value instanceof NewAnonymousClassInstance
                 );
             }
-            this.arraystore(aiorv, ct);
+
+            // A block lambda body is "value-compatible" iff it has "return <value>;" statements, and "void-compatible"
+            // otherwise.
+            ValueReturnFinder vrf = new ValueReturnFinder();
+            vrf.visitBlockStatement(((BlockLambdaBody) le.body).block);
+
+            return vrf.found == (sam.getReturnType() != IClass.VOID);
         }
-    }
 
-    private IClass
-    compileGet2(Literal l) throws CompileException {
-        return this.consT(l, this.getConstantValue(l));
-    }
-    private IClass
-    compileGet2(SimpleConstant sl) throws CompileException {
-        return this.consT(sl, sl.value);
+        if (fe instanceof ArrayCreationReference) return n == 1;
+
+        Atom lhs = UnitCompiler.methodReferenceLhs(fe);
+
+        if (fe instanceof ClassInstanceCreationReference) {
+            for (IConstructor ic : this.getType((Type) lhs).getDeclaredIConstructors()) {
+                if (UnitCompiler.isArityCompatible(ic, n)) return true;
+            }
+            return false;
+        }
+
+        IMethod[] ms = this.getType(lhs).getIMethods(((MethodReference) fe).methodName);
+        if (ms.length == 0) return true; // E.g. methods inherited from "Object" by interfaces; report errors later.
+
+        boolean isType = this.isType(lhs);
+        for (IMethod m : ms) {
+            if (UnitCompiler.isArityCompatible(m, n)) return true;
+            if (isType && !m.isStatic() && UnitCompiler.isArityCompatible(m, n - 1)) return true;
+        }
+        return false;
     }
 
     /**
-     * Convenience function that calls {@link #compileContext(Rvalue)} and {@link #compileGet(Rvalue)}.
-     *
-     * @return The type of the Rvalue
+     * Finds {@code return} statements with a value, except those of nested classes.
      */
-    private IClass
-    compileGetValue(Rvalue rv) throws CompileException {
-        Object cv = this.getConstantValue(rv);
-        if (cv != UnitCompiler.NOT_CONSTANT) {
-            this.fakeCompile(rv); // To check that, e.g., "a" compiles in "true || a".
-            this.consT(rv, cv);
-            return this.getType(rv);
-        }
+    private static
+    class ValueReturnFinder extends AbstractTraverser<RuntimeException> {
 
-        this.compileContext(rv);
-        return this.compileGet(rv);
+        boolean found;
+
+        @Override public void
+        traverseReturnStatement(ReturnStatement rs) { if (rs.returnValue != null) this.found = true; }
+
+        // Return statements of nested classes are not relevant.
+        @Override public void
+        traverseAnonymousClassDeclaration(AnonymousClassDeclaration acd) {}
+
+        @Override public void
+        traverseLocalClassDeclarationStatement(LocalClassDeclarationStatement lcds) {}
     }
 
     // -------------------- Rvalue.getConstantValue() -----------------
@@ -5755,6 +6956,9 @@ class UnitCompiler {
         Object lhsCv = this.getConstantValue(ce.lhs);
         if (!(lhsCv instanceof Boolean)) return UnitCompiler.NOT_CONSTANT;
 
+        // A lambda expression or method reference operand has no type of its own.
+        if (UnitCompiler.functionalExpression(ce) != null) return UnitCompiler.NOT_CONSTANT;
+
         IClass ceType = this.getType2(ce);
 
         if (!ceType.isPrimitive() && ceType != this.iClassLoader.TYPE_java_lang_String) return UnitCompiler.NOT_CONSTANT;
@@ -6836,22 +8040,34 @@ class UnitCompiler {
 
     @SuppressWarnings("static-method") private IClass
     getType2(LambdaExpression le) throws CompileException {
-        throw UnitCompiler.compileException(le, "Compilation of lambda expression NYI");
+        throw UnitCompiler.compileException(
+            le,
+            "Lambda expression is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     @SuppressWarnings("static-method") private IClass
     getType2(MethodReference mr) throws CompileException {
-        throw UnitCompiler.compileException(mr, "Compilation of method reference NYI");
+        throw UnitCompiler.compileException(
+            mr,
+            "Method reference is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     @SuppressWarnings("static-method") private IClass
     getType2(ClassInstanceCreationReference cicr) throws CompileException {
-        throw UnitCompiler.compileException(cicr, "Compilation of class instance creation reference NYI");
+        throw UnitCompiler.compileException(
+            cicr,
+            "Class instance creation reference is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     @SuppressWarnings("static-method") private IClass
     getType2(ArrayCreationReference acr) throws CompileException {
-        throw UnitCompiler.compileException(acr, "Compilation of array creation reference NYI");
+        throw UnitCompiler.compileException(
+            acr,
+            "Array creation reference is only allowed in an assignment, invocation, return or cast context"
+        );
     }
 
     private IClass
@@ -7656,7 +8872,22 @@ class UnitCompiler {
             return this.compileStringConcatenation(locatable, firstOperandType, (Rvalue) operands.next(), operands);
         }
 
-        IClass type = firstOperandType == null ? this.compileGetValue((Rvalue) operands.next()) : firstOperandType;
+        IClass type;
+        if (firstOperandType != null) {
+            type = firstOperandType;
+        } else
+        if (operator == "+" && this.isIndyStringConcatenationEnabled()) { // SUPPRESS CHECKSTYLE StringLiteralEquality
+            Rvalue firstOperand = (Rvalue) operands.next();
+
+            // Leave a leading string operand off the stack, so that it can be folded into the recipe if constant.
+            if (this.getType(firstOperand) == this.iClassLoader.TYPE_java_lang_String) {
+                return this.compileStringConcatenation(locatable, null, firstOperand, operands);
+            }
+            type = this.compileGetValue(firstOperand);
+        } else
+        {
+            type = this.compileGetValue((Rvalue) operands.next());
+        }
 
         // Operator which is allowed for BYTE, SHORT, INT, LONG and BOOLEAN operands?
         if (operator == "|" || operator == "^" || operator == "&") { // SUPPRESS CHECKSTYLE StringLiteralEquality:5
@@ -7775,21 +9006,20 @@ class UnitCompiler {
     }
 
     /**
-     * @param type          The type of the first operand, which is already on the stack
+     * @param type          The type of the first operand, which is already on the stack, or {@code null} iff
+     *                      <var>secondOperand</var> is actually the <em>first</em> operand, and nothing is on the
+     *                      stack yet
      * @param secondOperand The second operand
      * @param operands      All following operands
      */
     private IClass
     compileStringConcatenation(
         final Locatable  locatable,
-        IClass           type,
+        @Nullable IClass type,
         final Rvalue     secondOperand,
         Iterator<Rvalue> operands
     ) throws CompileException {
 
-        // Convert the first operand (which is already on the operand stack) to "String".
-        this.stringConversion(locatable, type);
-
         // Compute list of operands and merge consecutive constant operands.
         List<Rvalue> tmp = new ArrayList<Rvalue>();
         for (Rvalue nextOperand = secondOperand; nextOperand != null;) {
@@ -7835,6 +9065,16 @@ class UnitCompiler {
         // At this point "tmp" contains an optimized sequence of Strings (representing constant portions) and Rvalues
         // (non-constant portions).
 
+        if (
+            this.isIndyStringConcatenationEnabled()
+            && this.compileIndyStringConcatenation(locatable, type, tmp)
+        ) return this.iClassLoader.TYPE_java_lang_String;
+
+        if (type == null) type = this.compileGetValue((Rvalue) tmp.remove(0));
+
+        // Convert the first operand (which is now on the operand stack) to "String".
+        this.stringConversion(locatable, type);
+
         if (tmp.size() <= UnitCompiler.STRING_CONCAT_LIMIT - 1) {
 
             // String concatenation through "a.concat(b).concat(c)".
@@ -7847,11 +9087,23 @@ class UnitCompiler {
             return this.iClassLoader.TYPE_java_lang_String;
         }
 
-        // String concatenation through "new StringBuilder(a).append(b).append(c).append(d).toString()".
+        // String concatenation through "new StringBuilder(n).append(a).append(b).append(c).toString()", where "n"
+        // is the estimated length of the result, so that the builder's buffer is (hopefully) never enlarged.
+        int capacity = UnitCompiler.STRING_CONCAT_NON_CONSTANT_OPERAND_SIZE;
+        for (Rvalue operand : tmp) {
+            Object cv = this.getConstantValue(operand);
+            capacity += (
+                cv == UnitCompiler.NOT_CONSTANT
+                ? UnitCompiler.STRING_CONCAT_NON_CONSTANT_OPERAND_SIZE
+                : String.valueOf(cv).length()
+            );
+        }
         this.neW(locatable, this.iClassLoader.TYPE_java_lang_StringBuilder);
-        this.dupx(locatable);
+        this.dup(locatable);
+        this.consT(locatable, capacity);
+        this.invoke(locatable, this.iClassLoader.CTOR_java_lang_StringBuilder__int);
         this.swap(locatable);
-        this.invoke(locatable, this.iClassLoader.CTOR_java_lang_StringBuilder__java_lang_String);
+        this.invoke(locatable, this.iClassLoader.METH_java_lang_StringBuilder__append__java_lang_String);
 
         for (Iterator<Rvalue> it = tmp.iterator(); it.hasNext();) {
             Rvalue operand = (Rvalue) it.next();
@@ -7877,6 +9129,132 @@ class UnitCompiler {
         return this.iClassLoader.TYPE_java_lang_String;
     }
 
+    /**
+     * @return Whether string concatenation is to be implemented with {@code StringConcatFactory}, which requires Java 9
+     *         class files
+     */
+    private boolean
+    isIndyStringConcatenationEnabled() {
+        return (
+            this.options.contains(JaninoOption.INDY_STRING_CONCATENATION)
+            && this.getCodeContext().getClassFile().getMajorVersion() >= ClassFile.MAJOR_VERSION_JDK_1_9
+        );
+    }
+
+    /**
+     * Implements string concatenation by invoking {@code StringConcatFactory.makeConcatWithConstants()} through
+     * INVOKEDYNAMIC. The constant operands are folded into the recipe (or, if they contain one of the recipe's tag
+     * characters, passed as static arguments), and the non-constant operands become the arguments of the call site.
+     *
+     * @param type     The type of the first operand, which is already on the stack, or {@code null} iff nothing is on
+     *                 the stack yet
+     * @param operands The (following) operands, where consecutive constant operands are already merged
+     * @return         {@code false} iff the concatenation exceeds the limits of {@code StringConcatFactory}; then no
+     *                 code was generated
+     */
+    private boolean
+    compileIndyStringConcatenation(Locatable locatable, @Nullable IClass type, List<Rvalue> operands)
+    throws CompileException {
+
+        ClassFile cf = this.getCodeContext().getClassFile();
+
+        // Compute the recipe, the static arguments and the types of the dynamic arguments.
+        StringBuilder recipe       = new StringBuilder();
+        int           recipeLength = 0; // Number of bytes in the UTF-8 encoding of the recipe.
+        List<Short>   constants    = new ArrayList<Short>();
+        List<String>  argumentFds  = new ArrayList<String>();
+        int           slots        = 0;
+        if (type != null) {
+            recipe.append('\1');
+            recipeLength++;
+            argumentFds.add(this.stringConcatenationArgumentFd(type));
+            slots += Descriptor.size(type.getDescriptor());
+        }
+        for (Rvalue operand : operands) {
+            Object cv = this.getConstantValue(operand);
+            if (cv == UnitCompiler.NOT_CONSTANT) {
+                IClass t = this.getType(operand);
+                recipe.append('\1');
+                recipeLength++;
+                argumentFds.add(this.stringConcatenationArgumentFd(t));
+                slots += Descriptor.size(t.getDescriptor());
+            } else
+            {
+                String s         = String.valueOf(cv);
+                int    utfLength = UnitCompiler.utf8Length(s);
+                if (s.indexOf('\1') != -1 || s.indexOf('\2') != -1 || recipeLength + utfLength > 65535) {
+                    recipe.append('\2');
+                    recipeLength++;
+                    constants.add(cf.addConstantStringInfo(s));
+                } else {
+                    recipe.append(s);
+                    recipeLength += utfLength;
+                }
+            }
+        }
+        if (slots + constants.size() > UnitCompiler.MAX_INDY_STRING_CONCAT_ARG_SLOTS) return false;
+
+        // Now push the dynamic arguments.
+        for (Rvalue operand : operands) {
+            if (this.getConstantValue(operand) == UnitCompiler.NOT_CONSTANT) this.compileGetValue(operand);
+        }
+
+        short[] bootstrapArguments = new short[1 + constants.size()];
+        bootstrapArguments[0] = cf.addConstantStringInfo(recipe.toString());
+        for (int i = 0; i < constants.size(); i++) bootstrapArguments[1 + i] = (Short) constants.get(i);
+
+        this.invokeDynamic(
+            locatable,                                                      // locatable
+            cf.addBootstrapMethod(                                          // bootstrapMethodAttrIndex
+                cf.addConstantMethodHandleInfo(
+                    ClassFile.REF_INVOKE_STATIC,
+                    cf.addConstantMethodrefInfo(
+                        "Ljava/lang/invoke/StringConcatFactory;",
+                        "makeConcatWithConstants",
+                        (
+                            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+                            + "Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;"
+                        )
+                    )
+                ),
+                bootstrapArguments
+            ),
+            "makeConcatWithConstants",                                      // methodName
+            new MethodDescriptor(                                           // methodDescriptor
+                Descriptor.JAVA_LANG_STRING,
+                (String[]) argumentFds.toArray(new String[argumentFds.size()])
+            )
+        );
+
+        return true;
+    }
+
+    /**
+     * @return The descriptor under which a value of type <var>t</var> is passed to a string concatenation call site;
+     *         the exact type of reference values is of no interest, and could be inaccessible for the call site
+     */
+    private String
+    stringConcatenationArgumentFd(IClass t) {
+        return (
+            t.isPrimitive()                              ? t.getDescriptor()          :
+            t == this.iClassLoader.TYPE_java_lang_String ? Descriptor.JAVA_LANG_STRING :
+            Descriptor.JAVA_LANG_OBJECT
+        );
+    }
+
+    /**
+     * @return The number of bytes that the "modified UTF-8" encoding of <var>s</var> requires (see JVMS7 4.4.7)
+     */
+    private static int
+    utf8Length(String s) {
+        int result = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            result += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return result;
+    }
+
     /**
      * Helper interface for string conversion.
      */
@@ -8112,7 +9490,7 @@ class UnitCompiler {
         Rvalue[] adjustedArgs   = null;
         IClass[] parameterTypes = iConstructor.getParameterTypes();
         int      actualSize     = arguments.length;
-        if (iConstructor.isVarargs() && iConstructor.argsNeedAdjust()) {
+        if (iConstructor.isVarargs() && this.argsNeedAdjust.contains(iConstructor)) {
             adjustedArgs = new Rvalue[parameterTypes.length];
             Rvalue[] lastArgs = new Rvalue[actualSize - parameterTypes.length + 1];
             for (int i = 0, j = parameterTypes.length - 1; i < lastArgs.length; ++i, ++j) {
@@ -8133,10 +9511,10 @@ class UnitCompiler {
 
         for (int i = 0; i < arguments.length; ++i) {
             this.assignmentConversion(
-                locatable,                          // locatable
-                this.compileGetValue(arguments[i]), // sourceType
-                parameterTypes[i],                  // targetType
-                this.getConstantValue(arguments[i]) // constantValue
+                locatable,                                             // locatable
+                this.compileGetValue(arguments[i], parameterTypes[i]), // sourceType
+                parameterTypes[i],                                     // targetType
+                this.getConstantValue(arguments[i])                    // constantValue
             );
         }
 
@@ -9073,25 +10451,26 @@ class UnitCompiler {
     findIMethod(IClass targetType, Invocation invocation) throws CompileException {
 
         // Get all methods.
-        List<IClass.IMethod> ms = new ArrayList<IClass.IMethod>();
-        this.getIMethods(targetType, invocation.methodName, ms);
+        IClass.IMethod[] ms = targetType.getIMethods(invocation.methodName);
 
         // Interfaces inherit the methods declared in 'Object'.
         if (targetType.isInterface()) {
+            List<IClass.IMethod> l = new ArrayList<IClass.IMethod>(Arrays.asList(ms));
             IClass.IMethod[] oms = this.iClassLoader.TYPE_java_lang_Object.getDeclaredIMethods(invocation.methodName);
             for (IMethod om : oms) {
-                if (!om.isStatic() && om.getAccess() == Access.PUBLIC) ms.add(om);
+                if (!om.isStatic() && om.getAccess() == Access.PUBLIC) l.add(om);
             }
+            ms = (IClass.IMethod[]) l.toArray(new IClass.IMethod[l.size()]);
         }
 
-        if (ms.size() == 0) return null;
+        if (ms.length == 0) return null;
 
         // Determine arguments' types, choose the most specific method.
         return (IClass.IMethod) this.findMostSpecificIInvocable(
-            invocation,                                                   // locatable
-            (IClass.IMethod[]) ms.toArray(new IClass.IMethod[ms.size()]), // iInvocables
-            invocation.arguments,                                         // arguments
-            invocation.getEnclosingScope()                                // contextScope
+            invocation,                    // locatable
+            ms,                            // iInvocables
+            invocation.arguments,          // arguments
+            invocation.getEnclosingScope() // contextScope
         );
     }
 
@@ -9118,20 +10497,7 @@ class UnitCompiler {
      */
     public void
     getIMethods(IClass type, String methodName, List<IMethod> v) throws CompileException {
-
-        // Check methods declared by this type.
-        {
-            IClass.IMethod[] ims = type.getDeclaredIMethods(methodName);
-            for (IMethod im : ims) v.add(im);
-        }
-
-        // Check superclass.
-        IClass superclass = type.getSuperclass();
-        if (superclass != null) this.getIMethods(superclass, methodName, v);
-
-        // Check superinterfaces.
-        IClass[] interfaces = type.getInterfaces();
-        for (IClass interfacE : interfaces) this.getIMethods(interfacE, methodName, v);
+        v.addAll(Arrays.asList(type.getIMethods(methodName)));
     }
 
     /**
@@ -9198,10 +10564,16 @@ class UnitCompiler {
         Scope              contextScope
     ) throws CompileException {
 
-        // Determine arguments' types.
+        // Determine arguments' types; lambda expressions and method references have no type of their own, but take
+        // the type of the matching parameter.
         final IClass[] argumentTypes = new IClass[arguments.length];
         for (int i = 0; i < arguments.length; ++i) {
-            argumentTypes[i] = this.getType(arguments[i]);
+            Rvalue fe = UnitCompiler.functionalExpression(arguments[i]);
+            argumentTypes[i] = (
+                fe != null
+                ? this.getFunctionalArgumentType(fe, iInvocables, i, arguments.length)
+                : this.getType(arguments[i])
+            );
         }
 
         // Determine most specific invocable WITHOUT boxing.
@@ -9261,6 +10633,10 @@ class UnitCompiler {
 
     /**
      * Determines the applicable invocables and choose the most specific invocable.
+     * <p>
+     *   The result is memoized per candidate set, argument types, boxing phase and accessibility context, because
+     *   typical (generated) code invokes the same methods with the same argument types over and over again.
+     * </p>
      *
      * @return The maximally specific {@link IClass.IInvocable} or {@code null} if no {@link IClass.IInvocable} is
      *         applicable
@@ -9273,6 +10649,76 @@ class UnitCompiler {
         boolean            boxingPermitted,
         Scope              contextScope
     ) throws CompileException {
+
+        Scope accessibilityContext = UnitCompiler.getAccessibilityContext(contextScope);
+
+        {
+            Resolution r = (Resolution) this.resolutions.get(
+                new ResolutionKey(iInvocables, argumentTypes, boxingPermitted, accessibilityContext)
+            );
+            if (r != null) {
+                IInvocable result = r.iInvocable;
+                if (result != null) {
+                    if (r.argsNeedAdjust) {
+                        this.argsNeedAdjust.add(result);
+                    } else {
+                        this.argsNeedAdjust.remove(result);
+                    }
+                }
+                return result;
+            }
+        }
+
+        int        errorCount = this.compileErrorCount;
+        IInvocable result     = this.findMostSpecificIInvocable2(
+            locatable,
+            iInvocables,
+            argumentTypes,
+            boxingPermitted,
+            contextScope
+        );
+
+        // Resolutions that reported errors are not memoized, so that the errors are reported again for other
+        // invocations.
+        if (this.compileErrorCount == errorCount) {
+            this.resolutions.put(
+                new ResolutionKey(
+                    (IInvocable[]) iInvocables.clone(),
+                    (IClass[]) argumentTypes.clone(),
+                    boxingPermitted,
+                    accessibilityContext
+                ),
+                new Resolution(result, result != null && this.argsNeedAdjust.contains(result))
+            );
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The innermost scope that determines the accessibility of types and members from the
+     *         <var>contextScope</var>; see {@link #internalCheckAccessible(IClass, Scope)} and {@link
+     *         #internalCheckAccessible(IClass, Access, Scope)}
+     */
+    private static Scope
+    getAccessibilityContext(Scope contextScope) {
+        for (Scope s = contextScope;; s = s.getEnclosingScope()) {
+            if (
+                s instanceof TypeDeclaration
+                || s instanceof EnclosingScopeOfTypeDeclaration
+                || s instanceof CompilationUnit
+            ) return s;
+        }
+    }
+
+    @Nullable private IClass.IInvocable
+    findMostSpecificIInvocable2(
+        Locatable          locatable,
+        final IInvocable[] iInvocables,
+        IClass[]           argumentTypes,
+        boolean            boxingPermitted,
+        Scope              contextScope
+    ) throws CompileException {
         if (UnitCompiler.LOGGER.isLoggable(Level.FINER)) {
             UnitCompiler.LOGGER.entering(null, "findMostSpecificIInvocable", new Object[] {
                 locatable, Arrays.toString(iInvocables), Arrays.toString(argumentTypes), boxingPermitted, contextScope
@@ -9358,7 +10804,11 @@ class UnitCompiler {
 
                 // Varargs has lower priority.
                 if (isVarargs) {
-                    ii.setArgsNeedAdjust(argsNeedAdjust);
+                    if (argsNeedAdjust) {
+                        this.argsNeedAdjust.add(ii);
+                    } else {
+                        this.argsNeedAdjust.remove(ii);
+                    }
                     varargApplicables.add(ii);
                 } else {
                     applicableIInvocables.add(ii);
@@ -9556,6 +11006,80 @@ class UnitCompiler {
         return iInvocables[0];
     }
 
+    /**
+     * The variable-arity invocables for which the most recent applicability check found that the trailing arguments
+     * must be wrapped in an array. This is kept here rather than in the {@link IInvocable}s, because these may be
+     * shared between concurrent compilations.
+     */
+    private final Set<IInvocable> argsNeedAdjust = new HashSet<IInvocable>();
+
+    /**
+     * The memoized results of {@link #findMostSpecificIInvocable(Locatable, IInvocable[], IClass[], boolean, Scope)}.
+     */
+    private final Map<ResolutionKey, Resolution> resolutions = new HashMap<ResolutionKey, Resolution>();
+
+    private static final
+    class ResolutionKey {
+
+        private final IInvocable[] iInvocables;
+        private final IClass[]     argumentTypes;
+        private final boolean      boxingPermitted;
+        private final Scope        accessibilityContext;
+
+        ResolutionKey(
+            IInvocable[] iInvocables,
+            IClass[]     argumentTypes,
+            boolean      boxingPermitted,
+            Scope        accessibilityContext
+        ) {
+            this.iInvocables          = iInvocables;
+            this.argumentTypes        = argumentTypes;
+            this.boxingPermitted      = boxingPermitted;
+            this.accessibilityContext = accessibilityContext;
+        }
+
+        @Override public boolean
+        equals(@Nullable Object o) {
+            if (!(o instanceof ResolutionKey)) return false;
+            ResolutionKey that = (ResolutionKey) o;
+            return (
+                this.boxingPermitted == that.boxingPermitted
+                && this.accessibilityContext == that.accessibilityContext
+                && Arrays.equals(this.argumentTypes, that.argumentTypes)
+                && Arrays.equals(this.iInvocables, that.iInvocables)
+            );
+        }
+
+        @Override public int
+        hashCode() {
+            return (
+                Arrays.hashCode(this.iInvocables)
+                ^ Arrays.hashCode(this.argumentTypes)
+                ^ System.identityHashCode(this.accessibilityContext)
+                ^ (this.boxingPermitted ? 1 : 0)
+            );
+        }
+    }
+
+    private static final
+    class Resolution {
+
+        /**
+         * {@code null} iff no invocable is applicable.
+         */
+        @Nullable final IInvocable iInvocable;
+
+        /**
+         * Whether the trailing arguments must be wrapped in an array for the (variable-arity) {@link #iInvocable}.
+         */
+        final boolean argsNeedAdjust;
+
+        Resolution(@Nullable IInvocable iInvocable, boolean argsNeedAdjust) {
+            this.iInvocable     = iInvocable;
+            this.argsNeedAdjust = argsNeedAdjust;
+        }
+    }
+
     private static <T> T
     assertNonNull(@Nullable T subject) {
         assert subject != null;
@@ -9740,7 +11264,7 @@ class UnitCompiler {
 
         if (atd.resolvedType != null) return atd.resolvedType;
 
-        return (atd.resolvedType = new IClass() {
+        return (atd.resolvedType = new IClass(this.iClassLoader.methodCachesGeneration) {
 
 //            final TypeParameter[] typeParameters = (
 //                atd instanceof NamedTypeDeclaration
@@ -9850,8 +11374,8 @@ class UnitCompiler {
             getDeclaredIConstructors2() {
                 if (atd instanceof AbstractClassDeclaration) {
                     AbstractClassDeclaration acd = (AbstractClassDeclaration) atd;
-
-                    ConstructorDeclarator[] cs     = acd.getConstructors();
+
+                    ConstructorDeclarator[] cs     = acd.getConstructors();
                     IClass.IConstructor[]   result = new IClass.IConstructor[cs.length];
                     for (int i = 0; i < cs.length; ++i) result[i] = UnitCompiler.this.toIConstructor(cs[i]);
                     return result;
@@ -10721,7 +12245,11 @@ class UnitCompiler {
         if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
             this.write(Opcode.SIPUSH);
             this.writeShort(value);
-        } else {
+        } else
+        if (this.spillConstant(locatable, IClass.INT, value)) {
+            return;
+        } else
+        {
             this.writeLdc(this.addConstantIntegerInfo(value));
         }
 
@@ -10736,6 +12264,9 @@ class UnitCompiler {
         if (value == 0L || value == 1L) {
             this.write(Opcode.LCONST_0 + (int) value);
         } else
+        if (this.spillConstant(locatable, IClass.LONG, value)) {
+            return;
+        } else
         {
             this.writeLdc2(this.addConstantLongInfo(value));
         }
@@ -10754,7 +12285,11 @@ class UnitCompiler {
             || value == 2.0F
         ) {
             this.write(Opcode.FCONST_0 + (int) value);
-        } else {
+        } else
+        if (this.spillConstant(locatable, IClass.FLOAT, value)) {
+            return;
+        } else
+        {
             this.writeLdc(this.addConstantFloatInfo(value));
         }
 
@@ -10771,7 +12306,11 @@ class UnitCompiler {
             || value == 1.0D
         ) {
             this.write(Opcode.DCONST_0 + (int) value);
-        } else {
+        } else
+        if (this.spillConstant(locatable, IClass.DOUBLE, value)) {
+            return;
+        } else
+        {
             this.writeLdc2(this.addConstantDoubleInfo(value));
         }
 
@@ -10780,11 +12319,43 @@ class UnitCompiler {
 
     private void
     consT(Locatable locatable, final String s) {
+        if (this.spillConstant(locatable, this.iClassLoader.TYPE_java_lang_String, s)) return;
         this.addLineNumberOffset(locatable);
         this.writeLdc(this.addConstantStringInfo(s));
         this.getCodeContext().pushObjectOperand(Descriptor.JAVA_LANG_STRING);
     }
 
+    /**
+     * Iff {@link JaninoOption#CONSTANT_POOL_SPILLING} is configured and the constant pool of the current class file
+     * has grown beyond the {@link #setConstantPoolSpillFraction(double) spill fraction}, then loads the constant from
+     * a holder class instead of from the constant pool.
+     *
+     * @return Whether the constant was spilled (and pushed onto the operand stack)
+     */
+    private boolean
+    spillConstant(Locatable locatable, IClass type, Object value) {
+
+        if (!this.options.contains(JaninoOption.CONSTANT_POOL_SPILLING)) return false;
+
+        ClassFile         cf  = this.getCodeContext().getClassFile();
+        ConstantPoolSpill cps = (ConstantPoolSpill) this.constantPoolSpills.get(cf);
+        if (cps == null) {
+            if (cf.getConstantPoolSize() < this.constantPoolSpillFraction * 0xFFFF) return false;
+            this.constantPoolSpills.put(cf, (cps = new ConstantPoolSpill(cf)));
+        }
+
+        // <holder>.VALUES[<index>]
+        ConstantPoolSpill.Holder h = cps.spill(type.getDescriptor(), value);
+        this.addLineNumberOffset(locatable);
+        this.write(Opcode.GETSTATIC);
+        this.writeShort(cf.addConstantFieldrefInfo(h.descriptor, "VALUES", h.arrayFd));
+        this.getCodeContext().pushOperand(h.arrayFd);
+        this.consT(locatable, h.indexOf(value));
+        this.xaload(locatable, type);
+
+        return true;
+    }
+
     private void
     consT(Locatable locatable, IClass iClass) {
         this.addLineNumberOffset(locatable);
@@ -11691,9 +13262,9 @@ class UnitCompiler {
     cmp(Locatable locatable, int opIdx) {
         assert opIdx >= UnitCompiler.EQ && opIdx <= UnitCompiler.LE;
 
-        VerificationTypeInfo operand2 = this.getCodeContext().currentInserter().getStackMap().peekOperand();
+        VerificationTypeInfo operand2 = this.getCodeContext().peekOperand();
         this.getCodeContext().popOperand();
-        VerificationTypeInfo operand1 = this.getCodeContext().currentInserter().getStackMap().peekOperand();
+        VerificationTypeInfo operand1 = this.getCodeContext().peekOperand();
         this.getCodeContext().popOperand();
 
         if (operand1 == StackMapTableAttribute.LONG_VARIABLE_INFO && operand2 == StackMapTableAttribute.LONG_VARIABLE_INFO) {
@@ -12018,6 +13589,39 @@ class UnitCompiler {
         }
     }
 
+    /**
+     * Expects the arguments of the call site on the operand stack.
+     *
+     * @param bootstrapMethodAttrIndex See {@link ClassFile#addBootstrapMethod(short, short[])}
+     */
+    private void
+    invokeDynamic(
+        Locatable        locatable,
+        short            bootstrapMethodAttrIndex,
+        String           methodName,
+        MethodDescriptor methodDescriptor
+    ) {
+
+        this.addLineNumberOffset(locatable);
+
+        for (int i = methodDescriptor.parameterFds.length - 1; i >= 0; i--) {
+            this.getCodeContext().popOperandAssignableTo(methodDescriptor.parameterFds[i]);
+        }
+
+        this.write(Opcode.INVOKEDYNAMIC);
+        this.writeShort(this.getCodeContext().getClassFile().addConstantInvokeDynamicInfo(
+            bootstrapMethodAttrIndex,
+            methodName,
+            methodDescriptor.toString()
+        ));
+        this.writeByte(0);
+        this.writeByte(0);
+
+        if (!methodDescriptor.returnFd.equals(Descriptor.VOID)) {
+            this.getCodeContext().pushOperand(methodDescriptor.returnFd);
+        }
+    }
+
     private void
     l2i(Locatable locatable) {
         this.addLineNumberOffset(locatable);
@@ -12557,7 +14161,11 @@ class UnitCompiler {
 
     private void
     addLineNumberOffset(Locatable locatable) {
-        this.getCodeContext().addLineNumberOffset(locatable.getLocation().getLineNumber());
+        this.getCodeContext().addLineNumberOffset(
+            locatable instanceof Located
+            ? ((Located) locatable).getLineNumber()
+            : locatable.getLocation().getLineNumber()
+        );
     }
 
     private void
@@ -12630,12 +14238,12 @@ class UnitCompiler {
             }
 
             this.invokeMethod(
-                locatable,                    // locatable
-                Opcode.INVOKESTATIC,          // opcode
-                iMethod.getDeclaringIClass(), // declaringIClass
-                iMethod.getName(),            // methodName
-                iMethod.getDescriptor(),      // methodMd
-                false                         // useInterfaceMethodref
+                locatable,                                 // locatable
+                Opcode.INVOKESTATIC,                       // opcode
+                iMethod.getDeclaringIClass(),              // declaringIClass
+                iMethod.getName(),                         // methodName
+                iMethod.getDescriptor(),                   // methodMd
+                iMethod.getDeclaringIClass().isInterface() // useInterfaceMethodref
             );
         } else
         if (iMethod.getDeclaringIClass().isInterface()) {
@@ -0,0 +1,168 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.janino.SignatureIndexIClassLoader;
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.ClassNameBloomFilter;
+
+/**
+ * Generates a signature index for the {@link SignatureIndexIClassLoader}. Usage:
+ * <pre>
+ *     java org.codehaus.janino.tools.SignatureIndexGenerator \
+ *         [ -jre ] <var>index-file</var> [ <var>directory-or-jar-file</var> ... ]
+ * </pre>
+ * <dl>
+ *   <dt>-jre</dt>
+ *   <dd>Add the classes of the running JRE (the boot class path resp. the runtime image)</dd>
+ * </dl>
+ * If the same class is found more than once, then the first occurrence is used.
+ */
+public final
+class SignatureIndexGenerator {
+    private SignatureIndexGenerator() {}
+
+    public static void // SUPPRESS CHECKSTYLE JavadocMethod
+    main(String[] args) throws Exception {
+
+        int     i   = 0;
+        boolean jre = false;
+        if (i < args.length && "-jre".equals(args[i])) {
+            jre = true;
+            i++;
+        }
+        if (i == args.length) {
+            System.err.println(
+                "Usage: java " + SignatureIndexGenerator.class.getName()
+                + " [ -jre ] <index-file> [ <directory-or-jar-file> ... ]"
+            );
+            System.exit(1);
+        }
+        File indexFile = new File(args[i++]);
+
+        SignatureIndexIClassLoader.Writer writer = new SignatureIndexIClassLoader.Writer();
+        if (jre) SignatureIndexGenerator.addJreClasses(writer);
+        for (; i < args.length; i++) SignatureIndexGenerator.addClasses(new File(args[i]), writer);
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(indexFile));
+        try {
+            writer.write(os);
+            os.close();
+        } finally {
+            try { os.close(); } catch (Exception e) {}
+        }
+
+        System.err.println(writer.size() + " classes written to \"" + indexFile + "\"");
+    }
+
+    /**
+     * Adds all ".class" files in the given directory (recursively) or jar file to the <var>writer</var>.
+     */
+    public static void
+    addClasses(File directoryOrJarFile, SignatureIndexIClassLoader.Writer writer) throws IOException {
+
+        if (directoryOrJarFile.isDirectory()) {
+            File[] members = directoryOrJarFile.listFiles();
+            if (members == null) throw new IOException("Cannot list \"" + directoryOrJarFile + "\"");
+            for (File member : members) {
+                if (member.isDirectory() || member.getName().endsWith(".class")) {
+                    SignatureIndexGenerator.addClasses(member, writer);
+                }
+            }
+        } else
+        if (directoryOrJarFile.getName().endsWith(".class")) {
+            InputStream is = new FileInputStream(directoryOrJarFile);
+            try {
+                SignatureIndexGenerator.addClass(is, writer);
+            } finally {
+                try { is.close(); } catch (Exception e) {}
+            }
+        } else
+        {
+            ZipFile zf = new ZipFile(directoryOrJarFile);
+            try {
+                for (Enumeration<? extends ZipEntry> en = zf.entries(); en.hasMoreElements();) {
+                    ZipEntry ze = (ZipEntry) en.nextElement();
+                    if (!ze.getName().endsWith(".class") || ze.getName().endsWith("module-info.class")) continue;
+
+                    InputStream is = zf.getInputStream(ze);
+                    try {
+                        SignatureIndexGenerator.addClass(is, writer);
+                    } finally {
+                        try { is.close(); } catch (Exception e) {}
+                    }
+                }
+            } finally {
+                try { zf.close(); } catch (Exception e) {}
+            }
+        }
+    }
+
+    /**
+     * Adds the classes of the running JRE to the <var>writer</var>: Up to Java 8 the classes on the boot class path,
+     * as of Java 9 the classes of all system modules.
+     *
+     * @see ClassNameBloomFilter#listRuntimeImageClassNames(java.util.Collection)
+     */
+    public static void
+    addJreClasses(SignatureIndexIClassLoader.Writer writer) throws IOException {
+
+        Set<String> classNames = new LinkedHashSet<String>();
+        ClassNameBloomFilter.listRuntimeImageClassNames(classNames);
+
+        // Read the class files through the system class loader, which delegates to the bootstrap resp. the platform
+        // class loader. Classes of system modules that are not resolved at runtime (e.g. incubator modules) are not
+        // loadable, and are thus skipped.
+        ClassLoader cl = ClassLoader.getSystemClassLoader();
+        for (String className : classNames) {
+            InputStream is = cl.getResourceAsStream(className.replace('.', '/') + ".class");
+            if (is == null) continue;
+            try {
+                SignatureIndexGenerator.addClass(is, writer);
+            } finally {
+                try { is.close(); } catch (Exception e) {}
+            }
+        }
+    }
+
+    private static void
+    addClass(InputStream is, SignatureIndexIClassLoader.Writer writer) throws IOException {
+        writer.add(new ClassFile(is));
+    }
+}
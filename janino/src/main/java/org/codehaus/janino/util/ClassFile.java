@@ -33,6 +33,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UTFDataFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -49,7 +52,8 @@ import org.codehaus.janino.Mod;
  * An object that implements the Java "class file" format.
  * <p>
  *   {@link #ClassFile(InputStream)} reads bytecode from an {@link InputStream} and creates a {@link ClassFile} object
- *   from it.
+ *   from it. {@link #ClassFile(ByteBuffer)} does the same, but decodes the constant pool and the attributes only on
+ *   demand.
  * </p>
  * <p>
  *   {@link #store(OutputStream)} generates JVM bytecode which is suitable for being processed by a Java
@@ -82,8 +86,8 @@ class ClassFile implements Annotatable {
     public
     ClassFile(short accessFlags, String thisClassFd, @Nullable String superclassFd, String[] interfaceFds) {
 
-        // MUST generate version 50 (Java 6) .class files, because JANINO generates JSR and RET instructions, which
-        // are forbidding in 7+ .class files.
+        // Defaults to version 50 (Java 6) .class files; the UnitCompiler sets a higher version iff it is configured to
+        // generate exact "StackMapTable" attributes, as the type-checking verifier requires for 7+ .class files.
 //        {
 //            String  jcv = System.getProperty("java.class.version");
 //            Matcher m   = Pattern.compile("(\\d+)\\.(\\d+)").matcher(jcv);
@@ -96,7 +100,7 @@ class ClassFile implements Annotatable {
 
         this.constantPool  = new ArrayList<ConstantPoolInfo>();
         this.constantPool.add(null); // Add fake "0" index entry.
-        this.constantPoolMap = new HashMap<ConstantPoolInfo, Short>();
+        this.constantPoolMap = new ConstantPoolMap();
 
         // Some sanity checks on the access flags, according to JVMS8 4.1.
         if ((accessFlags & Mod.INTERFACE) != 0) {
@@ -165,15 +169,19 @@ class ClassFile implements Annotatable {
     @Nullable private AttributeInfo
     findAttribute(List<AttributeInfo> attributes, String attributeName) throws ClassFormatError {
 
-        Short nameIndex = (Short) this.constantPoolMap.get(new ConstantUtf8Info(attributeName));
-        if (nameIndex == null) return null;
-
+        // Notice: Compare the attribute names *before* retrieving the attribute, so that lazily loaded attributes (e.g.
+        // "Code") are not decoded unnecessarily.
         AttributeInfo result = null;
-        for (AttributeInfo ai : attributes) {
-            if (ai.nameIndex == nameIndex) {
-                if (result != null) throw new ClassFileException("Duplicate \"" + attributeName + "\" attribute");
-                result = ai;
-            }
+        for (int i = 0, size = attributes.size(); i < size; i++) {
+            short nameIndex = (
+                attributes instanceof LazyAttributeList
+                ? ((LazyAttributeList) attributes).getNameIndex(i)
+                : ((AttributeInfo) attributes.get(i)).nameIndex
+            );
+            if (!attributeName.equals(this.getConstantUtf8(nameIndex))) continue;
+
+            if (result != null) throw new ClassFileException("Duplicate \"" + attributeName + "\" attribute");
+            result = (AttributeInfo) attributes.get(i);
         }
         return result;
     }
@@ -192,6 +200,46 @@ class ClassFile implements Annotatable {
         ica.getEntries().add(entry);
     }
 
+    /**
+     * Finds the {@code BootstrapMethods} attribute of this class file.
+     *
+     * @return {@code null} if this class has no "BootstrapMethods" attribute
+     */
+    @Nullable public BootstrapMethodsAttribute
+    getBootstrapMethodsAttribute() {
+        return (BootstrapMethodsAttribute) this.findAttribute(this.attributes, "BootstrapMethods");
+    }
+
+    /**
+     * Creates a {@code BootstrapMethods} attribute if it does not exist, then adds a bootstrap method with the given
+     * arguments to it, unless an equal entry already exists.
+     *
+     * @param bootstrapMethodRef The index of a {@code CONSTANT_MethodHandle_info} in the constant pool
+     * @param bootstrapArguments The indexes of the static arguments in the constant pool
+     * @return                   The index of the entry within the {@code BootstrapMethods} attribute
+     */
+    public short
+    addBootstrapMethod(short bootstrapMethodRef, short[] bootstrapArguments) {
+        BootstrapMethodsAttribute bma = this.getBootstrapMethodsAttribute();
+        if (bma == null) {
+            bma = new BootstrapMethodsAttribute(this.addConstantUtf8Info("BootstrapMethods"));
+            this.attributes.add(bma);
+        }
+
+        List<BootstrapMethodsAttribute.Entry> entries = bma.getEntries();
+        for (int i = 0; i < entries.size(); i++) {
+            BootstrapMethodsAttribute.Entry e = (BootstrapMethodsAttribute.Entry) entries.get(i);
+            if (
+                e.bootstrapMethodRef == bootstrapMethodRef
+                && Arrays.equals(e.bootstrapArguments, bootstrapArguments)
+            ) return (short) i;
+        }
+
+        if (entries.size() >= 0xffff) throw new ClassFileException("Too many bootstrap methods");
+        entries.add(new BootstrapMethodsAttribute.Entry(bootstrapMethodRef, bootstrapArguments));
+        return (short) (entries.size() - 1);
+    }
+
     /**
      * Finds the {@code Runtime[In]visibleAnnotations} attribute in the <var>attributes</var>.
      *
@@ -290,7 +338,7 @@ class ClassFile implements Annotatable {
 //        }
 
         this.constantPool    = new ArrayList<ConstantPoolInfo>();
-        this.constantPoolMap = new HashMap<ConstantPoolInfo, Short>();
+        this.constantPoolMap = new ConstantPoolMap();
         this.loadConstantPool(dis);                                                // constant_pool_count, constant_pool
 
         this.accessFlags  = dis.readShort();                                       // access_flags
@@ -303,6 +351,85 @@ class ClassFile implements Annotatable {
         this.attributes  = Collections.unmodifiableList(this.loadAttributes(dis)); // attributes_count, attributes
     }
 
+    /**
+     * Parses "class file" data from the <var>buffer</var> (typically a memory-mapped file or a wrapped byte array),
+     * starting at its current position, and constructs a {@link ClassFile} object from it.
+     * <p>
+     *   Only the overall structure of the class file is scanned; constant pool entries are decoded when they are first
+     *   retrieved, and attributes (e.g. {@code Code}) remain unparsed slices of the <var>buffer</var> until they are
+     *   requested. Hence the content of the <var>buffer</var> must not change while the {@link ClassFile} is in use.
+     * </p>
+     * <p>
+     *   If the {@link ClassFile} is created with this constructor, then most modifying operations lead to a {@link
+     *   UnsupportedOperationException}.
+     * </p>
+     *
+     * @throws ClassFileException The <var>buffer</var> does not contain a valid class file
+     */
+    public
+    ClassFile(ByteBuffer buffer) {
+        // Notice: The casts are redundant, but JANINO needs them when compiling against JRE 9+, where "Buffer.slice()"
+        // and "Buffer.duplicate()" exist as well.
+        ByteBuffer bb = (ByteBuffer) (this.buffer = (ByteBuffer) buffer.slice()).duplicate();
+
+        try {
+            if (bb.getInt() != ClassFile.CLASS_FILE_MAGIC) {                    // magic
+                throw new ClassFileException("Invalid magic number");
+            }
+
+            this.minorVersion = bb.getShort();                                  // minor_version
+            this.majorVersion = bb.getShort();                                  // major_version
+
+            // Only record the offsets of the constant pool entries, and decode them lazily.
+            int constantPoolCount = 0xffff & bb.getShort();                     // constant_pool_count
+            this.constantPool        = new ArrayList<ConstantPoolInfo>(constantPoolCount);
+            this.constantPoolOffsets = new int[constantPoolCount];
+            this.constantPool.add(null);
+            for (int i = 1; i < constantPoolCount; ++i) {                       // constant_pool
+                this.constantPoolOffsets[i] = bb.position();
+                this.constantPool.add(null);
+                if (ConstantPoolInfo.skipConstantPoolInfo(bb)) {
+                    this.constantPool.add(null);
+                    ++i;
+                }
+            }
+
+            this.accessFlags = bb.getShort();                                   // access_flags
+            this.thisClass   = bb.getShort();                                   // this_class
+            this.superclass  = bb.getShort();                                   // super_class
+            this.interfaces  = new short[0xffff & bb.getShort()];               // interfaces_count
+            for (int i = 0; i < this.interfaces.length; ++i) {                  // interfaces
+                this.interfaces[i] = bb.getShort();
+            }
+
+            List<FieldInfo> fis = new ArrayList<FieldInfo>();
+            for (int i = 0xffff & bb.getShort(); i > 0; i--) {                  // fields_count
+                fis.add(new FieldInfo(                                          // fields[field_count]
+                    bb.getShort(),           // access_flags
+                    bb.getShort(),           // name_index
+                    bb.getShort(),           // descriptor_index
+                    this.skimAttributes(bb)  // attributes_count, attributes[attributes_count]
+                ));
+            }
+            this.fieldInfos = Collections.unmodifiableList(fis);
+
+            List<MethodInfo> mis = new ArrayList<MethodInfo>();
+            for (int i = 0xffff & bb.getShort(); i > 0; i--) {                  // methods_count
+                mis.add(new MethodInfo(                                         // methods[methods_count]
+                    bb.getShort(),           // access_flags
+                    bb.getShort(),           // name_index
+                    bb.getShort(),           // descriptor_index
+                    this.skimAttributes(bb)  // attributes_count, attributes[attributes_count]
+                ));
+            }
+            this.methodInfos = Collections.unmodifiableList(mis);
+
+            this.attributes = this.skimAttributes(bb);                          // attributes_count, attributes
+        } catch (BufferUnderflowException bue) {
+            throw new ClassFileException("Unexpected end of class file", bue);
+        }
+    }
+
     /**
      * @return The fully qualified name of this class, e.g. "pkg1.pkg2.Outer$Inner"
      */
@@ -478,6 +605,46 @@ class ClassFile implements Annotatable {
         return this.addToConstantPool(new ConstantUtf8Info(s));
     }
 
+    /**
+     * Adds a "CONSTANT_MethodHandle_info" structure to the class file.
+     *
+     * @param referenceKind  One of the {@code REF_...} kinds defined in JVMS7 5.4.3.5
+     * @param referenceIndex The index of the referenced field, method or interface method in the constant pool
+     * @see                  <a href="https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.4.8">JVM
+     *                       specification, section 4.4.8</a>
+     */
+    public short
+    addConstantMethodHandleInfo(byte referenceKind, short referenceIndex) {
+        return this.addToConstantPool(new ConstantMethodHandleInfo(referenceKind, referenceIndex));
+    }
+
+    /**
+     * Adds a "CONSTANT_MethodType_info" structure to the class file.
+     *
+     * @see <a href="https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.4.9">JVM specification,
+     *      section 4.4.9</a>
+     */
+    public short
+    addConstantMethodTypeInfo(String methodMd) {
+        return this.addToConstantPool(new ConstantMethodTypeInfo(this.addConstantUtf8Info(methodMd)));
+    }
+
+    /**
+     * Adds a "CONSTANT_InvokeDynamic_info" structure to the class file.
+     *
+     * @param bootstrapMethodAttrIndex The index of the entry in the {@code BootstrapMethods} attribute, see {@link
+     *                                 #addBootstrapMethod(short, short[])}
+     * @see                            <a href="https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html">JVM
+     *                                 specification, section 4.4.10</a>
+     */
+    public short
+    addConstantInvokeDynamicInfo(short bootstrapMethodAttrIndex, String methodName, String methodMd) {
+        return this.addToConstantPool(new ConstantInvokeDynamicInfo(
+            bootstrapMethodAttrIndex,
+            this.addConstantNameAndTypeInfo(methodName, methodMd)
+        ));
+    }
+
     /**
      * Convenience method that adds a String, Integer, Float, Long or Double ConstantInfo.
      */
@@ -517,8 +684,9 @@ class ClassFile implements Annotatable {
     addToConstantPool(ConstantPoolInfo cpi) {
 
         // Check whether an equal entry already exists.
-        Short index = (Short) this.constantPoolMap.get(cpi);
-        if (index != null) return index.shortValue();
+        ConstantPoolMap cpm   = this.getConstantPoolMap();
+        int             index = cpm.get(cpi);
+        if (index != 0) return (short) index;
 
         // The current size of the constant pool is the index of the new entry.
         final short res = (short) this.constantPool.size();
@@ -537,11 +705,47 @@ class ClassFile implements Annotatable {
         }
 
         // Also put the new entry into the "constantPoolMap" for fast access.
-        this.constantPoolMap.put(cpi, res);
+        cpm.put(cpi, res);
 
         return res;
     }
 
+    /**
+     * @return The map from constant pool entry to constant pool index; is created on first use
+     */
+    private ConstantPoolMap
+    getConstantPoolMap() {
+
+        ConstantPoolMap result = this.constantPoolMap;
+        if (result != null) return result;
+
+        this.decodeConstantPool();
+
+        result = new ConstantPoolMap();
+        for (int i = 1; i < this.constantPool.size(); i++) {
+            ConstantPoolInfo cpi = (ConstantPoolInfo) this.constantPool.get(i);
+            if (cpi != null) result.put(cpi, i);
+        }
+
+        return (this.constantPoolMap = result);
+    }
+
+    /**
+     * Decodes all constant pool entries that were not yet retrieved, so that {@link #constantPool} is complete.
+     */
+    private void
+    decodeConstantPool() {
+
+        int[] offsets = this.constantPoolOffsets;
+        if (offsets == null) return;
+
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] != 0) this.getConstantPoolInfo((short) i);
+        }
+
+        this.constantPoolOffsets = null;
+    }
+
     /**
      * Creates a {@link FieldInfo} and adds it to this class. The return value can be used e.g. to add attributes
      * ({@code Deprecated}, ...) to the field.
@@ -608,9 +812,21 @@ class ClassFile implements Annotatable {
      */
     public ConstantPoolInfo
     getConstantPoolInfo(short index) {
-        final ConstantPoolInfo result = (ConstantPoolInfo) this.constantPool.get(0xffff & index);
-        if (result == null) throw new ClassFileException("Invalid constant pool index " + index);
-        return result;
+        int i = 0xffff & index;
+
+        ConstantPoolInfo result = (ConstantPoolInfo) this.constantPool.get(i);
+        if (result != null) return result;
+
+        // Has the entry not been decoded yet?
+        int[] offsets = this.constantPoolOffsets;
+        if (offsets != null && i < offsets.length && offsets[i] != 0) {
+            ByteBuffer bb = this.buffer;
+            assert bb != null;
+            this.constantPool.set(i, (result = ConstantPoolInfo.loadConstantPoolInfo(bb, offsets[i])));
+            return result;
+        }
+
+        throw new ClassFileException("Invalid constant pool index " + index);
     }
 
     /**
@@ -723,7 +939,7 @@ class ClassFile implements Annotatable {
         for (int i = 1; i < constantPoolCount; ++i) {
             ConstantPoolInfo cpi = ConstantPoolInfo.loadConstantPoolInfo(dis);
             this.constantPool.add(cpi);
-            this.constantPoolMap.put(cpi, (short) i);
+            this.constantPoolMap.put(cpi, i);
             if (cpi.isWide()) {
                 this.constantPool.add(null);
                 ++i;
@@ -773,6 +989,91 @@ class ClassFile implements Annotatable {
         return attributes;
     }
 
+    /**
+     * u2 attributes_count, attributes[attributes_count]
+     * <p>
+     *   Only records the offsets of the attributes; they are decoded when they are retrieved from the returned list.
+     * </p>
+     */
+    private List<AttributeInfo>
+    skimAttributes(ByteBuffer bb) {
+        int[] offsets = new int[0xffff & bb.getShort()];        // attributes_count
+        for (int i = 0; i < offsets.length; ++i) {              // attributes
+            offsets[i] = bb.position();
+            bb.getShort();                                      // attribute_name_index
+            ClassFile.skip(bb, bb.getInt());                    // attribute_length, info
+        }
+        return new LazyAttributeList(offsets);
+    }
+
+    /**
+     * Advances the position of the <var>bb</var> by <var>n</var> bytes.
+     *
+     * @throws BufferUnderflowException Fewer than <var>n</var> bytes remain
+     */
+    private static void
+    skip(ByteBuffer bb, int n) {
+        if (n < 0 || n > bb.remaining()) throw new BufferUnderflowException();
+        bb.position(bb.position() + n);
+    }
+
+    /**
+     * The (unmodifiable) attributes of a class, field or method that was created by {@link
+     * ClassFile#ClassFile(ByteBuffer)}; each attribute is decoded from the {@link ClassFile#buffer} when it is first
+     * retrieved.
+     */
+    private
+    class LazyAttributeList extends AbstractList<AttributeInfo> {
+
+        private final int[]           offsets;
+        private final AttributeInfo[] attributes;
+
+        LazyAttributeList(int[] offsets) {
+            this.offsets    = offsets;
+            this.attributes = new AttributeInfo[offsets.length];
+        }
+
+        /**
+         * @return The "attribute_name_index" of the <var>index</var>th attribute, without decoding the attribute
+         */
+        short
+        getNameIndex(int index) { return this.getBuffer().getShort(this.offsets[index]); }
+
+        @Override public AttributeInfo
+        get(int index) {
+
+            AttributeInfo result = this.attributes[index];
+            if (result != null) return result;
+
+            ByteBuffer bb = (ByteBuffer) this.getBuffer().duplicate();
+            bb.position(this.offsets[index]);
+
+            short  attributeNameIndex = bb.getShort();          // attribute_name_index
+            byte[] ba                 = new byte[bb.getInt()];  // attribute_length
+            bb.get(ba);                                         // info
+            try {
+                result = ClassFile.this.loadAttributeBody(attributeNameIndex, ba);
+            } catch (IOException ioe) {
+                throw new ClassFileException(
+                    "Decoding attribute \"" + ClassFile.this.getConstantUtf8(attributeNameIndex) + "\"",
+                    ioe
+                );
+            }
+
+            return (this.attributes[index] = result);
+        }
+
+        @Override public int
+        size() { return this.offsets.length; }
+
+        private ByteBuffer
+        getBuffer() {
+            ByteBuffer result = ClassFile.this.buffer;
+            assert result != null;
+            return result;
+        }
+    }
+
     /**
      * Writes {@link ClassFile} to an {@link OutputStream}, in "class file" format.
      * <p>
@@ -783,11 +1084,22 @@ class ClassFile implements Annotatable {
      */
     public void
     store(OutputStream os) throws IOException {
-        DataOutputStream dos = os instanceof DataOutputStream ? (DataOutputStream) os : new DataOutputStream(os);
+        ClassFileOutputStream cfos = new ClassFileOutputStream();
+        this.store(cfos);
+        cfos.writeTo(os);
+    }
+
+    /**
+     * Writes this {@link ClassFile} in one pass; the lengths of the attributes are patched in after their bodies were
+     * written, see {@link AttributeInfo#store(DataOutputStream)}.
+     */
+    private void
+    store(ClassFileOutputStream dos) throws IOException {
 
         dos.writeInt(ClassFile.CLASS_FILE_MAGIC);            // magic
         dos.writeShort(this.minorVersion);                   // minor_version
         dos.writeShort(this.majorVersion);                   // major_version
+        this.decodeConstantPool();
         ClassFile.storeConstantPool(dos, this.constantPool); // constant_pool_count, constant_pool[constant_pool_count]
         dos.writeShort(this.accessFlags);                    // access_flags
         dos.writeShort(this.thisClass);                      // this_class
@@ -884,15 +1196,95 @@ class ClassFile implements Annotatable {
      * Returns the byte code of this {@link ClassFile} as a byte array.
      */
     public byte[]
-    toByteArray() {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    toByteArray() { return this.serialize().toByteArray(); }
+
+    /**
+     * Writes this {@link ClassFile} to the <var>buffer</var>, in "class file" format, starting at its current
+     * position.
+     *
+     * @throws ClassFileException The <var>buffer</var> has less than {@link #getSize()} bytes remaining
+     */
+    public void
+    store(ByteBuffer buffer) {
+        ClassFileOutputStream cfos = this.serialize();
+        if (cfos.size() > buffer.remaining()) throw new ClassFileException("Class file does not fit into the buffer");
+        cfos.writeTo(buffer);
+    }
+
+    /**
+     * Notice: Serializes the class file in order to determine its size.
+     *
+     * @return The exact number of bytes that {@link #store(OutputStream)} will write
+     */
+    public int
+    getSize() { return this.serialize().size(); }
+
+    private ClassFileOutputStream
+    serialize() {
+        ClassFileOutputStream cfos = new ClassFileOutputStream();
         try {
-            this.store(baos);
-        } catch (IOException ex) {
-            // ByteArrayOutputStream should never throw IOExceptions.
-            throw new ClassFileException(ex.toString(), ex);
+            this.store(cfos);
+        } catch (IOException ioe) {
+            // ClassFileOutputStream never throws IOExceptions.
+            throw new ClassFileException(ioe.toString(), ioe);
+        }
+        return cfos;
+    }
+
+    /**
+     * A {@link DataOutputStream} that writes into a growable byte array, and allows for patching values that were
+     * written before; thus the length of an attribute can be written <em>after</em> its body.
+     */
+    private static final
+    class ClassFileOutputStream extends DataOutputStream {
+
+        ClassFileOutputStream() { super(new Buffer()); }
+
+        /**
+         * Overwrites the four bytes at the given <var>offset</var> with the <var>value</var>, in big-endian order.
+         */
+        void
+        patchInt(int offset, int value) {
+            byte[] ba = ((Buffer) this.out).bytes;
+            ba[offset]     = (byte) (value >> 24);
+            ba[offset + 1] = (byte) (value >> 16);
+            ba[offset + 2] = (byte) (value >> 8);
+            ba[offset + 3] = (byte) value;
+        }
+
+        byte[]
+        toByteArray() { return Arrays.copyOf(((Buffer) this.out).bytes, this.size()); }
+
+        void
+        writeTo(OutputStream os) throws IOException { os.write(((Buffer) this.out).bytes, 0, this.size()); }
+
+        void
+        writeTo(ByteBuffer buffer) { buffer.put(((Buffer) this.out).bytes, 0, this.size()); }
+
+        /**
+         * Unlike {@link ByteArrayOutputStream}, does not synchronize each and every write operation.
+         */
+        private static
+        class Buffer extends OutputStream {
+
+            byte[] bytes = new byte[1024];
+            int    count;
+
+            @Override public void
+            write(int b) {
+                if (this.count == this.bytes.length) this.bytes = Arrays.copyOf(this.bytes, 2 * this.count);
+                this.bytes[this.count++] = (byte) b;
+            }
+
+            @Override public void
+            write(byte[] b, int off, int len) {
+                if (this.count + len > this.bytes.length) {
+                    this.bytes = Arrays.copyOf(this.bytes, Math.max(2 * this.bytes.length, this.count + len));
+                }
+                System.arraycopy(b, off, this.bytes, this.count, len);
+                this.count += len;
+            }
         }
-        return baos.toByteArray();
     }
 
     private static final int CLASS_FILE_MAGIC = 0xcafebabe;
@@ -946,10 +1338,42 @@ class ClassFile implements Annotatable {
     /** Minor version number of a class file that was generated by a Java 1.12-compliant compiler. */
     public static final short MINOR_VERSION_JDK_1_12 = 0;
 
+    // The "reference kinds" of a "CONSTANT_MethodHandle_info", as defined in JVMS7 5.4.3.5.
+
+    /** The method handle reads an instance field. */
+    public static final byte REF_GET_FIELD = 1;
+    /** The method handle reads a static field. */
+    public static final byte REF_GET_STATIC = 2;
+    /** The method handle writes an instance field. */
+    public static final byte REF_PUT_FIELD = 3;
+    /** The method handle writes a static field. */
+    public static final byte REF_PUT_STATIC = 4;
+    /** The method handle invokes a method through INVOKEVIRTUAL. */
+    public static final byte REF_INVOKE_VIRTUAL = 5;
+    /** The method handle invokes a method through INVOKESTATIC. */
+    public static final byte REF_INVOKE_STATIC = 6;
+    /** The method handle invokes a method through INVOKESPECIAL. */
+    public static final byte REF_INVOKE_SPECIAL = 7;
+    /** The method handle creates an object and invokes its constructor through INVOKESPECIAL. */
+    public static final byte REF_NEW_INVOKE_SPECIAL = 8;
+    /** The method handle invokes an interface method through INVOKEINTERFACE. */
+    public static final byte REF_INVOKE_INTERFACE = 9;
+
     private short                        majorVersion;
     private short                        minorVersion;
     private final List<ConstantPoolInfo> constantPool;
 
+    /**
+     * The class file data iff this object was created by {@link #ClassFile(ByteBuffer)}.
+     */
+    @Nullable private ByteBuffer buffer;
+
+    /**
+     * The offsets of the constant pool entries in the {@link #buffer}, for the lazy decoding of the {@link
+     * #constantPool}; {@code null} iff all entries are decoded.
+     */
+    @Nullable private int[] constantPoolOffsets;
+
     /**
      * The access flags of the class.
      *
@@ -992,7 +1416,86 @@ class ClassFile implements Annotatable {
     private final List<AttributeInfo> attributes;
 
     // Convenience.
-    private final Map<ConstantPoolInfo, Short> constantPoolMap;
+    @Nullable private ConstantPoolMap constantPoolMap;
+
+    /**
+     * Maps constant pool entries to their indexes in the {@link #constantPool}. This is an open-addressing hash table
+     * that packs the hash code and the index of each entry into one {@code long}, so that, unlike a {@link
+     * java.util.HashMap HashMap&lt;ConstantPoolInfo, Short>}, it allocates no node and no {@link Short} per entry.
+     */
+    private final
+    class ConstantPoolMap {
+
+        /**
+         * Each slot is either zero (empty), or holds the hash code of an entry in the high 32 bits and the entry's
+         * constant pool index (which is never zero) in the low 16 bits.
+         */
+        private long[] slots = new long[64];
+        private int    size;
+
+        /**
+         * @return The constant pool index of the entry that equals <var>cpi</var>, or zero
+         */
+        int
+        get(ConstantPoolInfo cpi) {
+            long slot = this.slots[this.find(cpi, this.hash(cpi))];
+            return (int) slot & 0xffff;
+        }
+
+        /**
+         * Adds a mapping for an entry that is not yet in this map.
+         */
+        void
+        put(ConstantPoolInfo cpi, int index) {
+            if (4 * (this.size + 1) > 3 * this.slots.length) this.rehash();
+            int h = this.hash(cpi);
+            this.slots[this.find(cpi, h)] = ((long) h << 32) | (index & 0xffff);
+            this.size++;
+        }
+
+        void
+        clear() {
+            Arrays.fill(this.slots, 0L);
+            this.size = 0;
+        }
+
+        /**
+         * @return The position of the slot that maps <var>cpi</var>, or of the empty slot where it belongs
+         */
+        private int
+        find(ConstantPoolInfo cpi, int h) {
+            int mask = this.slots.length - 1;
+            for (int pos = h & mask;; pos = (pos + 1) & mask) {
+                long slot = this.slots[pos];
+                if (slot == 0) return pos;
+                if ((int) (slot >>> 32) == h && cpi.equals(ClassFile.this.constantPool.get((int) slot & 0xffff))) {
+                    return pos;
+                }
+            }
+        }
+
+        private void
+        rehash() {
+            long[] oldSlots = this.slots;
+            long[] newSlots = (this.slots = new long[2 * oldSlots.length]);
+            int    mask     = newSlots.length - 1;
+            for (long slot : oldSlots) {
+                if (slot == 0) continue;
+                int pos = (int) (slot >>> 32) & mask;
+                while (newSlots[pos] != 0) pos = (pos + 1) & mask;
+                newSlots[pos] = slot;
+            }
+        }
+
+        /**
+         * Spreads the bits of the (often small and sequential) {@link ConstantPoolInfo#hashCode()} values.
+         */
+        private int
+        hash(ConstantPoolInfo cpi) {
+            int h = cpi.hashCode() * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
 
     /**
      * Base for various the constant pool table entry types.
@@ -1066,6 +1569,147 @@ class ClassFile implements Annotatable {
                 throw new ClassFileException("Invalid constant pool tag " + tag);
             }
         }
+
+        /**
+         * Decodes the constant pool entry at the given <var>offset</var>, which was previously validated by {@link
+         * #skipConstantPoolInfo(ByteBuffer)}.
+         */
+        private static ConstantPoolInfo
+        loadConstantPoolInfo(ByteBuffer bb, int offset) {
+
+            byte tag = bb.get(offset);
+            switch (tag) {
+
+            case 7:
+                return new ConstantClassInfo(bb.getShort(offset + 1));
+
+            case 9:
+                return new ConstantFieldrefInfo(bb.getShort(offset + 1), bb.getShort(offset + 3));
+
+            case 10:
+                return new ConstantMethodrefInfo(bb.getShort(offset + 1), bb.getShort(offset + 3));
+
+            case 11:
+                return new ConstantInterfaceMethodrefInfo(bb.getShort(offset + 1), bb.getShort(offset + 3));
+
+            case 8:
+                return new ConstantStringInfo(bb.getShort(offset + 1));
+
+            case 3:
+                return new ConstantIntegerInfo(bb.getInt(offset + 1));
+
+            case 4:
+                return new ConstantFloatInfo(bb.getFloat(offset + 1));
+
+            case 5:
+                return new ConstantLongInfo(bb.getLong(offset + 1));
+
+            case 6:
+                return new ConstantDoubleInfo(bb.getDouble(offset + 1));
+
+            case 12:
+                return new ConstantNameAndTypeInfo(bb.getShort(offset + 1), bb.getShort(offset + 3));
+
+            case 1:
+                return new ConstantUtf8Info(
+                    ClassFile.decodeModifiedUtf8(bb, offset + 3, 0xffff & bb.getShort(offset + 1))
+                );
+
+            case 15:
+                return new ConstantMethodHandleInfo(bb.get(offset + 1), bb.getShort(offset + 2));
+
+            case 16:
+                return new ConstantMethodTypeInfo(bb.getShort(offset + 1));
+
+            case 18:
+                return new ConstantInvokeDynamicInfo(bb.getShort(offset + 1), bb.getShort(offset + 3));
+
+            default:
+                throw new ClassFileException("Invalid constant pool tag " + tag);
+            }
+        }
+
+        /**
+         * Advances the <var>bb</var> over one constant pool entry.
+         *
+         * @return Whether the entry is "wide" in the sense of JVMS7 4.4.5
+         */
+        private static boolean
+        skipConstantPoolInfo(ByteBuffer bb) {
+
+            byte tag = bb.get();
+            switch (tag) {
+
+            case 7:  // CONSTANT_Class
+            case 8:  // CONSTANT_String
+            case 16: // CONSTANT_MethodType
+                ClassFile.skip(bb, 2);
+                return false;
+
+            case 15: // CONSTANT_MethodHandle
+                ClassFile.skip(bb, 3);
+                return false;
+
+            case 3:  // CONSTANT_Integer
+            case 4:  // CONSTANT_Float
+            case 9:  // CONSTANT_Fieldref
+            case 10: // CONSTANT_Methodref
+            case 11: // CONSTANT_InterfaceMethodref
+            case 12: // CONSTANT_NameAndType
+            case 18: // CONSTANT_InvokeDynamic
+                ClassFile.skip(bb, 4);
+                return false;
+
+            case 5:  // CONSTANT_Long
+            case 6:  // CONSTANT_Double
+                ClassFile.skip(bb, 8);
+                return true;
+
+            case 1:  // CONSTANT_Utf8
+                ClassFile.skip(bb, 0xffff & bb.getShort());
+                return false;
+
+            default:
+                throw new ClassFileException("Invalid constant pool tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * Decodes <var>length</var> bytes of "modified UTF-8" (see JVMS7 4.4.7), like {@link DataInputStream#readUTF()}.
+     */
+    private static String
+    decodeModifiedUtf8(ByteBuffer bb, int offset, int length) {
+
+        char[] ca = new char[length];
+        int    n  = 0;
+        for (int i = offset, end = offset + length; i < end;) {
+            int b = 0xff & bb.get(i++);
+            if (b < 0x80) {
+                ca[n++] = (char) b;
+            } else
+            if ((b & 0xe0) == 0xc0 && i < end) {
+                ca[n++] = (char) ((b & 0x1f) << 6 | ClassFile.continuationBits(bb, i++));
+            } else
+            if ((b & 0xf0) == 0xe0 && i + 1 < end) {
+                ca[n++] = (char) (
+                    (b & 0x0f) << 12
+                    | ClassFile.continuationBits(bb, i++) << 6
+                    | ClassFile.continuationBits(bb, i++)
+                );
+            } else
+            {
+                throw new ClassFileException("Malformed modified UTF-8 at offset " + (i - 1));
+            }
+        }
+        return new String(ca, 0, n);
+    }
+
+    private static int
+    continuationBits(ByteBuffer bb, int offset) {
+        int b = bb.get(offset);
+        if ((b & 0xc0) != 0x80) throw new ClassFileException("Malformed modified UTF-8 at offset " + offset);
+        return b & 0x3f;
     }
 
     /**
@@ -1787,6 +2431,14 @@ class ClassFile implements Annotatable {
             return (AttributeInfo[]) this.attributes.toArray(new AttributeInfo[this.attributes.size()]);
         }
 
+        /**
+         * Decodes only the requested attribute, and none of the others (e.g. "Code").
+         *
+         * @return The attribute of this method with the given name, or {@code null}
+         */
+        @Nullable public AttributeInfo
+        findAttribute(String attributeName) { return ClassFile.this.findAttribute(this.attributes, attributeName); }
+
         /**
          * Adds the <var>attribute</var> to this method.
          */
@@ -1885,6 +2537,14 @@ class ClassFile implements Annotatable {
             return (AttributeInfo[]) this.attributes.toArray(new AttributeInfo[this.attributes.size()]);
         }
 
+        /**
+         * Decodes only the requested attribute, and none of the others.
+         *
+         * @return The attribute of this field with the given name, or {@code null}
+         */
+        @Nullable public AttributeInfo
+        findAttribute(String attributeName) { return ClassFile.this.findAttribute(this.attributes, attributeName); }
+
         /**
          * Adds the <var>attribute</var> to this field.
          */
@@ -1937,10 +2597,22 @@ class ClassFile implements Annotatable {
         public void
         store(DataOutputStream dos) throws IOException {
 
+            dos.writeShort(this.nameIndex); // attribute_name_index;
+
+            // Write the body directly and patch the length in afterwards, instead of buffering the body (and, for
+            // nested attributes, buffering it again at each level).
+            if (dos instanceof ClassFileOutputStream) {
+                ClassFileOutputStream cfos         = (ClassFileOutputStream) dos;
+                int                   lengthOffset = cfos.size();
+                cfos.writeInt(0);     // attribute_length
+                this.storeBody(cfos); // info
+                cfos.patchInt(lengthOffset, cfos.size() - lengthOffset - 4);
+                return;
+            }
+
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             this.storeBody(new DataOutputStream(baos));
 
-            dos.writeShort(this.nameIndex); // attribute_name_index;
             dos.writeInt(baos.size());      // attribute_length
             baos.writeTo(dos);              // info
         }
@@ -1968,6 +2640,18 @@ class ClassFile implements Annotatable {
 
         final byte[] ba = new byte[attributeLength];
         dis.readFully(ba);
+
+        return this.loadAttributeBody(attributeNameIndex, ba);
+    }
+
+    /**
+     * Decodes the body ("info") of one class file attribute.
+     *
+     * @see #loadAttribute(DataInputStream)
+     */
+    private AttributeInfo
+    loadAttributeBody(short attributeNameIndex, final byte[] ba) throws IOException {
+
         ByteArrayInputStream bais = new ByteArrayInputStream(ba);
         DataInputStream      bdis = new DataInputStream(bais);
 
@@ -1985,6 +2669,9 @@ class ClassFile implements Annotatable {
         if ("InnerClasses".equals(attributeName)) {
             result = InnerClassesAttribute.loadBody(attributeNameIndex, bdis);
         } else
+        if ("BootstrapMethods".equals(attributeName)) {
+            result = BootstrapMethodsAttribute.loadBody(attributeNameIndex, bdis);
+        } else
         if ("Synthetic".equals(attributeName)) {
             result = SyntheticAttribute.loadBody(attributeNameIndex, bdis);
         } else
@@ -2180,6 +2867,77 @@ class ClassFile implements Annotatable {
         }
     }
 
+    /**
+     * Representation of a {@code BootstrapMethods} attribute (see JVMS7 4.7.21).
+     */
+    public static
+    class BootstrapMethodsAttribute extends AttributeInfo {
+
+        private final List<BootstrapMethodsAttribute.Entry> entries;
+
+        BootstrapMethodsAttribute(short attributeNameIndex) {
+            super(attributeNameIndex);
+            this.entries = new ArrayList<Entry>();
+        }
+        BootstrapMethodsAttribute(short attributeNameIndex, Entry[] entries) {
+            super(attributeNameIndex);
+            this.entries = new ArrayList<Entry>(Arrays.asList(entries));
+        }
+
+        /**
+         * @return The {@link Entry}s contained in this {@link BootstrapMethodsAttribute}
+         */
+        public List<BootstrapMethodsAttribute.Entry>
+        getEntries() { return this.entries; }
+
+        private static AttributeInfo
+        loadBody(short attributeNameIndex, DataInputStream dis) throws IOException {
+
+            Entry[] bms = new Entry[dis.readUnsignedShort()]; // num_bootstrap_methods
+            for (int i = 0; i < bms.length; ++i) {            // bootstrap_methods
+                bms[i] = new BootstrapMethodsAttribute.Entry(
+                    dis.readShort(),              // bootstrapMethodRef
+                    ClassFile.readShortArray(dis) // bootstrapArguments
+                );
+            }
+            return new BootstrapMethodsAttribute(attributeNameIndex, bms);
+        }
+
+        // Implement "AttributeInfo".
+        @Override protected void
+        storeBody(DataOutputStream dos) throws IOException {
+
+            dos.writeShort(this.entries.size());
+            for (BootstrapMethodsAttribute.Entry e : this.entries) {
+                dos.writeShort(e.bootstrapMethodRef);
+                ClassFile.storeShortArray(dos, e.bootstrapArguments);
+            }
+        }
+
+        /**
+         * The structure of the {@code bootstrap_methods} array as described in JVMS7 4.7.21.
+         */
+        public static
+        class Entry {
+
+            /**
+             * The index of the {@code CONSTANT_MethodHandle_info} in the constant pool.
+             */
+            public final short bootstrapMethodRef;
+
+            /**
+             * The indexes of the static arguments in the constant pool.
+             */
+            public final short[] bootstrapArguments;
+
+            public
+            Entry(short bootstrapMethodRef, short[] bootstrapArguments) {
+                this.bootstrapMethodRef = bootstrapMethodRef;
+                this.bootstrapArguments = bootstrapArguments;
+            }
+        }
+    }
+
     /**
      * Representation of a {@code Runtime[In]visibleAnnotations} attribute (see JVMS8 4.7.16/17).
      */
@@ -0,0 +1,199 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.commons.compiler.java8.java.util.function.Consumer;
+import org.codehaus.commons.compiler.java9.java.lang.module.ModuleFinder;
+import org.codehaus.commons.compiler.java9.java.lang.module.ModuleReader;
+import org.codehaus.commons.compiler.java9.java.lang.module.ModuleReference;
+
+/**
+ * A Bloom filter over fully qualified class names (e.g. {@code "java.util.Map$Entry"}). {@link #mightContain(String)}
+ * never returns {@code false} for a name that was added, and returns {@code true} for a name that was <em>not</em>
+ * added only with a small probability (about one percent).
+ * <p>
+ *   Useful for rejecting lookups of classes that definitely do not exist, without the cost of a failing {@link
+ *   ClassLoader#loadClass(String)}; see {@link org.codehaus.janino.ClassLoaderIClassLoader#setClassNameFilter(
+ *   ClassNameBloomFilter)}.
+ * </p>
+ */
+public final
+class ClassNameBloomFilter {
+
+    private static final int BITS_PER_NAME = 10;
+    private static final int HASH_COUNT    = 7;
+
+    private final long[] bits;
+    private final int    bitCount;
+
+    /**
+     * @param classNames Fully qualified class names, e.g. {@code "java.util.Map$Entry"}
+     */
+    public
+    ClassNameBloomFilter(Collection<String> classNames) {
+        this.bitCount = Math.max(64, ClassNameBloomFilter.BITS_PER_NAME * classNames.size());
+        this.bits     = new long[(this.bitCount + 63) / 64];
+        for (String cn : classNames) {
+            int h1 = cn.hashCode(), h2 = ClassNameBloomFilter.hash2(cn);
+            for (int i = 0; i < ClassNameBloomFilter.HASH_COUNT; i++) {
+                int bit = ((h1 + i * h2) & 0x7fffffff) % this.bitCount;
+                this.bits[bit >> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the <var>className</var> was possibly added; {@code false} means that it was definitely not
+     *         added
+     */
+    public boolean
+    mightContain(String className) {
+        int h1 = className.hashCode(), h2 = ClassNameBloomFilter.hash2(className);
+        for (int i = 0; i < ClassNameBloomFilter.HASH_COUNT; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % this.bitCount;
+            if ((this.bits[bit >> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a, which is sufficiently independent from {@link String#hashCode()}.
+     */
+    private static int
+    hash2(String s) {
+        int result = 0x811c9dc5;
+        for (int i = 0; i < s.length(); i++) {
+            result = (result ^ s.charAt(i)) * 0x01000193;
+        }
+        return result | 1;
+    }
+
+    /**
+     * Creates a filter of the classes of the running JRE and the classes in the given directories and jar files, i.e.
+     * of all classes that the system class loader can load when <var>classPath</var> is its class path. Non-existent
+     * class path entries are ignored.
+     *
+     * @see #listRuntimeImageClassNames(Collection)
+     * @see #listClassNames(File, Collection)
+     */
+    public static ClassNameBloomFilter
+    forClassPath(File... classPath) throws IOException {
+        List<String> classNames = new ArrayList<String>();
+        ClassNameBloomFilter.listRuntimeImageClassNames(classNames);
+        for (File f : classPath) {
+            if (f.exists()) ClassNameBloomFilter.listClassNames(f, classNames);
+        }
+        return new ClassNameBloomFilter(classNames);
+    }
+
+    /**
+     * Adds the names of the classes of the running JRE to the <var>result</var>: Up to Java 8 the classes on the boot
+     * class path, as of Java 9 the classes of all system modules.
+     *
+     * @throws IOException The classes of the running JRE cannot be determined
+     */
+    public static void
+    listRuntimeImageClassNames(final Collection<String> result) throws IOException {
+
+        String bootClassPath = System.getProperty("sun.boot.class.path");
+        if (bootClassPath != null) {
+            for (String element : bootClassPath.split(File.pathSeparator)) {
+                File f = new File(element);
+                if (f.exists()) ClassNameBloomFilter.listClassNames(f, result);
+            }
+            return;
+        }
+
+        // Java 9+: Read the runtime image through "java.lang.module.ModuleFinder.ofSystem()".
+        for (ModuleReference mr : ModuleFinder.ofSystem().findAll()) {
+            ModuleReader reader = mr.open();
+            try {
+                // Consumer<Object> and not <String>, because JANINO erases type arguments and would then not
+                // recognize "accept(String)" as the implementation of "accept(T)".
+                reader.list().forEach(new Consumer<Object>() {
+
+                    @Override public void
+                    accept(Object resourceName) { ClassNameBloomFilter.addClassName((String) resourceName, result); }
+                });
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Adds the names of the classes in the given directory (recursively) or jar file to the <var>result</var>.
+     */
+    public static void
+    listClassNames(File directoryOrJarFile, Collection<String> result) throws IOException {
+        if (directoryOrJarFile.isDirectory()) {
+            ClassNameBloomFilter.listClassNames(directoryOrJarFile, "", result);
+            return;
+        }
+
+        ZipFile zf = new ZipFile(directoryOrJarFile);
+        try {
+            for (Enumeration<? extends ZipEntry> en = zf.entries(); en.hasMoreElements();) {
+                ClassNameBloomFilter.addClassName(((ZipEntry) en.nextElement()).getName(), result);
+            }
+        } finally {
+            try { zf.close(); } catch (Exception e) {}
+        }
+    }
+
+    private static void
+    listClassNames(File directory, String resourceNamePrefix, Collection<String> result) throws IOException {
+        String[] memberNames = directory.list();
+        if (memberNames == null) throw new IOException("Cannot list \"" + directory + "\"");
+        for (String memberName : memberNames) {
+            File member = new File(directory, memberName);
+            if (member.isDirectory()) {
+                ClassNameBloomFilter.listClassNames(member, resourceNamePrefix + memberName + '/', result);
+            } else {
+                ClassNameBloomFilter.addClassName(resourceNamePrefix + memberName, result);
+            }
+        }
+    }
+
+    /**
+     * Iff the <var>resourceName</var> designates a class file, e.g. {@code "java/util/Map$Entry.class"}, adds the
+     * class name to the <var>result</var>.
+     */
+    private static void
+    addClassName(String resourceName, Collection<String> result) {
+        if (!resourceName.endsWith(".class") || resourceName.endsWith("module-info.class")) return;
+        result.add(resourceName.substring(0, resourceName.length() - 6).replace('/', '.'));
+    }
+}
@@ -273,6 +273,30 @@ class AstTest {
         Assert.assertEquals(Double.valueOf(6.0), res);
     }
 
+    @Test public void
+    testLocation() throws Exception {
+
+        Parser p = new Parser(new Scanner("Loc.java", new StringReader("{\n  int a;\n\tFOO = 7;\n}")));
+
+        Block          b = (Block) p.parseBlockStatement();
+        BlockStatement s = b.statements.get(1);
+
+        Location l = s.getLocation();
+        Assert.assertEquals("Loc.java", l.getFileName());
+        Assert.assertEquals(3, l.getLineNumber());
+        Assert.assertEquals(9, l.getColumnNumber());
+        Assert.assertEquals(3, ((Java.Located) s).getLineNumber());
+
+        try {
+            s.throwCompileException("Oops");
+            Assert.fail();
+        } catch (CompileException ce) {
+            Assert.assertEquals("File 'Loc.java', Line 3, Column 9: Oops", ce.getMessage());
+        }
+
+        Assert.assertSame(Location.NOWHERE, Java.Located.NOWHERE.getLocation());
+    }
+
     @Test public void
     testSimpleAst() throws Exception {
         CompilationUnit cu = new CompilationUnit("AstTests.java");
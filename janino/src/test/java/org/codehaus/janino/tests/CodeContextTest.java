@@ -0,0 +1,129 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino.tests;
+
+import java.lang.reflect.Method;
+
+import org.codehaus.janino.SimpleCompiler;
+import org.junit.Assert;
+import org.junit.Test;
+
+// SUPPRESS CHECKSTYLE JavadocMethod:9999
+
+/**
+ * Tests for the code generation of very large methods, i.e. for {@link org.codehaus.janino.CodeContext}.
+ */
+public
+class CodeContextTest {
+
+    /**
+     * Compiles a method close to the 64 KB limit with some thousand forward branches, most of which must be widened to
+     * {@code GOTO_W}.
+     */
+    @Test public void
+    testManyWideBranches() throws Exception {
+
+        final int n = 2400;
+
+        StringBuilder sb = new StringBuilder("public static int meth(int x) {\n    int r = 0;\n    do {\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("        if (x == ").append(i).append(") break;\n");
+            sb.append("        r = r * 31 + ").append(i).append(";\n");
+        }
+        sb.append("    } while (false);\n    return r;\n}\n");
+
+        Method m = CodeContextTest.cook(sb.toString());
+
+        for (int x : new int[] { 0, 1, 1000, n - 1, n }) {
+            int expected = 0;
+            for (int i = 0; i < x && i < n; i++) expected = expected * 31 + i;
+            Assert.assertEquals(expected, m.invoke(null, x));
+        }
+    }
+
+    /**
+     * Compiles a large method with some thousand SWITCH statements, each of which requires padding.
+     */
+    @Test public void
+    testManySwitches() throws Exception {
+
+        final int n = 1200;
+
+        StringBuilder sb = new StringBuilder("public static int meth(int x) {\n    int r = 0;\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("    switch (x + ").append(i % 3).append(") {\n");
+            sb.append("    case 0: r += 1; break;\n");
+            sb.append("    case 1: r += 2; break;\n");
+            sb.append("    case 2: r += 3; break;\n");
+            sb.append("    }\n");
+        }
+        sb.append("    return r;\n}\n");
+
+        Method m = CodeContextTest.cook(sb.toString());
+
+        for (int x : new int[] { -1, 0, 1, 2 }) {
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                int y = x + i % 3;
+                if (y >= 0 && y <= 2) expected += y + 1;
+            }
+            Assert.assertEquals(expected, m.invoke(null, x));
+        }
+    }
+
+    /**
+     * Compiles a large method with many non-trivial expressions, i.e. with lots of operand stack activity.
+     */
+    @Test public void
+    testManyExpressions() throws Exception {
+
+        final int n = 400;
+
+        StringBuilder sb = new StringBuilder("public static int meth(int x) {\n    long r = 0;\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("    r += ((x + ").append(i).append(") * (r - x) ^ (x << 3)) % (x | 7) + ");
+            sb.append("(x > ").append(i).append(" ? r * x : r - x) + Math.max(x, r);\n");
+        }
+        sb.append("    return (int) r;\n}\n");
+
+        Method m = CodeContextTest.cook(sb.toString());
+
+        for (int x : new int[] { -3, 0, 7, 1000 }) {
+            long r = 0;
+            for (int i = 0; i < n; i++) {
+                r += ((x + i) * (r - x) ^ (x << 3)) % (x | 7) + (x > i ? r * x : r - x) + Math.max(x, r);
+            }
+            Assert.assertEquals((int) r, m.invoke(null, x));
+        }
+    }
+
+    private static Method
+    cook(String methodBody) throws Exception {
+        SimpleCompiler sc = new SimpleCompiler();
+        sc.cook("public class Large {\n" + methodBody + "}\n");
+        return sc.getClassLoader().loadClass("Large").getDeclaredMethod("meth", int.class);
+    }
+}
@@ -0,0 +1,195 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino.tests;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.util.reflect.ByteArrayClassLoader;
+import org.codehaus.commons.compiler.util.resource.FileResource;
+import org.codehaus.commons.compiler.util.resource.Resource;
+import org.codehaus.janino.Compiler;
+import org.codehaus.janino.util.ClassFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+// SUPPRESS CHECKSTYLE JavadocMethod:9999
+
+/**
+ * Unit tests for the JANINO {@link Compiler}.
+ */
+public
+class CompilerTest {
+
+    private File dir;
+
+    @Before public void
+    setUp() throws IOException {
+        this.dir = File.createTempFile("CompilerTest", "");
+        Assert.assertTrue(this.dir.delete());
+        Assert.assertTrue(this.dir.mkdir());
+    }
+
+    @After public void
+    tearDown() {
+        for (File f : this.dir.listFiles()) f.delete();
+        this.dir.delete();
+    }
+
+    /**
+     * Tests {@link Compiler#setDependencyIndexFile(File)}.
+     */
+    @Test public void
+    testIncrementalCompilation() throws Exception {
+
+        this.write("A", "public class A { public static final int K = 1; public int f() { return 1; } }");
+        this.write("B", "public class B { public int g() { return new A().f(); } }");
+        this.write("C", "public class C { public static int h() { return A.K; } }");
+        this.write("D", "public class D { }");
+        this.write("E", "public class E extends B { }");
+        this.write("F", "public class F { public static int i() { return new E().g(); } }");
+
+        // Initially, all compilation units are compiled.
+        Assert.assertEquals(this.set("A", "B", "C", "D", "E", "F"), this.compile("A", "B", "C", "D", "E", "F"));
+
+        // Nothing changed, so nothing is recompiled.
+        Assert.assertEquals(this.set(), this.compile("A", "B", "C", "D", "E", "F"));
+
+        // Changing a method body does not change the API.
+        this.write("A", "public class A { public static final int K = 1; public int f() { return 2; } }");
+        Assert.assertEquals(this.set("A"), this.compile("A", "B", "C", "D", "E", "F"));
+        Assert.assertEquals(2, this.invoke("F", "i"));
+
+        // Changing the value of a constant must also recompile "C", which inlines it.
+        this.write("A", "public class A { public static final int K = 7; public int f() { return 2; } }");
+        Assert.assertEquals(this.set("A", "B", "C"), this.compile("A", "B", "C", "D", "E", "F"));
+        Assert.assertEquals(7, this.invoke("C", "h"));
+
+        // Changing the API of "B" changes the (inherited) API of "E", so "F" must also be recompiled.
+        this.write("B", "public class B { public int g() { return new A().f(); } public void g2() {} }");
+        Assert.assertEquals(this.set("B", "E", "F"), this.compile("A", "B", "C", "D", "E", "F"));
+
+        // A compilation unit whose class file is missing is recompiled.
+        Assert.assertTrue(new File(this.dir, "D.class").delete());
+        Assert.assertEquals(this.set("D"), this.compile("A", "B", "C", "D", "E", "F"));
+
+        // Removing a compilation unit recompiles its dependents (which then fail to compile).
+        try {
+            this.compile("A", "C", "D", "E", "F");
+            Assert.fail("CompileException expected");
+        } catch (CompileException ce) {
+            ;
+        }
+
+        // The failed compilation did not update the index.
+        Assert.assertEquals(this.set(), this.compile("A", "B", "C", "D", "E", "F"));
+        Assert.assertEquals(2, this.invoke("F", "i"));
+    }
+
+    private void
+    write(String className, String body) throws IOException {
+        File file = new File(this.dir, className + ".java");
+
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(("package pkg;\n" + body + "\n").getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+
+        // Make sure that the modification time changes, even on file systems with coarse time stamps.
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 2000));
+    }
+
+    /**
+     * Compiles the given compilation units incrementally.
+     *
+     * @return The names of the compilation units that were actually compiled
+     */
+    private Set<String>
+    compile(String... classNames) throws Exception {
+
+        // Reset the modification times of all class files, so that we can later see which were regenerated.
+        for (File f : this.dir.listFiles()) {
+            if (f.getName().endsWith(".class")) Assert.assertTrue(f.setLastModified(1000));
+        }
+
+        List<Resource> sourceResources = new ArrayList<Resource>();
+        for (String className : classNames) {
+            sourceResources.add(new FileResource(new File(this.dir, className + ".java")));
+        }
+
+        Compiler compiler = new Compiler();
+        compiler.setDependencyIndexFile(new File(this.dir, "index"));
+        compiler.compile(sourceResources.toArray(new Resource[sourceResources.size()]));
+
+        Set<String> result = new TreeSet<String>();
+        for (File f : this.dir.listFiles()) {
+            String name = f.getName();
+            if (name.endsWith(".class") && f.lastModified() != 1000) result.add(name.substring(0, name.length() - 6));
+        }
+        return result;
+    }
+
+    /**
+     * Loads the generated classes and invokes the given static method.
+     */
+    private Object
+    invoke(String className, String methodName) throws Exception {
+
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        for (File f : this.dir.listFiles()) {
+            if (!f.getName().endsWith(".class")) continue;
+
+            InputStream is = new FileInputStream(f);
+            try {
+                ClassFile cf = new ClassFile(is);
+                classes.put(cf.getThisClassName(), cf.toByteArray());
+            } finally {
+                is.close();
+            }
+        }
+
+        return new ByteArrayClassLoader(classes).loadClass("pkg." + className).getMethod(methodName).invoke(null);
+    }
+
+    private Set<String>
+    set(String... elements) { return new TreeSet<String>(Arrays.asList(elements)); }
+}
@@ -25,11 +25,29 @@
 
 package org.codehaus.janino.tests;
 
+import java.io.File;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.util.reflect.LookupClassDefiner;
+import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.ClassLoaderIClassLoader;
+import org.codehaus.janino.EvaluatorCache;
 import org.codehaus.janino.ExpressionEvaluator;
 import org.codehaus.janino.Scanner;
 import org.codehaus.janino.ScriptEvaluator;
@@ -65,4 +83,295 @@ class ExpressionEvaluatorTest {
         );
         Assert.assertEquals(new HashSet<String>(Arrays.asList("b", "d")), parameterNames);
     }
+
+    @Test public void
+    testSharedIClassLoader() throws Exception {
+
+        ClassLoader                   cl  = ExpressionEvaluatorTest.class.getClassLoader();
+        final ClassLoaderIClassLoader icl = ClassLoaderIClassLoader.forClassLoader(cl);
+        Assert.assertSame(icl, ClassLoaderIClassLoader.forClassLoader(cl));
+
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 200; i++) {
+                final int x = i;
+                futures.add(es.submit(new Callable<Object>() {
+
+                    @Override public Object
+                    call() throws Exception {
+                        ExpressionEvaluator ee = new ExpressionEvaluator();
+                        ee.setIClassLoader(icl);
+                        ee.setParameters(new String[] { "a" }, new Class<?>[] { int.class });
+                        ee.cook("String.format(\"%d-%s\", a, java.util.Arrays.asList(\"x\", \"y\"))");
+                        return ee.evaluate(new Object[] { x });
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) Assert.assertEquals(i + "-[x, y]", futures.get(i).get());
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test public void
+    testSharedIClassLoaderIsCollectable() {
+
+        ClassLoader                cl  = new URLClassLoader(new URL[0], ExpressionEvaluatorTest.class.getClassLoader());
+        WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(cl);
+        ClassLoaderIClassLoader.forClassLoader(cl);
+        cl = null;
+
+        // The shared ClassLoaderIClassLoader must not pin its class loader.
+        for (int i = 0; i < 100 && ref.get() != null; i++) System.gc();
+        Assert.assertNull(ref.get());
+    }
+
+    @Test public void
+    testCache() throws Exception {
+
+        final EvaluatorCache cache = new EvaluatorCache(2, Long.MAX_VALUE);
+
+        ExpressionEvaluator ee1 = ExpressionEvaluatorTest.cachedEvaluator(cache, "a + 1", int.class);
+        ExpressionEvaluator ee2 = ExpressionEvaluatorTest.cachedEvaluator(cache, "a + 1", int.class);
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertSame(ee1.getClazz(), ee2.getClazz());
+        Assert.assertEquals(8, ee2.evaluate(new Object[] { 7 }));
+        Assert.assertEquals(ee1.getBytecodes().keySet(), ee2.getBytecodes().keySet());
+
+        // Different parameter type => different key.
+        ExpressionEvaluator ee3 = ExpressionEvaluatorTest.cachedEvaluator(cache, "a + 1", long.class);
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertNotSame(ee1.getClazz(), ee3.getClazz());
+        Assert.assertEquals(8L, ee3.evaluate(new Object[] { 7L }));
+
+        // Third entry => the least recently used entry is evicted.
+        ExpressionEvaluatorTest.cachedEvaluator(cache, "a + 2", int.class);
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(2, cache.size());
+
+        // Concurrent cooks of the same expression are coalesced into one compilation.
+        cache.clear();
+        long missCount = cache.getMissCount();
+
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Class<?>>> futures = new ArrayList<Future<Class<?>>>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(es.submit(new Callable<Class<?>>() {
+
+                    @Override public Class<?>
+                    call() throws Exception {
+                        return ExpressionEvaluatorTest.cachedEvaluator(cache, "a * 3", int.class).getClazz();
+                    }
+                }));
+            }
+            for (Future<Class<?>> f : futures) Assert.assertSame(futures.get(0).get(), f.get());
+        } finally {
+            es.shutdown();
+        }
+        Assert.assertEquals(missCount + 1, cache.getMissCount());
+    }
+
+    @Test public void
+    testPersistentCache() throws Exception {
+
+        File dir = File.createTempFile("EvaluatorCache", "");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        try {
+
+            // First "JVM run": Compile, and store the bytecode in the directory.
+            EvaluatorCache cache1 = new EvaluatorCache(10, Long.MAX_VALUE, dir);
+            ExpressionEvaluatorTest.cachedEvaluator(cache1, "a + 1", int.class);
+            Assert.assertEquals(1, cache1.getMissCount());
+            Assert.assertEquals(0, cache1.getDiskHitCount());
+
+            File[] files = dir.listFiles();
+            Assert.assertEquals(1, files.length);
+
+            // Second "JVM run": Load the bytecode from the directory.
+            EvaluatorCache      cache2 = new EvaluatorCache(10, Long.MAX_VALUE, dir);
+            ExpressionEvaluator ee     = ExpressionEvaluatorTest.cachedEvaluator(cache2, "a + 1", int.class);
+            Assert.assertEquals(0, cache2.getMissCount());
+            Assert.assertEquals(1, cache2.getDiskHitCount());
+            Assert.assertEquals(8, ee.evaluate(new Object[] { 7 }));
+
+            // A file with a different version stamp is ignored.
+            RandomAccessFile raf = new RandomAccessFile(files[0], "rw");
+            try {
+                raf.seek(4);
+                raf.writeChar('X');
+            } finally {
+                raf.close();
+            }
+            EvaluatorCache cache3 = new EvaluatorCache(10, Long.MAX_VALUE, dir);
+            ee = ExpressionEvaluatorTest.cachedEvaluator(cache3, "a + 1", int.class);
+            Assert.assertEquals(1, cache3.getMissCount());
+            Assert.assertEquals(0, cache3.getDiskHitCount());
+            Assert.assertEquals(8, ee.evaluate(new Object[] { 7 }));
+        } finally {
+            for (File f : dir.listFiles()) f.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Defines the generated classes through a {@link MethodHandles.Lookup}, as hidden classes (which may have the same
+     * name) and in the class loader of the lookup class (where the names must be unique).
+     */
+    @Test public void
+    testLookup() throws Exception {
+        if (!LookupClassDefiner.isAvailable()) return;
+
+        String packageName = ExpressionEvaluatorTest.class.getPackage().getName();
+        for (int i = 0; i < 3; i++) {
+            ExpressionEvaluator ee = new ExpressionEvaluator();
+            ee.setClassName(packageName + ".LookupExpression");
+            ee.setLookup(MethodHandles.lookup(), true);
+            ee.setParameters(new String[] { "a" }, new Class<?>[] { int.class });
+            ee.cook("a * " + i);
+            Assert.assertEquals(7 * i, ee.evaluate(new Object[] { 7 }));
+            if (!LookupClassDefiner.isHiddenClassesAvailable()) break;
+        }
+
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setClassName(packageName + ".LookupExpression" + System.nanoTime());
+        ee.setLookup(MethodHandles.lookup(), false);
+        ee.setParameters(new String[] { "a" }, new Class<?>[] { int.class });
+        ee.cook("a + 1");
+        Assert.assertEquals(8, ee.evaluate(new Object[] { 7 }));
+        Assert.assertSame(ExpressionEvaluatorTest.class.getClassLoader(), ee.getClazz().getClassLoader());
+        Assert.assertSame(ee.getClazz(), Class.forName(ee.getClazz().getName(), false, ee.getClazz().getClassLoader()));
+
+        // The lookup class is part of the cache key.
+        if (!LookupClassDefiner.isHiddenClassesAvailable()) return;
+        EvaluatorCache         cache   = new EvaluatorCache(10, Long.MAX_VALUE);
+        MethodHandles.Lookup[] lookups = { MethodHandles.lookup(), MethodHandles.lookup(), LookupHolder.LOOKUP };
+        Class<?>[]             clazzes = new Class<?>[lookups.length];
+        for (int i = 0; i < lookups.length; i++) {
+            ee = new ExpressionEvaluator();
+            ee.setCache(cache);
+            ee.setClassName(packageName + ".CachedLookupExpression");
+            ee.setLookup(lookups[i], true);
+            ee.setParameters(new String[] { "a" }, new Class<?>[] { int.class });
+            ee.cook("a + 2");
+            Assert.assertEquals(9, ee.evaluate(new Object[] { 7 }));
+            clazzes[i] = ee.getClazz();
+        }
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertSame(clazzes[0], clazzes[1]);
+        Assert.assertNotSame(clazzes[0], clazzes[2]);
+    }
+
+    private static
+    class LookupHolder {
+        static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    }
+
+    /**
+     * Cooks so many expressions that their constants do not fit into the constant pool of one class, and verifies
+     * that sharding splits them across multiple classes. Also verifies that one and many threads produce the same
+     * shards.
+     */
+    @Test public void
+    testSharding() throws Exception {
+
+        final int n = 8000;
+
+        String[]     expressions     = new String[n];
+        String[][]   parameterNames  = new String[n][];
+        Class<?>[][] parameterTypes  = new Class<?>[n][];
+        Class<?>[]   expressionTypes = new Class<?>[n];
+        for (int i = 0; i < n; i++) {
+            expressions[i]     = "a + \"#" + i + "\" + a + \"$" + i + "\" + a + \"%" + i + "\" + a + \"&" + i + "\"";
+            parameterNames[i]  = new String[] { "a" };
+            parameterTypes[i]  = new Class<?>[] { String.class };
+            expressionTypes[i] = String.class;
+        }
+
+        // Without sharding, the constant pool overflows.
+        try {
+            ExpressionEvaluatorTest.cookSharded(null, n, expressions, parameterNames, parameterTypes, expressionTypes);
+            Assert.fail();
+        } catch (CompileException ce) {
+            Assert.assertTrue(ce.getMessage(), ce.getMessage().contains("Constant pool"));
+        }
+
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+
+            // One initial shard, which must be split.
+            ExpressionEvaluator ee = ExpressionEvaluatorTest.cookSharded(
+                es,
+                n,
+                expressions,
+                parameterNames,
+                parameterTypes,
+                expressionTypes
+            );
+            Assert.assertTrue(ee.getBytecodes().size() > 1);
+            for (int i = 0; i < n; i += 499) {
+                Assert.assertEquals(
+                    "x#" + i + "x$" + i + "x%" + i + "x&" + i,
+                    ee.evaluate(i, new Object[] { "x" })
+                );
+            }
+
+            // One and many threads must produce the same shards.
+            ExecutorService es1 = Executors.newSingleThreadExecutor();
+            try {
+                for (Executor executor : new Executor[] { es1, es }) {
+                    ee = ExpressionEvaluatorTest.cookSharded(
+                        executor,
+                        500,
+                        expressions,
+                        parameterNames,
+                        parameterTypes,
+                        expressionTypes
+                    );
+                    Assert.assertEquals(n / 500, ee.getBytecodes().size());
+                    for (int i = 0; i < n; i += 499) {
+                        Assert.assertEquals(
+                            "y#" + i + "y$" + i + "y%" + i + "y&" + i,
+                            ee.evaluate(i, new Object[] { "y" })
+                        );
+                    }
+                }
+            } finally {
+                es1.shutdown();
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    private static ExpressionEvaluator
+    cookSharded(
+        @Nullable Executor executor,
+        int                maxExpressionsPerShard,
+        String[]           expressions,
+        String[][]         parameterNames,
+        Class<?>[][]       parameterTypes,
+        Class<?>[]         expressionTypes
+    ) throws CompileException {
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setSharding(executor, maxExpressionsPerShard);
+        ee.setParameters(parameterNames, parameterTypes);
+        ee.setExpressionTypes(expressionTypes);
+        ee.cook(new String[expressions.length], expressions);
+        return ee;
+    }
+
+    private static ExpressionEvaluator
+    cachedEvaluator(EvaluatorCache cache, String expression, Class<?> parameterType) throws Exception {
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setCache(cache);
+        ee.setParameters(new String[] { "a" }, new Class<?>[] { parameterType });
+        ee.setExpressionType(parameterType);
+        ee.cook(expression);
+        return ee;
+    }
 }
@@ -0,0 +1,455 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino.tests;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.commons.compiler.io.InputStreams;
+import org.codehaus.commons.compiler.util.resource.MapResourceFinder;
+import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.Access;
+import org.codehaus.janino.ClassLoaderIClassLoader;
+import org.codehaus.janino.Descriptor;
+import org.codehaus.janino.IClass;
+import org.codehaus.janino.IClass.IAnnotation;
+import org.codehaus.janino.IClass.IField;
+import org.codehaus.janino.IClassLoader;
+import org.codehaus.janino.Mod;
+import org.codehaus.janino.ResourceFinderIClassLoader;
+import org.codehaus.janino.SignatureIndexIClassLoader;
+import org.codehaus.janino.SimpleCompiler;
+import org.codehaus.janino.tools.SignatureIndexGenerator;
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.ClassNameBloomFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+// SUPPRESS CHECKSTYLE JavadocMethod:9999
+
+/**
+ * Unit tests for the {@link org.codehaus.janino.IClassLoader}.
+ */
+public
+class IClassLoaderTest {
+
+    private static final String[] CLASS_NAMES = {
+        "java.util.AbstractList",    "java.util.ArrayDeque",      "java.util.ArrayList",
+        "java.util.Arrays",          "java.util.BitSet",          "java.util.Calendar",
+        "java.util.Collections",     "java.util.Currency",        "java.util.Date",
+        "java.util.EnumMap",         "java.util.EnumSet",         "java.util.HashMap",
+        "java.util.HashSet",         "java.util.Hashtable",       "java.util.IdentityHashMap",
+        "java.util.LinkedHashMap",   "java.util.LinkedHashSet",   "java.util.LinkedList",
+        "java.util.Locale",          "java.util.Objects",         "java.util.PriorityQueue",
+        "java.util.Properties",      "java.util.Random",          "java.util.Scanner",
+        "java.util.Stack",           "java.util.StringTokenizer", "java.util.Timer",
+        "java.util.TreeMap",         "java.util.TreeSet",         "java.util.UUID",
+        "java.util.Vector",          "java.util.WeakHashMap",
+    };
+
+    /**
+     * Loads the same set of types from many threads through one {@link ClassLoaderIClassLoader}, and verifies that
+     * each type is found exactly once, that all threads get the identical {@link IClass}, and that different types
+     * are indeed loaded in parallel.
+     */
+    @Test public void
+    testConcurrentLoadIClass() throws Exception {
+        IClassLoaderTest.loadAll(1);
+        IClassLoaderTest.loadAll(8);
+    }
+
+    /**
+     * Generates a signature index of the running JRE, verifies that the {@link SignatureIndexIClassLoader} describes
+     * the same types as the {@link ClassLoaderIClassLoader}, and compiles a class against the index.
+     */
+    @Test public void
+    testSignatureIndex() throws Exception {
+
+        File indexFile = File.createTempFile("IClassLoaderTest", ".jsix");
+        try {
+            SignatureIndexIClassLoader.Writer writer = new SignatureIndexIClassLoader.Writer();
+            SignatureIndexGenerator.addJreClasses(writer);
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(indexFile));
+            try {
+                writer.write(os);
+            } finally {
+                os.close();
+            }
+
+            IClassLoader indexed    = new SignatureIndexIClassLoader(indexFile, null);
+            IClassLoader reflective = new ClassLoaderIClassLoader(ClassLoader.getSystemClassLoader());
+
+            String[] classNames = new String[IClassLoaderTest.CLASS_NAMES.length + 4];
+            System.arraycopy(IClassLoaderTest.CLASS_NAMES, 0, classNames, 0, IClassLoaderTest.CLASS_NAMES.length);
+            classNames[classNames.length - 4] = "java.lang.Integer";
+            classNames[classNames.length - 3] = "java.util.Map$Entry";
+            classNames[classNames.length - 2] = "java.lang.Thread$State";
+            classNames[classNames.length - 1] = "java.lang.annotation.Retention";
+
+            for (String cn : classNames) {
+                String descriptor = Descriptor.fromClassName(cn);
+                IClass expected   = reflective.loadIClass(descriptor);
+                IClass actual     = indexed.loadIClass(descriptor);
+                Assert.assertNotNull(cn, expected);
+                Assert.assertNotNull(cn, actual);
+
+                Assert.assertEquals(
+                    cn,
+                    IClassLoaderTest.descriptor(expected.getSuperclass()),
+                    IClassLoaderTest.descriptor(actual.getSuperclass())
+                );
+                Assert.assertEquals(cn, expected.getInterfaces().length, actual.getInterfaces().length);
+                Assert.assertEquals(cn, expected.getAccess(), actual.getAccess());
+                Assert.assertEquals(cn, expected.isInterface(), actual.isInterface());
+                Assert.assertEquals(cn, expected.isEnum(), actual.isEnum());
+                Assert.assertEquals(cn, expected.getDeclaredIClasses().length, actual.getDeclaredIClasses().length);
+                Assert.assertEquals(
+                    cn,
+                    IClassLoaderTest.descriptor(expected.getDeclaringIClass()),
+                    IClassLoaderTest.descriptor(actual.getDeclaringIClass())
+                );
+                Assert.assertEquals(
+                    cn,
+                    expected.getDeclaredIConstructors().length,
+                    actual.getDeclaredIConstructors().length
+                );
+
+                // Reflection reports neither synthetic members nor the class initializer.
+                Assert.assertTrue(cn, expected.getDeclaredIMethods().length <= actual.getDeclaredIMethods().length);
+
+                for (IField ef : expected.getDeclaredIFields()) {
+                    if (ef.getAccess() != Access.PUBLIC) continue;
+                    IField af = actual.getDeclaredIField(ef.getName());
+                    Assert.assertNotNull(cn + "." + ef.getName(), af);
+                    Assert.assertEquals(cn + "." + ef.getName(), ef.getDescriptor(), af.getDescriptor());
+                    Assert.assertEquals(cn + "." + ef.getName(), ef.getConstantValue(), af.getConstantValue());
+                }
+            }
+
+            // "@Retention" is itself annotated with "@Retention(RetentionPolicy.RUNTIME)".
+            IClass retention = indexed.loadIClass("Ljava/lang/annotation/Retention;");
+            Assert.assertNotNull(retention);
+            IField policy = null;
+            for (IAnnotation a : retention.getIAnnotations()) {
+                if (a.getAnnotationType() == retention) policy = (IField) a.getElementValue("value");
+            }
+            Assert.assertNotNull(policy);
+            Assert.assertEquals("RUNTIME", policy.getName());
+            Assert.assertEquals("Ljava/lang/annotation/RetentionPolicy;", policy.getDeclaringIClass().getDescriptor());
+
+            SimpleCompiler sc = new SimpleCompiler();
+            sc.setIClassLoader(new ClassLoaderIClassLoader(IClassLoaderTest.class.getClassLoader(), indexed));
+            sc.cook(
+                ""
+                + "import java.util.*;\n"
+                + "\n"
+                + "public class Foo {\n"
+                + "    public static String meth() {\n"
+                + "        Map<String, Integer> m = new TreeMap<String, Integer>();\n"
+                + "        m.put(\"a\", Integer.MAX_VALUE);\n"
+                + "        for (Map.Entry<String, Integer> e : m.entrySet()) return \"\" + e.getKey() + e.getValue();\n"
+                + "        return Thread.State.NEW.name();\n"
+                + "    }\n"
+                + "}\n"
+            );
+            Assert.assertEquals(
+                "a2147483647",
+                sc.getClassLoader().loadClass("Foo").getMethod("meth").invoke(null)
+            );
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Verifies that a {@link ClassLoaderIClassLoader} with a {@link ClassNameBloomFilter} rejects non-existent
+     * classes without asking its {@link ClassLoader}.
+     */
+    @Test public void
+    testClassNameFilter() throws Exception {
+
+        List<File> classPath = new ArrayList<File>();
+        for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(element));
+        }
+        ClassNameBloomFilter filter = ClassNameBloomFilter.forClassPath(
+            (File[]) classPath.toArray(new File[classPath.size()])
+        );
+        Assert.assertTrue(filter.mightContain("java.util.Map$Entry"));
+        Assert.assertTrue(filter.mightContain(IClassLoaderTest.class.getName()));
+
+        final AtomicInteger loadClassCount = new AtomicInteger();
+        ClassLoader         cl             = new ClassLoader(IClassLoaderTest.class.getClassLoader()) {
+
+            @Override protected Class<?>
+            loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                loadClassCount.incrementAndGet();
+                return super.loadClass(name, resolve);
+            }
+        };
+
+        ClassLoaderIClassLoader icl = new ClassLoaderIClassLoader(cl);
+        icl.setClassNameFilter(filter);
+        loadClassCount.set(0);
+
+        Assert.assertNotNull(icl.loadIClass("Ljava/util/ArrayList;"));
+        Assert.assertEquals(1, loadClassCount.get());
+
+        int misses = 0;
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertNull(icl.loadIClass("Ljava/util/NoSuchClass" + i + ";"));
+            if (loadClassCount.get() > 1 + misses) misses++;
+        }
+        Assert.assertTrue("misses=" + misses, misses < 100);
+
+        SimpleCompiler sc = new SimpleCompiler();
+        sc.setIClassLoader(icl);
+        sc.cook(
+            ""
+            + "import java.util.*;\n"
+            + "import java.util.concurrent.*;\n"
+            + "import java.io.*;\n"
+            + "\n"
+            + "public class Foo {\n"
+            + "    public static Object meth() { return new ConcurrentHashMap(new HashMap()); }\n"
+            + "}\n"
+        );
+        Assert.assertEquals(
+            "{}",
+            String.valueOf(sc.getClassLoader().loadClass("Foo").getMethod("meth").invoke(null))
+        );
+    }
+
+    /**
+     * Verifies that a {@link ClassFile} that was parsed lazily from a {@link ByteBuffer} is equivalent with one that
+     * was read from an {@link java.io.InputStream}, and that it serves type information through a {@link
+     * ResourceFinderIClassLoader}.
+     */
+    @Test public void
+    testLazyClassFile() throws Exception {
+
+        for (String className : IClassLoaderTest.CLASS_NAMES) {
+            byte[] ba = IClassLoaderTest.readClassFile(className);
+
+            ClassFile eager = new ClassFile(new ByteArrayInputStream(ba));
+            ClassFile lazy  = new ClassFile(ByteBuffer.wrap(ba));
+            Assert.assertEquals(eager.getThisClassName(), lazy.getThisClassName());
+
+            ByteArrayOutputStream baos1 = new ByteArrayOutputStream(), baos2 = new ByteArrayOutputStream();
+            eager.store(baos1);
+            lazy.store(baos2);
+            Assert.assertArrayEquals(className, baos1.toByteArray(), baos2.toByteArray());
+        }
+
+        ClassFile cf = new ClassFile(ByteBuffer.wrap(IClassLoaderTest.readClassFile("java.io.InputStream")));
+        for (ClassFile.MethodInfo mi : cf.methodInfos) {
+            if (!"read".equals(mi.getName()) || !"()I".equals(mi.getDescriptor())) continue;
+
+            Assert.assertTrue(mi.findAttribute("Exceptions") instanceof ClassFile.ExceptionsAttribute);
+            Assert.assertNull(mi.findAttribute("Code")); // Abstract method.
+        }
+
+        // Load a class that the parent IClassLoader does not see.
+        String            className = LazySample.class.getName();
+        MapResourceFinder rf        = new MapResourceFinder();
+        rf.addResource(ClassFile.getClassFileResourceName(className), IClassLoaderTest.readClassFile(className));
+        IClass sample = new ResourceFinderIClassLoader(
+            rf,
+            new ClassLoaderIClassLoader(ClassLoader.getSystemClassLoader().getParent())
+        ).loadIClass(Descriptor.fromClassName(className));
+        Assert.assertNotNull(sample);
+
+        IClass.IMethod[] meths = sample.getDeclaredIMethods("meth");
+        Assert.assertEquals(1, meths.length);
+        IClass[] tes = meths[0].getThrownExceptions();
+        Assert.assertEquals(1, tes.length);
+        Assert.assertEquals("Ljava/io/IOException;", tes[0].getDescriptor());
+
+        IField constant = sample.getDeclaredIField("CONSTANT");
+        Assert.assertNotNull(constant);
+        Assert.assertEquals(42, constant.getConstantValue());
+    }
+
+    /**
+     * Verifies that {@link ClassFile#toByteArray()}, which patches the attribute lengths in, produces the same bytes as
+     * {@link ClassFile#store(OutputStream)}, and that the constant pool map finds existing entries.
+     */
+    @Test public void
+    testClassFileToByteArray() throws Exception {
+
+        for (String className : IClassLoaderTest.CLASS_NAMES) {
+            ClassFile cf = new ClassFile(new ByteArrayInputStream(IClassLoaderTest.readClassFile(className)));
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            cf.store(baos);
+            byte[] ba = cf.toByteArray();
+            Assert.assertEquals(className, baos.size(), cf.getSize());
+            Assert.assertArrayEquals(className, baos.toByteArray(), ba);
+
+            // The constant pool map is built on demand; re-adding existing entries must not grow the pool.
+            int cps = cf.getConstantPoolSize();
+            Assert.assertEquals(cf.thisClass, cf.addConstantClassInfo(Descriptor.fromClassName(className)));
+            Assert.assertEquals(cps, cf.getConstantPoolSize());
+        }
+
+        ClassFile cf = new ClassFile((short) (Mod.PUBLIC | Mod.SUPER), "LFoo;", "Ljava/lang/Object;", new String[0]);
+        short[]   indexes = new short[20000];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = cf.addConstantUtf8Info("s" + i);
+            cf.addConstantLongInfo(i);
+        }
+        for (int i = 0; i < indexes.length; i++) {
+            Assert.assertEquals(indexes[i], cf.addConstantUtf8Info("s" + i));
+            Assert.assertEquals("s" + i, cf.getConstantUtf8(indexes[i]));
+        }
+
+        ByteBuffer bb = ByteBuffer.allocate(cf.getSize() + 3);
+        bb.position(3);
+        cf.store(bb);
+        Assert.assertFalse(bb.hasRemaining());
+        bb.position(3);
+        Assert.assertEquals(3 * indexes.length + 5, new ClassFile(bb).getConstantPoolSize());
+    }
+
+    public static
+    class LazySample {
+        public static final int CONSTANT = 42;
+        public void meth() throws IOException {}
+    }
+
+    private static byte[]
+    readClassFile(String className) throws IOException {
+        InputStream is = ClassLoader.getSystemResourceAsStream(ClassFile.getClassFileResourceName(className));
+        Assert.assertNotNull(className, is);
+        try {
+            return InputStreams.readAll(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Nullable private static String
+    descriptor(@Nullable IClass iClass) { return iClass == null ? null : iClass.getDescriptor(); }
+
+    private static void
+    loadAll(int threadCount) throws Exception {
+
+        // Count only the loads of the test, not the ones that the constructor does.
+        final CountingIClassLoader icl = new CountingIClassLoader(IClassLoaderTest.class.getClassLoader());
+        icl.counting = true;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<IClass[]>> futures = new ArrayList<Future<IClass[]>>();
+            for (int i = 0; i < 4 * threadCount; i++) {
+                final int offset = i;
+                futures.add(executor.submit(new Callable<IClass[]>() {
+
+                    @Override public IClass[]
+                    call() throws Exception {
+                        String[] cns    = IClassLoaderTest.CLASS_NAMES;
+                        IClass[] result = new IClass[cns.length];
+                        for (int j = 0; j < cns.length; j++) {
+                            int k = (j + offset) % cns.length;
+                            result[k] = icl.loadIClass(Descriptor.fromClassName(cns[k]));
+                        }
+                        return result;
+                    }
+                }));
+            }
+
+            IClass[] expected = futures.get(0).get();
+            for (Future<IClass[]> f : futures) {
+                IClass[] actual = f.get();
+                for (int i = 0; i < expected.length; i++) Assert.assertSame(expected[i], actual[i]);
+            }
+
+            for (String cn : IClassLoaderTest.CLASS_NAMES) {
+                AtomicInteger count = icl.findCounts.get(Descriptor.fromClassName(cn));
+                Assert.assertNotNull(cn, count);
+                Assert.assertEquals(cn, 1, count.get());
+            }
+            if (threadCount > 1) Assert.assertTrue(icl.maxConcurrency.get() > 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Iff {@link #counting}, counts the invocations of {@link #findIClass(String)} and delays each of them, to
+     * simulate slow class loading.
+     */
+    private static
+    class CountingIClassLoader extends ClassLoaderIClassLoader {
+
+        volatile boolean                           counting;
+        final ConcurrentMap<String, AtomicInteger> findCounts     = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger                        concurrency    = new AtomicInteger();
+        final AtomicInteger                        maxConcurrency = new AtomicInteger();
+
+        CountingIClassLoader(ClassLoader classLoader) { super(classLoader); }
+
+        @Override @Nullable protected IClass
+        findIClass(String descriptor) throws ClassNotFoundException {
+
+            if (!this.counting) return super.findIClass(descriptor);
+
+            AtomicInteger count = new AtomicInteger();
+            AtomicInteger prev  = this.findCounts.putIfAbsent(descriptor, count);
+            (prev != null ? prev : count).incrementAndGet();
+
+            int c = this.concurrency.incrementAndGet();
+            for (;;) {
+                int max = this.maxConcurrency.get();
+                if (c <= max || this.maxConcurrency.compareAndSet(max, c)) break;
+            }
+            try {
+                Thread.sleep(2);
+                return super.findIClass(descriptor);
+            } catch (InterruptedException ie) {
+                throw new ClassNotFoundException(descriptor, ie);
+            } finally {
+                this.concurrency.decrementAndGet();
+            }
+        }
+    }
+}
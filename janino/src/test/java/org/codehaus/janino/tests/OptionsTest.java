@@ -26,13 +26,20 @@
 package org.codehaus.janino.tests;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.InternalCompilerException;
+import org.codehaus.commons.compiler.Location;
+import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.ClassBodyEvaluator;
 import org.codehaus.janino.JaninoOption;
 import org.codehaus.janino.ScriptEvaluator;
 import org.codehaus.janino.SimpleCompiler;
@@ -92,14 +99,398 @@ class OptionsTest {
         OptionsTest.assertScriptExecutable(script, JaninoOption.EXPRESSIONS_IN_TRY_WITH_RESOURCES_ALLOWED);
     }
 
+    /**
+     * Tests {@link JaninoOption#INDY_STRING_CONCATENATION}.
+     */
+    @Test public void
+    testIndyStringConcatenation() throws Exception {
+        String script = (
+            ""
+            + "import org.junit.Assert;\n"
+            + "\n"
+            + "int    i = 7;\n"
+            + "long   l = 8L;\n"
+            + "char   c = 'c';\n"
+            + "Object o = null;\n"
+            + "String s = \"s\";\n"
+            + "\n"
+            + "Assert.assertEquals(\"a7-8cnulls\", \"a\" + i + \"-\" + l + c + o + s);\n"
+            + "Assert.assertEquals(\"15s\", i + l + s);\n"
+            + "Assert.assertEquals(\"s7x\", s + i + 'x');\n"
+            + "Assert.assertEquals(\"\\u0001\\u0002s7\", \"\\u0001\\u0002\" + s + i);\n"
+            + "\n"
+            + "String t = \"\";\n"
+            + "for (int j = 0; j < 3; j++) t += j + \",\";\n"
+            + "Assert.assertEquals(\"0,1,2,\", t);\n"
+        );
+
+        OptionsTest.assertScriptExecutable(6, script);
+        OptionsTest.assertScriptExecutable(6, script, JaninoOption.INDY_STRING_CONCATENATION);
+
+        // Java 9 class files can only be loaded by a Java 9+ JVM.
+        try {
+            Class.forName("java.lang.invoke.StringConcatFactory");
+        } catch (ClassNotFoundException cnfe) {
+            return;
+        }
+        OptionsTest.assertScriptExecutable(9, script);
+        OptionsTest.assertScriptExecutable(9, script, JaninoOption.INDY_STRING_CONCATENATION);
+    }
+
+    /**
+     * Tests {@link JaninoOption#PEEPHOLE_OPTIMIZATION}.
+     */
+    @Test public void
+    testPeepholeOptimization() throws Exception {
+        String script = (
+            ""
+            + "import org.junit.Assert;\n"
+            + "\n"
+            + "StringBuilder sb = new StringBuilder();\n"
+            + "for (int i = -1; i < 8; i++) {\n"
+            + "    switch (i) {\n"
+            + "    case 0:  sb.append('a'); break;\n"
+            + "    case 1:\n"
+            + "    case 2:  sb.append('b');\n"
+            + "    case 5:  break;\n"
+            + "    case 6:  sb.append('c'); continue;\n"
+            + "    default: sb.append('d'); break;\n"
+            + "    }\n"
+            + "    sb.append(i > 3 ? 'x' : 'y');\n"
+            + "}\n"
+            + "Assert.assertEquals(\"dyayby\" + \"bydydxxcdx\", sb.toString());\n"
+            + "\n"
+            + "int s = 0;\n"
+            + "outer: for (int i = 0; i < 10; i++) {\n"
+            + "    for (int j = 0; j < 10; j++) {\n"
+            + "        if (j > i) continue outer;\n"
+            + "        if (i * j > 20) break outer;\n"
+            + "        s += i ^ j;\n"
+            + "    }\n"
+            + "}\n"
+            + "Assert.assertEquals(57, s);\n"
+            + "\n"
+            + "int r = 0;\n"
+            + "try {\n"
+            + "    if (s > 0) throw new IllegalStateException();\n"
+            + "    r = 1;\n"
+            + "} catch (RuntimeException re) {\n"
+            + "    r = 2;\n"
+            + "}\n"
+            + "try {\n"
+            + "    r += 3;\n"
+            + "} finally {\n"
+            + "    r += 10;\n"
+            + "}\n"
+            + "Assert.assertEquals(15, r);\n"
+            + "\n"
+            + "long   l = 7;\n"
+            + "double d = 3.5;\n"
+            + "long   t = l * 31 + (long) d;\n"
+            + "Assert.assertEquals(220L, t);\n"
+        );
+
+        for (int targetVersion : new int[] { 6, 8 }) {
+            ScriptEvaluator plain     = OptionsTest.assertScriptExecutable(targetVersion, script);
+            ScriptEvaluator optimized = OptionsTest.assertScriptExecutable(
+                targetVersion,
+                script,
+                JaninoOption.PEEPHOLE_OPTIMIZATION
+            );
+
+            // The optimized code must be smaller.
+            int plainSize     = OptionsTest.bytecodeSize(plain);
+            int optimizedSize = OptionsTest.bytecodeSize(optimized);
+            Assert.assertTrue(optimizedSize + " vs. " + plainSize, optimizedSize < plainSize);
+        }
+    }
+
+    /**
+     * Tests {@link JaninoOption#PEEPHOLE_OPTIMIZATION} with line numbers and local variables, where the optimizer
+     * removes the last instruction of a method, and thus the line number table and the local variable table must not
+     * refer to the end of the code.
+     */
+    @Test public void
+    testPeepholeOptimizationWithDebuggingInformation() throws Exception {
+        String classBody = (
+            ""
+            + "public int test1() {\n"
+            + "    try {\n"
+            + "        throw new java.io.IOException();\n"
+            + "    } catch (java.io.IOException e) {\n"
+            + "    } catch (Throwable e) {\n"
+            + "    }\n"
+            + "    return 7;\n"
+            + "}\n"
+            + "public void test2() {\n"
+            + "    try { throw new java.io.IOException(); } catch (java.io.IOException e) {} catch (Throwable e) {}\n"
+            + "}\n"
+        );
+
+        for (boolean debugVars : new boolean[] { false, true }) {
+            ClassBodyEvaluator cbe = new ClassBodyEvaluator();
+            cbe.setDebuggingInformation(true, true, debugVars);
+            cbe.options(EnumSet.of(JaninoOption.PEEPHOLE_OPTIMIZATION));
+            cbe.cook(classBody);
+
+            Object o = cbe.getClazz().getConstructor().newInstance();
+            Assert.assertEquals(7, o.getClass().getMethod("test1").invoke(o));
+            o.getClass().getMethod("test2").invoke(o);
+        }
+    }
+
+    /**
+     * Tests {@link JaninoOption#METHOD_OUTLINING}.
+     */
+    @Test public void
+    testMethodOutlining() throws Exception {
+
+        // Generate a script whose byte code exceeds 64 KB.
+        StringBuilder sb = new StringBuilder(
+            ""
+            + "import org.junit.Assert;\n"
+            + "\n"
+            + "long   s = 0;\n"
+            + "long[] a = new long[4];\n"
+        );
+        long   s = 0;
+        long[] a = new long[4];
+        for (int i = 0; i < 3000; i++) {
+            sb.append("s = s * 31 + ").append(i).append(";\n");
+            sb.append("a[").append(i % 4).append("] += s ^ ").append(i).append(";\n");
+            s = s * 31 + i;
+            a[i % 4] += s ^ i;
+        }
+        sb.append("Assert.assertEquals(").append(s).append("L, s);\n");
+        sb.append("Assert.assertArrayEquals(new long[] { ");
+        for (long x : a) sb.append(x).append("L, ");
+        sb.append("}, a);\n");
+        String script = sb.toString();
+
+        try {
+            OptionsTest.assertScriptExecutable(script);
+            Assert.fail("InternalCompilerException expected");
+        } catch (InternalCompilerException ice) {
+            Assert.assertTrue(ice.getMessage(), ice.getMessage().contains("Code grows beyond 64 KB"));
+        }
+
+        OptionsTest.assertScriptExecutable(script, JaninoOption.METHOD_OUTLINING);
+    }
+
+    /**
+     * Tests {@link JaninoOption#METHOD_OUTLINING} with runs of statements that assign more than one local variable,
+     * and that contain BREAK, CONTINUE and RETURN statements.
+     */
+    @Test public void
+    testMethodOutliningWithExits() throws Exception {
+
+        StringBuilder sb = new StringBuilder(
+            ""
+            + "public class X {\n"
+            + "    public static long compute(int seed) {\n"
+            + "        long x = seed, y = 0;\n"
+            + "        outer: for (int k = 0; k < 4; k++) {\n"
+            + "            for (int m = 0; m < 3; m++) {\n"
+        );
+        for (int i = 0; i < 500; i++) {
+            sb.append("                x = x * 31 + ").append(i).append("; y ^= x >>> 7;\n");
+            sb.append("                if ((x & 1023) == 7) break;\n");
+            sb.append("                if ((y & 1023) == 11) continue;\n");
+            sb.append("                if ((x & 4095) == 13) continue outer;\n");
+            sb.append("                if ((y & 8191) == 17) return -x;\n");
+        }
+        sb.append(
+            ""
+            + "            }\n"
+            + "            y += k;\n"
+            + "        }\n"
+            + "        return x + y;\n"
+            + "    }\n"
+            + "}\n"
+        );
+
+        SimpleCompiler sc = new SimpleCompiler();
+        sc.options(EnumSet.of(JaninoOption.METHOD_OUTLINING));
+        sc.setMethodOutliningThreshold(2000);
+        sc.cook(sb.toString());
+
+        Class<?> c = sc.getClassLoader().loadClass("X");
+        Assert.assertTrue(c.getDeclaredMethods().length > 1);
+        for (int seed = 0; seed < 20; seed++) {
+            Assert.assertEquals(OptionsTest.compute(seed, 500), c.getMethod("compute", int.class).invoke(null, seed));
+        }
+    }
+
+    /**
+     * The equivalent of the "{@code compute()}" method in {@link #testMethodOutliningWithExits()}.
+     */
+    private static long
+    compute(int seed, int n) {
+        long x = seed, y = 0;
+        OUTER:
+        for (int k = 0; k < 4; k++) {
+            INNER:
+            for (int m = 0; m < 3; m++) {
+                for (int i = 0; i < n; i++) {
+                    x = x * 31 + i;
+                    y ^= x >>> 7;
+                    if ((x & 1023) == 7) break INNER;
+                    if ((y & 1023) == 11) continue INNER;
+                    if ((x & 4095) == 13) continue OUTER;
+                    if ((y & 8191) == 17) return -x;
+                }
+            }
+            y += k;
+        }
+        return x + y;
+    }
+
+    /**
+     * Tests that a warning is issued when a method exceeds the method outlining threshold even after outlining.
+     */
+    @Test public void
+    testMethodOutliningWarning() throws Exception {
+
+        // Methods that declare local classes are never outlined.
+        StringBuilder sb = new StringBuilder(
+            ""
+            + "public class X {\n"
+            + "    public static int compute() {\n"
+            + "        class Local {}\n"
+            + "        int s = 0;\n"
+        );
+        for (int i = 0; i < 200; i++) sb.append("        s = s * 31 + ").append(i).append(";\n");
+        sb.append(
+            ""
+            + "        return s;\n"
+            + "    }\n"
+            + "}\n"
+        );
+
+        final List<String> warnings = new ArrayList<String>();
+
+        SimpleCompiler sc = new SimpleCompiler();
+        sc.options(EnumSet.of(JaninoOption.METHOD_OUTLINING));
+        sc.setMethodOutliningThreshold(256);
+        sc.setWarningHandler(new WarningHandler() {
+
+            @Override public void
+            handleWarning(@Nullable String handle, String message, @Nullable Location location) {
+                warnings.add(handle + ": " + message);
+            }
+        });
+        sc.cook(sb.toString());
+
+        Assert.assertEquals(warnings.toString(), 1, warnings.size());
+        Assert.assertTrue(warnings.get(0), warnings.get(0).startsWith("MOTL: "));
+    }
+
+    /**
+     * Tests that the method outlining threshold must be between 256 and 65535, also when configured through a system
+     * property.
+     */
+    @Test public void
+    testMethodOutliningThresholdRange() {
+
+        for (int threshold : new int[] { 255, 65536 }) {
+            try {
+                new SimpleCompiler().setMethodOutliningThreshold(threshold);
+                Assert.fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException iae) {
+                ;
+            }
+        }
+        new SimpleCompiler().setMethodOutliningThreshold(256);
+        new SimpleCompiler().setMethodOutliningThreshold(65535);
+
+        System.setProperty("org.codehaus.janino.UnitCompiler.methodOutliningThreshold", "100");
+        try {
+            new SimpleCompiler();
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException iae) {
+            ;
+        } finally {
+            System.clearProperty("org.codehaus.janino.UnitCompiler.methodOutliningThreshold");
+        }
+    }
+
+    /**
+     * Tests {@link JaninoOption#CONSTANT_POOL_SPILLING}.
+     */
+    @Test public void
+    testConstantPoolSpilling() throws Exception {
+
+        // Generate a class with more than 65535 constant pool entries (each string or long literal requires two).
+        StringBuilder sb       = new StringBuilder("public class Literals {\n");
+        long          expected = 0;
+        for (int i = 0; i < 20; i++) {
+            sb.append("    public static long m").append(i).append("() {\n");
+            sb.append("        long h = 0;\n");
+            long h = 0;
+            for (int j = 0; j < 1000; j++) {
+                String s = "s" + i + "_" + j;
+                long   l = 1000000000000L * i + j;
+                sb.append("        h = h * 31 + \"").append(s).append("\".hashCode() + ").append(l).append("L;\n");
+                h = h * 31 + s.hashCode() + l;
+            }
+            sb.append("        return h;\n");
+            sb.append("    }\n");
+            expected += h;
+        }
+        sb.append("    public static long sum() {\n");
+        sb.append("        long sum = 0;\n");
+        for (int i = 0; i < 20; i++) sb.append("        sum += m").append(i).append("();\n");
+        sb.append("        return sum;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        String cu = sb.toString();
+
+        try {
+            new SimpleCompiler().cook(cu);
+            Assert.fail("CompileException expected");
+        } catch (CompileException ce) {
+            Assert.assertTrue(ce.getMessage(), ce.getMessage().contains("has grown past JVM limit of 0xFFFF"));
+        }
+
+        SimpleCompiler sc = new SimpleCompiler();
+        sc.options(EnumSet.of(JaninoOption.CONSTANT_POOL_SPILLING));
+        sc.cook(cu);
+        Assert.assertEquals(expected, sc.getClassLoader().loadClass("Literals").getMethod("sum").invoke(null));
+    }
+
     private static void
     assertScriptExecutable(String script, JaninoOption... options)
     throws CompileException, InvocationTargetException {
         ScriptEvaluator se = new ScriptEvaluator();
         se.setDebuggingInformation(true, true, true);
-        se.options(EnumSet.copyOf(Arrays.asList(options)));
+        if (options.length >= 1) se.options(EnumSet.copyOf(Arrays.asList(options)));
+        se.cook(script);
+        se.evaluate(null);
+    }
+
+    /**
+     * @return The {@link ScriptEvaluator} that cooked and evaluated the <var>script</var>
+     */
+    private static ScriptEvaluator
+    assertScriptExecutable(int targetVersion, String script, JaninoOption... options)
+    throws CompileException, InvocationTargetException {
+        ScriptEvaluator se = new ScriptEvaluator();
+        se.setDebuggingInformation(true, true, true);
+        se.setTargetVersion(targetVersion);
+        if (options.length >= 1) se.options(EnumSet.copyOf(Arrays.asList(options)));
         se.cook(script);
         se.evaluate(null);
+        return se;
+    }
+
+    /**
+     * @return The total size of the class files that the <var>se</var> generated
+     */
+    private static int
+    bytecodeSize(ScriptEvaluator se) {
+        int result = 0;
+        for (byte[] ba : se.getBytecodes().values()) result += ba.length;
+        return result;
     }
 
     private static void
@@ -0,0 +1,161 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010 Arno Unkrig. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino.tests;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.io.Readers;
+import org.codehaus.commons.nullanalysis.Nullable;
+import org.codehaus.janino.Scanner;
+import org.codehaus.janino.Token;
+import org.codehaus.janino.TokenType;
+import org.junit.Assert;
+import org.junit.Test;
+
+// SUPPRESS CHECKSTYLE JavadocMethod:9999
+
+/**
+ * Unit tests for the {@link Scanner}.
+ */
+public
+class ScannerTest {
+
+    @Test public void
+    testUnicodeEscapes() throws Exception {
+        ScannerTest.assertTokens("\\u0061\\uuu0062 c\\u0064", "ab", "cd");
+        ScannerTest.assertTokens("'\\u005c\\u005c'", "'\\\\'");
+        ScannerTest.assertTokens("\"\\\\u0061\"", "\"\\\\u0061\"");
+        ScannerTest.assertTokens("'\\\\' \\u002b+", "'\\\\'", "++");
+        ScannerTest.assertError("a \\u00g1", "Invalid escape sequence \"\\u00g1\"");
+        ScannerTest.assertError("a \\u00", "Incomplete escape sequence");
+    }
+
+    @Test public void
+    testKeywordsAndOperators() throws Exception {
+        Scanner s = Scanner.ofCharSequence(null, "synchronized>>>=true null truex >>>");
+        s.setIgnoreWhiteSpace(true);
+
+        Token t = s.produce();
+        Assert.assertEquals(TokenType.KEYWORD, t.type);
+        Assert.assertSame("synchronized", t.value);
+
+        t = s.produce();
+        Assert.assertEquals(TokenType.OPERATOR, t.type);
+        Assert.assertSame(">>>=", t.value);
+
+        Assert.assertEquals(TokenType.BOOLEAN_LITERAL, s.produce().type);
+        Assert.assertEquals(TokenType.NULL_LITERAL, s.produce().type);
+        Assert.assertEquals(TokenType.IDENTIFIER, s.produce().type);
+        Assert.assertSame(">>>", s.produce().value);
+        Assert.assertEquals(TokenType.END_OF_INPUT, s.produce().type);
+    }
+
+    /**
+     * Scans the JANINO sources from {@link CharSequence}s and from {@link Reader}s that return only a few characters
+     * at a time, and verifies that the tokens are identical.
+     */
+    @Test public void
+    testCharSequenceEqualsReader() throws Exception {
+
+        List<String> texts = new ArrayList<String>();
+        for (File f : new File("src/main/java/org/codehaus/janino").listFiles()) {
+            if (!f.getName().endsWith(".java")) continue;
+            texts.add(Readers.readAll(new FileReader(f)));
+        }
+
+        for (String text : texts) {
+            Assert.assertEquals(
+                ScannerTest.scan(new Scanner(null, new ChoppingReader(new StringReader(text), 7))),
+                ScannerTest.scan(Scanner.ofCharSequence(null, text))
+            );
+        }
+    }
+
+    private static void
+    assertTokens(String input, String... expected) throws CompileException, IOException {
+        Scanner s = Scanner.ofCharSequence(null, input);
+        s.setIgnoreWhiteSpace(true);
+        for (String e : expected) Assert.assertEquals(e, s.produce().value);
+        Assert.assertEquals(TokenType.END_OF_INPUT, s.produce().type);
+
+        // Verify that the Reader-based scanner produces the same tokens.
+        s = new Scanner(null, new ChoppingReader(new StringReader(input), 1));
+        s.setIgnoreWhiteSpace(true);
+        for (String e : expected) Assert.assertEquals(e, s.produce().value);
+        Assert.assertEquals(TokenType.END_OF_INPUT, s.produce().type);
+    }
+
+    private static void
+    assertError(String input, String expectedMessage) throws IOException {
+        try {
+            ScannerTest.scan(Scanner.ofCharSequence(null, input));
+            Assert.fail();
+        } catch (CompileException ce) {
+            Assert.assertTrue(ce.getMessage(), ce.getMessage().contains(expectedMessage));
+        }
+    }
+
+    /**
+     * @return The types, values and locations of all tokens
+     */
+    private static List<String>
+    scan(Scanner s) throws CompileException, IOException {
+        List<String> result = new ArrayList<String>();
+        for (;;) {
+            Token t = s.produce();
+            result.add(t.type + " " + t.value + " " + t.getLocation());
+            if (t.type == TokenType.END_OF_INPUT) return result;
+        }
+    }
+
+    /**
+     * Returns at most <var>chunkSize</var> characters per {@link #read(char[], int, int)}, to exercise the buffer
+     * management of the {@link Scanner}.
+     */
+    private static
+    class ChoppingReader extends FilterReader {
+
+        private final int chunkSize;
+
+        ChoppingReader(Reader in, int chunkSize) {
+            super(in);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override public int
+        read(@Nullable char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(len, this.chunkSize));
+        }
+    }
+}
@@ -73,4 +73,50 @@ class ScriptEvaluatorTest {
             Assert.assertTrue(ce.getMessage().contains("Private member cannot be accessed"));
         }
     }
+
+    @Test public void
+    testRepeatedOverloadResolution() throws Exception {
+
+        // Overload resolution is memoized; verify that the varargs handling is right for each invocation.
+        ScriptEvaluator se = new ScriptEvaluator();
+        se.setReturnType(String.class);
+        se.cook(
+            ""
+            + "class Util {\n"
+            + "    static String join(String... a) { return String.valueOf(a.length); }\n"
+            + "}\n"
+            + "\n"
+            + "String r = \"\";\n"
+            + "r += Util.join(\"a\", \"b\");\n"
+            + "r += Util.join(\"a\", \"b\");\n"
+            + "r += Util.join(new String[] { \"x\" });\n"
+            + "r += Util.join(new String[] { \"x\" });\n"
+            + "r += Util.join(\"a\", \"b\");\n"
+            + "r += Math.max(1, 2L);\n"
+            + "r += Math.max(1, 2L);\n"
+            + "return r;\n"
+        );
+        Assert.assertEquals("2211222", se.evaluate(null));
+    }
+
+    @Test public void
+    testRepeatedOverloadResolutionInDifferentAccessibilityContexts() throws Exception {
+        try {
+            new ScriptEvaluator().options(
+                EnumSet.of(JaninoOption.PRIVATE_MEMBERS_OF_ENCLOSING_AND_ENCLOSED_TYPES_INACCESSIBLE)
+            ).cook(
+                ""
+                + "class A {\n"
+                + "    private static int f(int x) { return x; }\n"
+                + "    static int g() { return A.f(1); }\n"
+                + "}\n"
+                + "class B {\n"
+                + "    static int h() { return A.f(1); }\n"
+                + "}\n"
+            );
+            Assert.fail("CompileException expected");
+        } catch (CompileException ce) {
+            Assert.assertTrue(ce.getMessage(), ce.getMessage().contains("Line 6"));
+        }
+    }
 }